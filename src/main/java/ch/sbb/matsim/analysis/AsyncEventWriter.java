@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsManagerImpl;
+import org.matsim.core.events.algorithms.EventWriter;
+import org.matsim.core.events.handler.BasicEventHandler;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Passes all events to an {@link EventWriter} that runs on its own consumer thread, so the writer's work
+ * (including writing its files) does not slow down the thread processing the events, e.g. the mobsim.
+ *
+ * The events are collected in batches. A fixed number of batches circulates between the producer and the
+ * consumer like in a ring buffer: if the consumer cannot keep up and all batches are full, the producer
+ * blocks until the consumer has processed a batch. The number and duration of such blocks are logged when
+ * the file is closed, together with the maximum number of queued batches.
+ *
+ * The events are passed to the writer in the same order as they were received, and so are calls to
+ * {@link #reset(int)}. {@link #closeFile()} waits until the writer has processed all events and closed its files.
+ * If the writer fails, the exception is re-thrown by the next call to {@link #handleEvent(Event)} or {@link #closeFile()}.
+ *
+ * @author mrieser / SBB
+ */
+public class AsyncEventWriter implements EventWriter, BasicEventHandler {
+
+    private final static Logger log = Logger.getLogger(AsyncEventWriter.class);
+
+    static final int BATCH_SIZE = 1024;
+    static final int DEFAULT_BATCH_COUNT = 64;
+
+    private final EventWriter delegate;
+    private final String name;
+    private final int batchCount;
+    private final BlockingQueue<Batch> fullBatches;
+    private final BlockingQueue<Batch> freeBatches;
+    private final Thread consumer;
+    private volatile Throwable failure = null;
+
+    // only accessed by the producer
+    private Batch currentBatch;
+    private long eventCount = 0;
+    private long blockedCount = 0;
+    private long blockedNanos = 0;
+    private int maxQueuedBatches = 0;
+    private boolean closed = false;
+
+    public AsyncEventWriter(EventWriter delegate) {
+        this(delegate, DEFAULT_BATCH_COUNT);
+    }
+
+    /**
+     * @param batchCount the number of batches of {@link #BATCH_SIZE} events that can be buffered, at least 2
+     */
+    public AsyncEventWriter(EventWriter delegate, int batchCount) {
+        if (batchCount < 2) {
+            throw new IllegalArgumentException("At least 2 batches are required, got " + batchCount);
+        }
+        this.delegate = delegate;
+        this.name = delegate.getClass().getSimpleName();
+        this.batchCount = batchCount;
+        this.fullBatches = new ArrayBlockingQueue<>(batchCount);
+        this.freeBatches = new ArrayBlockingQueue<>(batchCount);
+        for (int i = 1; i < batchCount; i++) {
+            this.freeBatches.add(new Batch());
+        }
+        this.currentBatch = new Batch();
+
+        // the writer only handles events passed by its own events manager, so it only gets the event types it is interested in
+        EventsManager dispatcher = new EventsManagerImpl();
+        dispatcher.addHandler(delegate);
+        this.consumer = new Thread(() -> consume(dispatcher), "AsyncEventWriter-" + this.name);
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    public EventWriter getDelegate() {
+        return this.delegate;
+    }
+
+    @Override
+    public void handleEvent(Event event) {
+        checkFailure();
+        Batch batch = this.currentBatch;
+        batch.events[batch.size] = event;
+        batch.size++;
+        this.eventCount++;
+        if (batch.size == BATCH_SIZE) {
+            submitCurrentBatch();
+        }
+    }
+
+    @Override
+    public void reset(int iteration) {
+        checkFailure();
+        this.currentBatch.resetIteration = iteration;
+        submitCurrentBatch();
+    }
+
+    @Override
+    public void closeFile() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.currentBatch.close = true;
+        this.fullBatches.add(this.currentBatch);
+        this.currentBatch = null;
+        try {
+            this.consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while waiting for " + this.name + " to finish.", e);
+        }
+        log.info(this.name + ": " + this.eventCount + " events, max " + this.maxQueuedBatches + " of " + this.batchCount
+                + " batches queued, producer blocked " + this.blockedCount + " times for " + (this.blockedNanos / 1_000_000) + " ms in total.");
+        checkFailure();
+    }
+
+    private void submitCurrentBatch() {
+        // never blocks, as there are never more batches than the queue's capacity
+        this.fullBatches.add(this.currentBatch);
+        this.maxQueuedBatches = Math.max(this.maxQueuedBatches, this.fullBatches.size());
+        Batch batch = this.freeBatches.poll();
+        if (batch == null) {
+            // the consumer cannot keep up, wait for it
+            long start = System.nanoTime();
+            try {
+                batch = this.freeBatches.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("interrupted while waiting for " + this.name + ".", e);
+            }
+            this.blockedNanos += System.nanoTime() - start;
+            this.blockedCount++;
+        }
+        this.currentBatch = batch;
+    }
+
+    private void consume(EventsManager dispatcher) {
+        try {
+            while (true) {
+                Batch batch = this.fullBatches.take();
+                if (this.failure == null) {
+                    try {
+                        for (int i = 0; i < batch.size; i++) {
+                            dispatcher.processEvent(batch.events[i]);
+                        }
+                        if (batch.resetIteration >= 0) {
+                            dispatcher.resetHandlers(batch.resetIteration);
+                        }
+                        if (batch.close) {
+                            this.delegate.closeFile();
+                        }
+                    } catch (Throwable t) {
+                        log.error(this.name + " failed.", t);
+                        this.failure = t;
+                    }
+                }
+                // after a failure, the batches are only recycled so the producer is never blocked forever
+                if (batch.close) {
+                    return;
+                }
+                batch.clear();
+                this.freeBatches.add(batch);
+            }
+        } catch (InterruptedException e) {
+            this.failure = e;
+        }
+    }
+
+    private void checkFailure() {
+        Throwable t = this.failure;
+        if (t != null) {
+            throw new RuntimeException(this.name + " failed while processing events asynchronously.", t);
+        }
+    }
+
+    private static class Batch {
+        final Event[] events = new Event[BATCH_SIZE];
+        int size = 0;
+        int resetIteration = -1;
+        boolean close = false;
+
+        void clear() {
+            for (int i = 0; i < this.size; i++) {
+                this.events[i] = null;
+            }
+            this.size = 0;
+            this.resetIteration = -1;
+        }
+    }
+}
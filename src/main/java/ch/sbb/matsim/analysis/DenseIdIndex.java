@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis;
+
+import org.matsim.api.core.v01.Id;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns consecutive integer indices, starting at 0, to {@link Id}s, so state per object can be kept in arrays
+ * instead of maps. Resolving an id to its index requires one hash lookup, all further accesses to the state
+ * of the object are plain array accesses.
+ *
+ * Indices are never removed or re-assigned.
+ *
+ * @author mrieser / SBB
+ */
+public final class DenseIdIndex<T> {
+
+    private final Map<Id<T>, Integer> indices;
+    private final List<Id<T>> ids;
+
+    public DenseIdIndex() {
+        this(16);
+    }
+
+    public DenseIdIndex(int expectedSize) {
+        this.indices = new HashMap<>(Math.max(16, (int) (expectedSize / 0.75) + 1));
+        this.ids = new ArrayList<>(expectedSize);
+    }
+
+    /**
+     * Returns the index of the id, assigning the next free index if the id is not yet known.
+     */
+    public int getOrAdd(Id<T> id) {
+        Integer index = this.indices.get(id);
+        if (index != null) {
+            return index;
+        }
+        int newIndex = this.ids.size();
+        this.indices.put(id, newIndex);
+        this.ids.add(id);
+        return newIndex;
+    }
+
+    /**
+     * Returns the index of the id, or -1 if the id has no index.
+     */
+    public int get(Id<T> id) {
+        Integer index = this.indices.get(id);
+        return index == null ? -1 : index;
+    }
+
+    public Id<T> getId(int index) {
+        return this.ids.get(index);
+    }
+
+    /**
+     * Returns the number of indexed ids, which is also the next index assigned.
+     */
+    public int size() {
+        return this.ids.size();
+    }
+}
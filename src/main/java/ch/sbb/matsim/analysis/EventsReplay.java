@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsManagerImpl;
+import org.matsim.core.events.EventsReaderXMLv1;
+import org.matsim.core.events.algorithms.EventWriter;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.core.events.handler.EventHandler;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads an events file once and passes the events to any number of analyzers, so running multiple analyses
+ * on the events of a simulation only requires parsing the (large) events file once.
+ *
+ * The work is pipelined on multiple threads:
+ * <ul>
+ *     <li>a reader thread reads and decompresses the file into chunks,</li>
+ *     <li>the calling thread parses the XML and passes the events to the handlers added with {@link #addHandler(EventHandler)},</li>
+ *     <li>each {@link EventWriter} added with {@link #addWriter(EventWriter)} runs on its own thread in an
+ *     {@link AsyncEventWriter}, unless disabled in the constructor.</li>
+ * </ul>
+ * The progress and the throughput in events per second are logged regularly and at the end.
+ *
+ * @author mrieser / SBB
+ */
+public final class EventsReplay {
+
+    private final static Logger log = Logger.getLogger(EventsReplay.class);
+
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int QUEUED_CHUNKS = 64;
+    private static final long PROGRESS_INTERVAL_NANOS = 30_000_000_000L;
+
+    private final EventsManager events;
+    private final boolean asyncWriters;
+    private final List<EventWriter> writers = new ArrayList<>();
+
+    public EventsReplay() {
+        this(new EventsManagerImpl(), true);
+    }
+
+    /**
+     * @param events the events manager passing the events to the handlers, may already contain handlers
+     * @param asyncWriters whether the writers added with {@link #addWriter(EventWriter)} run on their own threads
+     */
+    public EventsReplay(EventsManager events, boolean asyncWriters) {
+        this.events = events;
+        this.asyncWriters = asyncWriters;
+    }
+
+    /**
+     * Adds a handler that processes the events on the thread calling {@link #run(String)}.
+     */
+    public EventsReplay addHandler(EventHandler handler) {
+        this.events.addHandler(handler);
+        return this;
+    }
+
+    /**
+     * Adds a writer that is closed with {@link EventWriter#closeFile()} after all events are replayed.
+     */
+    public EventsReplay addWriter(EventWriter writer) {
+        EventWriter eventWriter = this.asyncWriters ? new AsyncEventWriter(writer) : writer;
+        this.events.addHandler(eventWriter);
+        this.writers.add(eventWriter);
+        return this;
+    }
+
+    /**
+     * Replays all events of the given file, which may be gzip-compressed, and closes the writers.
+     *
+     * @return the number of replayed events
+     */
+    public long run(String eventsFilename) throws IOException {
+        File file = new File(eventsFilename);
+        log.info("replaying events from " + file.getAbsolutePath() + " to " + this.writers.size() + " writers");
+        ProgressHandler progress;
+        try (PipelinedInputStream stream = new PipelinedInputStream(file)) {
+            progress = new ProgressHandler(stream, file.length());
+            this.events.addHandler(progress);
+            try {
+                new EventsReaderXMLv1(this.events).parse(stream);
+            } finally {
+                this.events.removeHandler(progress);
+            }
+        }
+        for (EventWriter writer : this.writers) {
+            writer.closeFile();
+        }
+        progress.logFinished();
+        return progress.eventCount;
+    }
+
+    private static final class ProgressHandler implements BasicEventHandler {
+
+        private final PipelinedInputStream stream;
+        private final long fileSize;
+        private final long startNanos = System.nanoTime();
+        private long nextLogNanos = this.startNanos + PROGRESS_INTERVAL_NANOS;
+        long eventCount = 0;
+
+        ProgressHandler(PipelinedInputStream stream, long fileSize) {
+            this.stream = stream;
+            this.fileSize = fileSize;
+        }
+
+        @Override
+        public void handleEvent(Event event) {
+            this.eventCount++;
+            // only check the time every few events, System.nanoTime() is not free
+            if ((this.eventCount & 0xffff) == 0 && System.nanoTime() > this.nextLogNanos) {
+                this.nextLogNanos += PROGRESS_INTERVAL_NANOS;
+                long bytesRead = this.stream.getBytesRead();
+                log.info("replayed " + this.eventCount + " events, " + getEventsPerSecond() + " events/s, "
+                        + (bytesRead >> 20) + " of " + (this.fileSize >> 20) + " MB read ("
+                        + (this.fileSize > 0 ? 100 * bytesRead / this.fileSize : 100) + "%)");
+            }
+        }
+
+        @Override
+        public void reset(int iteration) {
+        }
+
+        void logFinished() {
+            double seconds = (System.nanoTime() - this.startNanos) / 1e9;
+            log.info("replayed " + this.eventCount + " events in " + String.format("%.1f", seconds) + " s, " + getEventsPerSecond() + " events/s");
+        }
+
+        private long getEventsPerSecond() {
+            long nanos = Math.max(1, System.nanoTime() - this.startNanos);
+            return (long) (this.eventCount * 1e9 / nanos);
+        }
+    }
+
+    /**
+     * Reads and decompresses the file on its own thread into a bounded queue of chunks,
+     * so the decompression runs in parallel to the parsing.
+     */
+    private static final class PipelinedInputStream extends InputStream {
+
+        private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+        private final BlockingQueue<ByteBuffer> chunks = new ArrayBlockingQueue<>(QUEUED_CHUNKS);
+        private final Thread reader;
+        private volatile long bytesRead = 0;
+        private volatile IOException failure = null;
+        private volatile boolean closed = false;
+        private ByteBuffer current = null;
+
+        PipelinedInputStream(File file) throws IOException {
+            InputStream in = new FilterInputStream(new FileInputStream(file)) {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int count = super.read(b, off, len);
+                    if (count > 0) {
+                        PipelinedInputStream.this.bytesRead += count;
+                    }
+                    return count;
+                }
+            };
+            InputStream source = file.getName().endsWith(".gz") ? new GZIPInputStream(in, CHUNK_SIZE) : in;
+            this.reader = new Thread(() -> readChunks(source), "EventsReplay-reader");
+            this.reader.setDaemon(true);
+            this.reader.start();
+        }
+
+        long getBytesRead() {
+            return this.bytesRead;
+        }
+
+        private void readChunks(InputStream source) {
+            try (InputStream in = source) {
+                while (!this.closed) {
+                    byte[] chunk = new byte[CHUNK_SIZE];
+                    int length = 0;
+                    int count = 0;
+                    while (length < CHUNK_SIZE && (count = in.read(chunk, length, CHUNK_SIZE - length)) >= 0) {
+                        length += count;
+                    }
+                    if (length > 0) {
+                        this.chunks.put(ByteBuffer.wrap(chunk, 0, length));
+                    }
+                    if (count < 0) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                this.failure = e;
+            } catch (InterruptedException e) {
+                this.failure = new IOException("interrupted while reading events.", e);
+            }
+            try {
+                this.chunks.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private boolean nextChunk() throws IOException {
+            if (this.current == END) {
+                return false;
+            }
+            try {
+                this.current = this.chunks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while reading events.", e);
+            }
+            if (this.current == END) {
+                IOException e = this.failure;
+                if (e != null) {
+                    throw new IOException("Could not read events.", e);
+                }
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            while (this.current == null || !this.current.hasRemaining()) {
+                if (!nextChunk()) {
+                    return -1;
+                }
+            }
+            return this.current.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (this.current == null || !this.current.hasRemaining()) {
+                if (!nextChunk()) {
+                    return -1;
+                }
+            }
+            int count = Math.min(len, this.current.remaining());
+            this.current.get(b, off, count);
+            return count;
+        }
+
+        /**
+         * Stops the reader, e.g. if parsing failed before the end of the file.
+         */
+        @Override
+        public void close() {
+            this.closed = true;
+            // make room in the queue, so the reader is not blocked and sees the closed flag
+            while (this.current != END && this.reader.isAlive()) {
+                this.current = this.chunks.poll();
+                if (this.current == null) {
+                    try {
+                        this.reader.join(10);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -11,6 +11,12 @@ import ch.sbb.matsim.analysis.travelcomponents.Transfer;
 import ch.sbb.matsim.analysis.travelcomponents.TravellerChain;
 import ch.sbb.matsim.analysis.travelcomponents.Trip;
 import ch.sbb.matsim.config.PostProcessingConfigGroup;
+import ch.sbb.matsim.csv.AsyncTextWriter;
+import ch.sbb.matsim.csv.CSVWriter;
+import ch.sbb.matsim.csv.ColumnarTableWriter;
+import ch.sbb.matsim.csv.ColumnarTableWriter.ColumnType;
+import ch.sbb.matsim.csv.RowFormatter;
+import ch.sbb.matsim.csv.RowWriter;
 import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
@@ -53,14 +59,15 @@ import org.matsim.pt.transitSchedule.api.Departure;
 import org.matsim.pt.transitSchedule.api.TransitLine;
 import org.matsim.pt.transitSchedule.api.TransitRoute;
 import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.vehicles.Vehicle;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
 
 /**
  * @author pieterfourie, sergioo
@@ -69,6 +76,20 @@ import java.util.Set;
  *         tables. Originally designed for transit scenarios with full transit
  *         simulation, but should work with most teleported modes
  *         </p>
+ *         <p>
+ *         The state of persons and vehicles is kept in arrays, using dense indices assigned by a
+ *         {@link DenseIdIndex}. So each event only requires a single lookup of its person or vehicle id,
+ *         the passengers of each transit vehicle are stored in an {@link IntDoubleHashMap}.
+ *         </p>
+ *         <p>
+ *         If {@link PostProcessingConfigGroup#getStreamTravelDiaries()} is set, the journeys of a person are
+ *         written as soon as the next real activity starts and are then removed from memory, together with
+ *         the preceding activities. The remaining activities and journeys are written when the file is closed.
+ *         </p>
+ *         <p>
+ *         If {@link PostProcessingConfigGroup#getColumnarTables()} is set, each table is written as a directory
+ *         with one file per column by a {@link ColumnarTableWriter} instead of a text file.
+ *         </p>
  */
 
 public class EventsToTravelDiaries implements
@@ -88,14 +109,23 @@ public class EventsToTravelDiaries implements
 
     private String filename;
 
-    private Map<Id, TravellerChain> chains = new HashMap<>();
-    private Map<Id, PTVehicle> ptVehicles = new HashMap<>();
-    private HashSet<Id> transitDriverIds = new HashSet<>();
-    private HashMap<Id, Id> driverIdFromVehicleId = new HashMap<>();
+    private final DenseIdIndex<Person> personIndex;
+    private final DenseIdIndex<Vehicle> vehicleIndex = new DenseIdIndex<>();
+    // indexed by person index
+    private TravellerChain[] chains;
+    private BitSet transitDrivers = new BitSet();
+    // indexed by vehicle index
+    private PTVehicle[] ptVehicles = new PTVehicle[0];
+    private int[] driverIndexByVehicle = new int[0];
     private int stuck = 0;
     private TransitSchedule transitSchedule;
     private boolean isTransitScenario = false;
     private boolean writeVisumPuTSurvey = false;
+    private boolean streaming = false;
+    private boolean columnar = false;
+    private DiaryTablesWriter streamWriter = null;
+    private VisumPuTSurvey visumPuTSurvey = null;
+    private CSVWriter visumStreamWriter = null;
     private LocateAct locateAct = null;
     private Config config;
     private Scenario scenario;
@@ -106,6 +136,12 @@ public class EventsToTravelDiaries implements
         this.scenario = scenario;
 
         this.network = scenario.getNetwork();
+        // index the persons in advance, so the chains are sized correctly and written in the order of the population
+        this.personIndex = new DenseIdIndex<>(scenario.getPopulation().getPersons().size());
+        for (Id<Person> personId : scenario.getPopulation().getPersons().keySet()) {
+            this.personIndex.getOrAdd(personId);
+        }
+        this.chains = new TravellerChain[this.personIndex.size()];
         isTransitScenario = scenario.getConfig().transit().isUseTransit();
 
         if (isTransitScenario) {
@@ -122,37 +158,88 @@ public class EventsToTravelDiaries implements
         if (ppConfig.getWriteVisumPuTSurvey()) {
             this.writeVisumPuTSurvey = true;
         }
+
+        if (ppConfig.getStreamTravelDiaries()) {
+            this.streaming = true;
+        }
+
+        if (ppConfig.getColumnarTables()) {
+            this.columnar = true;
+        }
     }
 
     private void readVehiclesFromSchedule() {
         for (TransitLine tL : this.transitSchedule.getTransitLines().values()) {
             for (TransitRoute tR : tL.getRoutes().values()) {
                 for (Departure dep : tR.getDepartures().values()) {
-                    Id<org.matsim.vehicles.Vehicle> vehicleId = dep.getVehicleId();
-                    if (ptVehicles.containsKey(vehicleId)) {
+                    Id<Vehicle> vehicleId = dep.getVehicleId();
+                    int vehicleIndex = getOrAddVehicleIndex(vehicleId);
+                    if (this.ptVehicles[vehicleIndex] != null) {
                         log.error("vehicleId already in Map!");
                     } else {
-                        this.ptVehicles.put(vehicleId, new PTVehicle(tL.getId(), tR.getId(), vehicleId));
+                        this.ptVehicles[vehicleIndex] = new PTVehicle(tL.getId(), tR.getId(), vehicleId);
                     }
                 }
             }
         }
     }
 
-    private boolean isTransitDriver(Id<Person> personId) {
-        return isTransitScenario && transitDriverIds.contains(personId);
+    private int getOrAddPersonIndex(Id<Person> personId) {
+        int index = this.personIndex.getOrAdd(personId);
+        if (index >= this.chains.length) {
+            this.chains = Arrays.copyOf(this.chains, Math.max(index + 1, 2 * this.chains.length));
+        }
+        return index;
+    }
+
+    private int getOrAddVehicleIndex(Id<Vehicle> vehicleId) {
+        int index = this.vehicleIndex.getOrAdd(vehicleId);
+        if (index >= this.ptVehicles.length) {
+            int newLength = Math.max(index + 1, 2 * this.ptVehicles.length);
+            int oldLength = this.driverIndexByVehicle.length;
+            this.ptVehicles = Arrays.copyOf(this.ptVehicles, newLength);
+            this.driverIndexByVehicle = Arrays.copyOf(this.driverIndexByVehicle, newLength);
+            Arrays.fill(this.driverIndexByVehicle, oldLength, newLength, -1);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the chain of the person with the given index, or <code>null</code> if there is none.
+     */
+    private TravellerChain getChain(int personIndex) {
+        return personIndex < 0 ? null : this.chains[personIndex];
+    }
+
+    /**
+     * Returns the transit vehicle with the given index, or <code>null</code> if it is not a transit vehicle.
+     */
+    private PTVehicle getPtVehicle(int vehicleIndex) {
+        return vehicleIndex < 0 ? null : this.ptVehicles[vehicleIndex];
+    }
+
+    /**
+     * Returns the index of the person driving the given non-transit vehicle, or -1 if it is unknown.
+     */
+    private int getDriverIndex(int vehicleIndex) {
+        return vehicleIndex < 0 ? -1 : this.driverIndexByVehicle[vehicleIndex];
+    }
+
+    private boolean isTransitDriver(int personIndex) {
+        return isTransitScenario && personIndex >= 0 && this.transitDrivers.get(personIndex);
     }
 
     @Override
     public void handleEvent(ActivityEndEvent event) {
         try {
-            if (isTransitDriver(event.getPersonId())) {
+            int personIndex = getOrAddPersonIndex(event.getPersonId());
+            if (isTransitDriver(personIndex)) {
                 return;
             }
-            TravellerChain chain = chains.get(event.getPersonId());
+            TravellerChain chain = chains[personIndex];
             if (chain == null) {
                 chain = new TravellerChain(this.config);
-                chains.put(event.getPersonId(), chain);
+                chains[personIndex] = chain;
                 Activity act = chain.addActivity();
                 act.setCoord(network.getLinks().get(event.getLinkId()).getCoord());
                 act.setEndTime(event.getTime());
@@ -172,10 +259,11 @@ public class EventsToTravelDiaries implements
     @Override
     public void handleEvent(ActivityStartEvent event) {
         try {
-            if (isTransitDriver(event.getPersonId())) {
+            int personIndex = this.personIndex.get(event.getPersonId());
+            if (isTransitDriver(personIndex)) {
                 return;
             }
-            TravellerChain chain = chains.get(event.getPersonId());
+            TravellerChain chain = getChain(personIndex);
             if (event.getActType().equals(PtConstants.TRANSIT_ACTIVITY_TYPE) || event.getActType().contains("interaction")) {
                 chain.setInPT(true);
 
@@ -192,6 +280,9 @@ public class EventsToTravelDiaries implements
                 journey.setDest(act.getCoord());
                 journey.setEndTime(event.getTime());
                 journey.setToAct(act);
+                if (this.streaming) {
+                    writeCompletedElements(personIndex, chain);
+                }
             }
         } catch (Exception e) {
             log.error("Exception while handling event " + event.toString(), e);
@@ -201,10 +292,11 @@ public class EventsToTravelDiaries implements
     @Override
     public void handleEvent(PersonArrivalEvent event) {
         try {
-            if (isTransitDriver(event.getPersonId())) {
+            int personIndex = this.personIndex.get(event.getPersonId());
+            if (isTransitDriver(personIndex)) {
                 return;
             }
-            TravellerChain chain = chains.get(event.getPersonId());
+            TravellerChain chain = getChain(personIndex);
             Journey journey = chain.getJourneys().getLast();
             journey.setEndTime(event.getTime());
             journey.setDest(network.getLinks().get(event.getLinkId()).getCoord());
@@ -220,10 +312,11 @@ public class EventsToTravelDiaries implements
     @Override
     public void handleEvent(PersonDepartureEvent event) {
         try {
-            if (isTransitDriver(event.getPersonId())) {
+            int personIndex = this.personIndex.get(event.getPersonId());
+            if (isTransitDriver(personIndex)) {
                 return;
             }
-            TravellerChain chain = chains.get(event.getPersonId());
+            TravellerChain chain = getChain(personIndex);
             Journey journey;
             Trip trip;
             if (!chain.isInPT()) {
@@ -247,8 +340,9 @@ public class EventsToTravelDiaries implements
     @Override
     public void handleEvent(PersonStuckEvent event) {
         try {
-            if (!isTransitDriver(event.getPersonId())) {
-                TravellerChain chain = chains.get(event.getPersonId());
+            int personIndex = this.personIndex.get(event.getPersonId());
+            if (!isTransitDriver(personIndex)) {
+                TravellerChain chain = getChain(personIndex);
                 setStuck(getStuck() + 1);
                 chain.setStucked();
                 if (chain.getJourneys().size() > 0)
@@ -262,15 +356,17 @@ public class EventsToTravelDiaries implements
     @Override
     public void handleEvent(PersonEntersVehicleEvent event) {
         try {
-            if (isTransitDriver(event.getPersonId()))
+            int personIndex = getOrAddPersonIndex(event.getPersonId());
+            if (isTransitDriver(personIndex))
                 return;
-            if (ptVehicles.containsKey(event.getVehicleId())) {
-                TravellerChain chain = chains.get(event.getPersonId());
+            int vehicleIndex = getOrAddVehicleIndex(event.getVehicleId());
+            PTVehicle vehicle = ptVehicles[vehicleIndex];
+            if (vehicle != null) {
+                TravellerChain chain = chains[personIndex];
                 Journey journey = chain.getJourneys().getLast();
                 // first, handle the end of the wait
                 // now, create a new trip
-                PTVehicle vehicle = ptVehicles.get(event.getVehicleId());
-                vehicle.addPassenger(event.getPersonId());
+                vehicle.addPassenger(personIndex);
                 Trip trip = journey.getTrips().getLast();
                 trip.setLine(vehicle.transitLineId);
                 trip.setVehicleId(event.getVehicleId());
@@ -280,12 +376,12 @@ public class EventsToTravelDiaries implements
                 trip.setBoardingStop(vehicle.lastStop);
                 // trip.setOrig(network.getLinks().get(event.getLinkId()).getCoord());
                 // trip.setOrig(journey.getWaits().getLast().getCoord());
-                trip.setRoute(ptVehicles.get(event.getVehicleId()).transitRouteId);
+                trip.setRoute(vehicle.transitRouteId);
                 trip.setStartTime(event.getTime());
                 // check for the end of a transfer
             } else {
                 // add the person to the map that keeps track of who drives what
-                driverIdFromVehicleId.put(event.getVehicleId(), event.getPersonId());
+                driverIndexByVehicle[vehicleIndex] = personIndex;
             }
         } catch (Exception e) {
             log.error("Exception while handling event " + event.toString(), e);
@@ -294,19 +390,21 @@ public class EventsToTravelDiaries implements
 
     @Override
     public void handleEvent(PersonLeavesVehicleEvent event) {
-        if (isTransitDriver(event.getPersonId()))
+        int personIndex = this.personIndex.get(event.getPersonId());
+        if (isTransitDriver(personIndex))
             return;
         try {
-            if (ptVehicles.containsKey(event.getVehicleId())) {
-                TravellerChain chain = chains.get(event.getPersonId());
+            int vehicleIndex = this.vehicleIndex.get(event.getVehicleId());
+            PTVehicle vehicle = getPtVehicle(vehicleIndex);
+            if (vehicle != null) {
+                TravellerChain chain = getChain(personIndex);
                 chain.traveledVehicle = true;
-                PTVehicle vehicle = ptVehicles.get(event.getVehicleId());
-                double stageDistance = vehicle.removePassenger(event.getPersonId());
+                double stageDistance = vehicle.removePassenger(personIndex);
                 Trip trip = chain.getJourneys().getLast().getTrips().getLast();
                 trip.setDistance(stageDistance);
                 trip.setAlightingStop(vehicle.lastStop);
-            } else {
-                driverIdFromVehicleId.remove(event.getVehicleId());
+            } else if (vehicleIndex >= 0) {
+                driverIndexByVehicle[vehicleIndex] = -1;
             }
 
         } catch (Exception e) {
@@ -317,12 +415,13 @@ public class EventsToTravelDiaries implements
     @Override
     public void handleEvent(LinkEnterEvent event) {
         try {
-            if (ptVehicles.containsKey(event.getVehicleId())) {
-                PTVehicle ptVehicle = ptVehicles.get(event.getVehicleId());
+            int vehicleIndex = this.vehicleIndex.get(event.getVehicleId());
+            PTVehicle ptVehicle = getPtVehicle(vehicleIndex);
+            if (ptVehicle != null) {
                 ptVehicle.in = true;
                 ptVehicle.setLinkEnterTime(event.getTime());
             } else {
-                chains.get(driverIdFromVehicleId.get(event.getVehicleId())).setLinkEnterTime(event.getTime());
+                getChain(getDriverIndex(vehicleIndex)).setLinkEnterTime(event.getTime());
             }
 
         } catch (Exception e) {
@@ -334,14 +433,15 @@ public class EventsToTravelDiaries implements
     @Override
     public void handleEvent(LinkLeaveEvent event) {
         try {
-            if (ptVehicles.containsKey(event.getVehicleId())) {
-                PTVehicle vehicle = ptVehicles.get(event.getVehicleId());
+            int vehicleIndex = this.vehicleIndex.get(event.getVehicleId());
+            PTVehicle vehicle = getPtVehicle(vehicleIndex);
+            if (vehicle != null) {
                 if (vehicle.in)
                     vehicle.in = false;
                 vehicle.incDistance(network.getLinks().get(event.getLinkId()).getLength());
 
             } else {
-                TravellerChain chain = chains.get(driverIdFromVehicleId.get(event.getVehicleId()));
+                TravellerChain chain = getChain(getDriverIndex(vehicleIndex));
                 Trip trip = chain.getJourneys().getLast().getTrips().getLast();
                 trip.incrementDistance(network.getLinks().get(event.getLinkId()).getLength());
             }
@@ -353,11 +453,10 @@ public class EventsToTravelDiaries implements
     @Override
     public void handleEvent(TransitDriverStartsEvent event) {
         try {
-            ptVehicles.put(
-                    event.getVehicleId(),
-                    new PTVehicle(event.getTransitLineId(), event.getTransitRouteId(),
-                            event.getVehicleId()));
-            transitDriverIds.add(event.getDriverId());
+            int vehicleIndex = getOrAddVehicleIndex(event.getVehicleId());
+            ptVehicles[vehicleIndex] = new PTVehicle(event.getTransitLineId(), event.getTransitRouteId(),
+                    event.getVehicleId());
+            transitDrivers.set(getOrAddPersonIndex(event.getDriverId()));
         } catch (Exception e) {
             log.error("Exception while handling event " + event.toString(), e);
         }
@@ -366,9 +465,10 @@ public class EventsToTravelDiaries implements
     @Override
     public void handleEvent(TeleportationArrivalEvent event) {
         try {
-            if (isTransitDriver(event.getPersonId()))
+            int personIndex = this.personIndex.get(event.getPersonId());
+            if (isTransitDriver(personIndex))
                 return;
-            TravellerChain chain = chains.get(event.getPersonId());
+            TravellerChain chain = getChain(personIndex);
             Journey journey = chain.getJourneys().getLast();
             Trip trip = journey.getTrips().getLast();
             trip.setDistance((int) event.getDistance());
@@ -382,13 +482,13 @@ public class EventsToTravelDiaries implements
     @Override
     public void handleEvent(VehicleDepartsAtFacilityEvent event) {
         try {
-            PTVehicle pt_vehicle = ptVehicles.get(event.getVehicleId());
-            for (Id passenger_id : pt_vehicle.getPassengersId()) {
-                TravellerChain chain = chains.get(passenger_id);
+            PTVehicle pt_vehicle = getPtVehicle(this.vehicleIndex.get(event.getVehicleId()));
+            pt_vehicle.passengers.forEachKey(passengerIndex -> {
+                TravellerChain chain = chains[passengerIndex];
                 Trip trip = chain.getJourneys().getLast().getTrips().getLast();
                 trip.setPtDepartureTime(event.getTime());
                 trip.setDepartureDelay(event.getDelay());
-            }
+            });
 
         } catch (Exception e) {
             log.error("Exception while handling event " + event.toString(), e);
@@ -398,7 +498,7 @@ public class EventsToTravelDiaries implements
     @Override
     public void handleEvent(VehicleArrivesAtFacilityEvent event) {
         try {
-            PTVehicle ptVehicle = ptVehicles.get(event.getVehicleId());
+            PTVehicle ptVehicle = getPtVehicle(this.vehicleIndex.get(event.getVehicleId()));
             ptVehicle.lastStop = event.getFacilityId();
         } catch (Exception e) {
             log.error("Exception while handling event " + event.toString(), e);
@@ -408,207 +508,128 @@ public class EventsToTravelDiaries implements
     // Methods
     @Override
     public void reset(int iteration) {
-        chains = new HashMap<>();
-        ptVehicles = new HashMap<>();
-        transitDriverIds = new HashSet<>();
-        driverIdFromVehicleId = new HashMap<>();
+        // the indices stay valid, only the state is cleared
+        chains = new TravellerChain[this.personIndex.size()];
+        ptVehicles = new PTVehicle[this.vehicleIndex.size()];
+        transitDrivers = new BitSet();
+        driverIndexByVehicle = new int[this.vehicleIndex.size()];
+        Arrays.fill(driverIndexByVehicle, -1);
     }
 
+
     public void setMapActToZone(String shapefile, String attribute) {
         this.locateAct = new LocateAct(shapefile, attribute);
     }
 
     public void writeSimulationResultsToTabSeparated(String appendage) throws IOException {
-        String actTableName;
-        String journeyTableName;
-        String transferTableName;
-        String tripTableName;
-
-        if (appendage.matches("[a-zA-Z0-9]*[_]*")) {
-            actTableName = appendage + "matsim_activities.txt";
-            journeyTableName = appendage + "matsim_journeys.txt";
-            transferTableName = appendage + "matsim_transfers.txt";
-            tripTableName = appendage + "matsim_trips.txt";
-        } else {
-            if (appendage.matches("[a-zA-Z0-9]*"))
-                appendage = "_" + appendage;
-            actTableName = "matsim_activities" + appendage + ".txt";
-            journeyTableName = "matsim_journeys" + appendage + ".txt";
-            transferTableName = "matsim_transfers" + appendage + ".txt";
-            tripTableName = "matsim_trips" + appendage + ".txt";
-        }
-        BufferedWriter activityWriter = IOUtils.getBufferedWriter(this.filename + actTableName);
-
-        activityWriter.write("activity_id\tperson_id\tfacility_id\ttype\t" +
-                "start_time\tend_time\tx\ty\tsample_selector\tzone\n");
-
-        BufferedWriter journeyWriter = IOUtils.getBufferedWriter(this.filename + journeyTableName);
-        journeyWriter.write("journey_id\tperson_id\tstart_time\t" +
-                "end_time\tdistance\tmain_mode\tmain_mode_mikrozensus\tfrom_act\tto_act\t" +
-                "in_vehicle_distance\tin_vehicle_time\t" +
-                "access_walk_distance\taccess_walk_time\taccess_wait_time\t" +
-                "first_boarding_stop\tegress_walk_distance\t" +
-                "egress_walk_time\tlast_alighting_stop\t" +
-                "transfer_walk_distance\ttransfer_walk_time\t" +
-                "transfer_wait_time\tsample_selector\tstucked\n");
-
-        BufferedWriter tripWriter = IOUtils.getBufferedWriter(this.filename + tripTableName);
-        tripWriter.write("trip_id\tjourney_id\tstart_time\tend_time\t" +
-                "distance\tmode\tline\troute\tboarding_stop\t" +
-                "alighting_stop\tdeparture_time\tdeparture_delay\tsample_selector\t" +
-                 "from_x\tfrom_y\tto_x\tto_y\tprevious_trip_id\tnext_trip_id\n");
-
-        BufferedWriter transferWriter = IOUtils.getBufferedWriter(this.filename + transferTableName);
-        transferWriter.write("transfer_id\tjourney_id\tstart_time\t" +
-                "end_time\tfrom_trip\tto_trip\twalk_distance\t" +
-                "walk_time\twait_time\tsample_selector\n");
-
-        // read a static field that increments with every inheriting object constructed
-        Counter counter = new Counter("Output lines written: ");
-        for (Entry<Id, TravellerChain> entry : chains.entrySet()) {
-            String pax_id = entry.getKey().toString();
-            TravellerChain chain = entry.getValue();
+        DiaryTablesWriter writer = new DiaryTablesWriter(appendage);
+        for (int personIndex = 0; personIndex < chains.length; personIndex++) {
+            TravellerChain chain = chains[personIndex];
+            if (chain == null) {
+                continue;
+            }
+            String pax_id = this.personIndex.getId(personIndex).toString();
             for (Activity act : chain.getActs()) {
-                try {
-                    activityWriter.write(String.format(
-                            "%d\t%s\t%s\t%s\t%d\t%d\t%f\t%f\t%f\t%s\n",
-                            act.getElementId(), pax_id,
-                            act.getFacility(), act.getType(),
-                            (int) act.getStartTime(),
-                            (int) act.getEndTime(),
-                            act.getCoord().getX(),
-                            act.getCoord().getY(),
-                            MatsimRandom.getRandom().nextDouble(),
-                            (this.locateAct != null) ? this.locateAct.getZoneAttribute(act.getCoord()) : ""));
-                } catch (Exception e) {
-                    log.error("Couldn't print activity chain!", e);
-                }
+                writer.writeActivity(pax_id, act);
             }
             for (Journey journey : chain.getJourneys()) {
-                try {
-                    journeyWriter.write(String.format(
-                            "%d\t%s\t%d\t%d\t%.3f\t%s\t%s\t%d\t%d\t%.3f\t%d\t%.3f\t%d\t%d\t%s\t%.3f\t%d\t%s\t%.3f\t%d\t%d\t%f\t%b\n",
-                            journey.getElementId(),
-                            pax_id,
-                            (int) journey.getStartTime(),
-                            (int) journey.getEndTime(),
-                            journey.getDistance(),
-                            journey.getMainMode(),
-                            journey.getMainModeMikroZensus(),
-                            journey.getFromAct().getElementId(),
-                            journey.getToAct().getElementId(),
-                            journey.getInVehDistance(),
-                            (int) journey.getInVehTime(),
-                            journey.getAccessWalkDistance(),
-                            (int) journey.getAccessWalkTime(),
-                            (int) journey.getAccessWaitTime(),
-                            journey.getFirstBoardingStop(),
-                            journey.getEgressWalkDistance(),
-                            (int) journey.getEgressWalkTime(),
-                            journey.getLastAlightingStop(),
-                            journey.getTransferWalkDistance(),
-                            (int) journey.getTransferWalkTime(),
-                            (int) journey.getTransferWaitTime(),
-                            MatsimRandom.getRandom().nextDouble(),
-                            chain.getStucked())
-                    );
-                    counter.incCounter();
-
-                    // comment (PManser): in my opinion, isCarJourney() does not mean anything
-                    if (!(journey.isCarJourney() || journey.isTeleportJourney())) {
-                        int ind = 0;
-                        for (Trip trip : journey.getTrips()) {
-
-                            String previous_trip_id = null;
-                            String next_trip_id = null;
-                            if(ind > 0)
-                                previous_trip_id = Integer.toString(journey.getTrips().get(ind - 1).getElementId());
-                            if(ind < journey.getTrips().size() - 1)
-                                next_trip_id = Integer.toString(journey.getTrips().get(ind + 1).getElementId());
-                            ind++;
-
-                            tripWriter.write(String.format(
-                                    "%d\t%d\t%d\t%d\t%.3f\t%s\t%s\t%s\t%s\t%s\t%d\t%d\t%f\t%f\t%f\t%f\t%f\t%s\t%s\n",
-                                    trip.getElementId(),
-                                    journey.getElementId(),
-                                    (int) trip.getStartTime(),
-                                    (int) trip.getEndTime(),
-                                    trip.getDistance(),
-                                    trip.getMode(), trip.getLine(),
-                                    trip.getRoute(), trip.getBoardingStop(),
-                                    trip.getAlightingStop(), (int) trip.getPtDepartureTime(), (int) trip.getDepartureDelay(),
-                                    MatsimRandom.getRandom().nextDouble(),
-                                    trip.getOrig().getX(),
-                                    trip.getOrig().getY(),
-                                    trip.getDest().getX(),
-                                    trip.getDest().getY(),
-                                    previous_trip_id,
-                                    next_trip_id));
-                            counter.incCounter();
-                        }
-                        for (Transfer transfer : journey.getTransfers()) {
-                            transferWriter.write(String.format(
-                                    "%d\t%d\t%d\t%d\t%d\t%d\t%.3f\t%d\t%d\t%f\n",
-                                    transfer.getElementId(),
-                                    journey.getElementId(),
-                                    (int) transfer.getStartTime(),
-                                    (int) transfer.getEndTime(),
-                                    transfer.getFromTrip()
-                                            .getElementId(),
-                                    transfer.getToTrip()
-                                            .getElementId(),
-
-                                    transfer.getWalkDistance(),
-                                    (int) transfer.getWalkTime(),
-                                    (int) transfer.getWaitTime(),
-                                    MatsimRandom.getRandom().nextDouble()
-
-                            ));
-                            counter.incCounter();
-                        }
-                    } else {
-                        for (Trip trip : journey.getTrips()) {
-
-                            tripWriter.write(String.format(
-                                    "%d\t%d\t%d\t%d\t%.3f\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%f\n",
-                                    trip.getElementId(),
-                                    journey.getElementId(),
-                                    (int) trip.getStartTime(),
-                                    (int) trip.getEndTime(),
-                                    trip.getDistance(),
-                                    trip.getMode(), "", "", "", "", "", "",
-                                    MatsimRandom.getRandom().nextDouble()
-
-                            ));
-                            counter.incCounter();
-                        }
-                    }
-                } catch (NullPointerException e) {
-                    setStuck(getStuck() + 1);
-                }
+                writer.writeJourney(pax_id, chain, journey);
             }
-
         }
 
         if (this.writeVisumPuTSurvey) {
-            Double scaleFactor = 1.0 / this.config.qsim().getFlowCapFactor();
-            VisumPuTSurvey visumPuTSurvey = new VisumPuTSurvey(this.getChains(), this.scenario, scaleFactor);
+            VisumPuTSurvey visumPuTSurvey = new VisumPuTSurvey(this.getChains(), this.scenario, getVisumScaleFactor());
             visumPuTSurvey.write(this.filename);
         }
 
-        activityWriter.close();
-        journeyWriter.close();
-        tripWriter.close();
-        transferWriter.close();
-        counter.printCounter();
+        writer.close();
+    }
+
+    /**
+     * In streaming mode, writes the completed journeys of the person and all activities except the last one,
+     * and removes them from the chain.
+     */
+    private void writeCompletedElements(int personIndex, TravellerChain chain) throws IOException {
+        if (this.streamWriter == null) {
+            openStreamWriters();
+        }
+        String pax_id = this.personIndex.getId(personIndex).toString();
+        Activity lastAct = chain.getActs().getLast();
+        for (Activity act : chain.getActs()) {
+            if (act != lastAct) {
+                this.streamWriter.writeActivity(pax_id, act);
+            }
+        }
+        for (Journey journey : chain.getJourneys()) {
+            this.streamWriter.writeJourney(pax_id, chain, journey);
+            if (this.visumStreamWriter != null) {
+                this.visumPuTSurvey.writeJourney(this.visumStreamWriter, pax_id, journey);
+            }
+        }
+        chain.removeCompletedElements();
+    }
+
+    private void openStreamWriters() throws IOException {
+        this.streamWriter = new DiaryTablesWriter("");
+        if (this.writeVisumPuTSurvey) {
+            this.visumPuTSurvey = new VisumPuTSurvey(Collections.emptyMap(), this.scenario, getVisumScaleFactor());
+            this.visumStreamWriter = this.visumPuTSurvey.createWriter(this.filename);
+        }
+    }
+
+    /**
+     * In streaming mode, writes the remaining activities and journeys of all persons, including the ones
+     * not completed by the end of the simulation, and closes the files.
+     */
+    private void finishStreaming() throws IOException {
+        if (this.streamWriter == null) {
+            openStreamWriters();
+        }
+        for (int personIndex = 0; personIndex < chains.length; personIndex++) {
+            TravellerChain chain = chains[personIndex];
+            if (chain == null) {
+                continue;
+            }
+            String pax_id = this.personIndex.getId(personIndex).toString();
+            for (Activity act : chain.getActs()) {
+                this.streamWriter.writeActivity(pax_id, act);
+            }
+            for (Journey journey : chain.getJourneys()) {
+                this.streamWriter.writeJourney(pax_id, chain, journey);
+                if (this.visumStreamWriter != null) {
+                    this.visumPuTSurvey.writeJourney(this.visumStreamWriter, pax_id, journey);
+                }
+            }
+            chains[personIndex] = null;
+        }
+        if (this.visumStreamWriter != null) {
+            this.visumStreamWriter.close();
+        }
+        this.streamWriter.close();
+        this.streamWriter = null;
+        this.visumStreamWriter = null;
+    }
+
+    private double getVisumScaleFactor() {
+        return 1.0 / this.config.qsim().getFlowCapFactor();
     }
 
     public int getStuck() {
         return stuck;
     }
 
+    /**
+     * Returns a new map with the chains of all persons, in the order in which the persons were indexed.
+     * When streaming, the chains only contain the activities and journeys not yet written.
+     */
     public Map<Id, TravellerChain> getChains() {
-        return chains;
+        Map<Id, TravellerChain> chainsById = new LinkedHashMap<>();
+        for (int personIndex = 0; personIndex < chains.length; personIndex++) {
+            if (chains[personIndex] != null) {
+                chainsById.put(this.personIndex.getId(personIndex), chains[personIndex]);
+            }
+        }
+        return chainsById;
     }
 
     void setStuck(int stuck) {
@@ -618,6 +639,10 @@ public class EventsToTravelDiaries implements
     @Override
     public void closeFile() {
         try {
+            if (this.streaming) {
+                finishStreaming();
+                return;
+            }
             this.writeSimulationResultsToTabSeparated("");
         } catch (IOException e) {
             log.error("Could not write data.", e);
@@ -625,13 +650,212 @@ public class EventsToTravelDiaries implements
     }
 
     // Private classes
+    /**
+     * Writes the activities, journeys, trips and transfers tables. The rows are formatted on the calling thread,
+     * so the random sample selectors are drawn in the same order as before, while each of the four files is
+     * encoded and written on its own thread. In columnar mode, each table is written to a directory instead,
+     * using the given column types.
+     */
+    private class DiaryTablesWriter {
+
+        private final RowWriter activityRows;
+        private final RowWriter journeyRows;
+        private final RowWriter tripRows;
+        private final RowWriter transferRows;
+        private final Counter counter = new Counter("Output lines written: ");
+
+        DiaryTablesWriter(String appendage) throws IOException {
+            String actTableName;
+            String journeyTableName;
+            String transferTableName;
+            String tripTableName;
+
+            if (appendage.matches("[a-zA-Z0-9]*[_]*")) {
+                actTableName = appendage + "matsim_activities.txt";
+                journeyTableName = appendage + "matsim_journeys.txt";
+                transferTableName = appendage + "matsim_transfers.txt";
+                tripTableName = appendage + "matsim_trips.txt";
+            } else {
+                if (appendage.matches("[a-zA-Z0-9]*"))
+                    appendage = "_" + appendage;
+                actTableName = "matsim_activities" + appendage + ".txt";
+                journeyTableName = "matsim_journeys" + appendage + ".txt";
+                transferTableName = "matsim_transfers" + appendage + ".txt";
+                tripTableName = "matsim_trips" + appendage + ".txt";
+            }
+            ColumnType i = ColumnType.INT32;
+            ColumnType d = ColumnType.FLOAT64;
+            ColumnType s = ColumnType.DICTIONARY;
+            // ids have too many distinct values for a dictionary
+            ColumnType id = ColumnType.STRING;
+            this.activityRows = createTable(actTableName, "activity_id\tperson_id\tfacility_id\ttype\t" +
+                    "start_time\tend_time\tx\ty\tsample_selector\tzone\n",
+                    i, id, id, s, i, i, d, d, d, s);
+
+            this.journeyRows = createTable(journeyTableName, "journey_id\tperson_id\tstart_time\t" +
+                    "end_time\tdistance\tmain_mode\tmain_mode_mikrozensus\tfrom_act\tto_act\t" +
+                    "in_vehicle_distance\tin_vehicle_time\t" +
+                    "access_walk_distance\taccess_walk_time\taccess_wait_time\t" +
+                    "first_boarding_stop\tegress_walk_distance\t" +
+                    "egress_walk_time\tlast_alighting_stop\t" +
+                    "transfer_walk_distance\ttransfer_walk_time\t" +
+                    "transfer_wait_time\tsample_selector\tstucked\n",
+                    i, id, i, i, d, s, s, i, i, d, i, d, i, i, s, d, i, s, d, i, i, d, ColumnType.BOOLEAN);
+
+            this.tripRows = createTable(tripTableName, "trip_id\tjourney_id\tstart_time\tend_time\t" +
+                    "distance\tmode\tline\troute\tboarding_stop\t" +
+                    "alighting_stop\tdeparture_time\tdeparture_delay\tsample_selector\t" +
+                     "from_x\tfrom_y\tto_x\tto_y\tprevious_trip_id\tnext_trip_id\n",
+                    i, i, i, i, d, s, s, s, s, s, i, i, d, d, d, d, d, i, i);
+
+            this.transferRows = createTable(transferTableName, "transfer_id\tjourney_id\tstart_time\t" +
+                    "end_time\tfrom_trip\tto_trip\twalk_distance\t" +
+                    "walk_time\twait_time\tsample_selector\n",
+                    i, i, i, i, i, i, d, i, i, d);
+        }
+
+        private RowWriter createTable(String tableName, String header, ColumnType... types) throws IOException {
+            if (columnar) {
+                String directory = EventsToTravelDiaries.this.filename + tableName.substring(0, tableName.length() - ".txt".length());
+                return new ColumnarTableWriter(directory, header.trim().split("\t"), types);
+            }
+            BufferedWriter writer = IOUtils.getBufferedWriter(EventsToTravelDiaries.this.filename + tableName);
+            writer.write(header);
+            return new RowFormatter(new AsyncTextWriter(writer, tableName), '\t');
+        }
+
+        void writeActivity(String pax_id, Activity act) {
+            try {
+                activityRows.add(act.getElementId()).add(pax_id)
+                        .add(act.getFacility()).add(act.getType())
+                        .add((int) act.getStartTime())
+                        .add((int) act.getEndTime())
+                        .add(act.getCoord().getX())
+                        .add(act.getCoord().getY())
+                        .add(MatsimRandom.getRandom().nextDouble())
+                        .add((locateAct != null) ? locateAct.getZoneAttribute(act.getCoord()) : "");
+                activityRows.endRow();
+            } catch (Exception e) {
+                activityRows.discardRow();
+                log.error("Couldn't print activity chain!", e);
+            }
+        }
+
+        void writeJourney(String pax_id, TravellerChain chain, Journey journey) throws IOException {
+            try {
+                journeyRows.add(journey.getElementId())
+                        .add(pax_id)
+                        .add((int) journey.getStartTime())
+                        .add((int) journey.getEndTime())
+                        .add(journey.getDistance(), 3)
+                        .add(journey.getMainMode())
+                        .add(journey.getMainModeMikroZensus())
+                        .add(journey.getFromAct().getElementId())
+                        .add(journey.getToAct().getElementId())
+                        .add(journey.getInVehDistance(), 3)
+                        .add((int) journey.getInVehTime())
+                        .add(journey.getAccessWalkDistance(), 3)
+                        .add((int) journey.getAccessWalkTime())
+                        .add((int) journey.getAccessWaitTime())
+                        .add(journey.getFirstBoardingStop())
+                        .add(journey.getEgressWalkDistance(), 3)
+                        .add((int) journey.getEgressWalkTime())
+                        .add(journey.getLastAlightingStop())
+                        .add(journey.getTransferWalkDistance(), 3)
+                        .add((int) journey.getTransferWalkTime())
+                        .add((int) journey.getTransferWaitTime())
+                        .add(MatsimRandom.getRandom().nextDouble())
+                        .add(chain.getStucked());
+                journeyRows.endRow();
+                counter.incCounter();
+
+                // comment (PManser): in my opinion, isCarJourney() does not mean anything
+                if (!(journey.isCarJourney() || journey.isTeleportJourney())) {
+                    int ind = 0;
+                    for (Trip trip : journey.getTrips()) {
+
+                        String previous_trip_id = null;
+                        String next_trip_id = null;
+                        if(ind > 0)
+                            previous_trip_id = Integer.toString(journey.getTrips().get(ind - 1).getElementId());
+                        if(ind < journey.getTrips().size() - 1)
+                            next_trip_id = Integer.toString(journey.getTrips().get(ind + 1).getElementId());
+                        ind++;
+
+                        tripRows.add(trip.getElementId())
+                                .add(journey.getElementId())
+                                .add((int) trip.getStartTime())
+                                .add((int) trip.getEndTime())
+                                .add(trip.getDistance(), 3)
+                                .add(trip.getMode()).add(trip.getLine())
+                                .add(trip.getRoute()).add(trip.getBoardingStop())
+                                .add(trip.getAlightingStop()).add((int) trip.getPtDepartureTime()).add((int) trip.getDepartureDelay())
+                                .add(MatsimRandom.getRandom().nextDouble())
+                                .add(trip.getOrig().getX())
+                                .add(trip.getOrig().getY())
+                                .add(trip.getDest().getX())
+                                .add(trip.getDest().getY())
+                                .add(previous_trip_id)
+                                .add(next_trip_id);
+                        tripRows.endRow();
+                        counter.incCounter();
+                    }
+                    for (Transfer transfer : journey.getTransfers()) {
+                        transferRows.add(transfer.getElementId())
+                                .add(journey.getElementId())
+                                .add((int) transfer.getStartTime())
+                                .add((int) transfer.getEndTime())
+                                .add(transfer.getFromTrip()
+                                        .getElementId())
+                                .add(transfer.getToTrip()
+                                        .getElementId())
+                                .add(transfer.getWalkDistance(), 3)
+                                .add((int) transfer.getWalkTime())
+                                .add((int) transfer.getWaitTime())
+                                .add(MatsimRandom.getRandom().nextDouble());
+                        transferRows.endRow();
+                        counter.incCounter();
+                    }
+                } else {
+                    for (Trip trip : journey.getTrips()) {
+
+                        tripRows.add(trip.getElementId())
+                                .add(journey.getElementId())
+                                .add((int) trip.getStartTime())
+                                .add((int) trip.getEndTime())
+                                .add(trip.getDistance(), 3)
+                                .add(trip.getMode()).add("").add("").add("").add("").add("").add("")
+                                .add(MatsimRandom.getRandom().nextDouble());
+                        tripRows.endRow();
+                        counter.incCounter();
+                    }
+                }
+            } catch (NullPointerException e) {
+                // the rows completed so far are kept, only the incomplete one is dropped
+                journeyRows.discardRow();
+                tripRows.discardRow();
+                transferRows.discardRow();
+                setStuck(getStuck() + 1);
+            }
+        }
+
+        void close() throws IOException {
+            activityRows.close();
+            journeyRows.close();
+            tripRows.close();
+            transferRows.close();
+            counter.printCounter();
+        }
+    }
+
     private class PTVehicle {
 
         // Attributes
         private final Id transitLineId;
         private final Id transitRouteId;
         private final Id vehicleId;
-        private final Map<Id, Double> passengers = new HashMap<>();
+        // the distance of the vehicle when the passenger boarded, by person index
+        private final IntDoubleHashMap passengers = new IntDoubleHashMap();
         boolean in = false;
         Id lastStop;
         private double distance;
@@ -649,16 +873,16 @@ public class EventsToTravelDiaries implements
             distance += linkDistance;
         }
 
-        public Set<Id> getPassengersId() {
-            return passengers.keySet();
+        public void addPassenger(int passengerIndex) {
+            passengers.put(passengerIndex, distance);
         }
 
-        public void addPassenger(Id passengerId) {
-            passengers.put(passengerId, distance);
-        }
-
-        public double removePassenger(Id passengerId) {
-            return distance - passengers.remove(passengerId);
+        public double removePassenger(int passengerIndex) {
+            double boardingDistance = passengers.remove(passengerIndex);
+            if (Double.isNaN(boardingDistance)) {
+                throw new IllegalStateException("passenger " + passengerIndex + " is not in vehicle " + vehicleId);
+            }
+            return distance - boardingDistance;
         }
 
         public double getLinkEnterTime() {
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A map from non-negative int keys to double values, using open addressing with linear probing.
+ * In contrast to a <code>HashMap&lt;Integer, Double&gt;</code>, neither keys nor values are boxed,
+ * and adding or removing entries does not create any objects unless the map has to grow.
+ *
+ * @author mrieser / SBB
+ */
+public final class IntDoubleHashMap {
+
+    private static final int FREE = -1;
+
+    private int[] keys;
+    private double[] values;
+    private int mask;
+    private int size = 0;
+
+    public IntDoubleHashMap() {
+        this(4);
+    }
+
+    public IntDoubleHashMap(int expectedSize) {
+        int capacity = 8;
+        while (capacity < 2 * expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public boolean containsKey(int key) {
+        return findSlot(key) >= 0;
+    }
+
+    /**
+     * Returns the value stored for the key, or <code>defaultValue</code> if the key is not contained.
+     */
+    public double get(int key, double defaultValue) {
+        int slot = findSlot(key);
+        return slot < 0 ? defaultValue : this.values[slot];
+    }
+
+    /**
+     * Stores the value for the key and returns the previous value, or {@link Double#NaN} if the key was not contained.
+     */
+    public double put(int key, double value) {
+        if (key < 0) {
+            throw new IllegalArgumentException("keys must not be negative: " + key);
+        }
+        int slot = hash(key);
+        while (this.keys[slot] != FREE) {
+            if (this.keys[slot] == key) {
+                double oldValue = this.values[slot];
+                this.values[slot] = value;
+                return oldValue;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        this.keys[slot] = key;
+        this.values[slot] = value;
+        this.size++;
+        if (2 * this.size > this.keys.length) {
+            rehash(2 * this.keys.length);
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Removes the key and returns its value, or {@link Double#NaN} if the key was not contained.
+     */
+    public double remove(int key) {
+        int slot = findSlot(key);
+        if (slot < 0) {
+            return Double.NaN;
+        }
+        double value = this.values[slot];
+        // move following entries of the same probe sequence back, so no tombstones are required
+        int free = slot;
+        int next = (slot + 1) & this.mask;
+        while (this.keys[next] != FREE) {
+            int ideal = hash(this.keys[next]);
+            if (((next - ideal) & this.mask) >= ((next - free) & this.mask)) {
+                this.keys[free] = this.keys[next];
+                this.values[free] = this.values[next];
+                free = next;
+            }
+            next = (next + 1) & this.mask;
+        }
+        this.keys[free] = FREE;
+        this.size--;
+        return value;
+    }
+
+    public void forEachKey(IntConsumer consumer) {
+        for (int key : this.keys) {
+            if (key != FREE) {
+                consumer.accept(key);
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(this.keys, FREE);
+        this.size = 0;
+    }
+
+    private int findSlot(int key) {
+        if (key < 0) {
+            return -1;
+        }
+        int slot = hash(key);
+        while (this.keys[slot] != FREE) {
+            if (this.keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        return -1;
+    }
+
+    private int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & this.mask;
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new int[capacity];
+        Arrays.fill(this.keys, FREE);
+        this.values = new double[capacity];
+        this.mask = capacity - 1;
+    }
+
+    private void rehash(int newCapacity) {
+        int[] oldKeys = this.keys;
+        double[] oldValues = this.values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            int key = oldKeys[i];
+            if (key != FREE) {
+                int slot = hash(key);
+                while (this.keys[slot] != FREE) {
+                    slot = (slot + 1) & this.mask;
+                }
+                this.keys[slot] = key;
+                this.values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package ch.sbb.matsim.analysis.LinkAnalyser;
 
+import ch.sbb.matsim.analysis.EventsReplay;
 import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
@@ -12,16 +13,19 @@ import org.matsim.api.core.v01.events.handler.PersonEntersVehicleEventHandler;
 import org.matsim.api.core.v01.events.handler.PersonLeavesVehicleEventHandler;
 import org.matsim.api.core.v01.events.handler.TransitDriverStartsEventHandler;
 import org.matsim.api.core.v01.network.Link;
-import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.events.EventsManagerImpl;
-import org.matsim.core.events.MatsimEventsReader;
 import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.io.IOUtils;
 import org.matsim.vehicles.Vehicle;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 
 
 public class LinkAnalyser implements LinkEnterEventHandler, PersonEntersVehicleEventHandler, PersonLeavesVehicleEventHandler, TransitDriverStartsEventHandler {
@@ -92,20 +96,32 @@ public class LinkAnalyser implements LinkEnterEventHandler, PersonEntersVehicleE
     }
 
 
-    public static void main(String[] args) {
+    /**
+     * Writes the number of passengers that entered each link, e.g. after the events were replayed.
+     */
+    public void writeLinkVolumes(String filename) {
+        try (BufferedWriter out = IOUtils.getBufferedWriter(filename)) {
+            out.write("LINK_ID\tVOLUME\n");
+            for (Map.Entry<Id, Integer> entry : this.linkVolumes.entrySet()) {
+                out.write(entry.getKey() + "\t" + entry.getValue() + "\n");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
         Config config = ConfigUtils.createConfig();
 
         String events = "D:\\tmp\\miv\\9.16\\CH.10pct.2015.output_events.xml.gz";
         String network = "D:\\tmp\\miv\\9.16\\CH.10pct.2015.output_network.xml.gz";
+        String volumes = "D:\\tmp\\miv\\9.16\\CH.10pct.2015.link_volumes.txt";
 
         config.network().setInputFile(network);
         Scenario scenario = ScenarioUtils.loadScenario(config);
 
-        EventsManager eventsManager = new EventsManagerImpl();
-
         LinkAnalyser vv = new LinkAnalyser(scenario);
-        eventsManager.addHandler(vv);
-
-        new MatsimEventsReader(eventsManager).readFile(events);
+        new EventsReplay(new EventsManagerImpl(), false).addHandler(vv).run(events);
+        vv.writeLinkVolumes(volumes);
     }
 }
@@ -6,6 +6,8 @@ package ch.sbb.matsim.analysis;
 
 import ch.sbb.matsim.config.PostProcessingConfigGroup;
 import ch.sbb.matsim.csv.CSVWriter;
+import ch.sbb.matsim.csv.ColumnarTableWriter;
+import ch.sbb.matsim.csv.ColumnarTableWriter.ColumnType;
 import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.population.Activity;
@@ -27,6 +29,8 @@ public class PopulationToCSV {
     private final static Logger log = Logger.getLogger(PopulationToCSV.class);
 
     private final static String[] PLANELEMENTS_COLUMNS = new String[]{"person_id", "plan_id", "planelement_id", "selected", "plan_score", "start_time", "end_time", "type", "mode", "activity_type", "x", "y"};
+    private final static ColumnType[] PLANELEMENTS_TYPES = new ColumnType[]{ColumnType.STRING, ColumnType.INT32, ColumnType.INT32, ColumnType.DICTIONARY, ColumnType.FLOAT64,
+            ColumnType.FLOAT64, ColumnType.FLOAT64, ColumnType.DICTIONARY, ColumnType.DICTIONARY, ColumnType.DICTIONARY, ColumnType.FLOAT64, ColumnType.FLOAT64};
 
     private final Scenario scenario;
 
@@ -64,7 +68,14 @@ public class PopulationToCSV {
             }
         }
 
-        if(ppConfig.getWritePlanElementsCSV())  {
+        if (ppConfig.getWritePlanElementsCSV() && ppConfig.getColumnarTables()) {
+            String directory = planElementsFilename.replaceFirst("\\.csv(\\.gz)?$", "");
+            try {
+                writePlanElementsColumnar(directory);
+            } catch (IOException e) {
+                log.error("Could not write plan elements to " + directory + ". " + e.getMessage(), e);
+            }
+        } else if(ppConfig.getWritePlanElementsCSV())  {
             try(CSVWriter planelementsWriter = new CSVWriter("", PLANELEMENTS_COLUMNS, planElementsFilename)) {
                 for (Person person : population.getPersons().values()) {
                     int j = 0;
@@ -117,6 +128,44 @@ public class PopulationToCSV {
         }
     }
 
+    /**
+     * Writes the plan elements with the same columns as plan_elements.csv, but as directory with one file per column,
+     * see {@link ColumnarTableWriter}. Missing times, scores and coordinates are NaN.
+     */
+    private void writePlanElementsColumnar(String directory) throws IOException {
+        try (ColumnarTableWriter planelementsWriter = new ColumnarTableWriter(directory, PLANELEMENTS_COLUMNS, PLANELEMENTS_TYPES)) {
+            for (Person person : this.scenario.getPopulation().getPersons().values()) {
+                int j = 0;
+                for (Plan plan : person.getPlans()) {
+                    j += 1;
+                    String selected = person.getSelectedPlan().equals(plan) ? "yes" : "no";
+                    int i = 0;
+                    for (PlanElement planelement : plan.getPlanElements()) {
+                        i += 1;
+                        planelementsWriter.add(person.getId()).add(j).add(i).add(selected).add(plan.getScore());
+                        if (planelement instanceof Leg) {
+                            Leg leg = ((Leg) planelement);
+                            planelementsWriter.add(leg.getDepartureTime())
+                                    .add(leg.getDepartureTime() + leg.getTravelTime())
+                                    .add("leg")
+                                    .add(leg.getMode());
+                        } else if (planelement instanceof Activity) {
+                            Activity activity = ((Activity) planelement);
+                            planelementsWriter.add(activity.getStartTime())
+                                    .add(activity.getEndTime())
+                                    .add("activity")
+                                    .add(null)
+                                    .add(activity.getType())
+                                    .add(activity.getCoord().getX())
+                                    .add(activity.getCoord().getY());
+                        }
+                        planelementsWriter.endRow();
+                    }
+                }
+            }
+        }
+    }
+
     private String[] getColumns(String[] attributes) {
         String[] columns = new String[attributes.length + 1];
         columns[0] = "person_id";
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis;
+
+import ch.sbb.matsim.analysis.LinkAnalyser.LinkAnalyser;
+import ch.sbb.matsim.preparation.PlansFromEvents;
+import ch.sbb.matsim.utils.EventsToEventsPerPersonTable;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.events.EventsManagerImpl;
+import org.matsim.core.network.io.MatsimNetworkReader;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.pt.transitSchedule.api.TransitScheduleReader;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Runs the offline analyses of {@link EventsToEventsPerPersonTable}, {@link TransferTimeAnalysis},
+ * {@link LinkAnalyser} and {@link PlansFromEvents} on a single {@link EventsReplay}, so the events file is
+ * parsed only once instead of once per analysis.
+ *
+ * Usage: RunEventsAnalyses configFile eventsFile outputDirectory
+ *
+ * @author mrieser / SBB
+ */
+public class RunEventsAnalyses {
+
+    private final static Logger log = Logger.getLogger(RunEventsAnalyses.class);
+
+    public static void main(String[] args) throws IOException {
+        final String configFile = args[0];
+        final String eventsFileName = args[1];
+        final File outputDirectory = new File(args[2]);
+
+        Config config = ConfigUtils.loadConfig(configFile);
+        Scenario scenario = ScenarioUtils.createScenario(config);
+        new MatsimNetworkReader(scenario.getNetwork()).readFile(config.network().getInputFile());
+        boolean useTransit = config.transit().isUseTransit();
+        if (useTransit) {
+            new TransitScheduleReader(scenario).readFile(config.transit().getTransitScheduleFile());
+        }
+
+        EventsReplay replay = new EventsReplay(new EventsManagerImpl(), false);
+
+        EventsToEventsPerPersonTable eventsPerPerson = new EventsToEventsPerPersonTable(scenario, outputDirectory.getPath() + File.separator);
+        replay.addHandler(eventsPerPerson);
+        LinkAnalyser linkAnalyser = new LinkAnalyser(scenario);
+        replay.addHandler(linkAnalyser);
+        PlansFromEvents plansFromEvents = new PlansFromEvents(scenario.getNetwork());
+        replay.addHandler(plansFromEvents);
+        TransferTimeAnalysis transferTimes = null;
+        if (useTransit) {
+            transferTimes = new TransferTimeAnalysis();
+            transferTimes.addHandlers(replay);
+        }
+
+        replay.run(eventsFileName);
+
+        eventsPerPerson.writeSimulationResultsToTabSeparated("");
+        log.info("Number of stuck vehicles/passengers: " + eventsPerPerson.getStuck());
+        linkAnalyser.writeLinkVolumes(new File(outputDirectory, "link_volumes.txt").getPath());
+        plansFromEvents.writePlans(new File(outputDirectory, "plans_from_events.xml.gz").getPath());
+        if (transferTimes != null) {
+            transferTimes.writeResults(scenario.getTransitSchedule(), new File(outputDirectory, "transfer_times.txt").getPath());
+        }
+    }
+}
@@ -7,11 +7,9 @@ package ch.sbb.matsim.analysis;
 import ch.sbb.matsim.config.PostProcessingConfigGroup;
 import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Scenario;
-import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.events.EventsManagerImpl;
-import org.matsim.core.events.MatsimEventsReader;
 import org.matsim.core.events.algorithms.EventWriter;
 import org.matsim.core.scenario.ScenarioUtils;
 
@@ -31,19 +29,14 @@ public class RunSBBPostProcessing {
         PostProcessingConfigGroup ppConfig = ConfigUtils.addOrGetModule(config, PostProcessingConfigGroup.class);
 
         Scenario scenario = ScenarioUtils.loadScenario(config);
-        EventsManager eventsManager = new EventsManagerImpl();
 
+        // all analyses process the events of a single pass over the events file
+        EventsReplay replay = new EventsReplay(new EventsManagerImpl(), ppConfig.getAsyncEventWriters());
         List<EventWriter> eventWriters = SBBPostProcessingOutputHandler.buildEventWriters(scenario, ppConfig, outputPath);
-
-        for (EventWriter eventWriter : eventWriters) {
-            eventsManager.addHandler(eventWriter);
-        }
-
-        new MatsimEventsReader(eventsManager).readFile(eventsFileName);
-
         for (EventWriter eventWriter : eventWriters) {
-            eventWriter.closeFile();
+            replay.addWriter(eventWriter);
         }
+        replay.run(eventsFileName);
 
         if (ppConfig.getWriteAgentsCSV() || ppConfig.getWritePlanElementsCSV()) {
             new PopulationToCSV(scenario).write(outputPath);
@@ -69,6 +69,14 @@ public class SBBPostProcessingOutputHandler implements BeforeMobsimListener, Ite
             this.eventWriters.addAll(finalEventWriters);
         }
 
+        if (this.ppConfig.getAsyncEventWriters()) {
+            List<EventWriter> asyncEventWriters = new LinkedList<>();
+            for (EventWriter eventWriter : this.eventWriters) {
+                asyncEventWriters.add(new AsyncEventWriter(eventWriter));
+            }
+            this.eventWriters = asyncEventWriters;
+        }
+
         for (EventWriter eventWriter : this.eventWriters) {
             eventsManager.addHandler(eventWriter);
         }
@@ -16,23 +16,23 @@ import org.matsim.api.core.v01.events.handler.PersonEntersVehicleEventHandler;
 import org.matsim.api.core.v01.events.handler.PersonLeavesVehicleEventHandler;
 import org.matsim.api.core.v01.events.handler.TransitDriverStartsEventHandler;
 import org.matsim.api.core.v01.population.Person;
-import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.api.experimental.events.VehicleArrivesAtFacilityEvent;
 import org.matsim.core.api.experimental.events.VehicleDepartsAtFacilityEvent;
 import org.matsim.core.api.experimental.events.handler.VehicleArrivesAtFacilityEventHandler;
 import org.matsim.core.api.experimental.events.handler.VehicleDepartsAtFacilityEventHandler;
 import org.matsim.core.config.ConfigUtils;
-import org.matsim.core.events.EventsUtils;
-import org.matsim.core.events.MatsimEventsReader;
+import org.matsim.core.events.EventsManagerImpl;
 import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.core.utils.io.IOUtils;
 import org.matsim.pt.PtConstants;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
 import org.matsim.pt.transitSchedule.api.TransitScheduleReader;
 import org.matsim.pt.transitSchedule.api.TransitStopFacility;
 import org.matsim.vehicles.Vehicle;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -54,20 +54,30 @@ public class TransferTimeAnalysis {
 
     private final Map<Id<TransitStopFacility>, Map<Id<TransitStopFacility>, List<Double>>> transferTimes = new TreeMap<>();
 
+    private final Set<Id<Vehicle>> transitVehicles = new HashSet<>();
+    private final Set<Id<Person>> transitDrivers = new HashSet<>();
+    private final Map<Id<Vehicle>, VehicleData> vehiclePositions = new HashMap<>();
+    private final Map<Id<Person>, PassengerExitData> paxData = new HashMap<>();
+
     public void run(String eventsFilename, String transitScheduleFilename, String analysisFilename) {
-        collectData(eventsFilename);
-        analyzeData(transitScheduleFilename, analysisFilename);
+        EventsReplay replay = new EventsReplay(new EventsManagerImpl(), false);
+        addHandlers(replay);
+        try {
+            replay.run(eventsFilename);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Scenario scenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+        new TransitScheduleReader(scenario).readFile(transitScheduleFilename);
+        writeResults(scenario.getTransitSchedule(), analysisFilename);
     }
 
-    private void collectData(String eventsFilename) {
-        Set<Id<Vehicle>> transitVehicles = new HashSet<>();
-        Set<Id<Person>> transitDrivers = new HashSet<>();
-        Map<Id<Vehicle>, VehicleData> vehiclePositions = new HashMap<>();
-
-        Map<Id<Person>, PassengerExitData> paxData = new HashMap<>();
-
-        EventsManager events = EventsUtils.createEventsManager();
-        events.addHandler(new TransitDriverStartsEventHandler() {
+    /**
+     * Registers the handlers collecting the transfer times, so the analysis can share the replay with other analyses.
+     * The results are available with {@link #writeResults(TransitSchedule, String)} after the replay has finished.
+     */
+    public void addHandlers(EventsReplay replay) {
+        replay.addHandler(new TransitDriverStartsEventHandler() {
             @Override
             public void handleEvent(TransitDriverStartsEvent event) {
                 transitVehicles.add(event.getVehicleId());
@@ -79,7 +89,7 @@ public class TransferTimeAnalysis {
             }
         });
 
-        events.addHandler(new VehicleArrivesAtFacilityEventHandler() {
+        replay.addHandler(new VehicleArrivesAtFacilityEventHandler() {
             @Override
             public void handleEvent(VehicleArrivesAtFacilityEvent event) {
                 if (transitVehicles.contains(event.getVehicleId())) {
@@ -92,7 +102,7 @@ public class TransferTimeAnalysis {
             }
         });
 
-        events.addHandler(new VehicleDepartsAtFacilityEventHandler() {
+        replay.addHandler(new VehicleDepartsAtFacilityEventHandler() {
             @Override
             public void handleEvent(VehicleDepartsAtFacilityEvent event) {
                 VehicleData vehData = vehiclePositions.remove(event.getVehicleId());
@@ -111,7 +121,7 @@ public class TransferTimeAnalysis {
             }
         });
 
-        events.addHandler(new ActivityStartEventHandler() {
+        replay.addHandler(new ActivityStartEventHandler() {
             @Override
             public void handleEvent(ActivityStartEvent event) {
                 if (!PtConstants.TRANSIT_ACTIVITY_TYPE.equals(event.getActType())) {
@@ -124,7 +134,7 @@ public class TransferTimeAnalysis {
             }
         });
 
-        events.addHandler(new PersonLeavesVehicleEventHandler() {
+        replay.addHandler(new PersonLeavesVehicleEventHandler() {
             @Override
             public void handleEvent(PersonLeavesVehicleEvent event) {
                 if (transitVehicles.contains(event.getVehicleId()) && !transitDrivers.contains(event.getPersonId())) {
@@ -138,7 +148,7 @@ public class TransferTimeAnalysis {
             }
         });
 
-        events.addHandler(new PersonEntersVehicleEventHandler() {
+        replay.addHandler(new PersonEntersVehicleEventHandler() {
             @Override
             public void handleEvent(PersonEntersVehicleEvent event) {
                 if (transitVehicles.contains(event.getVehicleId())) {
@@ -154,24 +164,19 @@ public class TransferTimeAnalysis {
             public void reset(int iteration) {
             }
         });
-
-        new MatsimEventsReader(events).readFile(eventsFilename);
-        events.finishProcessing();
     }
 
-    private void analyzeData(String transitScheduleFilename, String analysisFilename) {
-        Scenario scenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
-        new TransitScheduleReader(scenario).readFile(transitScheduleFilename);
+    public void writeResults(TransitSchedule schedule, String analysisFilename) {
         log.info("ANALYSIS");
         try (BufferedWriter out = IOUtils.getBufferedWriter(analysisFilename)) {
             out.write("FROM ID\tFROM NAME\tTO ID\tTO NAME\tMIN_TIME\tAVG_TIME\tMED_TIME\tMAX_TIME\tCOUNT\n");
             for (Map.Entry<Id<TransitStopFacility>, Map<Id<TransitStopFacility>, List<Double>>> e1 : this.transferTimes.entrySet()) {
                 Id<TransitStopFacility> fromStopFacilityId = e1.getKey();
-                TransitStopFacility fromStop = scenario.getTransitSchedule().getFacilities().get(fromStopFacilityId);
+                TransitStopFacility fromStop = schedule.getFacilities().get(fromStopFacilityId);
                 Map<Id<TransitStopFacility>, List<Double>> toMap = e1.getValue();
                 for (Map.Entry<Id<TransitStopFacility>, List<Double>> e2 : toMap.entrySet()) {
                     Id<TransitStopFacility> toStopFacilityId = e2.getKey();
-                    TransitStopFacility toStop = scenario.getTransitSchedule().getFacilities().get(toStopFacilityId);
+                    TransitStopFacility toStop = schedule.getFacilities().get(toStopFacilityId);
                     List<Double> transferTimes = e2.getValue();
                     transferTimes.sort(Double::compare);
                     double minTime = transferTimes.get(0);
@@ -82,63 +82,12 @@ public class VisumPuTSurvey {
     }
 
     public void write(String path) {
-        final String filepath = path + FILENAME;
-        log.info("write Visum PuT Survey File to " + filepath);
-
-        try (CSVWriter writer = new CSVWriter(HEADER, COLUMNS, filepath)) {
+        try (CSVWriter writer = createWriter(path)) {
             for (Map.Entry<Id, TravellerChain> entry : chains.entrySet()) {
                 String pax_id = entry.getKey().toString();
                 TravellerChain chain = entry.getValue();
                 for (Journey journey : chain.getJourneys()) {
-                    Integer i = 1;
-                    for (Trip trip : journey.getTrips()) {
-                        if (this.ptVehicles.containsKey(trip.getVehicleId())) {
-
-                            writer.set(COL_PATH_ID, Integer.toString(journey.getElementId()));
-                            writer.set(COL_LEG_ID, Integer.toString(i));
-                            String boarding = this.transitSchedule.getFacilities().get(trip.getBoardingStop()).getAttributes().getAttribute(STOP_NO).toString();
-                            writer.set(COL_FROM_STOP, boarding);
-                            String alighting = this.transitSchedule.getFacilities().get(trip.getAlightingStop()).getAttributes().getAttribute(STOP_NO).toString();
-                            writer.set(COL_TO_STOP, alighting);
-
-                            Id vId = trip.getVehicleId();
-                            PTVehicle vehicle = this.ptVehicles.get(vId);
-                            Id<TransitLine> lId = vehicle.getLineId();
-                            Id<TransitRoute> rId = vehicle.getRouteId();
-                            Attributes routeAttributes = this.transitSchedule.getTransitLines().get(lId).getRoutes().get(rId).getAttributes();
-                            String direction = routeAttributes.getAttribute(DIRECTION_CODE).toString();
-                            String vsys = routeAttributes.getAttribute(TSYS_CODE).toString();
-                            String line = routeAttributes.getAttribute(TRANSITLINE).toString();
-                            String lineroute = routeAttributes.getAttribute(LINEROUTENAME).toString();
-                            String fzp = routeAttributes.getAttribute(FZPNAME).toString();
-
-                            writer.set(COL_VSYSCODE, vsys);
-                            writer.set(COL_LINNAME, line);
-                            writer.set(COL_LINROUTENAME, lineroute);
-                            writer.set(COL_RICHTUNGSCODE, direction);
-                            writer.set(COL_FZPROFILNAME, fzp);
-
-                            String kennung = "E";
-                            if (i > 1)
-                                kennung = "N";
-
-                            writer.set(COL_TEILWEG_KENNUNG, kennung);
-                            writer.set(COL_EINHSTNR, boarding);
-
-                            int time = (int) trip.getPtDepartureTime();
-
-                            writer.set(COL_EINHSTABFAHRTSTAG, getDayIndex(time));
-                            writer.set(COL_EINHSTABFAHRTSZEIT, getTime(time));
-
-                            Double pfahrt = 1.0 * scaleFactor;
-                            writer.set(COL_PFAHRT, Integer.toString(pfahrt.intValue()));
-
-                            String subpopulation = this.scenario.getPopulation().getPersonAttributes().getAttribute(pax_id,"subpopulation").toString();
-                            writer.set(COL_SUBPOP, subpopulation);
-                            writer.writeRow();
-                            i++;
-                        }
-                    }
+                    writeJourney(writer, pax_id, journey);
                 }
             }
         } catch (IOException e) {
@@ -146,6 +95,70 @@ public class VisumPuTSurvey {
         }
     }
 
+    /**
+     * Opens the survey file, so journeys can be written one after the other with {@link #writeJourney(CSVWriter, String, Journey)}.
+     */
+    public CSVWriter createWriter(String path) throws IOException {
+        final String filepath = path + FILENAME;
+        log.info("write Visum PuT Survey File to " + filepath);
+        return new CSVWriter(HEADER, COLUMNS, filepath);
+    }
+
+    /**
+     * Writes a row for each PT trip of the journey.
+     */
+    public void writeJourney(CSVWriter writer, String pax_id, Journey journey) {
+        Integer i = 1;
+        for (Trip trip : journey.getTrips()) {
+            if (this.ptVehicles.containsKey(trip.getVehicleId())) {
+
+                writer.set(COL_PATH_ID, Integer.toString(journey.getElementId()));
+                writer.set(COL_LEG_ID, Integer.toString(i));
+                String boarding = this.transitSchedule.getFacilities().get(trip.getBoardingStop()).getAttributes().getAttribute(STOP_NO).toString();
+                writer.set(COL_FROM_STOP, boarding);
+                String alighting = this.transitSchedule.getFacilities().get(trip.getAlightingStop()).getAttributes().getAttribute(STOP_NO).toString();
+                writer.set(COL_TO_STOP, alighting);
+
+                Id vId = trip.getVehicleId();
+                PTVehicle vehicle = this.ptVehicles.get(vId);
+                Id<TransitLine> lId = vehicle.getLineId();
+                Id<TransitRoute> rId = vehicle.getRouteId();
+                Attributes routeAttributes = this.transitSchedule.getTransitLines().get(lId).getRoutes().get(rId).getAttributes();
+                String direction = routeAttributes.getAttribute(DIRECTION_CODE).toString();
+                String vsys = routeAttributes.getAttribute(TSYS_CODE).toString();
+                String line = routeAttributes.getAttribute(TRANSITLINE).toString();
+                String lineroute = routeAttributes.getAttribute(LINEROUTENAME).toString();
+                String fzp = routeAttributes.getAttribute(FZPNAME).toString();
+
+                writer.set(COL_VSYSCODE, vsys);
+                writer.set(COL_LINNAME, line);
+                writer.set(COL_LINROUTENAME, lineroute);
+                writer.set(COL_RICHTUNGSCODE, direction);
+                writer.set(COL_FZPROFILNAME, fzp);
+
+                String kennung = "E";
+                if (i > 1)
+                    kennung = "N";
+
+                writer.set(COL_TEILWEG_KENNUNG, kennung);
+                writer.set(COL_EINHSTNR, boarding);
+
+                int time = (int) trip.getPtDepartureTime();
+
+                writer.set(COL_EINHSTABFAHRTSTAG, getDayIndex(time));
+                writer.set(COL_EINHSTABFAHRTSZEIT, getTime(time));
+
+                Double pfahrt = 1.0 * scaleFactor;
+                writer.set(COL_PFAHRT, Integer.toString(pfahrt.intValue()));
+
+                String subpopulation = this.scenario.getPopulation().getPersonAttributes().getAttribute(pax_id,"subpopulation").toString();
+                writer.set(COL_SUBPOP, subpopulation);
+                writer.writeRow();
+                i++;
+            }
+        }
+    }
+
 
     public String getDayIndex(int time){
         int day = (int) Math.ceil(time / (24 * 60 * 60.0));
@@ -5,13 +5,11 @@
 package ch.sbb.matsim.analysis.matrices;
 
 import org.matsim.api.core.v01.Coord;
-import org.matsim.core.utils.geometry.CoordUtils;
 import org.matsim.core.utils.misc.Counter;
 import org.opengis.feature.simple.SimpleFeature;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
@@ -23,42 +21,80 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * - for each zone-to-zone combination, calculate the beeline distance from each point to each other point in the destination zone.
  * - this results in n x n distances per zone-to-zone combination.
  * - average the n x n distances and store this value as the zone-to-zone distance.
-
+ * As the beeline distance is symmetric, only the zone pairs (i, j) with i <= j are calculated, the others are mirrored.
+ *
+ * If a maximum distance is given, all zone pairs with a larger average distance are set to infinity, and the values
+ * are stored in a {@link SparseFloatMatrix}. This is useful for fine-grained zone systems, e.g. for walk or bike skims.
  *
  * @author mrieser / SBB
  */
 public final class BeelineDistanceMatrix {
 
+    /** the name of the matrix, see {@link FloatMatrixFactory}. */
+    public static final String DISTANCES = "distances";
+
     private BeelineDistanceMatrix() {
     }
 
     public static <T> FloatMatrix<T> calculateBeelineDistanceMatrix(Map<T, SimpleFeature> zones, int numberOfPointsPerZone, int numberOfThreads) {
-        Random r = new Random(20180404L);
-
-        Map<T, Coord[]> coordsPerZone = new HashMap<>();
-        for (Map.Entry<T, SimpleFeature> e : zones.entrySet()) {
-            T zoneId = e.getKey();
-            SimpleFeature f = e.getValue();
-            if (f.getDefaultGeometry() != null) {
-                Coord[] coords = new Coord[numberOfPointsPerZone];
-                coordsPerZone.put(zoneId, coords);
-                for (int i = 0; i < numberOfPointsPerZone; i++) {
-                    Coord coord = Utils.getRandomCoordinateInFeature(f, r);
-                    coords[i] = coord;
+        ZoneSamplePoints<T> samplePoints = ZoneSamplePoints.sample(zones, numberOfPointsPerZone, numberOfThreads);
+        return calculateBeelineDistanceMatrix(samplePoints, numberOfThreads);
+    }
+
+    public static <T> FloatMatrix<T> calculateBeelineDistanceMatrix(ZoneSamplePoints<T> samplePoints, int numberOfThreads) {
+        return calculateBeelineDistanceMatrix(samplePoints, Double.POSITIVE_INFINITY, numberOfThreads);
+    }
+
+    /**
+     * @param maxDistance zone pairs with a larger average distance are set to infinity. If the maximum distance
+     *                    is finite, the distances are calculated into a {@link SparseFloatMatrix} with infinity as
+     *                    default value, which is copied into a dense matrix if its measured fill rate is too high,
+     *                    see {@link SparseFloatMatrix#selectRepresentation(FloatMatrix)}. Without a maximum distance,
+     *                    all cells are set, so a dense matrix is used directly.
+     */
+    public static <T> FloatMatrix<T> calculateBeelineDistanceMatrix(ZoneSamplePoints<T> samplePoints, double maxDistance, int numberOfThreads) {
+        if (Double.isInfinite(maxDistance)) {
+            return calculateBeelineDistanceMatrix(samplePoints, maxDistance, FloatMatrixFactory.dense(), numberOfThreads);
+        }
+        FloatMatrix<T> matrix = calculateBeelineDistanceMatrix(samplePoints, maxDistance, FloatMatrixFactory.sparse(), numberOfThreads);
+        return SparseFloatMatrix.selectRepresentation(matrix);
+    }
+
+    /**
+     * Creates the matrix with the given factory, e.g. to store it in a memory-mapped file instead of the heap.
+     * The matrix is named {@link #DISTANCES} and initialized with infinity if the maximum distance is finite, with 0 otherwise.
+     */
+    public static <T> FloatMatrix<T> calculateBeelineDistanceMatrix(ZoneSamplePoints<T> samplePoints, double maxDistance, FloatMatrixFactory<T> matrixFactory, int numberOfThreads) {
+        Set<T> zoneIds = samplePoints.getZoneIds();
+        FloatMatrix<T> matrix = matrixFactory.createMatrix(zoneIds, DISTANCES, Double.isInfinite(maxDistance) ? 0.0f : Float.POSITIVE_INFINITY);
+        int zoneCount = matrix.size();
+        double[][] xsPerZone = new double[zoneCount][];
+        double[][] ysPerZone = new double[zoneCount][];
+        for (T zoneId : zoneIds) {
+            Coord[] coords = samplePoints.getPoints(zoneId);
+            if (coords != null) {
+                double[] xs = new double[coords.length];
+                double[] ys = new double[coords.length];
+                for (int i = 0; i < coords.length; i++) {
+                    xs[i] = coords[i].getX();
+                    ys[i] = coords[i].getY();
                 }
+                int zoneIndex = matrix.indexOf(zoneId);
+                xsPerZone[zoneIndex] = xs;
+                ysPerZone[zoneIndex] = ys;
             }
         }
 
-        // prepare calculation
-        FloatMatrix<T> matrix = new FloatMatrix<>(zones.keySet(), 0.0f);
-
         // do calculation
-        ConcurrentLinkedQueue<T> originZones = new ConcurrentLinkedQueue<>(zones.keySet());
+        ConcurrentLinkedQueue<Integer> originZoneIndices = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < zoneCount; i++) {
+            originZoneIndices.add(i);
+        }
 
-        Counter counter = new Counter("BeelineDistanceMatrix zone ", " / " + zones.size());
+        Counter counter = new Counter("BeelineDistanceMatrix zone ", " / " + zoneCount);
         Thread[] threads = new Thread[numberOfThreads];
         for (int i = 0; i < numberOfThreads; i++) {
-            BeelineDistanceMatrix.RowWorker<T> worker = new BeelineDistanceMatrix.RowWorker<>(originZones, zones.keySet(), coordsPerZone, matrix, counter);
+            BeelineDistanceMatrix.RowWorker<T> worker = new BeelineDistanceMatrix.RowWorker<>(originZoneIndices, xsPerZone, ysPerZone, maxDistance, matrix, counter);
             threads[i] = new Thread(worker, "BeelineDistanceMatrix-" + i);
             threads[i].start();
         }
@@ -72,57 +108,81 @@ public final class BeelineDistanceMatrix {
             }
         }
 
-        matrix.multiply((float) (1.0 / numberOfPointsPerZone / numberOfPointsPerZone));
+        // the workers only calculated the upper triangle (including the diagonal), mirror it to the lower triangle.
+        // Complete rows are set, so sparse matrices can choose the best representation for each row.
+        float[] row = new float[zoneCount];
+        for (int i = 1; i < zoneCount; i++) {
+            matrix.getRow(i, row);
+            for (int j = 0; j < i; j++) {
+                row[j] = matrix.get(j, i);
+            }
+            matrix.setRow(i, row);
+        }
+
         return matrix;
     }
 
+    /**
+     * Calculates the average distances from one origin zone (with index i) to all zones with index j >= i.
+     * As the beeline distance is symmetric, the values for j < i are equal to the values calculated for
+     * the zone pair (j, i), they are set to infinity by the worker and mirrored later.
+     */
     public static class RowWorker<T> implements Runnable {
-        private final ConcurrentLinkedQueue<T> originZones;
-        private final Set<T> destinationZones;
-        private final Map<T, Coord[]> coordsPerZone;
+        private final ConcurrentLinkedQueue<Integer> originZoneIndices;
+        private final double[][] xsPerZone;
+        private final double[][] ysPerZone;
+        private final double maxDistance;
         private final FloatMatrix<T> matrix;
         private final Counter counter;
 
-        RowWorker(ConcurrentLinkedQueue<T> originZones, Set<T> destinationZones, Map<T, Coord[]> coordsPerZone, FloatMatrix<T> matrix, Counter counter) {
-            this.originZones = originZones;
-            this.destinationZones = destinationZones;
-            this.coordsPerZone = coordsPerZone;
+        RowWorker(ConcurrentLinkedQueue<Integer> originZoneIndices, double[][] xsPerZone, double[][] ysPerZone, double maxDistance, FloatMatrix<T> matrix, Counter counter) {
+            this.originZoneIndices = originZoneIndices;
+            this.xsPerZone = xsPerZone;
+            this.ysPerZone = ysPerZone;
+            this.maxDistance = maxDistance;
             this.matrix = matrix;
             this.counter = counter;
         }
 
         public void run() {
+            float[] row = new float[this.xsPerZone.length];
             while (true) {
-                T fromZoneId = this.originZones.poll();
-                if (fromZoneId == null) {
+                Integer fromZoneIndex = this.originZoneIndices.poll();
+                if (fromZoneIndex == null) {
                     return;
                 }
 
                 this.counter.incCounter();
-                Coord[] fromCoords = this.coordsPerZone.get(fromZoneId);
-                if (fromCoords != null) {
-                    for (Coord fromCoord : fromCoords) {
-
-                        for (T toZoneId : this.destinationZones) {
-                            Coord[] toCoords = this.coordsPerZone.get(toZoneId);
-                            if (toCoords != null) {
-                                for (Coord toCoord : toCoords) {
-                                    double dist = CoordUtils.calcEuclideanDistance(fromCoord, toCoord);
-                                    this.matrix.add(fromZoneId, toZoneId, (float) dist);
-                                }
-                            } else {
-                                // this might happen if a zone has no geometry, for whatever reason...
-                                this.matrix.set(fromZoneId, toZoneId, Float.POSITIVE_INFINITY);
-                            }
-                        }
-                    }
-                } else {
-                    // this might happen if a zone has no geometry, for whatever reason...
-                    for (T toZoneId : this.destinationZones) {
-                        this.matrix.set(fromZoneId, toZoneId, Float.POSITIVE_INFINITY);
+                double[] fromXs = this.xsPerZone[fromZoneIndex];
+                double[] fromYs = this.ysPerZone[fromZoneIndex];
+                Arrays.fill(row, 0, fromZoneIndex, Float.POSITIVE_INFINITY);
+                for (int toZoneIndex = fromZoneIndex; toZoneIndex < this.xsPerZone.length; toZoneIndex++) {
+                    double[] toXs = this.xsPerZone[toZoneIndex];
+                    double[] toYs = this.ysPerZone[toZoneIndex];
+                    if (fromXs != null && toXs != null) {
+                        double avgDistance = calcAverageDistance(fromXs, fromYs, toXs, toYs);
+                        row[toZoneIndex] = avgDistance > this.maxDistance ? Float.POSITIVE_INFINITY : (float) avgDistance;
+                    } else {
+                        // this might happen if a zone has no geometry, for whatever reason...
+                        row[toZoneIndex] = Float.POSITIVE_INFINITY;
                     }
                 }
+                this.matrix.setRow(fromZoneIndex, row);
+            }
+        }
+
+        private static double calcAverageDistance(double[] fromXs, double[] fromYs, double[] toXs, double[] toYs) {
+            double sum = 0;
+            for (int i = 0; i < fromXs.length; i++) {
+                double fromX = fromXs[i];
+                double fromY = fromYs[i];
+                for (int j = 0; j < toXs.length; j++) {
+                    double dx = toXs[j] - fromX;
+                    double dy = toYs[j] - fromY;
+                    sum += Math.sqrt(dx * dx + dy * dy);
+                }
             }
+            return sum / (fromXs.length * toXs.length);
         }
     }
 }
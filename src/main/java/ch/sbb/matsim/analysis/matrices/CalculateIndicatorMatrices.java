@@ -5,6 +5,8 @@
 package ch.sbb.matsim.analysis.matrices;
 
 import ch.sbb.matsim.analysis.matrices.NetworkTravelTimeMatrix.NetworkIndicators;
+import ch.sbb.matsim.routing.graph.Graph;
+import ch.sbb.matsim.routing.graph.TravelTimeTable;
 import ch.sbb.matsim.routing.pt.raptor.RaptorParameters;
 import ch.sbb.matsim.routing.pt.raptor.RaptorStaticConfig;
 import ch.sbb.matsim.routing.pt.raptor.RaptorUtils;
@@ -21,13 +23,10 @@ import org.matsim.core.events.MatsimEventsReader;
 import org.matsim.core.network.NetworkUtils;
 import org.matsim.core.network.algorithms.TransportModeNetworkFilter;
 import org.matsim.core.network.io.MatsimNetworkReader;
-import org.matsim.core.router.costcalculators.OnlyTimeDependentTravelDisutility;
-import org.matsim.core.router.util.TravelDisutility;
-import org.matsim.core.router.util.TravelTime;
 import org.matsim.core.scenario.ScenarioUtils;
-import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
 import org.matsim.core.trafficmonitoring.TravelTimeCalculator;
 import org.matsim.core.utils.gis.ShapeFileReader;
+import org.matsim.core.utils.io.UncheckedIOException;
 import org.matsim.core.utils.misc.Time;
 import org.matsim.pt.transitSchedule.api.TransitScheduleReader;
 import org.opengis.feature.simple.SimpleFeature;
@@ -47,25 +46,86 @@ public class CalculateIndicatorMatrices {
 
     private static final Logger log = Logger.getLogger(CalculateIndicatorMatrices.class);
 
-    public static final String CAR_TRAVELTIMES_FILENAME = "car_traveltimes.csv.gz";
-    public static final String CAR_DISTANCES_FILENAME = "car_distances.csv.gz";
-    public static final String PT_TRAVELTIMES_FILENAME = "pt_traveltimes.csv.gz";
-    public static final String PT_ACCESSTIMES_FILENAME = "pt_accesstimes.csv.gz";
-    public static final String PT_EGRESSTIMES_FILENAME = "pt_egresstimes.csv.gz";
-    public static final String PT_TRANSFERCOUNTS_FILENAME = "pt_transfercounts.csv.gz";
-    public static final String BEELINE_DISTANCE_FILENAME = "beeline_distances.csv.gz";
+    public static final String CAR_TRAVELTIMES_FILENAME = "car_traveltimes";
+    public static final String CAR_DISTANCES_FILENAME = "car_distances";
+    public static final String PT_TRAVELTIMES_FILENAME = "pt_traveltimes";
+    public static final String PT_ACCESSTIMES_FILENAME = "pt_accesstimes";
+    public static final String PT_EGRESSTIMES_FILENAME = "pt_egresstimes";
+    public static final String PT_TRANSFERCOUNTS_FILENAME = "pt_transfercounts";
+    public static final String BEELINE_DISTANCE_FILENAME = "beeline_distances";
+    public static final String PT_PROFILE_MEAN_TRAVELTIMES_FILENAME = "pt_profile_mean_traveltimes";
+    public static final String PT_PROFILE_MIN_TRAVELTIMES_FILENAME = "pt_profile_min_traveltimes";
+    public static final String PT_PROFILE_PERCENTILE_TRAVELTIMES_FILENAME = "pt_profile_percentile_traveltimes";
+    public static final String PT_PROFILE_WAITTIMES_FILENAME = "pt_profile_waittimes";
+    /** suffixes appended to the travel time matrix filenames for the matrices of the travel time distribution, see {@link TravelTimeDistribution}. */
+    public static final String STDDEV_SUFFIX = TravelTimeDistribution.STDDEV_SUFFIX;
+    public static final String P10_SUFFIX = TravelTimeDistribution.P10_SUFFIX;
+    public static final String P50_SUFFIX = TravelTimeDistribution.P50_SUFFIX;
+    public static final String P90_SUFFIX = TravelTimeDistribution.P90_SUFFIX;
+    /** the sampled points per zone, see {@link ZoneSamplePoints}. Re-used by subsequent runs if the zones match. */
+    public static final String ZONE_POINTS_FILENAME = "zone_points.csv.gz";
+    /** the summaries of the CAR trees, see {@link NetworkTreeSummaries}. Only written if the CAR matrices are calculated incrementally. */
+    public static final String CAR_TREE_SUMMARIES_FILENAME = "car_tree_summaries.bin";
 
+    /** suffix of the binary matrix files, see {@link FloatMatrixIO#writeAsBinary(FloatMatrix, String)}. */
+    public static final String BINARY_SUFFIX = ".fmx";
+    /** suffix of the optional CSV exports of the matrices. */
+    public static final String CSV_SUFFIX = ".csv.gz";
+
+    /** all matrices written by this class, used to find the partial files to merge. */
+    private static final String[] MATRIX_FILENAMES = {
+            CAR_TRAVELTIMES_FILENAME, CAR_DISTANCES_FILENAME,
+            PT_TRAVELTIMES_FILENAME, PT_ACCESSTIMES_FILENAME, PT_EGRESSTIMES_FILENAME, PT_TRANSFERCOUNTS_FILENAME,
+            PT_PROFILE_MEAN_TRAVELTIMES_FILENAME, PT_PROFILE_MIN_TRAVELTIMES_FILENAME, PT_PROFILE_PERCENTILE_TRAVELTIMES_FILENAME, PT_PROFILE_WAITTIMES_FILENAME,
+            BEELINE_DISTANCE_FILENAME,
+            CAR_TRAVELTIMES_FILENAME + STDDEV_SUFFIX, CAR_TRAVELTIMES_FILENAME + P10_SUFFIX, CAR_TRAVELTIMES_FILENAME + P50_SUFFIX, CAR_TRAVELTIMES_FILENAME + P90_SUFFIX,
+            PT_TRAVELTIMES_FILENAME + STDDEV_SUFFIX, PT_TRAVELTIMES_FILENAME + P10_SUFFIX, PT_TRAVELTIMES_FILENAME + P50_SUFFIX, PT_TRAVELTIMES_FILENAME + P90_SUFFIX
+    };
+
+    /** travel times after the last departure time are cached up to this duration, later times use the last cached value. */
+    private static final double MAX_CAR_TRAVELTIME = 4 * 3600;
+
+    /**
+     * Optional arguments:
+     * <ul>
+     *     <li><code>--shard k/N</code>: only calculate the rows of the origin zones assigned to shard <code>k</code> of
+     *     <code>N</code> and write them to partial matrix files, see {@link MatrixShard}.</li>
+     *     <li><code>--merge N</code>: merge the partial matrix files of <code>N</code> shards in the output directory
+     *     into the full matrices, without calculating anything.</li>
+     * </ul>
+     */
     public static void main(String[] args) throws IOException {
         System.setProperty("matsim.preferLocalDtds", "true");
 
+        MatrixShard shard = null;
+        int mergeShardCount = 0;
+        for (int i = 0; i < args.length; i++) {
+            if ("--shard".equals(args[i]) && i + 1 < args.length) {
+                shard = MatrixShard.parse(args[++i]);
+            } else if ("--merge".equals(args[i]) && i + 1 < args.length) {
+                mergeShardCount = Integer.parseInt(args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unsupported argument: " + args[i]);
+            }
+        }
+
         String zonesShapeFilename = "D:\\devsbb\\mrieser\\data\\npvm_2016\\NPVM_OberBez.shp";
         String zonesIdAttributeName = "ID";
         String networkFilename = "D:\\devsbb\\mrieser\\data\\raptorPerfTest2\\network.xml.gz";
         String transitScheduleFilename = "D:\\devsbb\\mrieser\\data\\raptorPerfTest2\\transitSchedule.xml.gz";
         String eventsFilename = null;
         String outputDirectory = "D:\\devsbb\\mrieser\\data\\indicators";
+        boolean exportCSV = false;
         int numberOfPointsPerZone = 5;
         int numberOfThreads = 8;
+        boolean calcPtProfile = false; // additionally calculate PT profile matrices over the window from the first to the last time
+        double ptProfileStepSize = 300;
+        double ptProfilePercentile = 90;
+        boolean incrementalCar = false; // only re-calculate the CAR matrix rows affected by network changes since the previous run in the output directory
+        boolean calcTravelTimeDistributions = false; // additionally calculate the standard deviation and quantiles of the CAR and PT travel times
+        boolean mapMatrices = false; // store the matrices in memory-mapped output files instead of the heap, so they need neither a huge heap nor a separate write step
+        double maxCarTravelTime = Double.POSITIVE_INFINITY; // zone pairs with a larger average CAR travel time are set to infinity, stored sparsely if most pairs are above it
+        double maxBeelineDistance = Double.POSITIVE_INFINITY; // zone pairs with a larger average beeline distance are set to infinity, stored sparsely if most pairs are above it
         double[] times = {
                 Time.parseTime("08:00:00"),
                 Time.parseTime("08:15:00"),
@@ -90,6 +150,29 @@ public class CalculateIndicatorMatrices {
             }
         }
 
+        if (mergeShardCount > 0) {
+            mergePartialMatrices(outputDirectory, mergeShardCount, exportCSV);
+            return;
+        }
+
+        if (shard != null) {
+            log.info("calculating shard " + shard + ", only the rows of the shard's origin zones are calculated and written.");
+            if (incrementalCar) {
+                log.warn("The CAR matrices cannot be updated incrementally when calculating a shard, calculate them completely.");
+                incrementalCar = false;
+            }
+            if (mapMatrices) {
+                log.warn("Shards only write partial matrices, the matrices are stored on the heap instead of memory-mapped files.");
+                mapMatrices = false;
+            }
+        }
+        if (incrementalCar && calcTravelTimeDistributions) {
+            log.warn("The distribution of the CAR travel times cannot be updated incrementally, it is not calculated.");
+        }
+        if (incrementalCar && !Double.isInfinite(maxCarTravelTime)) {
+            log.warn("The CAR matrices are updated incrementally, the maximum CAR travel time is not applied.");
+        }
+
         // load all data
 
         log.info("loading network from " + networkFilename);
@@ -105,49 +188,102 @@ public class CalculateIndicatorMatrices {
             zonesById.put(zoneId, zone);
         }
 
-        TravelTime tt;
+        log.info("extracting car-only network");
+        final Network carNetwork = NetworkUtils.createNetwork();
+        new TransportModeNetworkFilter(scenario.getNetwork()).filter(carNetwork, Collections.singleton(TransportMode.car));
+        Graph carGraph = new Graph(carNetwork);
+
+        // sample the points per zone, or re-use the ones from a previous run
+        String zonePointsFilename = new File(outputDirectory, ZONE_POINTS_FILENAME).getAbsolutePath();
+        ZoneSamplePoints<String> zonePoints = null;
+        boolean zonePointsChanged = false;
+        if (new File(zonePointsFilename).exists()) {
+            log.info("loading zone points from " + zonePointsFilename);
+            zonePoints = ZoneSamplePoints.read(zonePointsFilename, id -> id);
+            if (!zonePoints.isCompatible(zonesById, numberOfPointsPerZone)) {
+                log.warn("The zone points in " + zonePointsFilename + " do not match the zones, their geometries or the number of points per zone, sample them again.");
+                zonePoints = null;
+            }
+        }
+        if (zonePoints == null) {
+            log.info("sampling " + numberOfPointsPerZone + " points per zone");
+            zonePoints = ZoneSamplePoints.sample(zonesById, numberOfPointsPerZone, numberOfThreads);
+            zonePointsChanged = true;
+        }
+        log.info("snapping zone points to car network");
+        zonePointsChanged |= zonePoints.snapToNetwork(TransportMode.car, carNetwork);
+        if (zonePointsChanged && shard == null) {
+            // shards do not write the points, as multiple shards could write the same file concurrently. The points are deterministic anyway.
+            log.info("writing zone points to " + zonePointsFilename);
+            zonePoints.write(zonePointsFilename);
+        }
+
+        TravelTimeTable tt;
+        boolean isFreespeed;
         if (eventsFilename != null) {
             log.info("extracting actual travel times from " + eventsFilename);
             TravelTimeCalculator ttc = TravelTimeCalculator.create(scenario.getNetwork(), config.travelTimeCalculator());
             EventsManager events =  EventsUtils.createEventsManager();
             events.addHandler(ttc);
             new MatsimEventsReader(events).readFile(eventsFilename);
-            tt = ttc.getLinkTravelTimes();
+            double binSize = config.travelTimeCalculator().getTraveltimeBinSize();
+            log.info("caching travel times for car network");
+            tt = new TravelTimeTable(carGraph, ttc.getLinkTravelTimes(), times[0], times[times.length - 1] + MAX_CAR_TRAVELTIME, binSize);
+            isFreespeed = false;
         } else {
-            tt = new FreeSpeedTravelTime();
+            tt = TravelTimeTable.createFreespeedTable(carGraph);
+            isFreespeed = true;
             log.info("No events specified. Travel Times will be calculated with free speed travel times.");
         }
 
-        TravelDisutility td = new OnlyTimeDependentTravelDisutility(tt);
-
-
         // calc MIV matrix
 
-        log.info("extracting car-only network");
-        final Network carNetwork = NetworkUtils.createNetwork();
-        new TransportModeNetworkFilter(scenario.getNetwork()).filter(carNetwork, Collections.singleton(TransportMode.car));
-
-        log.info("calc CAR matrix for " + Time.writeTime(times[0]));
-        NetworkIndicators<String> netIndicators = NetworkTravelTimeMatrix.calculateTravelTimeMatrix(carNetwork, zonesById, times[0], numberOfPointsPerZone, tt, td, numberOfThreads);
-
-        if (tt instanceof FreeSpeedTravelTime) {
+        double[] carTimes;
+        if (isFreespeed) {
+            log.info("calc CAR matrix for " + Time.writeTime(times[0]));
             log.info("Do not calculate CAR matrices for other times as only freespeed is being used");
+            carTimes = new double[] {times[0]};
         } else {
-            for (int i = 1; i < times.length; i++) {
-                log.info("calc CAR matrices for " + Time.writeTime(times[i]));
-                NetworkIndicators<String> indicators2 = NetworkTravelTimeMatrix.calculateTravelTimeMatrix(carNetwork, zonesById, times[i], numberOfPointsPerZone, tt, td, numberOfThreads);
-                log.info("merge CAR matrices for " + Time.writeTime(times[i]));
-                combineMatrices(netIndicators.travelTimeMatrix, indicators2.travelTimeMatrix);
-                combineMatrices(netIndicators.distanceMatrix, indicators2.distanceMatrix);
+            log.info("calc CAR matrices for " + Utils.writeTimes(times));
+            carTimes = times;
+        }
+        Collection<String> originZoneIds = shard == null ? zonePoints.getZoneIds() : shard.getOriginZones(zonePoints.getZoneIds());
+        NetworkIndicators<String> netIndicators;
+        if (incrementalCar) {
+            String summariesFilename = new File(outputDirectory, CAR_TREE_SUMMARIES_FILENAME).getAbsolutePath();
+            File previousTravelTimesFile = new File(outputDirectory, CAR_TRAVELTIMES_FILENAME + BINARY_SUFFIX);
+            File previousDistancesFile = new File(outputDirectory, CAR_DISTANCES_FILENAME + BINARY_SUFFIX);
+            NetworkTreeSummaries<String> previousSummaries = null;
+            FloatMatrix<String> previousTravelTimes = null;
+            FloatMatrix<String> previousDistances = null;
+            if (zonePointsChanged) {
+                log.info("The zone points changed, the CAR matrices cannot be updated incrementally.");
+            } else if (new File(summariesFilename).exists() && previousTravelTimesFile.exists() && previousDistancesFile.exists()) {
+                log.info("loading previous CAR matrices and tree summaries from " + outputDirectory);
+                previousSummaries = NetworkTreeSummaries.read(summariesFilename, id -> id);
+                // read the matrices into memory instead of mapping them, as the files will be overwritten
+                previousTravelTimes = new FloatMatrix<>(zonePoints.getZoneIds(), 0);
+                FloatMatrixIO.readAsBinary(previousTravelTimes, previousTravelTimesFile.getAbsolutePath(), id -> id);
+                previousDistances = new FloatMatrix<>(zonePoints.getZoneIds(), 0);
+                FloatMatrixIO.readAsBinary(previousDistances, previousDistancesFile.getAbsolutePath(), id -> id);
             }
-            log.info("re-scale CAR matrices after all data is merged.");
-            netIndicators.travelTimeMatrix.multiply((float) (1.0 / times.length));
-            netIndicators.distanceMatrix.multiply((float) (1.0 / times.length));
+            IncrementalNetworkTravelTimeMatrix.IncrementalNetworkIndicators<String> incrementalIndicators = IncrementalNetworkTravelTimeMatrix.calculateTravelTimeMatrix(
+                    carNetwork, tt, zonePoints, TransportMode.car, carTimes, previousSummaries, previousTravelTimes, previousDistances, numberOfThreads);
+            log.info("write CAR tree summaries to " + summariesFilename);
+            incrementalIndicators.treeSummaries.write(summariesFilename);
+            netIndicators = incrementalIndicators;
+        } else {
+            // without mapped matrices, the calculator chooses dense or sparse matrices depending on the maximum travel time
+            FloatMatrixFactory<String> carMatrixFactory = mapMatrices ? createMappedMatrixFactory(outputDirectory, "car_") : null;
+            netIndicators = NetworkTravelTimeMatrix.calculateTravelTimeMatrix(carNetwork, tt, zonePoints, TransportMode.car, carTimes, originZoneIds, null, calcTravelTimeDistributions, maxCarTravelTime, carMatrixFactory, numberOfThreads);
         }
 
         log.info("write CAR matrices to " + outputDirectory);
-        FloatMatrixIO.writeAsCSV(netIndicators.travelTimeMatrix, outputDirectory + "/" + CAR_TRAVELTIMES_FILENAME);
-        FloatMatrixIO.writeAsCSV(netIndicators.distanceMatrix, outputDirectory + "/" + CAR_DISTANCES_FILENAME);
+        writeMatrix(netIndicators.travelTimeMatrix, shard, outputDirectory, CAR_TRAVELTIMES_FILENAME, exportCSV);
+        writeMatrix(netIndicators.distanceMatrix, shard, outputDirectory, CAR_DISTANCES_FILENAME, exportCSV);
+        if (netIndicators.travelTimeDistribution != null) {
+            writeDistribution(netIndicators.travelTimeDistribution, shard, outputDirectory, CAR_TRAVELTIMES_FILENAME, exportCSV);
+        }
 
         // calc PT matrices
         log.info("prepare PT Matrix calculation");
@@ -156,47 +292,87 @@ public class CalculateIndicatorMatrices {
         SwissRailRaptorData raptorData = SwissRailRaptorData.create(scenario.getTransitSchedule(), raptorConfig, scenario.getNetwork());
         RaptorParameters raptorParameters = RaptorUtils.createParameters(config);
 
-        log.info("calc PT matrices for " + Time.writeTime(times[0]));
-        PTTravelTimeMatrix.PtIndicators<String> matrices = PTTravelTimeMatrix.calculateTravelTimeMatrix(raptorData, zonesById, times[0], numberOfPointsPerZone, raptorParameters, numberOfThreads);
-
-        for (int i = 1; i < times.length; i++) {
-            log.info("calc PT matrices for " + Time.writeTime(times[i]));
-            PTTravelTimeMatrix.PtIndicators<String> matrices2 = PTTravelTimeMatrix.calculateTravelTimeMatrix(raptorData, zonesById, times[i], numberOfPointsPerZone, raptorParameters, numberOfThreads);
+        log.info("calc PT matrices for " + Utils.writeTimes(times));
+        FloatMatrixFactory<String> ptMatrixFactory = mapMatrices ? createMappedMatrixFactory(outputDirectory, "pt_") : FloatMatrixFactory.dense();
+        PTTravelTimeMatrix.PtIndicators<String> matrices = PTTravelTimeMatrix.calculateTravelTimeMatrix(raptorData, zonePoints, times, originZoneIds, calcTravelTimeDistributions, ptMatrixFactory, raptorParameters, numberOfThreads);
 
-            log.info("merge PT matrices for " + Time.writeTime(times[i]));
-            combineMatrices(matrices.travelTimeMatrix, matrices2.travelTimeMatrix);
-            combineMatrices(matrices.accessTimeMatrix, matrices2.accessTimeMatrix);
-            combineMatrices(matrices.egressTimeMatrix, matrices2.egressTimeMatrix);
-            combineMatrices(matrices.travelTimeMatrix, matrices2.travelTimeMatrix);
+        log.info("write PT matrices to " + outputDirectory);
+        writeMatrix(matrices.travelTimeMatrix, shard, outputDirectory, PT_TRAVELTIMES_FILENAME, exportCSV);
+        writeMatrix(matrices.accessTimeMatrix, shard, outputDirectory, PT_ACCESSTIMES_FILENAME, exportCSV);
+        writeMatrix(matrices.egressTimeMatrix, shard, outputDirectory, PT_EGRESSTIMES_FILENAME, exportCSV);
+        writeMatrix(matrices.transferCountMatrix, shard, outputDirectory, PT_TRANSFERCOUNTS_FILENAME, exportCSV);
+        if (matrices.travelTimeDistribution != null) {
+            writeDistribution(matrices.travelTimeDistribution, shard, outputDirectory, PT_TRAVELTIMES_FILENAME, exportCSV);
         }
 
-        log.info("re-scale PT matrices after all data is merged.");
-        matrices.travelTimeMatrix.multiply((float) (1.0 / times.length));
-        matrices.accessTimeMatrix.multiply((float) (1.0 / times.length));
-        matrices.egressTimeMatrix.multiply((float) (1.0 / times.length));
-        matrices.transferCountMatrix.multiply((float) (1.0 / times.length));
+        if (calcPtProfile) {
+            log.info("calc PT profile matrices for " + Time.writeTime(times[0]) + " - " + Time.writeTime(times[times.length - 1]));
+            PTProfileTravelTimeMatrix.PtProfileIndicators<String> profile = PTProfileTravelTimeMatrix.calculateProfileMatrix(raptorData, zonePoints, times[0], times[times.length - 1], ptProfileStepSize, ptProfilePercentile, originZoneIds, raptorParameters, numberOfThreads);
 
-        log.info("write PT matrices to " + outputDirectory);
-        FloatMatrixIO.writeAsCSV(matrices.travelTimeMatrix, outputDirectory + "/" + PT_TRAVELTIMES_FILENAME);
-        FloatMatrixIO.writeAsCSV(matrices.accessTimeMatrix, outputDirectory + "/" + PT_ACCESSTIMES_FILENAME);
-        FloatMatrixIO.writeAsCSV(matrices.egressTimeMatrix, outputDirectory + "/" + PT_EGRESSTIMES_FILENAME);
-        FloatMatrixIO.writeAsCSV(matrices.transferCountMatrix, outputDirectory + "/" + PT_TRANSFERCOUNTS_FILENAME);
+            log.info("write PT profile matrices to " + outputDirectory);
+            writeMatrix(profile.meanTravelTimeMatrix, shard, outputDirectory, PT_PROFILE_MEAN_TRAVELTIMES_FILENAME, exportCSV);
+            writeMatrix(profile.minTravelTimeMatrix, shard, outputDirectory, PT_PROFILE_MIN_TRAVELTIMES_FILENAME, exportCSV);
+            writeMatrix(profile.percentileTravelTimeMatrix, shard, outputDirectory, PT_PROFILE_PERCENTILE_TRAVELTIMES_FILENAME, exportCSV);
+            writeMatrix(profile.waitTimeMatrix, shard, outputDirectory, PT_PROFILE_WAITTIMES_FILENAME, exportCSV);
+        }
 
-        // calc BEELINE matrices
+        // calc BEELINE matrices, always completely as they are cheap; shards only write their rows
         log.info("calc beeline distance matrix");
-        FloatMatrix<String> beelineMatrix = BeelineDistanceMatrix.calculateBeelineDistanceMatrix(zonesById, numberOfPointsPerZone, numberOfThreads);
+        FloatMatrix<String> beelineMatrix = mapMatrices
+                ? BeelineDistanceMatrix.calculateBeelineDistanceMatrix(zonePoints, maxBeelineDistance, createMappedMatrixFactory(outputDirectory, "beeline_"), numberOfThreads)
+                : BeelineDistanceMatrix.calculateBeelineDistanceMatrix(zonePoints, maxBeelineDistance, numberOfThreads);
 
         log.info("write beeline distance matrix to " + outputDirectory);
-        FloatMatrixIO.writeAsCSV(beelineMatrix, outputDirectory + "/" + BEELINE_DISTANCE_FILENAME);
+        writeMatrix(beelineMatrix, shard, outputDirectory, BEELINE_DISTANCE_FILENAME, exportCSV);
+
+    }
+
+    private static <T> void writeMatrix(FloatMatrix<T> matrix, MatrixShard shard, String outputDirectory, String filename, boolean exportCSV) throws IOException {
+        if (shard != null) {
+            shard.writePartialMatrix(matrix, outputDirectory, filename);
+            return;
+        }
+        File binaryFile = new File(outputDirectory, filename + BINARY_SUFFIX).getAbsoluteFile();
+        if (matrix instanceof MappedFloatMatrix && binaryFile.equals(new File(((MappedFloatMatrix<T>) matrix).getFilename()).getAbsoluteFile())) {
+            // the values are already stored in the file, it must not be overwritten while it is mapped
+            ((MappedFloatMatrix<T>) matrix).flush();
+        } else {
+            FloatMatrixIO.writeAsBinary(matrix, binaryFile.getAbsolutePath());
+        }
+        if (exportCSV) {
+            FloatMatrixIO.writeAsCSV(matrix, new File(outputDirectory, filename + CSV_SUFFIX).getAbsolutePath());
+        }
+    }
+
+    /**
+     * Creates the matrices as memory-mapped files in the output directory, named by the prefix and the name of the matrix,
+     * e.g. <code>pt_</code> and <code>traveltimes</code> result in {@link #PT_TRAVELTIMES_FILENAME}.
+     */
+    private static FloatMatrixFactory<String> createMappedMatrixFactory(String outputDirectory, String prefix) {
+        return (zones, name, initialValue) -> {
+            String filename = new File(outputDirectory, prefix + name + BINARY_SUFFIX).getAbsolutePath();
+            try {
+                return FloatMatrixIO.createMappedBinary(zones, filename, initialValue);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
 
+    private static <T> void writeDistribution(TravelTimeDistribution<T> distribution, MatrixShard shard, String outputDirectory, String travelTimesFilename, boolean exportCSV) throws IOException {
+        writeMatrix(distribution.stdDevMatrix, shard, outputDirectory, travelTimesFilename + STDDEV_SUFFIX, exportCSV);
+        writeMatrix(distribution.p10Matrix, shard, outputDirectory, travelTimesFilename + P10_SUFFIX, exportCSV);
+        writeMatrix(distribution.p50Matrix, shard, outputDirectory, travelTimesFilename + P50_SUFFIX, exportCSV);
+        writeMatrix(distribution.p90Matrix, shard, outputDirectory, travelTimesFilename + P90_SUFFIX, exportCSV);
     }
 
-    private static <T> void combineMatrices(FloatMatrix<T> matrix1, FloatMatrix<T> matrix2) {
-        Set<T> ids = matrix2.id2index.keySet();
-        for (T fromId : ids) {
-            for (T toId : ids) {
-                float value2 = matrix2.get(fromId, toId);
-                matrix1.add(fromId, toId, value2);
+    private static void mergePartialMatrices(String outputDirectory, int shardCount, boolean exportCSV) throws IOException {
+        for (String filename : MATRIX_FILENAMES) {
+            if (MatrixShard.hasPartialMatrices(outputDirectory, filename, shardCount)) {
+                log.info("merge partial matrices of " + shardCount + " shards for " + filename);
+                Set<String> zoneIds = MatrixShard.readZoneIds(outputDirectory, filename, shardCount, id -> id);
+                FloatMatrix<String> matrix = MatrixShard.mergePartialMatrices(zoneIds, outputDirectory, filename, shardCount, id -> id);
+                writeMatrix(matrix, null, outputDirectory, filename, exportCSV);
             }
         }
     }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Accumulates values into arbitrary cells of a matrix from multiple threads.
+ *
+ * In contrast to {@link RowPartitionedMatrixWriter}, threads do not need to own rows, so this can be
+ * used by algorithms that scatter their results over the whole matrix, e.g. destination-based or
+ * column-oriented calculations. Each cell is updated atomically with a compare-and-set loop on the
+ * bits of the float value, so no locks are required and threads only contend if they update the very
+ * same cell at the same time.
+ *
+ * The accumulated values are stored separately from the matrix (4 bytes per cell, like the matrix itself)
+ * and are added to the matrix by calling {@link #addTo(FloatMatrix)} once all threads have finished.
+ *
+ * @author mrieser / SBB
+ */
+public class ConcurrentFloatMatrixAccumulator<T> {
+
+    private final FloatMatrix<T> template;
+    private final int size;
+    private final AtomicIntegerArray data;
+
+    /**
+     * @param template a matrix defining the zones and their indices. The accumulator is empty initially, no values are copied from the template.
+     */
+    public ConcurrentFloatMatrixAccumulator(FloatMatrix<T> template) {
+        this.template = template;
+        this.size = template.size();
+        this.data = new AtomicIntegerArray(this.size * this.size); // all bits 0 represent 0.0f
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int indexOf(T id) {
+        return this.template.indexOf(id);
+    }
+
+    /**
+     * Atomically adds the value to the cell.
+     *
+     * @return the new value of the cell
+     */
+    public float add(int fromIndex, int toIndex, float value) {
+        int index = fromIndex * this.size + toIndex;
+        while (true) {
+            int oldBits = this.data.get(index);
+            float newValue = Float.intBitsToFloat(oldBits) + value;
+            if (this.data.compareAndSet(index, oldBits, Float.floatToRawIntBits(newValue))) {
+                return newValue;
+            }
+        }
+    }
+
+    public float get(int fromIndex, int toIndex) {
+        return Float.intBitsToFloat(this.data.get(fromIndex * this.size + toIndex));
+    }
+
+    /**
+     * Adds the accumulated values to the given matrix, which must have the same zones with the same indices as the template.
+     */
+    public void addTo(FloatMatrix<T> matrix) {
+        if (matrix.size() != this.size) {
+            throw new IllegalArgumentException("The matrices have different sizes: " + this.size + " vs. " + matrix.size());
+        }
+        float[] row = new float[this.size];
+        for (int fromIndex = 0; fromIndex < this.size; fromIndex++) {
+            int offset = fromIndex * this.size;
+            for (int toIndex = 0; toIndex < this.size; toIndex++) {
+                row[toIndex] = Float.intBitsToFloat(this.data.get(offset + toIndex));
+            }
+            matrix.addRow(fromIndex, row);
+        }
+    }
+}
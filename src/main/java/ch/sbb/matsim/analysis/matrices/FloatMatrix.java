@@ -32,53 +32,75 @@ import java.util.Set;
  *
  * So, as long as the matrix has entries in at least 1/16.5 = 6% or 1/25 = 4% of all cells, the
  * simple float array should be more efficient.
+ * For matrices where even fewer cells differ from a common default value, e.g. skims of fine-grained zone
+ * systems with a distance cutoff, use {@link SparseFloatMatrix}.
  *
  * For larger matrices the absolute volumes become even more impressive. For an 8000x8000 matrix,
  * the float array will use 250MB, while the alternatives will use 4.5 or 6.5 GB respectively.
+ *
+ * Subclasses may store the values elsewhere, e.g. {@link MappedFloatMatrix} in a memory-mapped file
+ * or {@link SparseFloatMatrix} in compressed rows.
+ * Such subclasses must override the index-based accessors, the row operations and {@link #multiply(float)},
+ * all other operations are implemented on top of these methods.
  */
 public class FloatMatrix<T> {
 
     final Map<T, Integer> id2index;
-    private final int size;
+    private final Object[] index2id;
+    final int size;
     private final float[] data;
 
     public FloatMatrix(Set<T> zones, float defaultValue) {
+        this(zones, true);
+        Arrays.fill(this.data, defaultValue);
+    }
+
+    /**
+     * Constructor for subclasses that store the cell values elsewhere, no memory for the
+     * values is allocated.
+     *
+     * @param zones the zones, the iteration order defines the indices of the zones.
+     */
+    protected FloatMatrix(Set<T> zones) {
+        this(zones, false);
+    }
+
+    private FloatMatrix(Set<T> zones, boolean allocateData) {
         this.size = zones.size();
         this.id2index = new HashMap<>((int) (this.size * 1.5));
-        this.data = new float[this.size * this.size];
-        Arrays.fill(this.data, defaultValue);
+        this.index2id = new Object[this.size];
+        this.data = allocateData ? new float[this.size * this.size] : null;
         int index = 0;
         for (T t : zones) {
             this.id2index.put(t, index);
+            this.index2id[index] = t;
             index++;
         }
     }
 
     public float set(T from, T to, float value) {
-        int index = getIndex(from, to);
-        float oldValue = this.data[index];
-        this.data[index] = value;
-        return oldValue;
+        int fromIndex = this.id2index.get(from);
+        int toIndex = this.id2index.get(to);
+        return set(fromIndex, toIndex, value);
     }
 
     public float get(T from, T to) {
-        int index = getIndex(from, to);
-        return this.data[index];
+        int fromIndex = this.id2index.get(from);
+        int toIndex = this.id2index.get(to);
+        return get(fromIndex, toIndex);
     }
 
     public float add(T from, T to, float value) {
-        int index = getIndex(from, to);
-        float oldValue = this.data[index];
-        float newValue = oldValue + value;
-        this.data[index] = newValue;
-        return newValue;
+        int fromIndex = this.id2index.get(from);
+        int toIndex = this.id2index.get(to);
+        return add(fromIndex, toIndex, value);
     }
 
     public float multiply(T from, T to, float factor) {
-        int index = getIndex(from, to);
-        float oldValue = this.data[index];
-        float newValue = oldValue * factor;
-        this.data[index] = newValue;
+        int fromIndex = this.id2index.get(from);
+        int toIndex = this.id2index.get(to);
+        float newValue = get(fromIndex, toIndex) * factor;
+        set(fromIndex, toIndex, newValue);
         return newValue;
     }
 
@@ -93,9 +115,174 @@ public class FloatMatrix<T> {
         }
     }
 
-    private int getIndex(T from, T to) {
-        int fromIndex = this.id2index.get(from);
-        int toIndex = this.id2index.get(to);
-        return fromIndex * this.size + toIndex;
+    // index-based access
+
+    /**
+     * Returns the number of rows (or columns, as the matrix is quadratic) of this matrix.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the index of the row and column with the given identifier, or -1 if the identifier is not part of the matrix.
+     * The indices are in the range [0, size()) and do not change during the lifetime of the matrix.
+     */
+    public int indexOf(T id) {
+        Integer index = this.id2index.get(id);
+        return index == null ? -1 : index;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T getId(int index) {
+        return (T) this.index2id[index];
+    }
+
+    public float get(int fromIndex, int toIndex) {
+        return this.data[fromIndex * this.size + toIndex];
+    }
+
+    public float set(int fromIndex, int toIndex, float value) {
+        int index = fromIndex * this.size + toIndex;
+        float oldValue = this.data[index];
+        this.data[index] = value;
+        return oldValue;
+    }
+
+    public float add(int fromIndex, int toIndex, float value) {
+        int index = fromIndex * this.size + toIndex;
+        float newValue = this.data[index] + value;
+        this.data[index] = newValue;
+        return newValue;
+    }
+
+    /**
+     * Adds the values to the row of the given origin. <code>values[j]</code> is added to the cell (fromIndex, j).
+     */
+    public void addRow(int fromIndex, float[] values) {
+        checkRowLength(values);
+        int offset = fromIndex * this.size;
+        for (int j = 0; j < this.size; j++) {
+            this.data[offset + j] += values[j];
+        }
+    }
+
+    /**
+     * Replaces the values in the row of the given origin by the specified values.
+     */
+    public void setRow(int fromIndex, float[] values) {
+        checkRowLength(values);
+        System.arraycopy(values, 0, this.data, fromIndex * this.size, this.size);
+    }
+
+    /**
+     * Copies the values of the row of the given origin into the target array.
+     */
+    public void getRow(int fromIndex, float[] target) {
+        checkRowLength(target);
+        System.arraycopy(this.data, fromIndex * this.size, target, 0, this.size);
+    }
+
+    /**
+     * Returns a view on the row of the given origin. Changes to the view are directly reflected in the matrix.
+     */
+    public Row getRow(int fromIndex) {
+        return new Row(fromIndex);
+    }
+
+    // bulk operations
+
+    /**
+     * Adds the values of the other matrix cell by cell to this matrix.
+     */
+    public void add(FloatMatrix<T> other) {
+        if (hasSameIndex(other)) {
+            float[] row = new float[this.size];
+            for (int fromIndex = 0; fromIndex < this.size; fromIndex++) {
+                other.getRow(fromIndex, row);
+                addRow(fromIndex, row);
+            }
+        } else {
+            for (int fromIndex = 0; fromIndex < this.size; fromIndex++) {
+                int otherFromIndex = other.getCheckedIndex(getId(fromIndex));
+                for (int toIndex = 0; toIndex < this.size; toIndex++) {
+                    int otherToIndex = other.getCheckedIndex(getId(toIndex));
+                    add(fromIndex, toIndex, other.get(otherFromIndex, otherToIndex));
+                }
+            }
+        }
+    }
+
+    /**
+     * Divides the values of this matrix cell by cell by the values of the other matrix.
+     * The usual floating point rules apply for divisions by zero.
+     */
+    public void divide(FloatMatrix<T> other) {
+        boolean sameIndex = hasSameIndex(other);
+        float[] row = new float[this.size];
+        float[] divisors = new float[this.size];
+        for (int fromIndex = 0; fromIndex < this.size; fromIndex++) {
+            getRow(fromIndex, row);
+            if (sameIndex) {
+                other.getRow(fromIndex, divisors);
+            } else {
+                int otherFromIndex = other.getCheckedIndex(getId(fromIndex));
+                for (int toIndex = 0; toIndex < this.size; toIndex++) {
+                    divisors[toIndex] = other.get(otherFromIndex, other.getCheckedIndex(getId(toIndex)));
+                }
+            }
+            for (int toIndex = 0; toIndex < this.size; toIndex++) {
+                row[toIndex] /= divisors[toIndex];
+            }
+            setRow(fromIndex, row);
+        }
+    }
+
+    private boolean hasSameIndex(FloatMatrix<T> other) {
+        if (other.size != this.size) {
+            throw new IllegalArgumentException("The matrices have different sizes: " + this.size + " vs. " + other.size);
+        }
+        return Arrays.equals(this.index2id, other.index2id);
+    }
+
+    private int getCheckedIndex(T id) {
+        Integer index = this.id2index.get(id);
+        if (index == null) {
+            throw new IllegalArgumentException("The matrices have different zones, " + id + " is missing.");
+        }
+        return index;
+    }
+
+    void checkRowLength(float[] values) {
+        if (values.length != this.size) {
+            throw new IllegalArgumentException("Expected a row with " + this.size + " values, got " + values.length);
+        }
+    }
+
+    /**
+     * A view on one row of the matrix.
+     */
+    public final class Row {
+        private final int fromIndex;
+
+        private Row(int fromIndex) {
+            this.fromIndex = fromIndex;
+        }
+
+        public int size() {
+            return FloatMatrix.this.size;
+        }
+
+        public float get(int toIndex) {
+            return FloatMatrix.this.get(this.fromIndex, toIndex);
+        }
+
+        public void set(int toIndex, float value) {
+            FloatMatrix.this.set(this.fromIndex, toIndex, value);
+        }
+
+        public void add(int toIndex, float value) {
+            FloatMatrix.this.add(this.fromIndex, toIndex, value);
+        }
     }
 }
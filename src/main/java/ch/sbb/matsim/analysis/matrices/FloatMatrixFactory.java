@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import java.util.Set;
+
+/**
+ * Creates the matrices filled by the matrix calculators, so the caller can decide where the values are stored,
+ * e.g. on the heap in a {@link FloatMatrix} or in memory-mapped files with {@link FloatMatrixIO#createMappedBinary(Set, String, float)}.
+ *
+ * @author mrieser / SBB
+ */
+@FunctionalInterface
+public interface FloatMatrixFactory<T> {
+
+    /**
+     * @param name identifies the matrix among the ones created by one calculator, e.g. <code>traveltimes</code>
+     * @param initialValue the value of all cells in the new matrix
+     */
+    FloatMatrix<T> createMatrix(Set<T> zones, String name, float initialValue);
+
+    /**
+     * Returns a factory creating dense matrices on the heap.
+     */
+    static <T> FloatMatrixFactory<T> dense() {
+        return (zones, name, initialValue) -> new FloatMatrix<>(zones, initialValue);
+    }
+
+    /**
+     * Returns a factory creating {@link SparseFloatMatrix}s with the initial value as default value.
+     */
+    static <T> FloatMatrixFactory<T> sparse() {
+        return (zones, name, initialValue) -> new SparseFloatMatrix<>(zones, initialValue);
+    }
+}
@@ -11,11 +11,51 @@ import org.matsim.core.utils.io.UncheckedIOException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Helper methods to write and read matrices.
  *
+ * Matrices can be stored in two formats:
+ * <ul>
+ *     <li>CSV: one row <code>FROM;TO;VALUE</code> per cell, typically gzipped. Easy to use in other tools,
+ *     but large and slow to write and read. Best used for exporting matrices.</li>
+ *     <li>Binary: a header with the zone ids, followed by the values as raw float rows. Such files can be
+ *     memory-mapped (see {@link #mapBinary(String, IdConverter)}), so even large matrices can be opened in
+ *     milliseconds.</li>
+ * </ul>
+ *
+ * The binary format is structured as follows, all numbers are stored in little-endian byte order:
+ * <pre>
+ * int     magic number, 0x58544D46 ("FMTX")
+ * int     format version, currently 1
+ * int     data type of the values, currently only 1 (32-bit float)
+ * int     size n, i.e. number of zones
+ * long    offset of the first value in the file, a multiple of 8
+ * n times:
+ *   int   length of the zone id in bytes
+ *   byte* zone id, UTF-8 encoded
+ * padding to the offset of the first value
+ * n * n   values, row by row
+ * </pre>
+ *
+ * Parts of a matrix, e.g. the rows calculated by one shard of a distributed calculation, can be stored in
+ * a partial binary file (see {@link #writeRowsAsBinary(FloatMatrix, int[], String)}). It uses the same structure with
+ * the magic number 0x50544D46 ("FMTP"), but the zone table is followed by the row count m and the m indices of the
+ * contained rows (each an int), and only the m rows are stored after the padding.
+ *
  * @author mrieser / SBB
  */
 public class FloatMatrixIO {
@@ -25,6 +65,12 @@ public class FloatMatrixIO {
     private final static String COL_VALUE = "VALUE";
     private final static String[] COLUMNS = {COL_FROM, COL_TO, COL_VALUE};
 
+    private final static int BINARY_MAGIC = 0x58544D46;
+    private final static int PARTIAL_BINARY_MAGIC = 0x50544D46;
+    private final static int BINARY_VERSION = 1;
+    private final static int DTYPE_FLOAT32 = 1;
+    private final static int BINARY_FIXED_HEADER_SIZE = 24;
+
     public static <T> void writeAsCSV(FloatMatrix<T> matrix, String filename) throws IOException {
         try (CSVWriter writer = new CSVWriter("", COLUMNS, filename)) {
             writeCSV(matrix, writer);
@@ -38,12 +84,16 @@ public class FloatMatrixIO {
     }
 
     private static <T> void writeCSV(FloatMatrix<T> matrix, CSVWriter writer) throws UncheckedIOException {
-        T[] zoneIds = getSortedIds(matrix);
-        for (T fromZoneId : zoneIds) {
-            for (T toZoneId : zoneIds) {
-                writer.set(COL_FROM, fromZoneId.toString());
-                writer.set(COL_TO, toZoneId.toString());
-                writer.set(COL_VALUE, Float.toString(matrix.get(fromZoneId, toZoneId)));
+        int size = matrix.size();
+        String[] zoneIds = new String[size];
+        for (int i = 0; i < size; i++) {
+            zoneIds[i] = matrix.getId(i).toString();
+        }
+        for (int fromIndex = 0; fromIndex < size; fromIndex++) {
+            for (int toIndex = 0; toIndex < size; toIndex++) {
+                writer.set(COL_FROM, zoneIds[fromIndex]);
+                writer.set(COL_TO, zoneIds[toIndex]);
+                writer.set(COL_VALUE, Float.toString(matrix.get(fromIndex, toIndex)));
                 writer.writeRow();
             }
         }
@@ -71,14 +121,332 @@ public class FloatMatrixIO {
         }
     }
 
-    private static <T> T[] getSortedIds(FloatMatrix<T> matrix) {
-        // the array-creation is only safe as long as the generated array is only within this class!
-        @SuppressWarnings("unchecked")
-        T[] ids = (T[]) (new Object[matrix.id2index.size()]);
-        for (Map.Entry<T, Integer> e : matrix.id2index.entrySet()) {
-            ids[e.getValue()] = e.getKey();
+    public static <T> void writeAsBinary(FloatMatrix<T> matrix, String filename) throws IOException {
+        int size = matrix.size();
+        String[] zoneIds = new String[size];
+        for (int i = 0; i < size; i++) {
+            zoneIds[i] = matrix.getId(i).toString();
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, createBinaryHeader(BINARY_MAGIC, zoneIds, null));
+
+            ByteBuffer rowBytes = ByteBuffer.allocateDirect(size * 4).order(ByteOrder.LITTLE_ENDIAN);
+            FloatBuffer rowFloats = rowBytes.asFloatBuffer();
+            float[] row = new float[size];
+            for (int fromIndex = 0; fromIndex < size; fromIndex++) {
+                matrix.getRow(fromIndex, row);
+                rowFloats.clear();
+                rowFloats.put(row);
+                rowBytes.clear();
+                writeFully(channel, rowBytes);
+            }
+        }
+    }
+
+    /**
+     * Reads the values from a binary matrix file into the given matrix. The matrix must contain
+     * all zones of the file, but the order of the zones may be different.
+     */
+    public static <T> void readAsBinary(FloatMatrix<T> matrix, String filename, IdConverter<T> idConverter) throws IOException {
+        FloatMatrix<T> source = mapBinary(filename, idConverter);
+        int size = source.size();
+        int[] targetIndices = new int[size];
+        boolean sameOrder = size == matrix.size();
+        for (int i = 0; i < size; i++) {
+            T zoneId = source.getId(i);
+            int targetIndex = matrix.indexOf(zoneId);
+            if (targetIndex < 0) {
+                throw new IllegalArgumentException("The matrix does not contain zone " + zoneId + " found in file " + filename);
+            }
+            targetIndices[i] = targetIndex;
+            sameOrder &= (targetIndex == i);
+        }
+
+        float[] row = new float[size];
+        for (int fromIndex = 0; fromIndex < size; fromIndex++) {
+            source.getRow(fromIndex, row);
+            if (sameOrder) {
+                matrix.setRow(fromIndex, row);
+            } else {
+                int targetFromIndex = targetIndices[fromIndex];
+                for (int toIndex = 0; toIndex < size; toIndex++) {
+                    matrix.set(targetFromIndex, targetIndices[toIndex], row[toIndex]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a binary matrix file into a new matrix with the zones in the order of the file. The fill rate of the
+     * file, i.e. the share of cells not equal to the given default value, is measured first: if it is low enough,
+     * the values are stored in a {@link SparseFloatMatrix}, otherwise in a dense {@link FloatMatrix}.
+     *
+     * @see SparseFloatMatrix#create(Set, float, double)
+     */
+    public static <T> FloatMatrix<T> readBinary(String filename, IdConverter<T> idConverter, float defaultValue) throws IOException {
+        FloatMatrix<T> source = mapBinary(filename, idConverter);
+        int size = source.size();
+        Set<T> zoneIds = new LinkedHashSet<>();
+        for (int i = 0; i < size; i++) {
+            zoneIds.add(source.getId(i));
+        }
+
+        float[] row = new float[size];
+        long nonDefaultCount = 0;
+        for (int fromIndex = 0; fromIndex < size; fromIndex++) {
+            source.getRow(fromIndex, row);
+            nonDefaultCount += SparseFloatMatrix.countNonDefaultValues(row, defaultValue);
+        }
+        double fillRate = size == 0 ? 0 : (double) nonDefaultCount / ((double) size * size);
+
+        FloatMatrix<T> matrix = SparseFloatMatrix.create(zoneIds, defaultValue, fillRate);
+        for (int fromIndex = 0; fromIndex < size; fromIndex++) {
+            source.getRow(fromIndex, row);
+            matrix.setRow(fromIndex, row);
+        }
+        return matrix;
+    }
+
+    /**
+     * Opens a binary matrix file as read-only, memory-mapped matrix. The zones of the matrix have the same
+     * order as in the file. No values are read, they are loaded lazily by the operating system when accessed.
+     */
+    public static <T> MappedFloatMatrix<T> mapBinary(String filename, IdConverter<T> idConverter) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            BinaryHeader<T> header = readBinaryHeader(channel, BINARY_MAGIC, filename, idConverter);
+            int size = header.zoneIds.size();
+            long expectedLength = header.dataOffset + (long) size * size * 4;
+            if (channel.size() != expectedLength) {
+                throw new IOException("File " + filename + " has an unexpected length, expected " + expectedLength + " bytes, found " + channel.size());
+            }
+            // the mapping stays valid after the channel is closed
+            return new MappedFloatMatrix<>(header.zoneIds, filename, channel, header.dataOffset, FileChannel.MapMode.READ_ONLY);
+        }
+    }
+
+    /**
+     * Creates a new binary matrix file with all values set to the initial value, and opens it as writable,
+     * memory-mapped matrix. An existing file is overwritten. All changes to the matrix are written to the file,
+     * so no separate write step is required after the matrix is calculated, see {@link MappedFloatMatrix#flush()}.
+     *
+     * @param zones the zones, the iteration order defines the order of the zones in the file
+     */
+    public static <T> MappedFloatMatrix<T> createMappedBinary(Set<T> zones, String filename, float initialValue) throws IOException {
+        String[] zoneIds = new String[zones.size()];
+        int i = 0;
+        for (T zoneId : zones) {
+            zoneIds[i] = zoneId.toString();
+            i++;
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = createBinaryHeader(BINARY_MAGIC, zoneIds, null);
+            long dataOffset = header.remaining();
+            writeFully(channel, header);
+            // mapping the values extends the file, the new part of the file contains zeros
+            MappedFloatMatrix<T> matrix = new MappedFloatMatrix<>(zones, filename, channel, dataOffset, FileChannel.MapMode.READ_WRITE);
+            if (Float.floatToIntBits(initialValue) != 0) {
+                float[] row = new float[zoneIds.length];
+                Arrays.fill(row, initialValue);
+                for (int fromIndex = 0; fromIndex < zoneIds.length; fromIndex++) {
+                    matrix.setRow(fromIndex, row);
+                }
+            }
+            return matrix;
+        }
+    }
+
+    /**
+     * Writes only the specified rows of the matrix to a partial binary file. The zone table contains all zones
+     * of the matrix, so the rows can later be merged into a full matrix with {@link #readRowsFromBinary(FloatMatrix, String, IdConverter)}.
+     *
+     * @param rowIndices the indices of the rows to be written
+     */
+    public static <T> void writeRowsAsBinary(FloatMatrix<T> matrix, int[] rowIndices, String filename) throws IOException {
+        int size = matrix.size();
+        String[] zoneIds = new String[size];
+        for (int i = 0; i < size; i++) {
+            zoneIds[i] = matrix.getId(i).toString();
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, createBinaryHeader(PARTIAL_BINARY_MAGIC, zoneIds, rowIndices));
+
+            ByteBuffer rowBytes = ByteBuffer.allocateDirect(size * 4).order(ByteOrder.LITTLE_ENDIAN);
+            FloatBuffer rowFloats = rowBytes.asFloatBuffer();
+            float[] row = new float[size];
+            for (int fromIndex : rowIndices) {
+                matrix.getRow(fromIndex, row);
+                rowFloats.clear();
+                rowFloats.put(row);
+                rowBytes.clear();
+                writeFully(channel, rowBytes);
+            }
+        }
+    }
+
+    /**
+     * Reads the rows of a partial binary file into the given matrix. The matrix must contain all zones of
+     * the file, but the order of the zones may be different. Rows not contained in the file are not modified.
+     *
+     * @return the ids of the zones whose rows were read
+     */
+    public static <T> List<T> readRowsFromBinary(FloatMatrix<T> matrix, String filename, IdConverter<T> idConverter) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            BinaryHeader<T> header = readBinaryHeader(channel, PARTIAL_BINARY_MAGIC, filename, idConverter);
+            int size = header.zoneIds.size();
+            long expectedLength = header.dataOffset + (long) header.rowIndices.length * size * 4;
+            if (channel.size() != expectedLength) {
+                throw new IOException("File " + filename + " has an unexpected length, expected " + expectedLength + " bytes, found " + channel.size());
+            }
+
+            int[] targetIndices = new int[size];
+            int i = 0;
+            for (T zoneId : header.zoneIds) {
+                int targetIndex = matrix.indexOf(zoneId);
+                if (targetIndex < 0) {
+                    throw new IllegalArgumentException("The matrix does not contain zone " + zoneId + " found in file " + filename);
+                }
+                targetIndices[i++] = targetIndex;
+            }
+            List<T> fileZoneIds = new ArrayList<>(header.zoneIds);
+
+            List<T> rowZoneIds = new ArrayList<>(header.rowIndices.length);
+            ByteBuffer rowBytes = ByteBuffer.allocateDirect(size * 4).order(ByteOrder.LITTLE_ENDIAN);
+            FloatBuffer rowFloats = rowBytes.asFloatBuffer();
+            float[] row = new float[size];
+            float[] targetRow = new float[matrix.size()];
+            long position = header.dataOffset;
+            for (int fromIndex : header.rowIndices) {
+                rowBytes.clear();
+                while (rowBytes.hasRemaining()) {
+                    if (channel.read(rowBytes, position + rowBytes.position()) < 0) {
+                        throw new IOException("Unexpected end of file.");
+                    }
+                }
+                position += size * 4L;
+                rowFloats.clear();
+                rowFloats.get(row);
+                int targetFromIndex = targetIndices[fromIndex];
+                matrix.getRow(targetFromIndex, targetRow);
+                for (int toIndex = 0; toIndex < size; toIndex++) {
+                    targetRow[targetIndices[toIndex]] = row[toIndex];
+                }
+                matrix.setRow(targetFromIndex, targetRow);
+                rowZoneIds.add(fileZoneIds.get(fromIndex));
+            }
+            return rowZoneIds;
+        }
+    }
+
+    /**
+     * Reads only the zone ids from a partial binary file.
+     */
+    public static <T> Set<T> readZoneIdsFromPartialBinary(String filename, IdConverter<T> idConverter) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            return readBinaryHeader(channel, PARTIAL_BINARY_MAGIC, filename, idConverter).zoneIds;
+        }
+    }
+
+    private static <T> BinaryHeader<T> readBinaryHeader(FileChannel channel, int expectedMagic, String filename, IdConverter<T> idConverter) throws IOException {
+        ByteBuffer fixedHeader = readFully(channel, 0, BINARY_FIXED_HEADER_SIZE);
+        if (fixedHeader.getInt() != expectedMagic) {
+            throw new IOException("File " + filename + " is not a " + (expectedMagic == BINARY_MAGIC ? "" : "partial ") + "binary matrix file.");
+        }
+        int version = fixedHeader.getInt();
+        if (version != BINARY_VERSION) {
+            throw new IOException("Unsupported binary matrix version " + version + " in file " + filename);
+        }
+        int dtype = fixedHeader.getInt();
+        if (dtype != DTYPE_FLOAT32) {
+            throw new IOException("Unsupported data type " + dtype + " in file " + filename);
+        }
+        int size = fixedHeader.getInt();
+        long dataOffset = fixedHeader.getLong();
+        if (dataOffset < BINARY_FIXED_HEADER_SIZE || dataOffset > Integer.MAX_VALUE) {
+            throw new IOException("Invalid data offset " + dataOffset + " in file " + filename);
+        }
+
+        ByteBuffer zoneTable = readFully(channel, BINARY_FIXED_HEADER_SIZE, (int) (dataOffset - BINARY_FIXED_HEADER_SIZE));
+        Set<T> zoneIds = new LinkedHashSet<>();
+        for (int i = 0; i < size; i++) {
+            byte[] bytes = new byte[zoneTable.getInt()];
+            zoneTable.get(bytes);
+            T zoneId = idConverter.parse(new String(bytes, StandardCharsets.UTF_8));
+            if (!zoneIds.add(zoneId)) {
+                throw new IOException("Duplicate zone " + zoneId + " in file " + filename);
+            }
+        }
+        int[] rowIndices = null;
+        if (expectedMagic == PARTIAL_BINARY_MAGIC) {
+            rowIndices = new int[zoneTable.getInt()];
+            for (int i = 0; i < rowIndices.length; i++) {
+                rowIndices[i] = zoneTable.getInt();
+                if (rowIndices[i] < 0 || rowIndices[i] >= size) {
+                    throw new IOException("Invalid row index " + rowIndices[i] + " in file " + filename);
+                }
+            }
+        }
+        return new BinaryHeader<>(zoneIds, rowIndices, dataOffset);
+    }
+
+    private static class BinaryHeader<T> {
+        final Set<T> zoneIds;
+        final int[] rowIndices; // only set for partial files
+        final long dataOffset;
+
+        BinaryHeader(Set<T> zoneIds, int[] rowIndices, long dataOffset) {
+            this.zoneIds = zoneIds;
+            this.rowIndices = rowIndices;
+            this.dataOffset = dataOffset;
+        }
+    }
+
+    private static ByteBuffer createBinaryHeader(int magic, String[] zoneIds, int[] rowIndices) {
+        byte[][] encodedIds = new byte[zoneIds.length][];
+        long headerSize = BINARY_FIXED_HEADER_SIZE;
+        for (int i = 0; i < zoneIds.length; i++) {
+            encodedIds[i] = zoneIds[i].getBytes(StandardCharsets.UTF_8);
+            headerSize += 4 + encodedIds[i].length;
+        }
+        if (rowIndices != null) {
+            headerSize += 4 + 4L * rowIndices.length;
+        }
+        long dataOffset = (headerSize + 7) / 8 * 8;
+
+        ByteBuffer header = ByteBuffer.allocate((int) dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(magic);
+        header.putInt(BINARY_VERSION);
+        header.putInt(DTYPE_FLOAT32);
+        header.putInt(zoneIds.length);
+        header.putLong(dataOffset);
+        for (byte[] encodedId : encodedIds) {
+            header.putInt(encodedId.length);
+            header.put(encodedId);
+        }
+        if (rowIndices != null) {
+            header.putInt(rowIndices.length);
+            for (int rowIndex : rowIndices) {
+                header.putInt(rowIndex);
+            }
+        }
+        header.position(0);
+        return header;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file.");
+            }
         }
-        return ids;
+        buffer.flip();
+        return buffer;
     }
 
     @FunctionalInterface
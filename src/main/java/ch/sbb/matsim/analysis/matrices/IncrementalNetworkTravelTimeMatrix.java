@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import ch.sbb.matsim.analysis.matrices.NetworkTravelTimeMatrix.NetworkIndicators;
+import ch.sbb.matsim.routing.graph.DAryMinHeap;
+import ch.sbb.matsim.routing.graph.Graph;
+import ch.sbb.matsim.routing.graph.TravelTimeTable;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Updates a network travel time matrix after some links of the network or their travel times have changed,
+ * re-calculating only the rows of origin zones whose trees might be affected by the changes. The other rows
+ * are copied from the matrices of the previous calculation.
+ *
+ * The changed links are detected by comparing the link fingerprints of the previous {@link NetworkTreeSummaries}
+ * with the current ones. An origin zone is re-calculated if
+ * <ul>
+ *     <li>its previous trees used a link that was changed or removed, or</li>
+ *     <li>a changed or added link could result in a faster path from one of its nodes. For a link from node u to
+ *     node v with the minimal travel time c, this is the case if d<sub>min</sub>(o, u) + c &lt;= d<sub>max</sub>(o, v)
+ *     for an origin node o. Both d<sub>min</sub> and d<sub>max</sub> are calculated over the unchanged links only,
+ *     using the minimal and maximal travel time of each link over all time bins respectively, with one backwards
+ *     tree from u and one from v per changed link.</li>
+ * </ul>
+ * If neither applies, all the previous paths are still available with the same travel times, and no faster path
+ * can exist, so the trees to the destination nodes (and thus the row of the matrix) are unchanged.
+ *
+ * The sample points must be the same as in the previous calculation, including the nodes they are snapped to.
+ * If the previous data is missing or not compatible (e.g. different departure times), or if snapping the points to
+ * the network changes their nodes, the full matrix is calculated.
+ *
+ * The effort grows with the number of changed links, so this is intended for scenarios where only a few links
+ * are modified. If the travel times were extracted from different events, most links will have changed anyway.
+ *
+ * @author mrieser / SBB
+ */
+public final class IncrementalNetworkTravelTimeMatrix {
+
+    private static final Logger log = Logger.getLogger(IncrementalNetworkTravelTimeMatrix.class);
+
+    private IncrementalNetworkTravelTimeMatrix() {
+    }
+
+    /**
+     * @param previousSummaries the tree summaries of the previous calculation, may be <code>null</code>.
+     * @param previousTravelTimes the travel time matrix of the previous calculation, may be <code>null</code>.
+     * @param previousDistances the distance matrix of the previous calculation, may be <code>null</code>.
+     */
+    public static <T> IncrementalNetworkIndicators<T> calculateTravelTimeMatrix(Network network, TravelTimeTable travelTimes, ZoneSamplePoints<T> points, String networkName, double[] departureTimes,
+                                                                             NetworkTreeSummaries<T> previousSummaries, FloatMatrix<T> previousTravelTimes, FloatMatrix<T> previousDistances, int numberOfThreads) {
+        if (points.snapToNetwork(networkName, network) && previousSummaries != null) {
+            log.warn("The points are snapped to other nodes than in the previous calculation.");
+            previousSummaries = null;
+        }
+        Set<T> zoneIds = points.getZoneIds();
+        NetworkTreeSummaries<T> summaries = NetworkTreeSummaries.create(travelTimes, departureTimes);
+
+        List<T> affectedZones;
+        if (canUpdate(zoneIds, summaries, previousSummaries, previousTravelTimes, previousDistances)) {
+            affectedZones = findAffectedZones(network, travelTimes, points, networkName, summaries, previousSummaries);
+            log.info(affectedZones.size() + " of " + zoneIds.size() + " origin zones are affected by changes and will be re-calculated.");
+        } else {
+            log.info("No compatible previous calculation available, calculating the full matrix.");
+            affectedZones = new ArrayList<>(zoneIds);
+            previousSummaries = null;
+        }
+
+        NetworkIndicators<T> indicators = NetworkTravelTimeMatrix.calculateTravelTimeMatrix(network, travelTimes, points, networkName, departureTimes, affectedZones, summaries, numberOfThreads);
+
+        if (previousSummaries != null) {
+            copyUnaffectedZones(zoneIds, affectedZones, indicators, summaries, previousSummaries, previousTravelTimes, previousDistances);
+        }
+        return new IncrementalNetworkIndicators<>(indicators, summaries, affectedZones.size());
+    }
+
+    private static <T> boolean canUpdate(Set<T> zoneIds, NetworkTreeSummaries<T> summaries, NetworkTreeSummaries<T> previousSummaries, FloatMatrix<T> previousTravelTimes, FloatMatrix<T> previousDistances) {
+        if (previousSummaries == null || previousTravelTimes == null || previousDistances == null) {
+            return false;
+        }
+        if (!summaries.isCompatible(previousSummaries)) {
+            log.warn("The previous calculation used different departure times or travel time bins.");
+            return false;
+        }
+        if (previousTravelTimes.size() != zoneIds.size() || previousDistances.size() != zoneIds.size()) {
+            log.warn("The previous matrices have a different number of zones.");
+            return false;
+        }
+        for (T zoneId : zoneIds) {
+            if (previousSummaries.getUsedLinks(zoneId) == null || previousTravelTimes.indexOf(zoneId) < 0 || previousDistances.indexOf(zoneId) < 0) {
+                log.warn("Zone " + zoneId + " is missing in the previous calculation.");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static <T> List<T> findAffectedZones(Network network, TravelTimeTable travelTimes, ZoneSamplePoints<T> points, String networkName, NetworkTreeSummaries<T> summaries, NetworkTreeSummaries<T> previousSummaries) {
+        Graph graph = travelTimes.getGraph();
+        int linkCount = graph.getLinkCount();
+
+        // detect changed links
+        Map<String, Integer> previousLinkIndices = new HashMap<>((int) (previousSummaries.getLinkCount() * 1.5));
+        for (int i = 0; i < previousSummaries.getLinkCount(); i++) {
+            previousLinkIndices.put(previousSummaries.getLinkId(i), i);
+        }
+        boolean[] isPreviousLinkChanged = new boolean[previousSummaries.getLinkCount()];
+        Arrays.fill(isPreviousLinkChanged, true); // links not part of the current network were removed
+        boolean[] isLinkUnchanged = new boolean[linkCount];
+        List<Integer> changedLinks = new ArrayList<>();
+        int addedLinkCount = 0;
+        for (int linkIndex = 0; linkIndex < linkCount; linkIndex++) {
+            Integer previousIndex = previousLinkIndices.get(summaries.getLinkId(linkIndex));
+            if (previousIndex == null) {
+                addedLinkCount++;
+                changedLinks.add(linkIndex);
+            } else if (previousSummaries.getLinkFingerprint(previousIndex) == summaries.getLinkFingerprint(linkIndex)) {
+                isPreviousLinkChanged[previousIndex] = false;
+                isLinkUnchanged[linkIndex] = true;
+            } else {
+                changedLinks.add(linkIndex);
+            }
+        }
+        int removedLinkCount = previousSummaries.getLinkCount() - (linkCount - addedLinkCount);
+        log.info("changed links: " + (changedLinks.size() - addedLinkCount) + ", added links: " + addedLinkCount + ", removed links: " + removedLinkCount);
+
+        // origin nodes per zone
+        List<T> zoneIds = new ArrayList<>(points.getZoneIds());
+        int[][] originNodes = new int[zoneIds.size()][];
+        for (int z = 0; z < zoneIds.size(); z++) {
+            Id<Node>[] nodeIds = points.getNodeIds(networkName, zoneIds.get(z));
+            if (nodeIds != null) {
+                originNodes[z] = new int[nodeIds.length];
+                for (int i = 0; i < nodeIds.length; i++) {
+                    originNodes[z][i] = graph.getNodeIndex(network.getNodes().get(nodeIds[i]));
+                }
+            }
+        }
+
+        boolean[] isAffected = new boolean[zoneIds.size()];
+
+        // zones whose trees used a changed or removed link
+        for (int z = 0; z < zoneIds.size(); z++) {
+            for (int previousLinkIndex : previousSummaries.getUsedLinks(zoneIds.get(z))) {
+                if (isPreviousLinkChanged[previousLinkIndex]) {
+                    isAffected[z] = true;
+                    break;
+                }
+            }
+        }
+
+        // zones which might find a faster path using a changed or added link
+        if (!changedLinks.isEmpty()) {
+            BackwardsTree tree = new BackwardsTree(travelTimes, isLinkUnchanged);
+            double[] distancesToFromNode = new double[graph.getNodeCount()];
+            double[] distancesToToNode = new double[graph.getNodeCount()];
+            for (int linkIndex : changedLinks) {
+                tree.calculate(graph.getFromNode(linkIndex), true, distancesToFromNode);
+                tree.calculate(graph.getToNode(linkIndex), false, distancesToToNode);
+                double minTravelTime = tree.minTravelTimes[linkIndex];
+                for (int z = 0; z < zoneIds.size(); z++) {
+                    if (!isAffected[z] && originNodes[z] != null) {
+                        for (int node : originNodes[z]) {
+                            double distanceToFromNode = distancesToFromNode[node];
+                            if (distanceToFromNode < Double.POSITIVE_INFINITY && distanceToFromNode + minTravelTime <= distancesToToNode[node]) {
+                                isAffected[z] = true;
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        List<T> affectedZones = new ArrayList<>();
+        for (int z = 0; z < zoneIds.size(); z++) {
+            if (isAffected[z]) {
+                affectedZones.add(zoneIds.get(z));
+            }
+        }
+        return affectedZones;
+    }
+
+    private static <T> void copyUnaffectedZones(Set<T> zoneIds, List<T> affectedZones, NetworkIndicators<T> indicators, NetworkTreeSummaries<T> summaries,
+                                                NetworkTreeSummaries<T> previousSummaries, FloatMatrix<T> previousTravelTimes, FloatMatrix<T> previousDistances) {
+        Map<String, Integer> linkIndices = new HashMap<>((int) (summaries.getLinkCount() * 1.5));
+        for (int i = 0; i < summaries.getLinkCount(); i++) {
+            linkIndices.put(summaries.getLinkId(i), i);
+        }
+
+        FloatMatrix<T> travelTimeMatrix = indicators.travelTimeMatrix;
+        FloatMatrix<T> distanceMatrix = indicators.distanceMatrix;
+        int size = travelTimeMatrix.size();
+        int[] previousTravelTimeIndices = new int[size];
+        int[] previousDistanceIndices = new int[size];
+        for (int i = 0; i < size; i++) {
+            previousTravelTimeIndices[i] = previousTravelTimes.indexOf(travelTimeMatrix.getId(i));
+            previousDistanceIndices[i] = previousDistances.indexOf(travelTimeMatrix.getId(i));
+        }
+
+        Set<T> affected = new HashSet<>(affectedZones);
+        float[] previousRow = new float[size];
+        float[] row = new float[size];
+        for (T zoneId : zoneIds) {
+            if (affected.contains(zoneId)) {
+                continue;
+            }
+            int fromIndex = travelTimeMatrix.indexOf(zoneId);
+            copyRow(previousTravelTimes, previousTravelTimeIndices, fromIndex, travelTimeMatrix, previousRow, row);
+            copyRow(previousDistances, previousDistanceIndices, fromIndex, distanceMatrix, previousRow, row);
+
+            // the used links did not change, but the link indices might be different in the current network
+            int[] previousUsedLinks = previousSummaries.getUsedLinks(zoneId);
+            int[] usedLinks = new int[previousUsedLinks.length];
+            for (int i = 0; i < usedLinks.length; i++) {
+                usedLinks[i] = linkIndices.get(previousSummaries.getLinkId(previousUsedLinks[i]));
+            }
+            Arrays.sort(usedLinks);
+            summaries.setUsedLinks(zoneId, usedLinks);
+        }
+    }
+
+    private static <T> void copyRow(FloatMatrix<T> source, int[] sourceIndices, int fromIndex, FloatMatrix<T> target, float[] sourceRow, float[] targetRow) {
+        source.getRow(sourceIndices[fromIndex], sourceRow);
+        for (int toIndex = 0; toIndex < targetRow.length; toIndex++) {
+            targetRow[toIndex] = sourceRow[sourceIndices[toIndex]];
+        }
+        target.setRow(fromIndex, targetRow);
+    }
+
+    /**
+     * Calculates the time-independent travel times from all nodes to one target node, using only the unchanged
+     * links and either the minimal or the maximal travel time of each link over all time bins.
+     */
+    private static class BackwardsTree {
+        private final int nodeCount;
+        private final int[] firstInLink;
+        private final int[] inLinks;
+        private final int[] fromNodes;
+        private final double[] minTravelTimes;
+        private final double[] maxTravelTimes;
+        private final DAryMinHeap pq;
+
+        BackwardsTree(TravelTimeTable travelTimes, boolean[] isLinkUsable) {
+            Graph graph = travelTimes.getGraph();
+            this.nodeCount = graph.getNodeCount();
+            int linkCount = graph.getLinkCount();
+
+            this.minTravelTimes = new double[linkCount];
+            this.maxTravelTimes = new double[linkCount];
+            this.fromNodes = new int[linkCount];
+            for (int linkIndex = 0; linkIndex < linkCount; linkIndex++) {
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (int bin = 0; bin < travelTimes.getBinCount(); bin++) {
+                    double tt = travelTimes.getLinkTravelTime(linkIndex, travelTimes.getStartTime() + bin * travelTimes.getBinSize());
+                    min = Math.min(min, tt);
+                    max = Math.max(max, tt);
+                }
+                this.minTravelTimes[linkIndex] = min;
+                this.maxTravelTimes[linkIndex] = max;
+                this.fromNodes[linkIndex] = graph.getFromNode(linkIndex);
+            }
+
+            // index the usable links by their to-node
+            this.firstInLink = new int[this.nodeCount + 1];
+            for (int linkIndex = 0; linkIndex < linkCount; linkIndex++) {
+                if (isLinkUsable[linkIndex]) {
+                    this.firstInLink[graph.getToNode(linkIndex) + 1]++;
+                }
+            }
+            for (int node = 0; node < this.nodeCount; node++) {
+                this.firstInLink[node + 1] += this.firstInLink[node];
+            }
+            this.inLinks = new int[this.firstInLink[this.nodeCount]];
+            int[] nextPosition = Arrays.copyOf(this.firstInLink, this.nodeCount);
+            for (int linkIndex = 0; linkIndex < linkCount; linkIndex++) {
+                if (isLinkUsable[linkIndex]) {
+                    this.inLinks[nextPosition[graph.getToNode(linkIndex)]++] = linkIndex;
+                }
+            }
+            this.pq = new DAryMinHeap(this.nodeCount, 4);
+        }
+
+        void calculate(int targetNode, boolean useMinTravelTimes, double[] distances) {
+            double[] linkTravelTimes = useMinTravelTimes ? this.minTravelTimes : this.maxTravelTimes;
+            Arrays.fill(distances, Double.POSITIVE_INFINITY);
+            this.pq.clear();
+            distances[targetNode] = 0;
+            this.pq.insert(targetNode, 0);
+            while (!this.pq.isEmpty()) {
+                int node = this.pq.poll();
+                double distance = distances[node];
+                for (int i = this.firstInLink[node], end = this.firstInLink[node + 1]; i < end; i++) {
+                    int linkIndex = this.inLinks[i];
+                    int fromNode = this.fromNodes[linkIndex];
+                    double newDistance = distance + linkTravelTimes[linkIndex];
+                    if (newDistance < distances[fromNode]) {
+                        distances[fromNode] = newDistance;
+                        this.pq.decreaseKey(fromNode, newDistance);
+                    }
+                }
+            }
+        }
+    }
+
+    public static class IncrementalNetworkIndicators<T> extends NetworkIndicators<T> {
+        /** the tree summaries of this calculation, to be used for the next incremental update. */
+        public final NetworkTreeSummaries<T> treeSummaries;
+        public final int recalculatedZoneCount;
+
+        IncrementalNetworkIndicators(NetworkIndicators<T> indicators, NetworkTreeSummaries<T> treeSummaries, int recalculatedZoneCount) {
+            super(indicators.travelTimeMatrix, indicators.distanceMatrix, null);
+            this.treeSummaries = treeSummaries;
+            this.recalculatedZoneCount = recalculatedZoneCount;
+        }
+    }
+}
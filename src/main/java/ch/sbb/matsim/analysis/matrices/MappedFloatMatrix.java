@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Set;
+
+/**
+ * A {@link FloatMatrix} whose values are not stored on the Java heap, but in a memory-mapped
+ * file in the binary matrix format of {@link FloatMatrixIO}.
+ *
+ * Opening such a matrix is very fast, as no data is read upfront. The operating system loads the
+ * required parts of the file lazily into its page cache when they are accessed.
+ *
+ * Use {@link FloatMatrixIO#mapBinary(String, FloatMatrixIO.IdConverter)} to open a matrix file.
+ * Matrices opened that way are read-only, any attempt to modify a value results in a
+ * {@link java.nio.ReadOnlyBufferException}.
+ *
+ * Use {@link FloatMatrixIO#createMappedBinary(Set, String, float)} to create a new, writable matrix file.
+ * The values of such a matrix do not use any heap memory, so large matrices can be calculated without
+ * huge heaps, and the matrix is already stored in the file when the calculation ends. Changes are written
+ * back by the operating system, call {@link #flush()} to make sure they are written to the disk.
+ *
+ * @author mrieser / SBB
+ */
+public class MappedFloatMatrix<T> extends FloatMatrix<T> {
+
+    private final String filename;
+    private final MappedByteBuffer[] mappedBlocks;
+    private final FloatBuffer[] blocks;
+    private final int rowsPerBlock;
+
+    /**
+     * @param zones the zones in the order in which they are stored in the file
+     * @param dataOffset the position in the file where the values of the first row start
+     */
+    MappedFloatMatrix(Set<T> zones, String filename, FileChannel channel, long dataOffset, FileChannel.MapMode mode) throws IOException {
+        super(zones);
+        this.filename = filename;
+        // a single mapping is limited to 2 GB, so larger matrices are mapped in blocks of complete rows
+        long rowBytes = Math.max(1, this.size) * 4L;
+        this.rowsPerBlock = (int) Math.max(1, Integer.MAX_VALUE / rowBytes);
+        int blockCount = (this.size + this.rowsPerBlock - 1) / this.rowsPerBlock;
+        this.mappedBlocks = new MappedByteBuffer[blockCount];
+        this.blocks = new FloatBuffer[blockCount];
+        for (int b = 0; b < blockCount; b++) {
+            int firstRow = b * this.rowsPerBlock;
+            int rowCount = Math.min(this.rowsPerBlock, this.size - firstRow);
+            this.mappedBlocks[b] = channel.map(mode, dataOffset + firstRow * rowBytes, rowCount * rowBytes);
+            this.blocks[b] = this.mappedBlocks[b].order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        }
+    }
+
+    /**
+     * Returns the name of the file the values are stored in.
+     */
+    public String getFilename() {
+        return this.filename;
+    }
+
+    /**
+     * Writes all modified values to the disk. Not required for read-only matrices.
+     */
+    public void flush() {
+        for (MappedByteBuffer block : this.mappedBlocks) {
+            block.force();
+        }
+    }
+
+    @Override
+    public float get(int fromIndex, int toIndex) {
+        return this.blocks[fromIndex / this.rowsPerBlock].get(getOffset(fromIndex) + toIndex);
+    }
+
+    @Override
+    public float set(int fromIndex, int toIndex, float value) {
+        FloatBuffer block = this.blocks[fromIndex / this.rowsPerBlock];
+        int index = getOffset(fromIndex) + toIndex;
+        float oldValue = block.get(index);
+        block.put(index, value);
+        return oldValue;
+    }
+
+    @Override
+    public float add(int fromIndex, int toIndex, float value) {
+        FloatBuffer block = this.blocks[fromIndex / this.rowsPerBlock];
+        int index = getOffset(fromIndex) + toIndex;
+        float newValue = block.get(index) + value;
+        block.put(index, newValue);
+        return newValue;
+    }
+
+    @Override
+    public void addRow(int fromIndex, float[] values) {
+        checkRowLength(values);
+        FloatBuffer block = this.blocks[fromIndex / this.rowsPerBlock];
+        int offset = getOffset(fromIndex);
+        for (int j = 0; j < this.size; j++) {
+            block.put(offset + j, block.get(offset + j) + values[j]);
+        }
+    }
+
+    @Override
+    public void setRow(int fromIndex, float[] values) {
+        checkRowLength(values);
+        // use a duplicate, as the position of the shared buffer must not be modified concurrently
+        FloatBuffer row = this.blocks[fromIndex / this.rowsPerBlock].duplicate();
+        row.position(getOffset(fromIndex));
+        row.put(values, 0, this.size);
+    }
+
+    @Override
+    public void getRow(int fromIndex, float[] target) {
+        checkRowLength(target);
+        FloatBuffer row = this.blocks[fromIndex / this.rowsPerBlock].duplicate();
+        row.position(getOffset(fromIndex));
+        row.get(target, 0, this.size);
+    }
+
+    @Override
+    public void multiply(float factor) {
+        for (FloatBuffer block : this.blocks) {
+            for (int i = 0, n = block.limit(); i < n; i++) {
+                block.put(i, block.get(i) * factor);
+            }
+        }
+    }
+
+    private int getOffset(int fromIndex) {
+        return (fromIndex % this.rowsPerBlock) * this.size;
+    }
+}
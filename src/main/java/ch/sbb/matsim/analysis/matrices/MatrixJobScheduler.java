@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import org.apache.log4j.Logger;
+import org.matsim.core.utils.misc.Counter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Distributes the calculation of matrix rows (one row per origin zone) over multiple threads of a {@link ForkJoinPool}.
+ *
+ * The origin zones are handed out in the order of their estimated cost, the most expensive zones first, so no
+ * expensive zone is left for the end of the calculation, keeping one thread busy while the others are idle.
+ * Zones whose estimated cost is large compared to the average work per thread are additionally split into one
+ * subtask per point, which idle threads can steal from the thread working on the zone.
+ *
+ * The values of every point are calculated into a separate buffer and are merged into the zone's buffer in the order
+ * of the points, no matter whether the zone was split or not. So the results neither depend on the number of
+ * threads nor on the order in which the tasks were executed.
+ *
+ * Once all rows are calculated, the utilization of each thread, i.e. the share of the total duration it spent
+ * calculating, is logged.
+ *
+ * @author mrieser / SBB
+ */
+final class MatrixJobScheduler {
+
+    private final static Logger log = Logger.getLogger(MatrixJobScheduler.class);
+
+    /** zones with an estimated cost above <code>1 / SPLIT_FACTOR</code> of the average work per thread are split per point. */
+    private final static int SPLIT_FACTOR = 16;
+
+    private MatrixJobScheduler() {
+    }
+
+    /**
+     * Calculates the rows of a matrix, see {@link MatrixJobScheduler}.
+     * Each worker thread uses its own state (see {@link #createState()}), so the implementations do not need to be thread-safe
+     * except for shared data that is only read.
+     *
+     * @param <T> the type of the zone ids
+     * @param <S> the type of the state of a worker thread
+     */
+    interface RowCalculator<T, S> {
+
+        /**
+         * Creates the state of one worker thread, e.g. the router and temporary arrays.
+         */
+        S createState();
+
+        /**
+         * @return the number of rows of the buffers the values of each point are accumulated in, e.g. one per indicator.
+         */
+        int getBufferRowCount();
+
+        /**
+         * @return the number of points of the origin zone that are calculated separately, 0 if the zone has no points.
+         */
+        int getPointCount(int fromZoneIndex);
+
+        /**
+         * @return the estimated cost of calculating all points of the origin zone, in arbitrary units. Only the ratios between zones are relevant.
+         */
+        double estimateCost(int fromZoneIndex);
+
+        /**
+         * Calculates the values of one point of the origin zone. The buffer is empty (all values are 0) and has
+         * {@link #getBufferRowCount()} rows, each with one value per destination zone.
+         */
+        void calculatePoint(S state, int fromZoneIndex, int pointIndex, float[][] buffer);
+
+        /**
+         * Adds the values of one point to the values of the previous points of the same origin zone, which are
+         * all 0 before the first point is added. By default, the values are summed up.
+         */
+        default void mergePoint(float[][] zoneBuffer, float[][] pointBuffer) {
+            addRows(zoneBuffer, pointBuffer, 0, zoneBuffer.length);
+        }
+
+        /**
+         * Calculates the values of the claimed row from the sum of the values of all points, which must not be modified.
+         */
+        void finishRow(S state, int fromZoneIndex, float[][] buffer, RowPartitionedMatrixWriter<T>.RowBuffer rowBuffer);
+    }
+
+    /**
+     * Adds the values of the source rows <code>fromRow</code> (inclusive) to <code>toRow</code> (exclusive) to the target rows.
+     */
+    static void addRows(float[][] target, float[][] source, int fromRow, int toRow) {
+        for (int r = fromRow; r < toRow; r++) {
+            float[] sourceRow = source[r];
+            float[] targetRow = target[r];
+            for (int i = 0; i < sourceRow.length; i++) {
+                targetRow[i] += sourceRow[i];
+            }
+        }
+    }
+
+    /**
+     * Calculates the rows of the given origin zones and writes them with the given writer.
+     *
+     * @param name used for the log messages and the names of the threads
+     */
+    static <T, S> void calculateRows(String name, RowPartitionedMatrixWriter<T> writer, Collection<T> originZoneIds, RowCalculator<T, S> calculator, int numberOfThreads) {
+        Job<T, S> job = new Job<>(name, writer, originZoneIds, calculator, numberOfThreads);
+        job.run();
+    }
+
+    private static final class Job<T, S> {
+        private final String name;
+        private final RowPartitionedMatrixWriter<T> writer;
+        private final RowCalculator<T, S> calculator;
+        private final int numberOfThreads;
+        private final int[] sortedZoneIndices;
+        private final double[] costs;
+        private final double splitThreshold;
+        private final AtomicInteger nextZone = new AtomicInteger(0);
+        private final AtomicInteger splitZoneCount = new AtomicInteger(0);
+        private final Queue<Worker<T, S>> workers = new ConcurrentLinkedQueue<>();
+        private final ThreadLocal<Worker<T, S>> threadWorker;
+        private final Counter counter;
+
+        Job(String name, RowPartitionedMatrixWriter<T> writer, Collection<T> originZoneIds, RowCalculator<T, S> calculator, int numberOfThreads) {
+            this.name = name;
+            this.writer = writer;
+            this.calculator = calculator;
+            this.numberOfThreads = numberOfThreads;
+
+            this.costs = new double[writer.size()];
+            Integer[] zoneIndices = new Integer[originZoneIds.size()];
+            double totalCost = 0;
+            int i = 0;
+            for (T zoneId : originZoneIds) {
+                int zoneIndex = writer.indexOf(zoneId);
+                double cost = calculator.estimateCost(zoneIndex);
+                this.costs[zoneIndex] = cost;
+                totalCost += cost;
+                zoneIndices[i++] = zoneIndex;
+            }
+            // the sort is stable, so zones with the same cost keep their order
+            Arrays.sort(zoneIndices, (a, b) -> Double.compare(this.costs[b], this.costs[a]));
+            this.sortedZoneIndices = new int[zoneIndices.length];
+            for (i = 0; i < zoneIndices.length; i++) {
+                this.sortedZoneIndices[i] = zoneIndices[i];
+            }
+            this.splitThreshold = totalCost / numberOfThreads / SPLIT_FACTOR;
+
+            this.threadWorker = ThreadLocal.withInitial(() -> {
+                Worker<T, S> worker = new Worker<>(Thread.currentThread().getName(), calculator.createState(), writer.createRowBuffer(), calculator.getBufferRowCount(), writer.size());
+                this.workers.add(worker);
+                return worker;
+            });
+            this.counter = new Counter(name + " zone ", " / " + originZoneIds.size());
+        }
+
+        void run() {
+            ForkJoinPool pool = new ForkJoinPool(this.numberOfThreads, p -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                thread.setName(this.name + "-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+            long startTime = System.nanoTime();
+            try {
+                // one loop per thread takes the zones in the order of their cost. Once all zones are taken, the
+                // threads whose loop has finished steal the point tasks of the split zones from the other threads.
+                List<ForkJoinTask<?>> loops = new ArrayList<>(this.numberOfThreads);
+                for (int i = 0; i < this.numberOfThreads; i++) {
+                    loops.add(pool.submit(new ZoneLoop()));
+                }
+                for (ForkJoinTask<?> loop : loops) {
+                    loop.join();
+                }
+            } finally {
+                pool.shutdown();
+            }
+            long duration = System.nanoTime() - startTime;
+            logUtilization(duration);
+        }
+
+        private void logUtilization(long duration) {
+            log.info(this.name + ": calculated " + this.sortedZoneIndices.length + " zones in " + (duration / 1_000_000) + " ms, "
+                    + this.splitZoneCount.get() + " zones were split into one task per point.");
+            double totalUtilization = 0;
+            for (Worker<T, S> worker : this.workers) {
+                double utilization = duration == 0 ? 0 : ((double) worker.busyNanos / duration);
+                totalUtilization += utilization;
+                log.info(String.format("%s: utilization %.1f%%, %d rows, %d points", worker.threadName, utilization * 100, worker.rowCount, worker.pointCount));
+            }
+            log.info(String.format("%s: average thread utilization %.1f%%", this.name, totalUtilization / this.numberOfThreads * 100));
+        }
+
+        private void calculateZone(int zoneIndex) {
+            int pointCount = this.calculator.getPointCount(zoneIndex);
+            if (pointCount > 1 && this.costs[zoneIndex] > this.splitThreshold) {
+                this.splitZoneCount.incrementAndGet();
+                List<PointTask> tasks = new ArrayList<>(pointCount);
+                for (int p = 0; p < pointCount; p++) {
+                    tasks.add(new PointTask(zoneIndex, p));
+                }
+                ForkJoinTask.invokeAll(tasks);
+
+                // only get the worker after joining, other tasks executed by this thread while joining may use it as well
+                Worker<T, S> worker = this.threadWorker.get();
+                long startTime = System.nanoTime();
+                worker.clearZoneBuffer();
+                for (PointTask task : tasks) {
+                    this.calculator.mergePoint(worker.zoneBuffer, task.buffer);
+                }
+                finishRow(worker, zoneIndex);
+                worker.busyNanos += System.nanoTime() - startTime;
+            } else {
+                Worker<T, S> worker = this.threadWorker.get();
+                long startTime = System.nanoTime();
+                worker.clearZoneBuffer();
+                for (int p = 0; p < pointCount; p++) {
+                    worker.clearPointBuffer();
+                    this.calculator.calculatePoint(worker.state, zoneIndex, p, worker.pointBuffer);
+                    this.calculator.mergePoint(worker.zoneBuffer, worker.pointBuffer);
+                    worker.pointCount++;
+                }
+                finishRow(worker, zoneIndex);
+                worker.busyNanos += System.nanoTime() - startTime;
+            }
+        }
+
+        private void finishRow(Worker<T, S> worker, int zoneIndex) {
+            worker.rowBuffer.claim(zoneIndex);
+            this.calculator.finishRow(worker.state, zoneIndex, worker.zoneBuffer, worker.rowBuffer);
+            worker.rowBuffer.publish();
+            worker.rowCount++;
+            this.counter.incCounter();
+        }
+
+        private final class ZoneLoop extends RecursiveAction {
+            @Override
+            protected void compute() {
+                int[] zoneIndices = Job.this.sortedZoneIndices;
+                int next;
+                while ((next = Job.this.nextZone.getAndIncrement()) < zoneIndices.length) {
+                    calculateZone(zoneIndices[next]);
+                }
+            }
+        }
+
+        private final class PointTask extends RecursiveAction {
+            private final int zoneIndex;
+            private final int pointIndex;
+            float[][] buffer;
+
+            PointTask(int zoneIndex, int pointIndex) {
+                this.zoneIndex = zoneIndex;
+                this.pointIndex = pointIndex;
+            }
+
+            @Override
+            protected void compute() {
+                Worker<T, S> worker = Job.this.threadWorker.get();
+                long startTime = System.nanoTime();
+                this.buffer = new float[Job.this.calculator.getBufferRowCount()][Job.this.writer.size()];
+                Job.this.calculator.calculatePoint(worker.state, this.zoneIndex, this.pointIndex, this.buffer);
+                worker.pointCount++;
+                worker.busyNanos += System.nanoTime() - startTime;
+            }
+        }
+    }
+
+    /**
+     * The state and statistics of one worker thread, only accessed by the owning thread until all tasks are finished.
+     */
+    private static final class Worker<T, S> {
+        final String threadName;
+        final S state;
+        final RowPartitionedMatrixWriter<T>.RowBuffer rowBuffer;
+        final float[][] zoneBuffer;
+        final float[][] pointBuffer;
+        long busyNanos = 0;
+        int rowCount = 0;
+        int pointCount = 0;
+
+        Worker(String threadName, S state, RowPartitionedMatrixWriter<T>.RowBuffer rowBuffer, int bufferRowCount, int zoneCount) {
+            this.threadName = threadName;
+            this.state = state;
+            this.rowBuffer = rowBuffer;
+            this.zoneBuffer = new float[bufferRowCount][zoneCount];
+            this.pointBuffer = new float[bufferRowCount][zoneCount];
+        }
+
+        void clearZoneBuffer() {
+            for (float[] row : this.zoneBuffer) {
+                Arrays.fill(row, 0.0f);
+            }
+        }
+
+        void clearPointBuffer() {
+            for (float[] row : this.pointBuffer) {
+                Arrays.fill(row, 0.0f);
+            }
+        }
+    }
+}
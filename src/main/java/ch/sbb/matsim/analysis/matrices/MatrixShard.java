@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import ch.sbb.matsim.analysis.matrices.FloatMatrixIO.IdConverter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Describes one part of a matrix calculation distributed over multiple processes or machines. Each shard
+ * calculates only the rows of the origin zones assigned to it, and writes them to partial matrix files
+ * (see {@link FloatMatrixIO#writeRowsAsBinary(FloatMatrix, int[], String)}). Once all shards are finished,
+ * the partial files are merged into the full matrices (see {@link #mergePartialMatrices(Set, String, String, int, IdConverter)}).
+ *
+ * The origin zones are assigned to the shards based on the hash code of the zone id's string representation,
+ * which is the same in every JVM. So every shard can determine its zones independently of the others, and the
+ * assignment does not depend on the iteration order of the zones.
+ *
+ * @author mrieser / SBB
+ */
+public final class MatrixShard {
+
+    public static final String PARTIAL_SUFFIX = ".fmxp";
+
+    private final int shardNumber;
+    private final int shardCount;
+
+    /**
+     * @param shardNumber the number of this shard, from 1 to <code>shardCount</code>
+     * @param shardCount the total number of shards
+     */
+    public MatrixShard(int shardNumber, int shardCount) {
+        if (shardCount < 1 || shardNumber < 1 || shardNumber > shardCount) {
+            throw new IllegalArgumentException("Invalid shard " + shardNumber + "/" + shardCount + ", the shard number must be between 1 and the number of shards.");
+        }
+        this.shardNumber = shardNumber;
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * Parses a shard description of the form <code>k/N</code>, e.g. <code>2/4</code> for the second of four shards.
+     */
+    public static MatrixShard parse(String shard) {
+        int separator = shard.indexOf('/');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Invalid shard " + shard + ", expected k/N.");
+        }
+        return new MatrixShard(Integer.parseInt(shard.substring(0, separator).trim()), Integer.parseInt(shard.substring(separator + 1).trim()));
+    }
+
+    public int getShardNumber() {
+        return this.shardNumber;
+    }
+
+    public int getShardCount() {
+        return this.shardCount;
+    }
+
+    static int getShardNumber(Object zoneId, int shardCount) {
+        return Math.floorMod(zoneId.toString().hashCode(), shardCount) + 1;
+    }
+
+    public boolean contains(Object zoneId) {
+        return getShardNumber(zoneId, this.shardCount) == this.shardNumber;
+    }
+
+    /**
+     * @return the zones assigned to this shard, in the iteration order of the given zones.
+     */
+    public <T> List<T> getOriginZones(Collection<T> zoneIds) {
+        List<T> originZones = new ArrayList<>();
+        for (T zoneId : zoneIds) {
+            if (contains(zoneId)) {
+                originZones.add(zoneId);
+            }
+        }
+        return originZones;
+    }
+
+    /**
+     * Writes the rows of the zones assigned to this shard to a partial matrix file.
+     */
+    public <T> void writePartialMatrix(FloatMatrix<T> matrix, String directory, String filename) throws IOException {
+        int[] rowIndices = new int[matrix.size()];
+        int rowCount = 0;
+        for (int i = 0; i < matrix.size(); i++) {
+            if (contains(matrix.getId(i))) {
+                rowIndices[rowCount++] = i;
+            }
+        }
+        rowIndices = Arrays.copyOf(rowIndices, rowCount);
+        FloatMatrixIO.writeRowsAsBinary(matrix, rowIndices, getPartialFilename(directory, filename, this.shardNumber, this.shardCount));
+    }
+
+    static String getPartialFilename(String directory, String filename, int shardNumber, int shardCount) {
+        return new File(directory, filename + ".shard" + shardNumber + "of" + shardCount + PARTIAL_SUFFIX).getAbsolutePath();
+    }
+
+    /**
+     * Checks if the partial files of the first shard exist for the given matrix.
+     */
+    public static boolean hasPartialMatrices(String directory, String filename, int shardCount) {
+        return new File(getPartialFilename(directory, filename, 1, shardCount)).exists();
+    }
+
+    /**
+     * Merges the partial files of all shards into one matrix.
+     *
+     * @throws IOException if a partial file is missing, or if not every row of the matrix is contained in exactly one partial file.
+     */
+    public static <T> FloatMatrix<T> mergePartialMatrices(Set<T> zoneIds, String directory, String filename, int shardCount, IdConverter<T> idConverter) throws IOException {
+        FloatMatrix<T> matrix = new FloatMatrix<>(zoneIds, 0);
+        Set<T> mergedRows = new HashSet<>();
+        for (int shardNumber = 1; shardNumber <= shardCount; shardNumber++) {
+            String partialFilename = getPartialFilename(directory, filename, shardNumber, shardCount);
+            if (!new File(partialFilename).exists()) {
+                throw new IOException("The partial matrix file of shard " + shardNumber + "/" + shardCount + " is missing: " + partialFilename);
+            }
+            for (T zoneId : FloatMatrixIO.readRowsFromBinary(matrix, partialFilename, idConverter)) {
+                if (!mergedRows.add(zoneId)) {
+                    throw new IOException("The row of zone " + zoneId + " is contained in multiple partial files of " + filename);
+                }
+            }
+        }
+        if (mergedRows.size() != zoneIds.size()) {
+            throw new IOException("The partial files of " + filename + " only contain " + mergedRows.size() + " of " + zoneIds.size() + " rows.");
+        }
+        return matrix;
+    }
+
+    /**
+     * Reads only the zone ids from a partial matrix file, e.g. to merge the partial files
+     * without knowing the zones in advance.
+     */
+    public static <T> Set<T> readZoneIds(String directory, String filename, int shardCount, IdConverter<T> idConverter) throws IOException {
+        return FloatMatrixIO.readZoneIdsFromPartialBinary(getPartialFilename(directory, filename, 1, shardCount), idConverter);
+    }
+
+    @Override
+    public String toString() {
+        return this.shardNumber + "/" + this.shardCount;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports multiple matrices as one table with a row per zone pair, containing the coordinates of both zones
+ * and the values of all matrices. The matrices may have different zone orders, the rows are written in the
+ * order of the zones given in the constructor.
+ *
+ * Two output formats are supported:
+ * <ul>
+ *     <li>CSV, see {@link #writeCSV(String, int)}: the origin zones are split into blocks, which are formatted in
+ *     parallel and written in order. If the filename ends with <code>.gz</code>, each block is compressed in parallel
+ *     as a separate gzip member. The concatenated members form a valid gzip file that can be read by any gzip reader.</li>
+ *     <li>Columnar, see {@link #writeColumnar(String, int)}: a directory with the zones and one binary file per
+ *     matrix column. This is much smaller and faster to write and read than the CSV file, e.g. with
+ *     <code>numpy.fromfile(filename, dtype='&lt;f4')</code>.</li>
+ * </ul>
+ *
+ * @author mrieser / SBB
+ */
+public final class MatrixXYExporter<T> {
+
+    private final static Logger log = Logger.getLogger(MatrixXYExporter.class);
+
+    /** the name of the zones file in the columnar output directory. */
+    public static final String ZONES_FILENAME = "zones.csv";
+    /** the suffix of the column files in the columnar output directory. */
+    public static final String COLUMN_SUFFIX = ".f32";
+
+    /** the approximate number of cells formatted per CSV block. */
+    private static final int CELLS_PER_BLOCK = 1 << 16;
+
+    private final List<T> zoneIds = new ArrayList<>();
+    private final double[] xs;
+    private final double[] ys;
+    private final List<String> columns = new ArrayList<>();
+    private final List<FloatMatrix<T>> matrices = new ArrayList<>();
+    private final List<int[]> matrixIndices = new ArrayList<>();
+    private final List<Boolean> isSameOrder = new ArrayList<>();
+
+    /**
+     * @param coords the coordinates of the exported zones. The iteration order of the map defines the order of the rows.
+     */
+    public MatrixXYExporter(Map<T, Coord> coords) {
+        this.xs = new double[coords.size()];
+        this.ys = new double[coords.size()];
+        for (Map.Entry<T, Coord> e : coords.entrySet()) {
+            int index = this.zoneIds.size();
+            this.zoneIds.add(e.getKey());
+            this.xs[index] = e.getValue().getX();
+            this.ys[index] = e.getValue().getY();
+        }
+    }
+
+    /**
+     * Adds a matrix that is exported in the column with the given name. The matrix must contain all zones.
+     */
+    public void addMatrix(String column, FloatMatrix<T> matrix) {
+        int[] indices = new int[this.zoneIds.size()];
+        boolean sameOrder = indices.length == matrix.size();
+        for (int i = 0; i < indices.length; i++) {
+            T zoneId = this.zoneIds.get(i);
+            indices[i] = matrix.indexOf(zoneId);
+            if (indices[i] < 0) {
+                throw new IllegalArgumentException("The matrix for column " + column + " does not contain zone " + zoneId);
+            }
+            sameOrder &= (indices[i] == i);
+        }
+        this.columns.add(column);
+        this.matrices.add(matrix);
+        this.matrixIndices.add(indices);
+        // complete rows can be copied if the matrix has exactly the exported zones in the same order
+        this.isSameOrder.add(sameOrder);
+    }
+
+    /**
+     * Writes the columns <code>FROM;FROM_X;FROM_Y;TO;TO_X;TO_Y</code>, followed by the columns of the matrices.
+     */
+    public void writeCSV(String filename, int numberOfThreads) throws IOException {
+        int zoneCount = this.zoneIds.size();
+        boolean gzip = filename.endsWith(".gz");
+        String[] zonePrefixes = new String[zoneCount];
+        for (int i = 0; i < zoneCount; i++) {
+            zonePrefixes[i] = this.zoneIds.get(i) + ";" + this.xs[i] + ";" + this.ys[i];
+        }
+        StringBuilder header = new StringBuilder("FROM;FROM_X;FROM_Y;TO;TO_X;TO_Y");
+        for (String column : this.columns) {
+            header.append(';').append(column);
+        }
+        header.append('\n');
+
+        int originsPerBlock = Math.max(1, CELLS_PER_BLOCK / Math.max(1, zoneCount));
+        int blockCount = (zoneCount + originsPerBlock - 1) / originsPerBlock;
+        log.info("writing " + ((long) zoneCount * zoneCount) + " rows in " + blockCount + " blocks with " + numberOfThreads + " threads to " + filename);
+
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filename), 1 << 16)) {
+            out.write(encode(header, gzip));
+            // only keep a limited number of formatted blocks in memory, they are written in the order of the origins
+            Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+            for (int b = 0; b < blockCount; b++) {
+                int fromStart = b * originsPerBlock;
+                int fromEnd = Math.min(zoneCount, fromStart + originsPerBlock);
+                pendingBlocks.add(executor.submit(() -> formatBlock(fromStart, fromEnd, zonePrefixes, gzip)));
+                if (pendingBlocks.size() >= 2 * numberOfThreads) {
+                    out.write(getResult(pendingBlocks.poll()));
+                }
+            }
+            while (!pendingBlocks.isEmpty()) {
+                out.write(getResult(pendingBlocks.poll()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private byte[] formatBlock(int fromStart, int fromEnd, String[] zonePrefixes, boolean gzip) throws IOException {
+        int zoneCount = zonePrefixes.length;
+        int columnCount = this.columns.size();
+        float[][] rows = new float[columnCount][zoneCount];
+        StringBuilder sb = new StringBuilder((fromEnd - fromStart) * zoneCount * (64 + 12 * columnCount));
+        for (int from = fromStart; from < fromEnd; from++) {
+            for (int c = 0; c < columnCount; c++) {
+                getRow(c, from, rows[c]);
+            }
+            String fromPrefix = zonePrefixes[from];
+            for (int to = 0; to < zoneCount; to++) {
+                sb.append(fromPrefix).append(';').append(zonePrefixes[to]);
+                for (int c = 0; c < columnCount; c++) {
+                    sb.append(';').append(Float.toString(rows[c][to]));
+                }
+                sb.append('\n');
+            }
+        }
+        return encode(sb, gzip);
+    }
+
+    /**
+     * Writes the zones to {@link #ZONES_FILENAME} with the columns <code>INDEX;ZONE;X;Y</code>, and the values of each
+     * matrix to a file named by its column and {@link #COLUMN_SUFFIX}. The column files contain n x n 32-bit floats
+     * in little-endian byte order, the value at position <code>i * n + j</code> belongs to the zones with the indices
+     * i and j. The files are written in parallel.
+     */
+    public void writeColumnar(String directory, int numberOfThreads) throws IOException {
+        File dir = new File(directory);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        StringBuilder zones = new StringBuilder("INDEX;ZONE;X;Y\n");
+        for (int i = 0; i < this.zoneIds.size(); i++) {
+            zones.append(i).append(';').append(this.zoneIds.get(i)).append(';').append(this.xs[i]).append(';').append(this.ys[i]).append('\n');
+        }
+        try (OutputStream out = new FileOutputStream(new File(dir, ZONES_FILENAME))) {
+            out.write(zones.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int c = 0; c < this.columns.size(); c++) {
+                int column = c;
+                File file = new File(dir, this.columns.get(c) + COLUMN_SUFFIX);
+                futures.add(executor.submit(() -> {
+                    writeColumn(column, file);
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                getResult(future);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void writeColumn(int column, File file) throws IOException {
+        log.info("writing column " + this.columns.get(column) + " to " + file.getAbsolutePath());
+        int zoneCount = this.zoneIds.size();
+        float[] values = new float[zoneCount];
+        ByteBuffer rowBytes = ByteBuffer.allocateDirect(zoneCount * 4).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (int from = 0; from < zoneCount; from++) {
+                getRow(column, from, values);
+                rowBytes.clear();
+                rowBytes.asFloatBuffer().put(values);
+                while (rowBytes.hasRemaining()) {
+                    channel.write(rowBytes);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the values of the matrix from the given origin to all zones, in the order of the exported zones.
+     */
+    private void getRow(int column, int fromIndex, float[] target) {
+        FloatMatrix<T> matrix = this.matrices.get(column);
+        int[] indices = this.matrixIndices.get(column);
+        if (this.isSameOrder.get(column)) {
+            matrix.getRow(fromIndex, target);
+            return;
+        }
+        int matrixFromIndex = indices[fromIndex];
+        for (int to = 0; to < target.length; to++) {
+            target[to] = matrix.get(matrixFromIndex, indices[to]);
+        }
+    }
+
+    private static byte[] encode(CharSequence text, boolean gzip) throws IOException {
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        if (!gzip) {
+            return bytes;
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed, 1 << 16)) {
+            out.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static <R> R getResult(Future<R> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while writing the matrices", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+}
@@ -4,21 +4,21 @@
 
 package ch.sbb.matsim.analysis.matrices;
 
-import org.matsim.api.core.v01.Coord;
+import ch.sbb.matsim.routing.graph.Graph;
+import ch.sbb.matsim.routing.graph.LeastCostPathTree;
+import ch.sbb.matsim.routing.graph.TravelTimeTable;
+import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.network.Node;
-import org.matsim.core.network.NetworkUtils;
 import org.matsim.core.router.util.TravelDisutility;
 import org.matsim.core.router.util.TravelTime;
-import org.matsim.core.utils.misc.Counter;
-import org.matsim.core.utils.misc.Time;
 import org.opengis.feature.simple.SimpleFeature;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Calculates a zone-to-zone travel time matrix based on network routing.
@@ -30,137 +30,490 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * - find the nearest link and thereof the to-node for each point
  * - this results in n nodes per zone (where some nodes can appear multiple times, this is wanted as it acts as a weight/probability)
  * - for each zone-to-zone combination, calculate the travel times for each node to node combination.
+ *   (the tree of a node appearing multiple times in a zone is only calculated once, and only until all destination nodes are reached)
  * - this results in n x n travel times per zone-to-zone combination.
  * - average the n x n travel times and store this value as the zone-to-zone travel time.
  *
+ * If multiple departure times are given, each worker calculates the trees for all departure times of an origin node
+ * before continuing, and accumulates the results into the same matrices. The resulting values are the averages over
+ * all node pairs and departure times, and the required memory does not depend on the number of departure times.
+ *
  * @author mrieser / SBB
  */
 public final class NetworkTravelTimeMatrix {
 
+    /** the name used for snapping the points if the caller does not provide sample points. */
+    private static final String DEFAULT_NETWORK_NAME = "network";
+
     private NetworkTravelTimeMatrix() {
     }
 
     public static <T> NetworkIndicators<T> calculateTravelTimeMatrix(Network network, Map<T, SimpleFeature> zones, double departureTime, int numberOfPointsPerZone, TravelTime travelTime, TravelDisutility travelDisutility, int numberOfThreads) {
-        Random r = new Random(20180404L);
-
-        Map<T, Node[]> nodesPerZone = new HashMap<>();
-        for (Map.Entry<T, SimpleFeature> e : zones.entrySet()) {
-            T zoneId = e.getKey();
-            SimpleFeature f = e.getValue();
-            if (f.getDefaultGeometry() != null) {
-                Node[] nodes = new Node[numberOfPointsPerZone];
+        Graph graph = new Graph(network);
+        ZoneSamplePoints<T> points = ZoneSamplePoints.sample(zones, numberOfPointsPerZone, numberOfThreads);
+        return calculateTravelTimeMatrix(network, graph, null, points, DEFAULT_NETWORK_NAME, new double[] {departureTime}, points.getZoneIds(), null, false, Double.POSITIVE_INFINITY, null, travelTime, travelDisutility, numberOfThreads);
+    }
+
+    /**
+     * Calculates the travel time matrix using the cached travel times from the table. The least cost paths
+     * are the fastest paths. The table (and the graph it is based on) can be re-used for multiple matrices,
+     * e.g. for different departure times.
+     *
+     * @param network the network used to find the nearest link for each sampled point. Must be the network the graph was created from.
+     */
+    public static <T> NetworkIndicators<T> calculateTravelTimeMatrix(Network network, TravelTimeTable travelTimes, Map<T, SimpleFeature> zones, double departureTime, int numberOfPointsPerZone, int numberOfThreads) {
+        return calculateTravelTimeMatrix(network, travelTimes, zones, new double[] {departureTime}, numberOfPointsPerZone, numberOfThreads);
+    }
+
+    /**
+     * Calculates the travel time matrix averaged over all the given departure times, using the cached travel times from the table.
+     *
+     * @see #calculateTravelTimeMatrix(Network, TravelTimeTable, Map, double, int, int)
+     */
+    public static <T> NetworkIndicators<T> calculateTravelTimeMatrix(Network network, TravelTimeTable travelTimes, Map<T, SimpleFeature> zones, double[] departureTimes, int numberOfPointsPerZone, int numberOfThreads) {
+        ZoneSamplePoints<T> points = ZoneSamplePoints.sample(zones, numberOfPointsPerZone, numberOfThreads);
+        return calculateTravelTimeMatrix(network, travelTimes, points, DEFAULT_NETWORK_NAME, departureTimes, numberOfThreads);
+    }
+
+    /**
+     * Calculates the travel time matrix averaged over all the given departure times, using the given sample points.
+     * The points are snapped to the network under the given name, unless they were already snapped to it before.
+     *
+     * @see #calculateTravelTimeMatrix(Network, TravelTimeTable, Map, double, int, int)
+     */
+    public static <T> NetworkIndicators<T> calculateTravelTimeMatrix(Network network, TravelTimeTable travelTimes, ZoneSamplePoints<T> points, String networkName, double[] departureTimes, int numberOfThreads) {
+        return calculateTravelTimeMatrix(network, travelTimes.getGraph(), travelTimes, points, networkName, departureTimes, points.getZoneIds(), null, false, Double.POSITIVE_INFINITY, null, null, null, numberOfThreads);
+    }
+
+    /**
+     * Calculates only the rows of the given origin zones, the other rows are left at 0. If tree summaries are given,
+     * the links used by the trees of each calculated origin zone are stored in the summaries.
+     *
+     * @param treeSummaries may be <code>null</code> if no summaries are required.
+     */
+    public static <T> NetworkIndicators<T> calculateTravelTimeMatrix(Network network, TravelTimeTable travelTimes, ZoneSamplePoints<T> points, String networkName, double[] departureTimes, Collection<T> originZoneIds, NetworkTreeSummaries<T> treeSummaries, int numberOfThreads) {
+        return calculateTravelTimeMatrix(network, travelTimes.getGraph(), travelTimes, points, networkName, departureTimes, originZoneIds, treeSummaries, false, Double.POSITIVE_INFINITY, null, null, null, numberOfThreads);
+    }
+
+    /**
+     * Additionally calculates the distribution of the travel times over all node pairs and departure times per zone-to-zone
+     * combination if <code>calcTravelTimeDistribution</code> is true, see {@link NetworkIndicators#travelTimeDistribution}.
+     */
+    public static <T> NetworkIndicators<T> calculateTravelTimeMatrix(Network network, TravelTimeTable travelTimes, ZoneSamplePoints<T> points, String networkName, double[] departureTimes, Collection<T> originZoneIds, NetworkTreeSummaries<T> treeSummaries, boolean calcTravelTimeDistribution, int numberOfThreads) {
+        return calculateTravelTimeMatrix(network, travelTimes.getGraph(), travelTimes, points, networkName, departureTimes, originZoneIds, treeSummaries, calcTravelTimeDistribution, Double.POSITIVE_INFINITY, null, null, null, numberOfThreads);
+    }
+
+    /**
+     * Sets all zone pairs with an average travel time above <code>maxTravelTime</code> to infinity, both in the travel time
+     * and the distance matrix. If the maximum travel time is finite, these two matrices are calculated into
+     * {@link SparseFloatMatrix}s with infinity as default value, so large zone systems where most zone pairs are above the
+     * cutoff require far less memory. If the measured fill rate of a matrix is too high, it is copied into a dense matrix,
+     * see {@link SparseFloatMatrix#selectRepresentation(FloatMatrix)}. Without a maximum travel time, all cells are set,
+     * so dense matrices are used directly.
+     */
+    public static <T> NetworkIndicators<T> calculateTravelTimeMatrix(Network network, TravelTimeTable travelTimes, ZoneSamplePoints<T> points, String networkName, double[] departureTimes, Collection<T> originZoneIds, NetworkTreeSummaries<T> treeSummaries, boolean calcTravelTimeDistribution, double maxTravelTime, int numberOfThreads) {
+        return calculateTravelTimeMatrix(network, travelTimes.getGraph(), travelTimes, points, networkName, departureTimes, originZoneIds, treeSummaries, calcTravelTimeDistribution, maxTravelTime, null, null, null, numberOfThreads);
+    }
+
+    /**
+     * Creates the matrices with the given factory, e.g. to store them in memory-mapped files instead of the heap.
+     * The names of the matrices are defined in {@link NetworkIndicators}. The travel time and distance matrices are
+     * initialized with infinity if the maximum travel time is finite, with 0 otherwise. If the factory is <code>null</code>,
+     * the matrices are created as described in {@link #calculateTravelTimeMatrix(Network, TravelTimeTable, ZoneSamplePoints, String, double[], Collection, NetworkTreeSummaries, boolean, double, int)}.
+     */
+    public static <T> NetworkIndicators<T> calculateTravelTimeMatrix(Network network, TravelTimeTable travelTimes, ZoneSamplePoints<T> points, String networkName, double[] departureTimes, Collection<T> originZoneIds, NetworkTreeSummaries<T> treeSummaries, boolean calcTravelTimeDistribution, double maxTravelTime, FloatMatrixFactory<T> matrixFactory, int numberOfThreads) {
+        return calculateTravelTimeMatrix(network, travelTimes.getGraph(), travelTimes, points, networkName, departureTimes, originZoneIds, treeSummaries, calcTravelTimeDistribution, maxTravelTime, matrixFactory, null, null, numberOfThreads);
+    }
+
+    private static <T> NetworkIndicators<T> calculateTravelTimeMatrix(Network network, Graph graph, TravelTimeTable travelTimeTable, ZoneSamplePoints<T> points, String networkName, double[] departureTimes, Collection<T> originZoneIds, NetworkTreeSummaries<T> treeSummaries, boolean calcTravelTimeDistribution, double maxTravelTime, FloatMatrixFactory<T> matrixFactory, TravelTime travelTime, TravelDisutility travelDisutility, int numberOfThreads) {
+        points.snapToNetwork(networkName, network);
+        int numberOfPointsPerZone = points.getNumberOfPointsPerZone();
+        Set<T> zoneIds = points.getZoneIds();
+
+        Map<T, int[]> nodesPerZone = new HashMap<>();
+        for (T zoneId : zoneIds) {
+            Id<Node>[] nodeIds = points.getNodeIds(networkName, zoneId);
+            if (nodeIds != null) {
+                int[] nodes = new int[nodeIds.length];
+                for (int i = 0; i < nodeIds.length; i++) {
+                    nodes[i] = graph.getNodeIndex(network.getNodes().get(nodeIds[i]));
+                }
                 nodesPerZone.put(zoneId, nodes);
-                for (int i = 0; i < numberOfPointsPerZone; i++) {
-                    Coord coord = Utils.getRandomCoordinateInFeature(f, r);
-                    Node node = NetworkUtils.getNearestLink(network, coord).getToNode();
-                    nodes[i] = node;
+            }
+        }
+
+        // the trees only need to be calculated until all destination nodes are reached
+        boolean[] isDestinationNode = new boolean[graph.getNodeCount()];
+        int[] destinationNodes = new int[nodesPerZone.size() * numberOfPointsPerZone];
+        int destinationNodeCount = 0;
+        for (int[] nodes : nodesPerZone.values()) {
+            for (int node : nodes) {
+                if (!isDestinationNode[node]) {
+                    isDestinationNode[node] = true;
+                    destinationNodes[destinationNodeCount] = node;
+                    destinationNodeCount++;
                 }
             }
         }
+        destinationNodes = Arrays.copyOf(destinationNodes, destinationNodeCount);
 
         // prepare calculation
-        NetworkIndicators<T> networkIndicators = new NetworkIndicators<>(zones.keySet());
+        boolean hasCutoff = !Double.isInfinite(maxTravelTime);
+        FloatMatrixFactory<T> factory = matrixFactory != null ? matrixFactory : (hasCutoff ? FloatMatrixFactory.sparse() : FloatMatrixFactory.dense());
+        float initialValue = hasCutoff ? Float.POSITIVE_INFINITY : 0;
+        NetworkIndicators<T> networkIndicators = new NetworkIndicators<>(
+                factory.createMatrix(zoneIds, NetworkIndicators.TRAVELTIMES, initialValue),
+                factory.createMatrix(zoneIds, NetworkIndicators.DISTANCES, initialValue),
+                calcTravelTimeDistribution ? new TravelTimeDistribution<>(zoneIds, matrixFactory != null ? matrixFactory : FloatMatrixFactory.dense(), NetworkIndicators.TRAVELTIMES) : null);
+        int[][] nodesPerZoneIndex = new int[networkIndicators.travelTimeMatrix.size()][];
+        for (Map.Entry<T, int[]> e : nodesPerZone.entrySet()) {
+            nodesPerZoneIndex[networkIndicators.travelTimeMatrix.indexOf(e.getKey())] = e.getValue();
+        }
 
-        float avgFactor = (float) (1.0 / numberOfPointsPerZone / numberOfPointsPerZone);
+        float avgFactor = (float) (1.0 / numberOfPointsPerZone / numberOfPointsPerZone / departureTimes.length);
 
         // do calculation
-        ConcurrentLinkedQueue<T> originZones = new ConcurrentLinkedQueue<>(zones.keySet());
-
-        Counter counter = new Counter("CAR-TravelTimeMatrix-" + Time.writeTime(departureTime) + " zone ", " / " + zones.size());
-        Thread[] threads = new Thread[numberOfThreads];
-        for (int i = 0; i < numberOfThreads; i++) {
-            RowWorker<T> worker = new RowWorker<>(originZones, zones.keySet(), network, nodesPerZone, networkIndicators, departureTime, travelTime, travelDisutility, counter);
-            threads[i] = new Thread(worker, "CAR-TravelTimeMatrix-" + Time.writeTime(departureTime) + "-" + i);
-            threads[i].start();
-        }
-
-        // wait until all threads have finished
-        for (Thread thread : threads) {
-            try {
-                thread.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
+        TravelTimeDistribution<T> distribution = networkIndicators.travelTimeDistribution;
+        RowPartitionedMatrixWriter<T> writer = distribution == null
+                ? new RowPartitionedMatrixWriter<>(networkIndicators.travelTimeMatrix, networkIndicators.distanceMatrix)
+                : new RowPartitionedMatrixWriter<>(networkIndicators.travelTimeMatrix, networkIndicators.distanceMatrix, distribution.stdDevMatrix, distribution.p10Matrix, distribution.p50Matrix, distribution.p90Matrix);
+        NetworkRowCalculator<T> calculator = new NetworkRowCalculator<>(graph, travelTimeTable, travelTime, travelDisutility, isDestinationNode, destinationNodes,
+                nodesPerZoneIndex, departureTimes, networkIndicators.travelTimeMatrix, treeSummaries, distribution != null, maxTravelTime / avgFactor);
+        MatrixJobScheduler.calculateRows("CAR-TravelTimeMatrix-" + Utils.writeTimes(departureTimes), writer, originZoneIds, calculator, numberOfThreads);
 
         networkIndicators.travelTimeMatrix.multiply(avgFactor);
         networkIndicators.distanceMatrix.multiply(avgFactor);
 
+        if (matrixFactory == null && hasCutoff) {
+            return new NetworkIndicators<>(
+                    SparseFloatMatrix.selectRepresentation(networkIndicators.travelTimeMatrix),
+                    SparseFloatMatrix.selectRepresentation(networkIndicators.distanceMatrix),
+                    networkIndicators.travelTimeDistribution);
+        }
         return networkIndicators;
     }
 
-    public static class RowWorker<T> implements Runnable {
-        private final ConcurrentLinkedQueue<T> originZones;
-        private final Set<T> destinationZones;
-        private final Network network;
-        private final Map<T, Node[]> nodesPerZone;
-        private final NetworkIndicators<T> networkIndicators;
+    /**
+     * Calculates the rows of the network matrices. The points of an origin zone are its distinct nodes: the same
+     * node may be sampled multiple times per zone, this is wanted as it acts as a weight. So the trees are calculated
+     * only once per distinct node, and the results are weighted by the number of times the node was sampled.
+     */
+    private static class NetworkRowCalculator<T> implements MatrixJobScheduler.RowCalculator<T, NetworkRowCalculator.WorkerState<T>> {
+        private final Graph graph;
+        private final TravelTimeTable travelTimeTable;
         private final TravelTime travelTime;
         private final TravelDisutility travelDisutility;
-        private final double departureTime;
-        private final Counter counter;
+        private final boolean[] isDestinationNode;
+        private final int[] destinationNodes;
+        private final int[][] nodesPerZone;
+        private final int[][] distinctNodesPerZone;
+        private final int[][] multiplicitiesPerZone;
+        private final double[] departureTimes;
+        private final FloatMatrix<T> matrix;
+        private final NetworkTreeSummaries<T> treeSummaries;
+        private final int[][][] usedLinksPerPoint; // only used if tree summaries are collected
+        private final TravelTimeStatistics travelTimeStatistics; // null if the distribution is not calculated
+        private final double maxTravelTimeSum;
 
-        RowWorker(ConcurrentLinkedQueue<T> originZones, Set<T> destinationZones, Network network, Map<T, Node[]> nodesPerZone, NetworkIndicators<T> networkIndicators, double departureTime, TravelTime travelTime, TravelDisutility travelDisutility, Counter counter) {
-            this.originZones = originZones;
-            this.destinationZones = destinationZones;
-            this.network = network;
-            this.nodesPerZone = nodesPerZone;
-            this.networkIndicators = networkIndicators;
-            this.departureTime = departureTime;
+        NetworkRowCalculator(Graph graph, TravelTimeTable travelTimeTable, TravelTime travelTime, TravelDisutility travelDisutility, boolean[] isDestinationNode, int[] destinationNodes,
+                             int[][] nodesPerZone, double[] departureTimes, FloatMatrix<T> matrix, NetworkTreeSummaries<T> treeSummaries, boolean calcTravelTimeDistribution,
+                             double maxTravelTimeSum) {
+            this.graph = graph;
+            this.travelTimeTable = travelTimeTable;
             this.travelTime = travelTime;
             this.travelDisutility = travelDisutility;
-            this.counter = counter;
+            this.isDestinationNode = isDestinationNode;
+            this.destinationNodes = destinationNodes;
+            this.nodesPerZone = nodesPerZone;
+            this.departureTimes = departureTimes;
+            this.matrix = matrix;
+            this.treeSummaries = treeSummaries;
+            this.travelTimeStatistics = calcTravelTimeDistribution ? new TravelTimeStatistics(2) : null;
+            this.maxTravelTimeSum = maxTravelTimeSum;
+            this.distinctNodesPerZone = new int[nodesPerZone.length][];
+            this.multiplicitiesPerZone = new int[nodesPerZone.length][];
+            for (int zoneIndex = 0; zoneIndex < nodesPerZone.length; zoneIndex++) {
+                int[] nodes = nodesPerZone[zoneIndex];
+                if (nodes != null) {
+                    int[] sortedNodes = nodes.clone();
+                    Arrays.sort(sortedNodes);
+                    int[] distinctNodes = new int[sortedNodes.length];
+                    int[] multiplicities = new int[sortedNodes.length];
+                    int distinctCount = 0;
+                    for (int i = 0; i < sortedNodes.length; i++) {
+                        if (distinctCount > 0 && distinctNodes[distinctCount - 1] == sortedNodes[i]) {
+                            multiplicities[distinctCount - 1]++;
+                        } else {
+                            distinctNodes[distinctCount] = sortedNodes[i];
+                            multiplicities[distinctCount] = 1;
+                            distinctCount++;
+                        }
+                    }
+                    this.distinctNodesPerZone[zoneIndex] = Arrays.copyOf(distinctNodes, distinctCount);
+                    this.multiplicitiesPerZone[zoneIndex] = Arrays.copyOf(multiplicities, distinctCount);
+                }
+            }
+            this.usedLinksPerPoint = treeSummaries == null ? null : new int[nodesPerZone.length][][];
+            if (this.usedLinksPerPoint != null) {
+                for (int zoneIndex = 0; zoneIndex < nodesPerZone.length; zoneIndex++) {
+                    this.usedLinksPerPoint[zoneIndex] = new int[getPointCount(zoneIndex)][];
+                }
+            }
+        }
+
+        @Override
+        public WorkerState<T> createState() {
+            LeastCostPathTree lcpTree = this.travelTimeTable == null ? new LeastCostPathTree(this.graph, this.travelTime, this.travelDisutility) : new LeastCostPathTree(this.travelTimeTable);
+            AllDestinationsSettledCriterion stopCriterion = new AllDestinationsSettledCriterion(this.isDestinationNode, this.destinationNodes.length);
+            UsedLinksCollector<T> usedLinksCollector = this.treeSummaries == null ? null : new UsedLinksCollector<>(this.graph, this.destinationNodes, this.treeSummaries);
+            return new WorkerState<>(lcpTree, stopCriterion, usedLinksCollector);
+        }
+
+        @Override
+        public int getBufferRowCount() {
+            return this.travelTimeStatistics == null ? 2 : 2 + TravelTimeStatistics.ROW_COUNT;
+        }
+
+        @Override
+        public int getPointCount(int fromZoneIndex) {
+            int[] distinctNodes = this.distinctNodesPerZone[fromZoneIndex];
+            return distinctNodes == null ? 0 : distinctNodes.length;
+        }
+
+        @Override
+        public double estimateCost(int fromZoneIndex) {
+            // every tree is calculated until all destination nodes are settled, so all trees have roughly the same cost
+            return getPointCount(fromZoneIndex) * this.departureTimes.length;
         }
 
-        public void run() {
-            LeastCostPathTree lcpTree = new LeastCostPathTree(this.travelTime, this.travelDisutility);
-            while (true) {
-                T fromZoneId = this.originZones.poll();
-                if (fromZoneId == null) {
-                    return;
+        @Override
+        public void calculatePoint(WorkerState<T> state, int fromZoneIndex, int pointIndex, float[][] buffer) {
+            int fromNode = this.distinctNodesPerZone[fromZoneIndex][pointIndex];
+            int multiplicity = this.multiplicitiesPerZone[fromZoneIndex][pointIndex];
+            float[] travelTimeRow = buffer[0];
+            float[] distanceRow = buffer[1];
+            int zoneCount = this.nodesPerZone.length;
+            for (double departureTime : this.departureTimes) {
+                state.stopCriterion.reset();
+                state.lcpTree.calculate(fromNode, departureTime, state.stopCriterion);
+                if (state.usedLinksCollector != null) {
+                    state.usedLinksCollector.addUsedLinks(state.lcpTree);
                 }
 
-                this.counter.incCounter();
-                Node[] fromNodes = this.nodesPerZone.get(fromZoneId);
-                if (fromNodes != null) {
-                    for (Node fromNode : fromNodes) {
-                        lcpTree.calculate(this.network, fromNode, this.departureTime);
-
-                        for (T toZoneId : this.destinationZones) {
-                            Node[] toNodes = this.nodesPerZone.get(toZoneId);
-                            if (toNodes != null) {
-                                for (Node toNode : toNodes) {
-                                    LeastCostPathTree.NodeData data = lcpTree.getTree().get(toNode.getId());
-                                    double tt = data.getTime() - this.departureTime;
-                                    double dist = data.getDistance();
-                                    this.networkIndicators.travelTimeMatrix.add(fromZoneId, toZoneId, (float) tt);
-                                    this.networkIndicators.distanceMatrix.add(fromZoneId, toZoneId, (float) dist);
-                                }
-                            } else {
-                                // this might happen if a zone has no geometry, for whatever reason...
-                                this.networkIndicators.travelTimeMatrix.set(fromZoneId, toZoneId, Float.POSITIVE_INFINITY);
-                                this.networkIndicators.distanceMatrix.set(fromZoneId, toZoneId, Float.POSITIVE_INFINITY);
+                for (int toZoneIndex = 0; toZoneIndex < zoneCount; toZoneIndex++) {
+                    int[] toNodes = this.nodesPerZone[toZoneIndex];
+                    if (toNodes != null) {
+                        for (int toNode : toNodes) {
+                            double tt = state.lcpTree.getTime(toNode) - departureTime;
+                            double dist = state.lcpTree.getDistance(toNode);
+                            travelTimeRow[toZoneIndex] += (float) (multiplicity * tt);
+                            distanceRow[toZoneIndex] += (float) (multiplicity * dist);
+                            if (this.travelTimeStatistics != null) {
+                                this.travelTimeStatistics.add(buffer, toZoneIndex, tt, multiplicity);
                             }
                         }
+                    } else {
+                        // this might happen if a zone has no geometry, for whatever reason...
+                        travelTimeRow[toZoneIndex] = Float.POSITIVE_INFINITY;
+                        distanceRow[toZoneIndex] = Float.POSITIVE_INFINITY;
                     }
-                } else {
-                    // this might happen if a zone has no geometry, for whatever reason...
-                    for (T toZoneId : this.destinationZones) {
-                        this.networkIndicators.travelTimeMatrix.set(fromZoneId, toZoneId, Float.POSITIVE_INFINITY);
-                        this.networkIndicators.distanceMatrix.set(fromZoneId, toZoneId, Float.POSITIVE_INFINITY);
+                }
+            }
+            if (state.usedLinksCollector != null) {
+                this.usedLinksPerPoint[fromZoneIndex][pointIndex] = state.usedLinksCollector.takeUsedLinks();
+            }
+        }
+
+        @Override
+        public void mergePoint(float[][] zoneBuffer, float[][] pointBuffer) {
+            MatrixJobScheduler.addRows(zoneBuffer, pointBuffer, 0, 2);
+            if (this.travelTimeStatistics != null) {
+                this.travelTimeStatistics.merge(zoneBuffer, pointBuffer);
+            }
+        }
+
+        @Override
+        public void finishRow(WorkerState<T> state, int fromZoneIndex, float[][] buffer, RowPartitionedMatrixWriter<T>.RowBuffer rowBuffer) {
+            float[] travelTimeRow = rowBuffer.getRow(0);
+            float[] distanceRow = rowBuffer.getRow(1);
+            if (this.nodesPerZone[fromZoneIndex] != null) {
+                System.arraycopy(buffer[0], 0, travelTimeRow, 0, travelTimeRow.length);
+                System.arraycopy(buffer[1], 0, distanceRow, 0, distanceRow.length);
+                if (!Double.isInfinite(this.maxTravelTimeSum)) {
+                    // the rows contain the sums of all point pairs and departure times, so compare them with the sum of the cutoff
+                    for (int toZoneIndex = 0; toZoneIndex < travelTimeRow.length; toZoneIndex++) {
+                        if (travelTimeRow[toZoneIndex] > this.maxTravelTimeSum) {
+                            travelTimeRow[toZoneIndex] = Float.POSITIVE_INFINITY;
+                            distanceRow[toZoneIndex] = Float.POSITIVE_INFINITY;
+                        }
+                    }
+                }
+            } else {
+                // this might happen if a zone has no geometry, for whatever reason...
+                Arrays.fill(travelTimeRow, Float.POSITIVE_INFINITY);
+                Arrays.fill(distanceRow, Float.POSITIVE_INFINITY);
+            }
+            if (this.travelTimeStatistics != null) {
+                float[] stdDevRow = rowBuffer.getRow(2);
+                float[] p10Row = rowBuffer.getRow(3);
+                float[] p50Row = rowBuffer.getRow(4);
+                float[] p90Row = rowBuffer.getRow(5);
+                for (int toZoneIndex = 0; toZoneIndex < this.nodesPerZone.length; toZoneIndex++) {
+                    if (Float.isInfinite(travelTimeRow[toZoneIndex])) {
+                        // no geometry in the origin or destination zone, or unreachable destination nodes
+                        stdDevRow[toZoneIndex] = Float.POSITIVE_INFINITY;
+                        p10Row[toZoneIndex] = Float.POSITIVE_INFINITY;
+                        p50Row[toZoneIndex] = Float.POSITIVE_INFINITY;
+                        p90Row[toZoneIndex] = Float.POSITIVE_INFINITY;
+                    } else {
+                        this.travelTimeStatistics.writeResults(buffer, toZoneIndex, stdDevRow, p10Row, p50Row, p90Row);
+                    }
+                }
+            }
+            if (state.usedLinksCollector != null) {
+                int[][] usedLinks = this.usedLinksPerPoint[fromZoneIndex];
+                for (int[] pointLinks : usedLinks) {
+                    state.usedLinksCollector.addLinks(pointLinks);
+                }
+                state.usedLinksCollector.finishZone(this.matrix.getId(fromZoneIndex));
+                this.usedLinksPerPoint[fromZoneIndex] = null;
+            }
+        }
+
+        static final class WorkerState<T> {
+            final LeastCostPathTree lcpTree;
+            final AllDestinationsSettledCriterion stopCriterion;
+            final UsedLinksCollector<T> usedLinksCollector;
+
+            WorkerState(LeastCostPathTree lcpTree, AllDestinationsSettledCriterion stopCriterion, UsedLinksCollector<T> usedLinksCollector) {
+                this.lcpTree = lcpTree;
+                this.stopCriterion = stopCriterion;
+                this.usedLinksCollector = usedLinksCollector;
+            }
+        }
+    }
+
+    /**
+     * Stops the tree calculation as soon as all destination nodes are settled, as the
+     * remaining parts of the tree are not needed for the matrix.
+     */
+    private static class AllDestinationsSettledCriterion implements LeastCostPathTree.StopCriterion {
+        private final boolean[] isDestinationNode;
+        private final int destinationNodeCount;
+        private int settledCount = 0;
+
+        AllDestinationsSettledCriterion(boolean[] isDestinationNode, int destinationNodeCount) {
+            this.isDestinationNode = isDestinationNode;
+            this.destinationNodeCount = destinationNodeCount;
+        }
+
+        void reset() {
+            this.settledCount = 0;
+        }
+
+        @Override
+        public boolean stop(int nodeIndex, double arrivalTime, double travelCost, double distance, double departureTime) {
+            if (this.isDestinationNode[nodeIndex]) {
+                this.settledCount++;
+            }
+            return this.settledCount == this.destinationNodeCount;
+        }
+    }
+
+    /**
+     * Collects the links used by the paths to all destination nodes in the trees of one origin zone,
+     * see {@link NetworkTreeSummaries}. Each worker thread uses its own instance.
+     */
+    private static class UsedLinksCollector<T> {
+        private final Graph graph;
+        private final int[] destinationNodes;
+        private final NetworkTreeSummaries<T> treeSummaries;
+        private final boolean[] isLinkUsed;
+        private final int[] visitedNodeStamps; // nodes whose path to the root was already followed in the current tree
+        private int stamp = 0;
+        private int[] usedLinks = new int[1024];
+        private int usedLinkCount = 0;
+
+        UsedLinksCollector(Graph graph, int[] destinationNodes, NetworkTreeSummaries<T> treeSummaries) {
+            this.graph = graph;
+            this.destinationNodes = destinationNodes;
+            this.treeSummaries = treeSummaries;
+            this.isLinkUsed = new boolean[graph.getLinkCount()];
+            this.visitedNodeStamps = new int[graph.getNodeCount()];
+        }
+
+        void addUsedLinks(LeastCostPathTree tree) {
+            this.stamp++;
+            for (int node : this.destinationNodes) {
+                // follow the path back to the root, until a node is reached whose path was already followed
+                while (this.visitedNodeStamps[node] != this.stamp) {
+                    this.visitedNodeStamps[node] = this.stamp;
+                    int linkIndex = tree.getComingFromLink(node);
+                    if (linkIndex < 0) {
+                        break;
                     }
+                    addLink(linkIndex);
+                    node = this.graph.getFromNode(linkIndex);
+                }
+            }
+        }
+
+        /**
+         * Adds links collected before, e.g. the links used by the trees of another point of the same zone.
+         */
+        void addLinks(int[] linkIndices) {
+            for (int linkIndex : linkIndices) {
+                addLink(linkIndex);
+            }
+        }
+
+        private void addLink(int linkIndex) {
+            if (!this.isLinkUsed[linkIndex]) {
+                this.isLinkUsed[linkIndex] = true;
+                if (this.usedLinkCount == this.usedLinks.length) {
+                    this.usedLinks = Arrays.copyOf(this.usedLinks, this.usedLinks.length * 2);
                 }
+                this.usedLinks[this.usedLinkCount++] = linkIndex;
+            }
+        }
+
+        /**
+         * Returns the links collected since the last call and resets the collector.
+         */
+        int[] takeUsedLinks() {
+            int[] links = Arrays.copyOf(this.usedLinks, this.usedLinkCount);
+            for (int linkIndex : links) {
+                this.isLinkUsed[linkIndex] = false;
             }
+            this.usedLinkCount = 0;
+            return links;
+        }
+
+        void finishZone(T zoneId) {
+            int[] zoneLinks = takeUsedLinks();
+            Arrays.sort(zoneLinks);
+            this.treeSummaries.setUsedLinks(zoneId, zoneLinks);
         }
     }
 
     public static class NetworkIndicators<T> {
+        /** the names of the matrices, see {@link FloatMatrixFactory}. */
+        public static final String TRAVELTIMES = "traveltimes";
+        public static final String DISTANCES = "distances";
+
         public final FloatMatrix<T> travelTimeMatrix;
         public final FloatMatrix<T> distanceMatrix;
+        /** the distribution of the travel times, <code>null</code> if it was not calculated. */
+        public final TravelTimeDistribution<T> travelTimeDistribution;
 
         public NetworkIndicators(Set<T> zones) {
-            this.travelTimeMatrix = new FloatMatrix<>(zones, 0);
-            this.distanceMatrix = new FloatMatrix<>(zones, 0);
+            this(new FloatMatrix<>(zones, 0), new FloatMatrix<>(zones, 0), null);
+        }
+
+        NetworkIndicators(FloatMatrix<T> travelTimeMatrix, FloatMatrix<T> distanceMatrix, TravelTimeDistribution<T> travelTimeDistribution) {
+            this.travelTimeMatrix = travelTimeMatrix;
+            this.distanceMatrix = distanceMatrix;
+            this.travelTimeDistribution = travelTimeDistribution;
         }
     }
 
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import ch.sbb.matsim.analysis.matrices.FloatMatrixIO.IdConverter;
+import ch.sbb.matsim.routing.graph.Graph;
+import ch.sbb.matsim.routing.graph.TravelTimeTable;
+import org.matsim.api.core.v01.network.Link;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Summarizes the least cost path trees calculated for a network travel time matrix, so the matrix can be
+ * updated incrementally after changes to the network or the travel times (see {@link IncrementalNetworkTravelTimeMatrix}).
+ *
+ * For each origin zone, the summary contains the links used by the paths from the zone's nodes to all destination
+ * nodes, for all departure times. For each link, a fingerprint of its attributes relevant for the matrix (from- and
+ * to-node, length and cached travel times) is stored, so changed links can be detected later without access to the
+ * previous network.
+ *
+ * The summaries can be written to a binary file and read again. The format is (big-endian, as written by {@link DataOutputStream}):
+ * <pre>
+ * int     magic number 0x4E54534D ("NTSM")
+ * int     version (1)
+ * int     number of departure times, followed by the departure times as doubles
+ * double  start time, double bin size, int bin count of the travel time table
+ * int     number of links, followed by: UTF link id, long fingerprint
+ * int     number of zones, followed by: UTF zone id, int number of used links, the used link indices
+ *         in ascending order, each stored as variable-length encoded difference to the previous index
+ * </pre>
+ *
+ * @author mrieser / SBB
+ */
+public final class NetworkTreeSummaries<T> {
+
+    private final static int MAGIC = 0x4E54534D;
+    private final static int VERSION = 1;
+
+    private final double[] departureTimes;
+    private final double ttStartTime;
+    private final double ttBinSize;
+    private final int ttBinCount;
+    private final String[] linkIds;
+    private final long[] linkFingerprints;
+    private final Map<T, int[]> usedLinksPerZone = new ConcurrentHashMap<>();
+
+    private NetworkTreeSummaries(double[] departureTimes, double ttStartTime, double ttBinSize, int ttBinCount, String[] linkIds, long[] linkFingerprints) {
+        this.departureTimes = departureTimes;
+        this.ttStartTime = ttStartTime;
+        this.ttBinSize = ttBinSize;
+        this.ttBinCount = ttBinCount;
+        this.linkIds = linkIds;
+        this.linkFingerprints = linkFingerprints;
+    }
+
+    /**
+     * Creates empty summaries for the links of the table's graph. The link indices used in the summaries
+     * are the link indices of the graph.
+     */
+    public static <T> NetworkTreeSummaries<T> create(TravelTimeTable travelTimes, double[] departureTimes) {
+        Graph graph = travelTimes.getGraph();
+        int linkCount = graph.getLinkCount();
+        String[] linkIds = new String[linkCount];
+        long[] linkFingerprints = new long[linkCount];
+        for (int linkIndex = 0; linkIndex < linkCount; linkIndex++) {
+            linkIds[linkIndex] = graph.getLink(linkIndex).getId().toString();
+            linkFingerprints[linkIndex] = calcFingerprint(travelTimes, linkIndex);
+        }
+        return new NetworkTreeSummaries<>(departureTimes.clone(), travelTimes.getStartTime(), travelTimes.getBinSize(), travelTimes.getBinCount(), linkIds, linkFingerprints);
+    }
+
+    /**
+     * Calculates a 64-bit FNV-1a hash over the from- and to-node, the length and the cached travel times of a link.
+     */
+    static long calcFingerprint(TravelTimeTable travelTimes, int linkIndex) {
+        Link link = travelTimes.getGraph().getLink(linkIndex);
+        long hash = 0xcbf29ce484222325L;
+        hash = fnv(hash, link.getFromNode().getId().toString().hashCode());
+        hash = fnv(hash, link.getToNode().getId().toString().hashCode());
+        long lengthBits = Double.doubleToLongBits(link.getLength());
+        hash = fnv(hash, (int) lengthBits);
+        hash = fnv(hash, (int) (lengthBits >>> 32));
+        for (int bin = 0; bin < travelTimes.getBinCount(); bin++) {
+            double time = travelTimes.getStartTime() + bin * travelTimes.getBinSize();
+            hash = fnv(hash, Float.floatToIntBits((float) travelTimes.getLinkTravelTime(linkIndex, time)));
+        }
+        return hash;
+    }
+
+    private static long fnv(long hash, int value) {
+        for (int i = 0; i < 4; i++) {
+            hash ^= (value >>> (i * 8)) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Checks if the summaries were created for the same departure times and travel time bins, i.e.
+     * if the trees of unchanged zones would be the same.
+     */
+    boolean isCompatible(NetworkTreeSummaries<T> other) {
+        return Arrays.equals(this.departureTimes, other.departureTimes)
+                && this.ttStartTime == other.ttStartTime
+                && this.ttBinSize == other.ttBinSize
+                && this.ttBinCount == other.ttBinCount;
+    }
+
+    int getLinkCount() {
+        return this.linkIds.length;
+    }
+
+    String getLinkId(int linkIndex) {
+        return this.linkIds[linkIndex];
+    }
+
+    long getLinkFingerprint(int linkIndex) {
+        return this.linkFingerprints[linkIndex];
+    }
+
+    /**
+     * @param usedLinks the indices of the used links, in ascending order.
+     */
+    void setUsedLinks(T zoneId, int[] usedLinks) {
+        this.usedLinksPerZone.put(zoneId, usedLinks);
+    }
+
+    /**
+     * @return the indices of the used links in ascending order, or <code>null</code> if the zone is not part of the summaries.
+     */
+    int[] getUsedLinks(T zoneId) {
+        return this.usedLinksPerZone.get(zoneId);
+    }
+
+    public void write(String filename) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.departureTimes.length);
+            for (double time : this.departureTimes) {
+                out.writeDouble(time);
+            }
+            out.writeDouble(this.ttStartTime);
+            out.writeDouble(this.ttBinSize);
+            out.writeInt(this.ttBinCount);
+            out.writeInt(this.linkIds.length);
+            for (int i = 0; i < this.linkIds.length; i++) {
+                out.writeUTF(this.linkIds[i]);
+                out.writeLong(this.linkFingerprints[i]);
+            }
+            out.writeInt(this.usedLinksPerZone.size());
+            for (Map.Entry<T, int[]> e : this.usedLinksPerZone.entrySet()) {
+                out.writeUTF(e.getKey().toString());
+                int[] usedLinks = e.getValue();
+                out.writeInt(usedLinks.length);
+                int previous = 0;
+                for (int linkIndex : usedLinks) {
+                    writeVarInt(out, linkIndex - previous);
+                    previous = linkIndex;
+                }
+            }
+        }
+    }
+
+    public static <T> NetworkTreeSummaries<T> read(String filename, IdConverter<T> idConverter) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 1 << 16))) {
+            int magic = in.readInt();
+            int version = in.readInt();
+            if (magic != MAGIC || version != VERSION) {
+                throw new IOException("Unsupported file format or version: " + filename);
+            }
+            double[] departureTimes = new double[in.readInt()];
+            for (int i = 0; i < departureTimes.length; i++) {
+                departureTimes[i] = in.readDouble();
+            }
+            double ttStartTime = in.readDouble();
+            double ttBinSize = in.readDouble();
+            int ttBinCount = in.readInt();
+            int linkCount = in.readInt();
+            String[] linkIds = new String[linkCount];
+            long[] linkFingerprints = new long[linkCount];
+            for (int i = 0; i < linkCount; i++) {
+                linkIds[i] = in.readUTF();
+                linkFingerprints[i] = in.readLong();
+            }
+            NetworkTreeSummaries<T> summaries = new NetworkTreeSummaries<>(departureTimes, ttStartTime, ttBinSize, ttBinCount, linkIds, linkFingerprints);
+            int zoneCount = in.readInt();
+            for (int z = 0; z < zoneCount; z++) {
+                T zoneId = idConverter.parse(in.readUTF());
+                int[] usedLinks = new int[in.readInt()];
+                int previous = 0;
+                for (int i = 0; i < usedLinks.length; i++) {
+                    previous += readVarInt(in);
+                    usedLinks[i] = previous;
+                }
+                summaries.usedLinksPerZone.put(zoneId, usedLinks);
+            }
+            return summaries;
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
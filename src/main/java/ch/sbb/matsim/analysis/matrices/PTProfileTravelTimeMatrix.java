@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import ch.sbb.matsim.analysis.matrices.PtZonePoints.StopCandidates;
+import ch.sbb.matsim.routing.pt.raptor.RaptorParameters;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptor;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorData;
+import org.matsim.core.utils.misc.Time;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Calculates zone-to-zone travel time indicators for public transport over a departure time window,
+ * instead of for single departure times like {@link PTTravelTimeMatrix}.
+ *
+ * Idea of the algorithm:
+ * - sample the points per zone and find their stop candidates like in {@link PTTravelTimeMatrix}.
+ * - for each origin point, calculate the PT trees for departure instants spread evenly over the window.
+ * - for each point-to-point combination, sweep backwards over the departure instants: leaving at an instant,
+ *   one can either use the best connection found for this instant, or wait at the origin and use the best
+ *   connection of any later instant. The earliest arrival of all these options is used. The time spent
+ *   waiting at the origin until the departure of the chosen connection is the headway-based wait time.
+ * - for each departure instant, average the travel times of all point-to-point combinations. This results in
+ *   a travel time profile per zone-to-zone combination, which is aggregated to the mean, minimum and a
+ *   percentile travel time over the window.
+ *
+ * The backward sweep re-uses the results of later departure instants for earlier ones, so a connection leaving
+ * shortly after an instant is also found for this instant even if the tree calculated at this instant did not
+ * consider it the best one. For the last instants of the window, no later connections are considered, so the
+ * wait time there is underestimated. Choose the window slightly larger than the period of interest if required.
+ *
+ * The travel times are the PT travel times as in {@link PTTravelTimeMatrix}, without access, egress and the wait
+ * time at the origin, which is available as separate indicator. Zone pairs without any connection in the window
+ * have infinite travel and wait times and a data count of 0.
+ *
+ * @author mrieser / SBB
+ */
+public final class PTProfileTravelTimeMatrix {
+
+    private PTProfileTravelTimeMatrix() {
+    }
+
+    /**
+     * @param windowStart the first departure instant
+     * @param windowEnd the last possible departure instant
+     * @param stepSize the time between two departure instants, in seconds
+     * @param percentile the percentile of the travel times to be calculated, between 0 (exclusive) and 100 (inclusive)
+     */
+    public static <T> PtProfileIndicators<T> calculateProfileMatrix(SwissRailRaptorData raptorData, Map<T, SimpleFeature> zones, double windowStart, double windowEnd, double stepSize, double percentile, int numberOfPointsPerZone, RaptorParameters parameters, int numberOfThreads) {
+        ZoneSamplePoints<T> samplePoints = ZoneSamplePoints.sample(zones, numberOfPointsPerZone, numberOfThreads);
+        return calculateProfileMatrix(raptorData, samplePoints, windowStart, windowEnd, stepSize, percentile, parameters, numberOfThreads);
+    }
+
+    /**
+     * Calculates the profile matrices using the given sample points.
+     *
+     * @see #calculateProfileMatrix(SwissRailRaptorData, Map, double, double, double, double, int, RaptorParameters, int)
+     */
+    public static <T> PtProfileIndicators<T> calculateProfileMatrix(SwissRailRaptorData raptorData, ZoneSamplePoints<T> samplePoints, double windowStart, double windowEnd, double stepSize, double percentile, RaptorParameters parameters, int numberOfThreads) {
+        return calculateProfileMatrix(raptorData, samplePoints, windowStart, windowEnd, stepSize, percentile, samplePoints.getZoneIds(), parameters, numberOfThreads);
+    }
+
+    /**
+     * Calculates only the rows of the given origin zones, the values in the other rows are undefined.
+     *
+     * @see #calculateProfileMatrix(SwissRailRaptorData, Map, double, double, double, double, int, RaptorParameters, int)
+     */
+    public static <T> PtProfileIndicators<T> calculateProfileMatrix(SwissRailRaptorData raptorData, ZoneSamplePoints<T> samplePoints, double windowStart, double windowEnd, double stepSize, double percentile, Collection<T> originZoneIds, RaptorParameters parameters, int numberOfThreads) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be in the range (0, 100], but is " + percentile);
+        }
+        double[] departureTimes = createDepartureTimes(windowStart, windowEnd, stepSize);
+
+        // prepare calculation
+        Set<T> zoneIds = samplePoints.getZoneIds();
+        PtProfileIndicators<T> ppi = new PtProfileIndicators<>(zoneIds, percentile);
+        PtZonePoints points = PtZonePoints.create(samplePoints, ppi.meanTravelTimeMatrix, raptorData, parameters);
+
+        // do calculation
+        RowPartitionedMatrixWriter<T> writer = new RowPartitionedMatrixWriter<>(ppi.meanTravelTimeMatrix, ppi.minTravelTimeMatrix, ppi.percentileTravelTimeMatrix, ppi.waitTimeMatrix, ppi.dataCountMatrix);
+        ProfileRowCalculator<T> calculator = new ProfileRowCalculator<>(points, raptorData, parameters, departureTimes, percentile);
+        String windowDescription = Time.writeTime(windowStart) + "-" + Time.writeTime(windowEnd);
+        MatrixJobScheduler.calculateRows("PT-ProfileMatrix-" + windowDescription, writer, originZoneIds, calculator, numberOfThreads);
+
+        return ppi;
+    }
+
+    static double[] createDepartureTimes(double windowStart, double windowEnd, double stepSize) {
+        if (stepSize <= 0) {
+            throw new IllegalArgumentException("stepSize must be positive, but is " + stepSize);
+        }
+        if (windowEnd < windowStart) {
+            throw new IllegalArgumentException("the window ends before it starts: " + Time.writeTime(windowStart) + " - " + Time.writeTime(windowEnd));
+        }
+        int count = (int) Math.floor((windowEnd - windowStart) / stepSize) + 1;
+        double[] departureTimes = new double[count];
+        for (int i = 0; i < count; i++) {
+            departureTimes[i] = windowStart + i * stepSize;
+        }
+        return departureTimes;
+    }
+
+    /**
+     * Calculates the rows of the profile matrices. The travel time profile of each point is accumulated into
+     * a buffer with one row per departure instant for the travel time sums, one row per departure instant for
+     * the data counts and one row for the wait time sums. The statistics are only calculated from the sums over
+     * all points of the origin zone.
+     */
+    private static class ProfileRowCalculator<T> implements MatrixJobScheduler.RowCalculator<T, ProfileRowCalculator.WorkerState> {
+        private final PtZonePoints points;
+        private final SwissRailRaptorData raptorData;
+        private final RaptorParameters parameters;
+        private final double[] departureTimes;
+        private final double percentile;
+
+        ProfileRowCalculator(PtZonePoints points, SwissRailRaptorData raptorData, RaptorParameters parameters, double[] departureTimes, double percentile) {
+            this.points = points;
+            this.raptorData = raptorData;
+            this.parameters = parameters;
+            this.departureTimes = departureTimes;
+            this.percentile = percentile;
+        }
+
+        @Override
+        public WorkerState createState() {
+            return new WorkerState(new SwissRailRaptor(this.raptorData, null, null, null), this.points.new Trees(this.departureTimes.length));
+        }
+
+        @Override
+        public int getBufferRowCount() {
+            return 2 * this.departureTimes.length + 1;
+        }
+
+        @Override
+        public int getPointCount(int fromZoneIndex) {
+            return this.points.getPointCount(fromZoneIndex);
+        }
+
+        @Override
+        public double estimateCost(int fromZoneIndex) {
+            return this.points.estimateCost(fromZoneIndex) * this.departureTimes.length;
+        }
+
+        @Override
+        public void calculatePoint(WorkerState state, int fromZoneIndex, int pointIndex, float[][] buffer) {
+            int zoneCount = this.points.getZoneCount();
+            StopCandidates fromPoint = this.points.pointsPerZone[fromZoneIndex][pointIndex];
+            state.trees.calculate(state.raptor, fromPoint, this.departureTimes, this.parameters);
+            for (int toZoneIndex = 0; toZoneIndex < zoneCount; toZoneIndex++) {
+                StopCandidates[] toPoints = this.points.pointsPerZone[toZoneIndex];
+                if (toPoints != null) {
+                    for (StopCandidates toPoint : toPoints) {
+                        sweep(state.trees, toPoint, toZoneIndex, buffer);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void finishRow(WorkerState state, int fromZoneIndex, float[][] buffer, RowPartitionedMatrixWriter<T>.RowBuffer rowBuffer) {
+            int zoneCount = this.points.getZoneCount();
+            int timesCount = this.departureTimes.length;
+            double[] profile = state.profile;
+            StopCandidates[] fromPoints = this.points.pointsPerZone[fromZoneIndex];
+            for (int toZoneIndex = 0; toZoneIndex < zoneCount; toZoneIndex++) {
+                if (fromPoints == null || this.points.pointsPerZone[toZoneIndex] == null) {
+                    // this might happen if a zone has no geometry, for whatever reason...
+                    for (int m = 0; m < 4; m++) {
+                        rowBuffer.getRow(m)[toZoneIndex] = Float.POSITIVE_INFINITY;
+                    }
+                    continue;
+                }
+                int profileSize = 0;
+                float totalCount = 0;
+                for (int t = 0; t < timesCount; t++) {
+                    float count = buffer[timesCount + t][toZoneIndex];
+                    if (count > 0) {
+                        profile[profileSize] = buffer[t][toZoneIndex] / count;
+                        profileSize++;
+                        totalCount += count;
+                    }
+                }
+                // no connection within the window, like in PTTravelTimeMatrix
+                float mean = Float.POSITIVE_INFINITY;
+                float min = Float.POSITIVE_INFINITY;
+                float percentileValue = Float.POSITIVE_INFINITY;
+                float waitTime = Float.POSITIVE_INFINITY;
+                if (profileSize > 0) {
+                    Arrays.sort(profile, 0, profileSize);
+                    double sum = 0;
+                    for (int i = 0; i < profileSize; i++) {
+                        sum += profile[i];
+                    }
+                    mean = (float) (sum / profileSize);
+                    min = (float) profile[0];
+                    // nearest-rank method
+                    int rank = (int) Math.ceil(this.percentile / 100.0 * profileSize);
+                    percentileValue = (float) profile[Math.max(0, Math.min(profileSize, rank) - 1)];
+                    // profileSize > 0 implies totalCount > 0
+                    waitTime = buffer[2 * timesCount][toZoneIndex] / totalCount;
+                }
+                rowBuffer.getRow(0)[toZoneIndex] = mean;
+                rowBuffer.getRow(1)[toZoneIndex] = min;
+                rowBuffer.getRow(2)[toZoneIndex] = percentileValue;
+                rowBuffer.getRow(3)[toZoneIndex] = waitTime;
+                rowBuffer.getRow(4)[toZoneIndex] = totalCount;
+            }
+        }
+
+        /**
+         * Sweeps backwards over all departure instants and adds the travel time and wait time of the connection
+         * with the earliest arrival at the destination point for each instant.
+         */
+        private void sweep(PtZonePoints.Trees trees, StopCandidates toPoint, int toZoneIndex, float[][] buffer) {
+            int timesCount = this.departureTimes.length;
+            int[] toStopIndices = toPoint.stopIndices;
+            double[] egressTimes = toPoint.walkTimes;
+            double bestArrivalTime = Double.POSITIVE_INFINITY;
+            double bestTravelTime = Double.NaN;
+            double bestDepartureTime = Double.NaN;
+            for (int t = timesCount - 1; t >= 0; t--) {
+                double departureTime = this.departureTimes[t];
+                double[] travelTimes = trees.travelTimes[t];
+                double[] accessTimes = trees.accessTimes[t];
+                int[] transferCounts = trees.transferCounts[t];
+                for (int i = 0; i < toStopIndices.length; i++) {
+                    int toStop = toStopIndices[i];
+                    if (transferCounts[toStop] >= 0) { // it might be that some stops are not reachable
+                        double arrivalTime = departureTime + accessTimes[toStop] + travelTimes[toStop] + egressTimes[i];
+                        if (arrivalTime <= bestArrivalTime) {
+                            // on equal arrival, prefer the later departure as it requires less waiting
+                            bestArrivalTime = arrivalTime;
+                            bestTravelTime = travelTimes[toStop];
+                            bestDepartureTime = departureTime;
+                        }
+                    }
+                }
+                if (bestArrivalTime < Double.POSITIVE_INFINITY) {
+                    buffer[t][toZoneIndex] += (float) bestTravelTime;
+                    buffer[timesCount + t][toZoneIndex] += 1;
+                    buffer[2 * timesCount][toZoneIndex] += (float) (bestDepartureTime - departureTime);
+                }
+            }
+        }
+
+        static final class WorkerState {
+            final SwissRailRaptor raptor;
+            final PtZonePoints.Trees trees;
+            final double[] profile;
+
+            WorkerState(SwissRailRaptor raptor, PtZonePoints.Trees trees) {
+                this.raptor = raptor;
+                this.trees = trees;
+                this.profile = new double[trees.travelTimes.length];
+            }
+        }
+    }
+
+    public static class PtProfileIndicators<T> {
+        public final double percentile;
+        public final FloatMatrix<T> meanTravelTimeMatrix;
+        public final FloatMatrix<T> minTravelTimeMatrix;
+        public final FloatMatrix<T> percentileTravelTimeMatrix;
+        public final FloatMatrix<T> waitTimeMatrix;
+        public final FloatMatrix<T> dataCountMatrix; // how many values/routes were taken into account over all departure instants
+
+        public PtProfileIndicators(Set<T> zones, double percentile) {
+            this.percentile = percentile;
+            this.meanTravelTimeMatrix = new FloatMatrix<>(zones, 0);
+            this.minTravelTimeMatrix = new FloatMatrix<>(zones, 0);
+            this.percentileTravelTimeMatrix = new FloatMatrix<>(zones, 0);
+            this.waitTimeMatrix = new FloatMatrix<>(zones, 0);
+            this.dataCountMatrix = new FloatMatrix<>(zones, 0);
+        }
+    }
+}
@@ -4,37 +4,35 @@
 
 package ch.sbb.matsim.analysis.matrices;
 
+import ch.sbb.matsim.analysis.matrices.PtZonePoints.StopCandidates;
 import ch.sbb.matsim.routing.pt.raptor.RaptorParameters;
 import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptor;
-import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorCore.TravelInfo;
 import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorData;
-import org.matsim.api.core.v01.Coord;
-import org.matsim.api.core.v01.Id;
-import org.matsim.core.utils.geometry.CoordUtils;
-import org.matsim.core.utils.misc.Counter;
-import org.matsim.core.utils.misc.Time;
-import org.matsim.pt.transitSchedule.api.TransitStopFacility;
 import org.opengis.feature.simple.SimpleFeature;
 
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Calculates a zone-to-zone travel time matrix for public transport.
  *
  *  Idea of the algorithm:
  * - select n random points per zone
- * - for each point, find the possible stops to be used as departure or arrival stops.
+ * - for each point, find the possible stops to be used as departure or arrival stops, and the walk times to these stops.
+ *   This is done only once per point before the actual calculation starts, the results are shared by all threads.
  * - for each zone-to-zone combination, calculate the travel times from each point to each other point in the destination zone.
  *   - for each point-to-point combination, multiple connections will be available from one of the departure stops to each of the arrival stops
  *   - the algorithm selects the connection where the sum of access-time, travel-time and egress-time is the smallest.
  * - this results in n x n travel times per zone-to-zone combination.
  * - average the n x n travel times and store this value as the zone-to-zone travel time.
  *
+ * If multiple departure times are given, each worker calculates all departure times for an origin zone before
+ * continuing with the next zone, re-using the stop candidates and walk times of the points for all departure times.
+ * The results of all departure times are accumulated into the same matrices, so the required memory does not
+ * depend on the number of departure times. The resulting values are the averages over all points and departure times.
+ *
  * A basic implementation for calculating the travel times between m zones, it would resulting m^2 * n^2 pt route calculations,
  * which could get very slow. The actual algorithm thus makes use of LeastCostPathTrees, reducing the computational effort down
  * to the calculation of m*n LeastCostPathTrees. In addition, it supports running the calculation in parallel to reduce the time
@@ -48,188 +46,250 @@ public final class PTTravelTimeMatrix {
     }
 
     public static <T> PtIndicators<T> calculateTravelTimeMatrix(SwissRailRaptorData raptorData, Map<T, SimpleFeature> zones, double departureTime, int numberOfPointsPerZone, RaptorParameters parameters, int numberOfThreads) {
-        Random r = new Random(20180404L);
-
-        Map<T, Coord[]> coordsPerZone = new HashMap<>();
-        for (Map.Entry<T, SimpleFeature> e : zones.entrySet()) {
-            T zoneId = e.getKey();
-            SimpleFeature f = e.getValue();
-            if (f.getDefaultGeometry() != null) {
-                Coord[] coords = new Coord[numberOfPointsPerZone];
-                coordsPerZone.put(zoneId, coords);
-                for (int i = 0; i < numberOfPointsPerZone; i++) {
-                    Coord coord = Utils.getRandomCoordinateInFeature(f, r);
-                    coords[i] = coord;
-                }
-            }
-        }
+        return calculateTravelTimeMatrix(raptorData, zones, new double[] {departureTime}, numberOfPointsPerZone, parameters, numberOfThreads);
+    }
+
+    /**
+     * Calculates the matrices averaged over all the given departure times.
+     */
+    public static <T> PtIndicators<T> calculateTravelTimeMatrix(SwissRailRaptorData raptorData, Map<T, SimpleFeature> zones, double[] departureTimes, int numberOfPointsPerZone, RaptorParameters parameters, int numberOfThreads) {
+        ZoneSamplePoints<T> samplePoints = ZoneSamplePoints.sample(zones, numberOfPointsPerZone, numberOfThreads);
+        return calculateTravelTimeMatrix(raptorData, samplePoints, departureTimes, parameters, numberOfThreads);
+    }
+
+    /**
+     * Calculates the matrices averaged over all the given departure times, using the given sample points.
+     */
+    public static <T> PtIndicators<T> calculateTravelTimeMatrix(SwissRailRaptorData raptorData, ZoneSamplePoints<T> samplePoints, double[] departureTimes, RaptorParameters parameters, int numberOfThreads) {
+        return calculateTravelTimeMatrix(raptorData, samplePoints, departureTimes, samplePoints.getZoneIds(), parameters, numberOfThreads);
+    }
+
+    /**
+     * Calculates only the rows of the given origin zones, the values in the other rows are undefined.
+     */
+    public static <T> PtIndicators<T> calculateTravelTimeMatrix(SwissRailRaptorData raptorData, ZoneSamplePoints<T> samplePoints, double[] departureTimes, Collection<T> originZoneIds, RaptorParameters parameters, int numberOfThreads) {
+        return calculateTravelTimeMatrix(raptorData, samplePoints, departureTimes, originZoneIds, false, parameters, numberOfThreads);
+    }
+
+    /**
+     * Additionally calculates the distribution of the travel times over all point pairs and departure times per zone-to-zone
+     * combination if <code>calcTravelTimeDistribution</code> is true, see {@link PtIndicators#travelTimeDistribution}.
+     */
+    public static <T> PtIndicators<T> calculateTravelTimeMatrix(SwissRailRaptorData raptorData, ZoneSamplePoints<T> samplePoints, double[] departureTimes, Collection<T> originZoneIds, boolean calcTravelTimeDistribution, RaptorParameters parameters, int numberOfThreads) {
+        return calculateTravelTimeMatrix(raptorData, samplePoints, departureTimes, originZoneIds, calcTravelTimeDistribution, FloatMatrixFactory.dense(), parameters, numberOfThreads);
+    }
 
+    /**
+     * Creates the matrices with the given factory, e.g. to store them in memory-mapped files instead of the heap.
+     * The names of the matrices are defined in {@link PtIndicators}.
+     */
+    public static <T> PtIndicators<T> calculateTravelTimeMatrix(SwissRailRaptorData raptorData, ZoneSamplePoints<T> samplePoints, double[] departureTimes, Collection<T> originZoneIds, boolean calcTravelTimeDistribution, FloatMatrixFactory<T> matrixFactory, RaptorParameters parameters, int numberOfThreads) {
         // prepare calculation
-        PtIndicators<T> pti = new PtIndicators<>(zones.keySet());
-//        float avgFactor = (float) (1.0 / numberOfPointsPerZone / numberOfPointsPerZone);
+        Set<T> zoneIds = samplePoints.getZoneIds();
+        PtIndicators<T> pti = new PtIndicators<>(zoneIds, calcTravelTimeDistribution, matrixFactory);
+        PtZonePoints points = PtZonePoints.create(samplePoints, pti.travelTimeMatrix, raptorData, parameters);
 
         // do calculation
-        ConcurrentLinkedQueue<T> originZones = new ConcurrentLinkedQueue<>(zones.keySet());
-
-        Counter counter = new Counter("PT-TravelTimeMatrix-" + Time.writeTime(departureTime) + " zone ", " / " + zones.size());
-        Thread[] threads = new Thread[numberOfThreads];
-        for (int i = 0; i < numberOfThreads; i++) {
-            SwissRailRaptor raptor = new SwissRailRaptor(raptorData, null, null, null);
-            RowWorker<T> worker = new RowWorker<>(originZones, zones.keySet(), coordsPerZone, pti, raptor, parameters, departureTime, counter);
-            threads[i] = new Thread(worker, "PT-TravelTimeMatrix-" + Time.writeTime(departureTime) + "-" + i);
-            threads[i].start();
-        }
-
-        // wait until all threads have finished
-        for (Thread thread : threads) {
-            try {
-                thread.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
+        TravelTimeDistribution<T> distribution = pti.travelTimeDistribution;
+        RowPartitionedMatrixWriter<T> writer = distribution == null
+                ? new RowPartitionedMatrixWriter<>(pti.travelTimeMatrix, pti.accessTimeMatrix, pti.egressTimeMatrix, pti.transferCountMatrix, pti.dataCountMatrix)
+                : new RowPartitionedMatrixWriter<>(pti.travelTimeMatrix, pti.accessTimeMatrix, pti.egressTimeMatrix, pti.transferCountMatrix, pti.dataCountMatrix,
+                        distribution.stdDevMatrix, distribution.p10Matrix, distribution.p50Matrix, distribution.p90Matrix);
+        PtRowCalculator<T> calculator = new PtRowCalculator<>(points, raptorData, parameters, departureTimes, distribution != null);
+        MatrixJobScheduler.calculateRows("PT-TravelTimeMatrix-" + Utils.writeTimes(departureTimes), writer, originZoneIds, calculator, numberOfThreads);
 
-        for (T fromZoneId : zones.keySet()) {
-            for (T toZoneId : zones.keySet()) {
-                float count = pti.dataCountMatrix.get(fromZoneId, toZoneId);
-                float avgFactor = 1.0f / count;
-                pti.travelTimeMatrix.multiply(fromZoneId, toZoneId, avgFactor);
-                pti.accessTimeMatrix.multiply(fromZoneId, toZoneId, avgFactor);
-                pti.egressTimeMatrix.multiply(fromZoneId, toZoneId, avgFactor);
-                pti.transferCountMatrix.multiply(fromZoneId, toZoneId, avgFactor);
-            }
-        }
+        pti.travelTimeMatrix.divide(pti.dataCountMatrix);
+        pti.accessTimeMatrix.divide(pti.dataCountMatrix);
+        pti.egressTimeMatrix.divide(pti.dataCountMatrix);
+        pti.transferCountMatrix.divide(pti.dataCountMatrix);
 
         return pti;
     }
 
-    public static class RowWorker<T> implements Runnable {
-        private final ConcurrentLinkedQueue<T> originZones;
-        private final Set<T> destinationZones;
-        private final Map<T, Coord[]> coordsPerZone;
-        private final PtIndicators<T> pti;
-        private final SwissRailRaptor raptor;
+    private static class PtRowCalculator<T> implements MatrixJobScheduler.RowCalculator<T, PtRowCalculator.WorkerState> {
+        private final PtZonePoints points;
+        private final SwissRailRaptorData raptorData;
         private final RaptorParameters parameters;
-        private final double departureTime;
-        private final Counter counter;
-
-        RowWorker(ConcurrentLinkedQueue<T> originZones, Set<T> destinationZones, Map<T, Coord[]> coordsPerZone, PtIndicators<T> pti, SwissRailRaptor raptor, RaptorParameters parameters, double departureTime, Counter counter) {
-            this.originZones = originZones;
-            this.destinationZones = destinationZones;
-            this.coordsPerZone = coordsPerZone;
-            this.pti = pti;
-            this.raptor = raptor;
+        private final double[] departureTimes;
+        private final TravelTimeStatistics travelTimeStatistics; // null if the distribution is not calculated
+
+        PtRowCalculator(PtZonePoints points, SwissRailRaptorData raptorData, RaptorParameters parameters, double[] departureTimes, boolean calcTravelTimeDistribution) {
+            this.points = points;
+            this.raptorData = raptorData;
             this.parameters = parameters;
-            this.departureTime = departureTime;
-            this.counter = counter;
+            this.departureTimes = departureTimes;
+            this.travelTimeStatistics = calcTravelTimeDistribution ? new TravelTimeStatistics(5) : null;
         }
 
-        public void run() {
-            double walkSpeed = this.parameters.getBeelineWalkSpeed();
+        @Override
+        public WorkerState createState() {
+            return new WorkerState(new SwissRailRaptor(this.raptorData, null, null, null), this.points.new Trees(this.departureTimes.length));
+        }
 
-            while (true) {
-                T fromZoneId = this.originZones.poll();
-                if (fromZoneId == null) {
-                    return;
-                }
+        @Override
+        public int getBufferRowCount() {
+            return this.travelTimeStatistics == null ? 5 : 5 + TravelTimeStatistics.ROW_COUNT;
+        }
 
-                this.counter.incCounter();
-                Coord[] fromCoords = this.coordsPerZone.get(fromZoneId);
-                if (fromCoords != null) {
-                    for (Coord fromCoord : fromCoords) {
-                        Collection<TransitStopFacility> fromStops = findStopCandidates(fromCoord, this.raptor, this.parameters);
-                        Map<Id<TransitStopFacility>, Double> accessTimes = new HashMap<>();
-                        for (TransitStopFacility stop : fromStops) {
-                            double distance = CoordUtils.calcEuclideanDistance(fromCoord, stop.getCoord());
-                            double accessTime = distance / walkSpeed;
-                            accessTimes.put(stop.getId(), accessTime);
-                        }
-                        Map<Id<TransitStopFacility>, TravelInfo> tree = this.raptor.calcTree(fromStops, this.departureTime, this.parameters);
-
-                        for (T toZoneId : this.destinationZones) {
-                            Coord[] toCoords = this.coordsPerZone.get(toZoneId);
-                            if (toCoords != null) {
-                                for (Coord toCoord : toCoords) {
-                                    Collection<TransitStopFacility> toStops = findStopCandidates(toCoord, this.raptor, this.parameters);
-                                    double minTotalTravelTime = Double.POSITIVE_INFINITY;
-                                    double minTravelTime = Double.NaN;
-                                    double minAccessTime = Double.NaN;
-                                    double minEgressTime = Double.NaN;
-                                    int minTransferCount = -9999;
-                                    for (TransitStopFacility toStop : toStops) {
-                                        TravelInfo info = tree.get(toStop.getId());
-                                        if (info != null) { // it might be that some stops are not reachable
-                                            double accessTime = accessTimes.get(info.departureStop);
-                                            double travelTime = info.travelTime;
-                                            double egressDistance = CoordUtils.calcEuclideanDistance(toStop.getCoord(), toCoord);
-                                            double egressTime = egressDistance / walkSpeed;
-                                            double totalTravelTime = accessTime + travelTime + egressTime;
-                                            if (totalTravelTime < minTotalTravelTime) {
-                                                minTotalTravelTime = totalTravelTime;
-                                                minTravelTime = travelTime;
-                                                minAccessTime = accessTime;
-                                                minEgressTime = egressTime;
-                                                minTransferCount = info.transferCount;
-                                            }
-                                        }
-                                    }
-                                    if (minTransferCount >= 0) {
-                                        this.pti.travelTimeMatrix.add(fromZoneId, toZoneId, (float) minTravelTime);
-                                        this.pti.accessTimeMatrix.add(fromZoneId, toZoneId, (float) minAccessTime);
-                                        this.pti.egressTimeMatrix.add(fromZoneId, toZoneId, (float) minEgressTime);
-                                        this.pti.transferCountMatrix.add(fromZoneId, toZoneId, (float) minTransferCount);
-                                        this.pti.dataCountMatrix.add(fromZoneId, toZoneId, 1);
+        @Override
+        public int getPointCount(int fromZoneIndex) {
+            return this.points.getPointCount(fromZoneIndex);
+        }
+
+        @Override
+        public double estimateCost(int fromZoneIndex) {
+            return this.points.estimateCost(fromZoneIndex) * this.departureTimes.length;
+        }
+
+        @Override
+        public void calculatePoint(WorkerState state, int fromZoneIndex, int pointIndex, float[][] buffer) {
+            int zoneCount = this.points.getZoneCount();
+            int timesCount = this.departureTimes.length;
+            float[] travelTimeRow = buffer[0];
+            float[] accessTimeRow = buffer[1];
+            float[] egressTimeRow = buffer[2];
+            float[] transferCountRow = buffer[3];
+            float[] dataCountRow = buffer[4];
+            PtZonePoints.Trees trees = state.trees;
+
+            StopCandidates fromPoint = this.points.pointsPerZone[fromZoneIndex][pointIndex];
+            trees.calculate(state.raptor, fromPoint, this.departureTimes, this.parameters);
+
+            for (int toZoneIndex = 0; toZoneIndex < zoneCount; toZoneIndex++) {
+                StopCandidates[] toPoints = this.points.pointsPerZone[toZoneIndex];
+                if (toPoints != null) {
+                    for (StopCandidates toPoint : toPoints) {
+                        int[] toStopIndices = toPoint.stopIndices;
+                        double[] egressTimes = toPoint.walkTimes;
+                        for (int t = 0; t < timesCount; t++) {
+                            double[] travelTimes = trees.travelTimes[t];
+                            double[] accessTimes = trees.accessTimes[t];
+                            int[] transferCounts = trees.transferCounts[t];
+                            double minTotalTravelTime = Double.POSITIVE_INFINITY;
+                            double minTravelTime = Double.NaN;
+                            double minAccessTime = Double.NaN;
+                            double minEgressTime = Double.NaN;
+                            int minTransferCount = -9999;
+                            for (int i = 0; i < toStopIndices.length; i++) {
+                                int toStop = toStopIndices[i];
+                                if (transferCounts[toStop] >= 0) { // it might be that some stops are not reachable
+                                    double accessTime = accessTimes[toStop];
+                                    double travelTime = travelTimes[toStop];
+                                    double egressTime = egressTimes[i];
+                                    double totalTravelTime = accessTime + travelTime + egressTime;
+                                    if (totalTravelTime < minTotalTravelTime) {
+                                        minTotalTravelTime = totalTravelTime;
+                                        minTravelTime = travelTime;
+                                        minAccessTime = accessTime;
+                                        minEgressTime = egressTime;
+                                        minTransferCount = transferCounts[toStop];
                                     }
                                 }
-                            } else {
-                                // this might happen if a zone has no geometry, for whatever reason...
-                                this.pti.travelTimeMatrix.set(fromZoneId, toZoneId, Float.POSITIVE_INFINITY);
-                                this.pti.accessTimeMatrix.set(fromZoneId, toZoneId, Float.POSITIVE_INFINITY);
-                                this.pti.egressTimeMatrix.set(fromZoneId, toZoneId, Float.POSITIVE_INFINITY);
-                                this.pti.transferCountMatrix.set(fromZoneId, toZoneId, Float.POSITIVE_INFINITY);
+                            }
+                            if (minTransferCount >= 0) {
+                                travelTimeRow[toZoneIndex] += (float) minTravelTime;
+                                accessTimeRow[toZoneIndex] += (float) minAccessTime;
+                                egressTimeRow[toZoneIndex] += (float) minEgressTime;
+                                transferCountRow[toZoneIndex] += (float) minTransferCount;
+                                dataCountRow[toZoneIndex] += 1;
+                                if (this.travelTimeStatistics != null) {
+                                    this.travelTimeStatistics.add(buffer, toZoneIndex, minTravelTime, 1.0);
+                                }
                             }
                         }
                     }
+                } else {
+                    // this might happen if a zone has no geometry, for whatever reason...
+                    travelTimeRow[toZoneIndex] = Float.POSITIVE_INFINITY;
+                    accessTimeRow[toZoneIndex] = Float.POSITIVE_INFINITY;
+                    egressTimeRow[toZoneIndex] = Float.POSITIVE_INFINITY;
+                    transferCountRow[toZoneIndex] = Float.POSITIVE_INFINITY;
+                }
+            }
+        }
+
+        @Override
+        public void mergePoint(float[][] zoneBuffer, float[][] pointBuffer) {
+            MatrixJobScheduler.addRows(zoneBuffer, pointBuffer, 0, 5);
+            if (this.travelTimeStatistics != null) {
+                this.travelTimeStatistics.merge(zoneBuffer, pointBuffer);
+            }
+        }
 
+        @Override
+        public void finishRow(WorkerState state, int fromZoneIndex, float[][] buffer, RowPartitionedMatrixWriter<T>.RowBuffer rowBuffer) {
+            boolean hasPoints = this.points.pointsPerZone[fromZoneIndex] != null;
+            for (int m = 0; m < 5; m++) {
+                float[] row = rowBuffer.getRow(m);
+                if (hasPoints || m == 4) {
+                    System.arraycopy(buffer[m], 0, row, 0, row.length);
                 } else {
                     // this might happen if a zone has no geometry, for whatever reason...
-                    for (T toZoneId : this.destinationZones) {
-                        this.pti.travelTimeMatrix.set(fromZoneId, toZoneId, Float.POSITIVE_INFINITY);
-                        this.pti.accessTimeMatrix.set(fromZoneId, toZoneId, Float.POSITIVE_INFINITY);
-                        this.pti.egressTimeMatrix.set(fromZoneId, toZoneId, Float.POSITIVE_INFINITY);
-                        this.pti.transferCountMatrix.set(fromZoneId, toZoneId, Float.POSITIVE_INFINITY);
+                    Arrays.fill(row, Float.POSITIVE_INFINITY);
+                }
+            }
+            if (this.travelTimeStatistics != null) {
+                float[] stdDevRow = rowBuffer.getRow(5);
+                float[] p10Row = rowBuffer.getRow(6);
+                float[] p50Row = rowBuffer.getRow(7);
+                float[] p90Row = rowBuffer.getRow(8);
+                for (int toZoneIndex = 0; toZoneIndex < this.points.getZoneCount(); toZoneIndex++) {
+                    if (!hasPoints || this.points.pointsPerZone[toZoneIndex] == null) {
+                        // this might happen if a zone has no geometry, for whatever reason...
+                        stdDevRow[toZoneIndex] = Float.POSITIVE_INFINITY;
+                        p10Row[toZoneIndex] = Float.POSITIVE_INFINITY;
+                        p50Row[toZoneIndex] = Float.POSITIVE_INFINITY;
+                        p90Row[toZoneIndex] = Float.POSITIVE_INFINITY;
+                    } else {
+                        this.travelTimeStatistics.writeResults(buffer, toZoneIndex, stdDevRow, p10Row, p50Row, p90Row);
                     }
                 }
+            }
+        }
 
+        static final class WorkerState {
+            final SwissRailRaptor raptor;
+            final PtZonePoints.Trees trees;
 
+            WorkerState(SwissRailRaptor raptor, PtZonePoints.Trees trees) {
+                this.raptor = raptor;
+                this.trees = trees;
             }
         }
     }
 
     public static class PtIndicators<T> {
+        /** the names of the matrices, see {@link FloatMatrixFactory}. */
+        public static final String TRAVELTIMES = "traveltimes";
+        public static final String ACCESSTIMES = "accesstimes";
+        public static final String EGRESSTIMES = "egresstimes";
+        public static final String TRANSFERCOUNTS = "transfercounts";
+        public static final String DATACOUNTS = "datacounts";
+
         public final FloatMatrix<T> travelTimeMatrix;
         public final FloatMatrix<T> accessTimeMatrix;
         public final FloatMatrix<T> egressTimeMatrix;
         public final FloatMatrix<T> transferCountMatrix;
         public final FloatMatrix<T> dataCountMatrix; // how many values/routes were taken into account to calculate the averages
+        /** the distribution of the travel times, <code>null</code> if it was not calculated. */
+        public final TravelTimeDistribution<T> travelTimeDistribution;
 
         public PtIndicators(Set<T> zones) {
-            this.travelTimeMatrix = new FloatMatrix<>(zones, 0);
-            this.accessTimeMatrix = new FloatMatrix<>(zones, 0);
-            this.egressTimeMatrix = new FloatMatrix<>(zones, 0);
-            this.transferCountMatrix = new FloatMatrix<>(zones, 0);
-            this.dataCountMatrix = new FloatMatrix<>(zones, 0);
+            this(zones, false);
+        }
+
+        public PtIndicators(Set<T> zones, boolean withTravelTimeDistribution) {
+            this(zones, withTravelTimeDistribution, FloatMatrixFactory.dense());
         }
-    }
 
-    private static Collection<TransitStopFacility> findStopCandidates(Coord coord, SwissRailRaptor raptor, RaptorParameters parameters) {
-        Collection<TransitStopFacility> stops = raptor.getUnderlyingData().findNearbyStops(coord.getX(), coord.getY(), parameters.getSearchRadius());
-        if (stops.isEmpty()) {
-            TransitStopFacility nearest = raptor.getUnderlyingData().findNearestStop(coord.getX(), coord.getY());
-            double nearestStopDistance = CoordUtils.calcEuclideanDistance(coord, nearest.getCoord());
-            stops = raptor.getUnderlyingData().findNearbyStops(coord.getX(), coord.getY(), nearestStopDistance + parameters.getExtensionRadius());
+        public PtIndicators(Set<T> zones, boolean withTravelTimeDistribution, FloatMatrixFactory<T> matrixFactory) {
+            this.travelTimeDistribution = withTravelTimeDistribution ? new TravelTimeDistribution<>(zones, matrixFactory, TRAVELTIMES) : null;
+            this.travelTimeMatrix = matrixFactory.createMatrix(zones, TRAVELTIMES, 0);
+            this.accessTimeMatrix = matrixFactory.createMatrix(zones, ACCESSTIMES, 0);
+            this.egressTimeMatrix = matrixFactory.createMatrix(zones, EGRESSTIMES, 0);
+            this.transferCountMatrix = matrixFactory.createMatrix(zones, TRANSFERCOUNTS, 0);
+            this.dataCountMatrix = matrixFactory.createMatrix(zones, DATACOUNTS, 0);
         }
-        return stops;
     }
 
 }
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import ch.sbb.matsim.routing.pt.raptor.RaptorParameters;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptor;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorCore.TravelInfo;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorData;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The randomly sampled points per zone used for the PT matrices, together with the stops that can be
+ * used to access or egress from each point and the corresponding walk times.
+ *
+ * Every stop that is a candidate stop of at least one point gets a dense index, so the results of a
+ * PT tree can be stored in arrays indexed by candidate stop, see {@link Trees}.
+ *
+ * Instances are immutable after creation and shared by all threads.
+ *
+ * @author mrieser / SBB
+ */
+final class PtZonePoints {
+
+    /** the points per zone, indexed by the zone's matrix index. <code>null</code> for zones without geometry. */
+    final StopCandidates[][] pointsPerZone;
+    final TransitStopFacility[] candidateStops;
+    private final Map<Id<TransitStopFacility>, Integer> candidateStopIndices;
+
+    private PtZonePoints(StopCandidates[][] pointsPerZone, TransitStopFacility[] candidateStops, Map<Id<TransitStopFacility>, Integer> candidateStopIndices) {
+        this.pointsPerZone = pointsPerZone;
+        this.candidateStops = candidateStops;
+        this.candidateStopIndices = candidateStopIndices;
+    }
+
+    static <T> PtZonePoints create(ZoneSamplePoints<T> samplePoints, FloatMatrix<T> matrix, SwissRailRaptorData raptorData, RaptorParameters parameters) {
+        List<TransitStopFacility> stops = new ArrayList<>();
+        Map<Id<TransitStopFacility>, Integer> stopIndices = new HashMap<>();
+        StopCandidates[][] pointsPerZone = new StopCandidates[matrix.size()][];
+        double walkSpeed = parameters.getBeelineWalkSpeed();
+        for (T zoneId : samplePoints.getZoneIds()) {
+            Coord[] coords = samplePoints.getPoints(zoneId);
+            if (coords != null) {
+                StopCandidates[] points = new StopCandidates[coords.length];
+                for (int i = 0; i < coords.length; i++) {
+                    points[i] = createStopCandidates(coords[i], raptorData, parameters, walkSpeed, stops, stopIndices);
+                }
+                pointsPerZone[matrix.indexOf(zoneId)] = points;
+            }
+        }
+        return new PtZonePoints(pointsPerZone, stops.toArray(new TransitStopFacility[0]), stopIndices);
+    }
+
+    int getZoneCount() {
+        return this.pointsPerZone.length;
+    }
+
+    int getPointCount(int zoneIndex) {
+        StopCandidates[] points = this.pointsPerZone[zoneIndex];
+        return points == null ? 0 : points.length;
+    }
+
+    /**
+     * Estimates the relative cost of calculating the trees from all points of a zone for one departure time.
+     * The more stops can be accessed from a point, the more routes have to be explored from it.
+     */
+    double estimateCost(int zoneIndex) {
+        StopCandidates[] points = this.pointsPerZone[zoneIndex];
+        if (points == null) {
+            return 0;
+        }
+        double cost = 0;
+        for (StopCandidates point : points) {
+            cost += 1 + point.stopIndices.length;
+        }
+        return cost;
+    }
+
+    private static StopCandidates createStopCandidates(Coord coord, SwissRailRaptorData raptorData, RaptorParameters parameters, double walkSpeed, List<TransitStopFacility> allStops, Map<Id<TransitStopFacility>, Integer> allStopIndices) {
+        Collection<TransitStopFacility> stops = findStopCandidates(coord, raptorData, parameters);
+        int[] stopIndices = new int[stops.size()];
+        double[] walkTimes = new double[stops.size()];
+        int i = 0;
+        for (TransitStopFacility stop : stops) {
+            Integer index = allStopIndices.get(stop.getId());
+            if (index == null) {
+                index = allStops.size();
+                allStops.add(stop);
+                allStopIndices.put(stop.getId(), index);
+            }
+            stopIndices[i] = index;
+            walkTimes[i] = CoordUtils.calcEuclideanDistance(coord, stop.getCoord()) / walkSpeed;
+            i++;
+        }
+        return new StopCandidates(stops, stopIndices, walkTimes);
+    }
+
+    private static Collection<TransitStopFacility> findStopCandidates(Coord coord, SwissRailRaptorData raptorData, RaptorParameters parameters) {
+        Collection<TransitStopFacility> stops = raptorData.findNearbyStops(coord.getX(), coord.getY(), parameters.getSearchRadius());
+        if (stops.isEmpty()) {
+            TransitStopFacility nearest = raptorData.findNearestStop(coord.getX(), coord.getY());
+            double nearestStopDistance = CoordUtils.calcEuclideanDistance(coord, nearest.getCoord());
+            stops = raptorData.findNearbyStops(coord.getX(), coord.getY(), nearestStopDistance + parameters.getExtensionRadius());
+        }
+        return stops;
+    }
+
+    /**
+     * The stops that can be used to access or egress from a point, together with the walk times
+     * between the point and the stops.
+     */
+    static final class StopCandidates {
+        final Collection<TransitStopFacility> stops;
+        final int[] stopIndices; // index of the stops in PtZonePoints.candidateStops
+        final double[] walkTimes;
+
+        StopCandidates(Collection<TransitStopFacility> stops, int[] stopIndices, double[] walkTimes) {
+            this.stops = stops;
+            this.stopIndices = stopIndices;
+            this.walkTimes = walkTimes;
+        }
+    }
+
+    /**
+     * The relevant data of the PT trees from one origin point for multiple departure times, indexed by candidate stop.
+     * Each worker thread uses its own instance.
+     */
+    final class Trees {
+        final double[][] travelTimes;
+        final double[][] accessTimes;
+        /** the number of transfers to reach a stop, -1 if the stop was not reached. */
+        final int[][] transferCounts;
+        // access time per candidate stop for the current origin point, NaN if the stop is not an origin stop
+        private final double[] originAccessTimes;
+
+        Trees(int timesCount) {
+            int stopCount = PtZonePoints.this.candidateStops.length;
+            this.travelTimes = new double[timesCount][stopCount];
+            this.accessTimes = new double[timesCount][stopCount];
+            this.transferCounts = new int[timesCount][stopCount];
+            this.originAccessTimes = new double[stopCount];
+            Arrays.fill(this.originAccessTimes, Double.NaN);
+        }
+
+        /**
+         * Calculates the trees from the origin point for all departure times and copies the data of all candidate
+         * stops from the trees into the arrays, so the trees do not have to be queried again for every destination point.
+         */
+        void calculate(SwissRailRaptor raptor, StopCandidates fromPoint, double[] departureTimes, RaptorParameters parameters) {
+            for (int i = 0; i < fromPoint.stopIndices.length; i++) {
+                this.originAccessTimes[fromPoint.stopIndices[i]] = fromPoint.walkTimes[i];
+            }
+            TransitStopFacility[] candidateStops = PtZonePoints.this.candidateStops;
+            for (int t = 0; t < departureTimes.length; t++) {
+                Map<Id<TransitStopFacility>, TravelInfo> tree = raptor.calcTree(fromPoint.stops, departureTimes[t], parameters);
+                double[] travelTimes = this.travelTimes[t];
+                double[] accessTimes = this.accessTimes[t];
+                int[] transferCounts = this.transferCounts[t];
+                for (int stopIndex = 0; stopIndex < candidateStops.length; stopIndex++) {
+                    TravelInfo info = tree.get(candidateStops[stopIndex].getId());
+                    if (info == null) {
+                        transferCounts[stopIndex] = -1;
+                    } else {
+                        travelTimes[stopIndex] = info.travelTime;
+                        accessTimes[stopIndex] = this.originAccessTimes[PtZonePoints.this.candidateStopIndices.get(info.departureStop)];
+                        transferCounts[stopIndex] = info.transferCount;
+                    }
+                }
+            }
+            for (int stopIndex : fromPoint.stopIndices) {
+                this.originAccessTimes[stopIndex] = Double.NaN;
+            }
+        }
+    }
+}
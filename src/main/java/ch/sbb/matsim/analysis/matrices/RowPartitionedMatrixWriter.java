@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Writes rows into one or more matrices from multiple threads without any locking.
+ *
+ * The matrices are partitioned by rows (origins): before a thread may write a row, it has to claim it.
+ * Each row can only be claimed once, a second claim (by any thread) results in an {@link IllegalStateException}.
+ * So it is guaranteed that exactly one thread writes to each row, and no two threads ever write to the same cell.
+ *
+ * Each thread uses its own {@link RowBuffer} (see {@link #createRowBuffer()}). The values of a claimed row
+ * are accumulated in the buffer, which is only accessed by the owning thread, and are then published
+ * with a single copy per matrix into the matrices. The published values replace the values in the matrices,
+ * as every row is published at most once.
+ *
+ * The published rows are guaranteed to be visible to other threads once the writing threads were joined.
+ *
+ * For algorithms that cannot be partitioned by rows, e.g. because they scatter values into arbitrary cells,
+ * use a {@link ConcurrentFloatMatrixAccumulator} instead.
+ *
+ * @author mrieser / SBB
+ */
+public class RowPartitionedMatrixWriter<T> {
+
+    private final FloatMatrix<T>[] matrices;
+    private final AtomicIntegerArray claimedRows;
+
+    /**
+     * @param matrices the matrices to write to. All matrices must have the same zones with the same indices.
+     */
+    @SafeVarargs
+    public RowPartitionedMatrixWriter(FloatMatrix<T>... matrices) {
+        if (matrices.length == 0) {
+            throw new IllegalArgumentException("At least one matrix is required.");
+        }
+        FloatMatrix<T> first = matrices[0];
+        for (FloatMatrix<T> matrix : matrices) {
+            if (matrix.size() != first.size()) {
+                throw new IllegalArgumentException("The matrices have different sizes: " + first.size() + " vs. " + matrix.size());
+            }
+            for (int i = 0; i < first.size(); i++) {
+                if (!first.getId(i).equals(matrix.getId(i))) {
+                    throw new IllegalArgumentException("The matrices have different zone indices: " + first.getId(i) + " vs. " + matrix.getId(i));
+                }
+            }
+        }
+        this.matrices = matrices.clone();
+        this.claimedRows = new AtomicIntegerArray(first.size());
+    }
+
+    /**
+     * @return the number of rows (or columns) of the matrices.
+     */
+    public int size() {
+        return this.matrices[0].size();
+    }
+
+    public int indexOf(T id) {
+        return this.matrices[0].indexOf(id);
+    }
+
+    /**
+     * Creates a new buffer to write rows. A buffer must only be used by one thread.
+     */
+    public RowBuffer createRowBuffer() {
+        return new RowBuffer();
+    }
+
+    /**
+     * @return <code>true</code> if the row was already claimed by a buffer.
+     */
+    public boolean isClaimed(int fromIndex) {
+        return this.claimedRows.get(fromIndex) != 0;
+    }
+
+    /**
+     * A thread-local buffer holding one row per matrix of the writer.
+     */
+    public final class RowBuffer {
+        private final float[][] rows;
+        private int fromIndex = -1;
+
+        private RowBuffer() {
+            int size = RowPartitionedMatrixWriter.this.size();
+            this.rows = new float[RowPartitionedMatrixWriter.this.matrices.length][size];
+        }
+
+        /**
+         * Claims the row with the given index for this buffer and resets all values in the buffer to 0.
+         *
+         * @throws IllegalStateException if the row was already claimed before, or if the previously claimed row was not yet published.
+         */
+        public void claim(int fromIndex) {
+            if (this.fromIndex >= 0) {
+                throw new IllegalStateException("Row " + this.fromIndex + " must be published before claiming another row.");
+            }
+            if (!RowPartitionedMatrixWriter.this.claimedRows.compareAndSet(fromIndex, 0, 1)) {
+                throw new IllegalStateException("Row " + fromIndex + " was already claimed.");
+            }
+            this.fromIndex = fromIndex;
+            for (float[] row : this.rows) {
+                Arrays.fill(row, 0.0f);
+            }
+        }
+
+        /**
+         * @return the index of the currently claimed row, or -1 if no row is claimed.
+         */
+        public int getRowIndex() {
+            return this.fromIndex;
+        }
+
+        /**
+         * Returns the buffer for the claimed row of the matrix with the given index (in the order the matrices
+         * were passed to the writer). The buffer can be modified directly, <code>row[j]</code> will be
+         * written to the cell (claimed row, j).
+         */
+        public float[] getRow(int matrixIndex) {
+            return this.rows[matrixIndex];
+        }
+
+        /**
+         * Copies the buffered values into the claimed row of all matrices. Afterwards, the next row can be claimed.
+         */
+        public void publish() {
+            if (this.fromIndex < 0) {
+                throw new IllegalStateException("No row was claimed.");
+            }
+            FloatMatrix<T>[] matrices = RowPartitionedMatrixWriter.this.matrices;
+            for (int m = 0; m < matrices.length; m++) {
+                matrices[m].setRow(this.fromIndex, this.rows[m]);
+            }
+            this.fromIndex = -1;
+        }
+    }
+}
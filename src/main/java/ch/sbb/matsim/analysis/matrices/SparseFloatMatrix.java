@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A {@link FloatMatrix} for matrices where most cells have the same default value, e.g. skims of fine-grained
+ * zone systems with a distance or travel time cutoff, where most cells are infinity.
+ *
+ * Only the cells differing from the default value are stored. Each row is stored in compressed form
+ * (the sorted indices of the destination zones with their values, 8 bytes per stored cell), unless more
+ * than {@link #MAX_SPARSE_FILL_RATE} of its cells are set. Such rows are stored as dense float arrays
+ * (4 bytes per cell), like in {@link FloatMatrix}. The representation of each row is selected automatically
+ * from its measured fill rate whenever a complete row is set, or when single cells are set and the row
+ * becomes too full. So a sparse matrix never uses much more memory than a dense one, while a 30'000 x 30'000
+ * matrix with 1% of the cells set requires about 70 MB instead of 3.6 GB.
+ *
+ * Accessing single cells of compressed rows requires a binary search, row operations are linear in the
+ * number of zones. Different rows can be modified concurrently, e.g. by the {@link RowPartitionedMatrixWriter},
+ * but the same row must not be modified by multiple threads at the same time.
+ *
+ * @author mrieser / SBB
+ */
+public class SparseFloatMatrix<T> extends FloatMatrix<T> {
+
+    /** rows and matrices with a higher share of non-default cells are stored as dense arrays. */
+    public static final double MAX_SPARSE_FILL_RATE = 0.25;
+
+    private final RowData[] rows;
+    private final int maxSparseCount;
+    private float defaultValue;
+    private int defaultBits;
+
+    public SparseFloatMatrix(Set<T> zones, float defaultValue) {
+        super(zones);
+        this.rows = new RowData[this.size];
+        this.maxSparseCount = (int) (this.size * MAX_SPARSE_FILL_RATE);
+        setDefaultValue(defaultValue);
+    }
+
+    /**
+     * Creates a new matrix with the given default value, a {@link SparseFloatMatrix} if the expected fill rate
+     * is at most {@link #MAX_SPARSE_FILL_RATE}, a dense {@link FloatMatrix} otherwise.
+     *
+     * @param fillRate the expected share of cells not equal to the default value, e.g. measured when reading a file.
+     */
+    public static <T> FloatMatrix<T> create(Set<T> zones, float defaultValue, double fillRate) {
+        if (fillRate <= MAX_SPARSE_FILL_RATE) {
+            return new SparseFloatMatrix<>(zones, defaultValue);
+        }
+        return new FloatMatrix<>(zones, defaultValue);
+    }
+
+    /**
+     * Returns the matrix in the representation matching its measured fill rate, i.e. the share of cells not equal to
+     * the default value: a {@link SparseFloatMatrix} with a fill rate above {@link #MAX_SPARSE_FILL_RATE} is copied
+     * into a dense {@link FloatMatrix}, as it would hardly save memory, but make accessing single cells slower.
+     * All other matrices are returned unchanged.
+     */
+    public static <T> FloatMatrix<T> selectRepresentation(FloatMatrix<T> matrix) {
+        if (!(matrix instanceof SparseFloatMatrix)) {
+            return matrix;
+        }
+        SparseFloatMatrix<T> sparse = (SparseFloatMatrix<T>) matrix;
+        int size = sparse.size();
+        float[] row = new float[size];
+        long nonDefaultCount = 0;
+        for (int fromIndex = 0; fromIndex < size; fromIndex++) {
+            sparse.getRow(fromIndex, row);
+            nonDefaultCount += countNonDefaultValues(row, sparse.defaultValue);
+        }
+        double fillRate = size == 0 ? 0 : (double) nonDefaultCount / ((double) size * size);
+        if (fillRate <= MAX_SPARSE_FILL_RATE) {
+            return sparse;
+        }
+        Set<T> zoneIds = new LinkedHashSet<>();
+        for (int i = 0; i < size; i++) {
+            zoneIds.add(sparse.getId(i));
+        }
+        FloatMatrix<T> dense = new FloatMatrix<>(zoneIds, sparse.defaultValue);
+        for (int fromIndex = 0; fromIndex < size; fromIndex++) {
+            sparse.getRow(fromIndex, row);
+            dense.setRow(fromIndex, row);
+        }
+        return dense;
+    }
+
+    /**
+     * Returns the number of values in the row that are not equal to the default value.
+     */
+    public static int countNonDefaultValues(float[] values, float defaultValue) {
+        int defaultBits = Float.floatToIntBits(defaultValue);
+        int count = 0;
+        for (float value : values) {
+            if (Float.floatToIntBits(value) != defaultBits) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public float getDefaultValue() {
+        return this.defaultValue;
+    }
+
+    /**
+     * Returns the share of stored cells. Cells of rows stored as dense arrays all count as stored.
+     */
+    public double getFillRate() {
+        if (this.size == 0) {
+            return 0;
+        }
+        long storedCount = 0;
+        for (RowData row : this.rows) {
+            if (row != null) {
+                storedCount += row.toIndices == null ? this.size : row.count;
+            }
+        }
+        return (double) storedCount / ((double) this.size * this.size);
+    }
+
+    @Override
+    public float get(int fromIndex, int toIndex) {
+        RowData row = this.rows[fromIndex];
+        if (row == null) {
+            return this.defaultValue;
+        }
+        if (row.toIndices == null) {
+            return row.values[toIndex];
+        }
+        int pos = Arrays.binarySearch(row.toIndices, 0, row.count, toIndex);
+        return pos >= 0 ? row.values[pos] : this.defaultValue;
+    }
+
+    @Override
+    public float set(int fromIndex, int toIndex, float value) {
+        boolean isDefault = isDefault(value);
+        RowData row = this.rows[fromIndex];
+        if (row == null) {
+            if (isDefault) {
+                return this.defaultValue;
+            }
+            row = new RowData(new int[4], new float[4], 0);
+            this.rows[fromIndex] = row;
+        }
+        if (row.toIndices == null) {
+            float oldValue = row.values[toIndex];
+            row.values[toIndex] = value;
+            return oldValue;
+        }
+        int pos = Arrays.binarySearch(row.toIndices, 0, row.count, toIndex);
+        if (pos >= 0) {
+            float oldValue = row.values[pos];
+            if (isDefault) {
+                System.arraycopy(row.toIndices, pos + 1, row.toIndices, pos, row.count - pos - 1);
+                System.arraycopy(row.values, pos + 1, row.values, pos, row.count - pos - 1);
+                row.count--;
+            } else {
+                row.values[pos] = value;
+            }
+            return oldValue;
+        }
+        if (isDefault) {
+            return this.defaultValue;
+        }
+        if (row.count == this.maxSparseCount) {
+            float[] values = new float[this.size];
+            fillRow(row, values);
+            values[toIndex] = value;
+            this.rows[fromIndex] = new RowData(null, values, this.size);
+            return this.defaultValue;
+        }
+        int insertPos = -pos - 1;
+        if (row.count == row.toIndices.length) {
+            int capacity = Math.min(this.maxSparseCount, row.count + (row.count >> 1) + 1);
+            row.toIndices = Arrays.copyOf(row.toIndices, capacity);
+            row.values = Arrays.copyOf(row.values, capacity);
+        }
+        System.arraycopy(row.toIndices, insertPos, row.toIndices, insertPos + 1, row.count - insertPos);
+        System.arraycopy(row.values, insertPos, row.values, insertPos + 1, row.count - insertPos);
+        row.toIndices[insertPos] = toIndex;
+        row.values[insertPos] = value;
+        row.count++;
+        return this.defaultValue;
+    }
+
+    @Override
+    public float add(int fromIndex, int toIndex, float value) {
+        float newValue = get(fromIndex, toIndex) + value;
+        set(fromIndex, toIndex, newValue);
+        return newValue;
+    }
+
+    @Override
+    public void addRow(int fromIndex, float[] values) {
+        checkRowLength(values);
+        RowData row = this.rows[fromIndex];
+        if (row != null && row.toIndices == null) {
+            for (int j = 0; j < this.size; j++) {
+                row.values[j] += values[j];
+            }
+            return;
+        }
+        float[] newValues = new float[this.size];
+        getRow(fromIndex, newValues);
+        for (int j = 0; j < this.size; j++) {
+            newValues[j] += values[j];
+        }
+        setRow(fromIndex, newValues);
+    }
+
+    @Override
+    public void setRow(int fromIndex, float[] values) {
+        checkRowLength(values);
+        int count = countNonDefaultValues(values, this.defaultValue);
+        if (count == 0) {
+            this.rows[fromIndex] = null;
+        } else if (count > this.maxSparseCount) {
+            this.rows[fromIndex] = new RowData(null, values.clone(), this.size);
+        } else {
+            int[] toIndices = new int[count];
+            float[] rowValues = new float[count];
+            int pos = 0;
+            for (int j = 0; j < this.size; j++) {
+                if (!isDefault(values[j])) {
+                    toIndices[pos] = j;
+                    rowValues[pos] = values[j];
+                    pos++;
+                }
+            }
+            this.rows[fromIndex] = new RowData(toIndices, rowValues, count);
+        }
+    }
+
+    @Override
+    public void getRow(int fromIndex, float[] target) {
+        checkRowLength(target);
+        RowData row = this.rows[fromIndex];
+        if (row == null) {
+            Arrays.fill(target, this.defaultValue);
+        } else {
+            fillRow(row, target);
+        }
+    }
+
+    /**
+     * Multiplies all values with the given factor, including the default value.
+     */
+    @Override
+    public void multiply(float factor) {
+        setDefaultValue(this.defaultValue * factor);
+        for (RowData row : this.rows) {
+            if (row != null) {
+                for (int i = 0; i < row.count; i++) {
+                    row.values[i] *= factor;
+                }
+            }
+        }
+    }
+
+    private void fillRow(RowData row, float[] target) {
+        if (row.toIndices == null) {
+            System.arraycopy(row.values, 0, target, 0, this.size);
+        } else {
+            Arrays.fill(target, this.defaultValue);
+            for (int i = 0; i < row.count; i++) {
+                target[row.toIndices[i]] = row.values[i];
+            }
+        }
+    }
+
+    private void setDefaultValue(float defaultValue) {
+        this.defaultValue = defaultValue;
+        this.defaultBits = Float.floatToIntBits(defaultValue);
+    }
+
+    private boolean isDefault(float value) {
+        // compare the bits, so NaN can be used as default value
+        return Float.floatToIntBits(value) == this.defaultBits;
+    }
+
+    /**
+     * The stored cells of one row. If <code>toIndices</code> is <code>null</code>, the row is stored as dense
+     * array with one value per zone, otherwise only the first <code>count</code> entries are used.
+     */
+    private static final class RowData {
+        int[] toIndices;
+        float[] values;
+        int count;
+
+        RowData(int[] toIndices, float[] values, int count) {
+            this.toIndices = toIndices;
+            this.values = values;
+            this.count = count;
+        }
+    }
+}
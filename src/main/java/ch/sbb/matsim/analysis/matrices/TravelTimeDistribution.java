@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import java.util.Set;
+
+/**
+ * The distribution of the travel times over all point pairs and departure times per zone-to-zone combination,
+ * in addition to the average travel time calculated by the matrix calculators.
+ *
+ * The standard deviation is the population standard deviation over all (weighted) travel times. The quantiles
+ * are approximated with a histogram, see {@link TravelTimeStatistics}. Combinations without any travel time
+ * (e.g. because no connection was found) contain {@link Float#POSITIVE_INFINITY}, like the travel time matrices.
+ *
+ * @author mrieser / SBB
+ */
+public class TravelTimeDistribution<T> {
+
+    /** suffixes appended to the name of the travel time matrix for the names of the distribution matrices, see {@link FloatMatrixFactory}. */
+    public static final String STDDEV_SUFFIX = "_stddev";
+    public static final String P10_SUFFIX = "_p10";
+    public static final String P50_SUFFIX = "_p50";
+    public static final String P90_SUFFIX = "_p90";
+
+    public final FloatMatrix<T> stdDevMatrix;
+    public final FloatMatrix<T> p10Matrix;
+    public final FloatMatrix<T> p50Matrix;
+    public final FloatMatrix<T> p90Matrix;
+
+    public TravelTimeDistribution(Set<T> zones) {
+        this(zones, FloatMatrixFactory.dense(), "traveltimes");
+    }
+
+    /**
+     * @param travelTimeName the name of the travel time matrix, the names of the distribution matrices consist of this name and a suffix.
+     */
+    public TravelTimeDistribution(Set<T> zones, FloatMatrixFactory<T> matrixFactory, String travelTimeName) {
+        this.stdDevMatrix = matrixFactory.createMatrix(zones, travelTimeName + STDDEV_SUFFIX, 0);
+        this.p10Matrix = matrixFactory.createMatrix(zones, travelTimeName + P10_SUFFIX, 0);
+        this.p50Matrix = matrixFactory.createMatrix(zones, travelTimeName + P50_SUFFIX, 0);
+        this.p90Matrix = matrixFactory.createMatrix(zones, travelTimeName + P90_SUFFIX, 0);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+/**
+ * Streaming statistics of the travel times from one origin zone to every destination zone, calculated without
+ * storing the single travel times of all point pairs and departure times:
+ * <ul>
+ *     <li>the weighted mean and variance using Welford's algorithm, combined over multiple points with the
+ *     parallel variant of Chan et al.,</li>
+ *     <li>the minimum and maximum,</li>
+ *     <li>a histogram with {@link #BIN_COUNT} logarithmic bins, each 10% wider than the previous one, for the quantiles.
+ *     The quantiles are interpolated linearly inside the bins and limited by the minimum and maximum, so their error
+ *     is at most 10% of the value, and usually much smaller. Travel times above about 6 hours share the last bin.</li>
+ * </ul>
+ *
+ * The statistics are stored in {@link #ROW_COUNT} rows of the buffers used by the {@link MatrixJobScheduler}, starting
+ * at the row given in the constructor, with one value per destination zone. As only the rows currently being calculated
+ * need these buffers, the required memory depends on the number of zones and threads, but not on the number of cells
+ * of the matrix. The weight, mean and M2 are accumulated in double precision, each stored as the sum of two floats
+ * in two rows, as single precision is not sufficient for sums over many point pairs and departure times.
+ *
+ * @author mrieser / SBB
+ */
+final class TravelTimeStatistics {
+
+    static final int BIN_COUNT = 64;
+    /** the upper limit of the first bin, in seconds. */
+    private static final double FIRST_BIN_LIMIT = 60;
+    private static final double BIN_RATIO = 1.1;
+    private static final double LOG_BIN_RATIO = Math.log(BIN_RATIO);
+    private static final double[] BIN_UPPER_LIMITS = new double[BIN_COUNT];
+
+    static {
+        for (int b = 0; b < BIN_COUNT - 1; b++) {
+            BIN_UPPER_LIMITS[b] = FIRST_BIN_LIMIT * Math.pow(BIN_RATIO, b);
+        }
+        BIN_UPPER_LIMITS[BIN_COUNT - 1] = Double.POSITIVE_INFINITY;
+    }
+
+    // the double values use two rows each, see getDouble() and setDouble()
+    private static final int WEIGHT = 0;
+    private static final int MEAN = 2;
+    private static final int M2 = 4;
+    private static final int MIN = 6;
+    private static final int MAX = 7;
+    private static final int FIRST_BIN = 8;
+    static final int ROW_COUNT = FIRST_BIN + BIN_COUNT;
+
+    private final int offset;
+
+    /**
+     * @param offset the index of the first buffer row used for the statistics
+     */
+    TravelTimeStatistics(int offset) {
+        this.offset = offset;
+    }
+
+    /**
+     * Adds a travel time with the given weight. Infinite travel times, e.g. to unreachable destinations, are ignored.
+     */
+    void add(float[][] buffer, int toZoneIndex, double travelTime, double weight) {
+        if (Double.isInfinite(travelTime) || Double.isNaN(travelTime)) {
+            return;
+        }
+        int o = this.offset;
+        double oldWeight = getDouble(buffer, o + WEIGHT, toZoneIndex);
+        double newWeight = oldWeight + weight;
+        if (oldWeight == 0) {
+            setDouble(buffer, o + MEAN, toZoneIndex, travelTime);
+            buffer[o + MIN][toZoneIndex] = (float) travelTime;
+            buffer[o + MAX][toZoneIndex] = (float) travelTime;
+        } else {
+            double mean = getDouble(buffer, o + MEAN, toZoneIndex);
+            double delta = travelTime - mean;
+            mean += delta * weight / newWeight;
+            setDouble(buffer, o + MEAN, toZoneIndex, mean);
+            setDouble(buffer, o + M2, toZoneIndex, getDouble(buffer, o + M2, toZoneIndex) + weight * delta * (travelTime - mean));
+            if (travelTime < buffer[o + MIN][toZoneIndex]) {
+                buffer[o + MIN][toZoneIndex] = (float) travelTime;
+            }
+            if (travelTime > buffer[o + MAX][toZoneIndex]) {
+                buffer[o + MAX][toZoneIndex] = (float) travelTime;
+            }
+        }
+        setDouble(buffer, o + WEIGHT, toZoneIndex, newWeight);
+        buffer[o + FIRST_BIN + getBin(travelTime)][toZoneIndex] += (float) weight;
+    }
+
+    /**
+     * Adds the statistics in the source buffer to the ones in the target buffer, for all destination zones.
+     */
+    void merge(float[][] target, float[][] source) {
+        int o = this.offset;
+        int zoneCount = target[o].length;
+        for (int z = 0; z < zoneCount; z++) {
+            double sourceWeight = getDouble(source, o + WEIGHT, z);
+            if (sourceWeight == 0) {
+                continue;
+            }
+            double targetWeight = getDouble(target, o + WEIGHT, z);
+            if (targetWeight == 0) {
+                for (int r = WEIGHT; r < FIRST_BIN; r++) {
+                    target[o + r][z] = source[o + r][z];
+                }
+            } else {
+                double weight = targetWeight + sourceWeight;
+                double targetMean = getDouble(target, o + MEAN, z);
+                double delta = getDouble(source, o + MEAN, z) - targetMean;
+                setDouble(target, o + MEAN, z, targetMean + delta * sourceWeight / weight);
+                setDouble(target, o + M2, z, getDouble(target, o + M2, z) + getDouble(source, o + M2, z) + delta * delta * targetWeight * sourceWeight / weight);
+                setDouble(target, o + WEIGHT, z, weight);
+                target[o + MIN][z] = Math.min(target[o + MIN][z], source[o + MIN][z]);
+                target[o + MAX][z] = Math.max(target[o + MAX][z], source[o + MAX][z]);
+            }
+            for (int b = 0; b < BIN_COUNT; b++) {
+                target[o + FIRST_BIN + b][z] += source[o + FIRST_BIN + b][z];
+            }
+        }
+    }
+
+    /**
+     * Writes the standard deviation and the quantiles of the travel times to the given destination zone into the rows.
+     * If no travel time was added, all values are infinite, like the travel times of unreachable destinations.
+     */
+    void writeResults(float[][] buffer, int toZoneIndex, float[] stdDevRow, float[] p10Row, float[] p50Row, float[] p90Row) {
+        int o = this.offset;
+        double weight = getDouble(buffer, o + WEIGHT, toZoneIndex);
+        if (weight == 0) {
+            stdDevRow[toZoneIndex] = Float.POSITIVE_INFINITY;
+            p10Row[toZoneIndex] = Float.POSITIVE_INFINITY;
+            p50Row[toZoneIndex] = Float.POSITIVE_INFINITY;
+            p90Row[toZoneIndex] = Float.POSITIVE_INFINITY;
+            return;
+        }
+        // the population variance over all weighted travel times
+        double variance = Math.max(0, getDouble(buffer, o + M2, toZoneIndex) / weight);
+        stdDevRow[toZoneIndex] = (float) Math.sqrt(variance);
+        p10Row[toZoneIndex] = (float) getQuantile(buffer, toZoneIndex, 0.1);
+        p50Row[toZoneIndex] = (float) getQuantile(buffer, toZoneIndex, 0.5);
+        p90Row[toZoneIndex] = (float) getQuantile(buffer, toZoneIndex, 0.9);
+    }
+
+    double getQuantile(float[][] buffer, int toZoneIndex, double quantile) {
+        int o = this.offset;
+        double min = buffer[o + MIN][toZoneIndex];
+        double max = buffer[o + MAX][toZoneIndex];
+        double target = quantile * getDouble(buffer, o + WEIGHT, toZoneIndex);
+        double cumulativeWeight = 0;
+        for (int b = 0; b < BIN_COUNT; b++) {
+            double binWeight = buffer[o + FIRST_BIN + b][toZoneIndex];
+            if (binWeight > 0 && cumulativeWeight + binWeight >= target) {
+                double lower = Math.max(min, getBinLowerLimit(b));
+                double upper = Math.min(max, getBinUpperLimit(b));
+                double fraction = (target - cumulativeWeight) / binWeight;
+                return lower + fraction * (upper - lower);
+            }
+            cumulativeWeight += binWeight;
+        }
+        return max;
+    }
+
+    /**
+     * Reads a double stored as the sum of a float and the float rounding error in two consecutive rows.
+     */
+    private static double getDouble(float[][] buffer, int row, int toZoneIndex) {
+        return (double) buffer[row][toZoneIndex] + buffer[row + 1][toZoneIndex];
+    }
+
+    private static void setDouble(float[][] buffer, int row, int toZoneIndex, double value) {
+        float high = (float) value;
+        buffer[row][toZoneIndex] = high;
+        buffer[row + 1][toZoneIndex] = (float) (value - high);
+    }
+
+    static int getBin(double travelTime) {
+        if (travelTime < FIRST_BIN_LIMIT) {
+            return 0;
+        }
+        int bin = 1 + (int) (Math.log(travelTime / FIRST_BIN_LIMIT) / LOG_BIN_RATIO);
+        return Math.min(bin, BIN_COUNT - 1);
+    }
+
+    static double getBinLowerLimit(int bin) {
+        return bin == 0 ? 0 : BIN_UPPER_LIMITS[bin - 1];
+    }
+
+    static double getBinUpperLimit(int bin) {
+        return BIN_UPPER_LIMITS[bin];
+    }
+}
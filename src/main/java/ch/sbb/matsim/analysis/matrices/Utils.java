@@ -10,6 +10,7 @@ import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.Point;
 import org.matsim.api.core.v01.Coord;
+import org.matsim.core.utils.misc.Time;
 import org.opengis.feature.simple.SimpleFeature;
 
 import java.util.Random;
@@ -41,4 +42,17 @@ public final class Utils {
         }
     }
 
+    /**
+     * Formats the departure times for log messages and thread names, e.g. "08:00:00,08:15:00".
+     */
+    static String writeTimes(double[] times) {
+        StringBuilder str = new StringBuilder();
+        for (int i = 0; i < times.length; i++) {
+            if (i > 0) {
+                str.append(',');
+            }
+            str.append(Time.writeTime(times[i]));
+        }
+        return str.toString();
+    }
 }
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.core.utils.misc.Counter;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Samples random points within zones, as required by the matrix calculations.
+ *
+ * A simple rejection sampling against the envelope of a zone (see {@link Utils#getRandomCoordinateInFeature(SimpleFeature, Random)})
+ * requires many tries for long, thin zones (e.g. along lakes or valleys), and each try tests the point against the
+ * full polygon, which can have thousands of vertices. This sampler thus prepares every zone once:
+ * <ul>
+ *     <li>The geometry is prepared (see {@link PreparedGeometry}), so point-in-polygon tests use a spatial index.</li>
+ *     <li>The envelope is split into a grid of square cells, and only the cells intersecting the zone are kept.
+ *     Cells completely inside the zone are marked as such.</li>
+ * </ul>
+ * A point is sampled by selecting one of the kept cells weighted by its area and choosing a random location within
+ * the cell. If the cell is completely inside the zone, the point is accepted immediately, otherwise it is tested
+ * against the prepared geometry and a new cell is selected if the point is outside the zone. The resulting points
+ * are uniformly distributed over the zone's area, but far fewer and cheaper tests are required.
+ *
+ * The zones are prepared and sampled in parallel. Each zone uses its own random number generator, seeded with the
+ * given seed and the position of the zone in the iteration order of the zones map, so the results are reproducible
+ * and do not depend on the number of threads.
+ *
+ * @author mrieser / SBB
+ */
+public final class ZonePointSampler {
+
+    public static final long DEFAULT_SEED = 20180404L;
+
+    private final static GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+    private final static int TARGET_CELL_COUNT = 256;
+    private final static int MAX_CELLS_PER_AXIS = 1024;
+
+    private ZonePointSampler() {
+    }
+
+    /**
+     * @return the sampled points per zone. Zones without geometry are not contained in the resulting map.
+     */
+    public static <T> Map<T, Coord[]> samplePoints(Map<T, SimpleFeature> zones, int numberOfPointsPerZone, long seed, int numberOfThreads) {
+        List<T> zoneIds = new ArrayList<>(zones.keySet());
+        Coord[][] points = new Coord[zoneIds.size()][];
+
+        ConcurrentLinkedQueue<Integer> zoneIndices = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < zoneIds.size(); i++) {
+            zoneIndices.add(i);
+        }
+
+        Counter counter = new Counter("ZonePointSampler zone ", " / " + zones.size());
+        Thread[] threads = new Thread[numberOfThreads];
+        for (int i = 0; i < numberOfThreads; i++) {
+            threads[i] = new Thread(() -> {
+                Integer zoneIndex;
+                while ((zoneIndex = zoneIndices.poll()) != null) {
+                    counter.incCounter();
+                    Geometry geom = (Geometry) zones.get(zoneIds.get(zoneIndex)).getDefaultGeometry();
+                    if (geom != null) {
+                        Random r = new Random(seed ^ (zoneIndex * 0x9E3779B97F4A7C15L));
+                        points[zoneIndex] = new PreparedZone(geom).sample(numberOfPointsPerZone, r);
+                    }
+                }
+            }, "ZonePointSampler-" + i);
+            threads[i].start();
+        }
+
+        // wait until all threads have finished
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        Map<T, Coord[]> pointsPerZone = new HashMap<>((int) (zoneIds.size() * 1.5));
+        for (int i = 0; i < zoneIds.size(); i++) {
+            if (points[i] != null) {
+                pointsPerZone.put(zoneIds.get(i), points[i]);
+            }
+        }
+        return pointsPerZone;
+    }
+
+    static final class PreparedZone {
+        private final PreparedGeometry geometry;
+        private final Envelope envelope;
+        private final double cellSize;
+        private final int[] cellXs;
+        private final int[] cellYs;
+        private final boolean[] isInside;
+        private final double[] cumulativeAreas;
+
+        PreparedZone(Geometry geom) {
+            this.geometry = PreparedGeometryFactory.prepare(geom);
+            this.envelope = geom.getEnvelopeInternal();
+            double area = this.envelope.getArea();
+            double cellSize = Math.sqrt(area / TARGET_CELL_COUNT);
+            cellSize = Math.max(cellSize, Math.max(this.envelope.getWidth(), this.envelope.getHeight()) / MAX_CELLS_PER_AXIS);
+            if (!(cellSize > 0)) {
+                // degenerated envelope, use a single cell with the envelope's size
+                cellSize = Math.max(this.envelope.getWidth(), this.envelope.getHeight());
+            }
+            this.cellSize = cellSize;
+            int nx = Math.max(1, (int) Math.ceil(this.envelope.getWidth() / cellSize));
+            int ny = Math.max(1, (int) Math.ceil(this.envelope.getHeight() / cellSize));
+
+            int[] cellXs = new int[nx * ny];
+            int[] cellYs = new int[nx * ny];
+            boolean[] isInside = new boolean[nx * ny];
+            double[] cumulativeAreas = new double[nx * ny];
+            int cellCount = 0;
+            double totalArea = 0;
+            for (int x = 0; x < nx; x++) {
+                for (int y = 0; y < ny; y++) {
+                    Envelope cell = getCellEnvelope(x, y);
+                    Geometry cellGeom = GEOMETRY_FACTORY.toGeometry(cell);
+                    if (this.geometry.intersects(cellGeom)) {
+                        cellXs[cellCount] = x;
+                        cellYs[cellCount] = y;
+                        isInside[cellCount] = this.geometry.contains(cellGeom);
+                        totalArea += cell.getArea();
+                        cumulativeAreas[cellCount] = totalArea;
+                        cellCount++;
+                    }
+                }
+            }
+            if (cellCount == 0 || !(totalArea > 0)) {
+                // might happen for degenerated geometries, fall back to sampling over the whole envelope
+                cellCount = 1;
+                cellXs[0] = -1;
+                isInside[0] = false;
+                cumulativeAreas[0] = 1.0;
+            }
+            this.cellXs = Arrays.copyOf(cellXs, cellCount);
+            this.cellYs = Arrays.copyOf(cellYs, cellCount);
+            this.isInside = Arrays.copyOf(isInside, cellCount);
+            this.cumulativeAreas = Arrays.copyOf(cumulativeAreas, cellCount);
+        }
+
+        Coord[] sample(int count, Random r) {
+            Coord[] coords = new Coord[count];
+            for (int i = 0; i < count; i++) {
+                coords[i] = sample(r);
+            }
+            return coords;
+        }
+
+        Coord sample(Random r) {
+            double totalArea = this.cumulativeAreas[this.cumulativeAreas.length - 1];
+            while (true) {
+                int cellIndex = Arrays.binarySearch(this.cumulativeAreas, r.nextDouble() * totalArea);
+                if (cellIndex < 0) {
+                    cellIndex = -cellIndex - 1;
+                }
+                cellIndex = Math.min(cellIndex, this.cumulativeAreas.length - 1);
+                Envelope cell = this.cellXs[cellIndex] < 0 ? this.envelope : getCellEnvelope(this.cellXs[cellIndex], this.cellYs[cellIndex]);
+                double x = cell.getMinX() + r.nextDouble() * cell.getWidth();
+                double y = cell.getMinY() + r.nextDouble() * cell.getHeight();
+                if (this.isInside[cellIndex] || this.geometry.intersects(GEOMETRY_FACTORY.createPoint(new Coordinate(x, y)))) {
+                    return new Coord(x, y);
+                }
+            }
+        }
+
+        private Envelope getCellEnvelope(int x, int y) {
+            double minX = this.envelope.getMinX() + x * this.cellSize;
+            double minY = this.envelope.getMinY() + y * this.cellSize;
+            double maxX = Math.min(minX + this.cellSize, this.envelope.getMaxX());
+            double maxY = Math.min(minY + this.cellSize, this.envelope.getMaxY());
+            return new Envelope(minX, maxX, minY, maxY);
+        }
+    }
+}
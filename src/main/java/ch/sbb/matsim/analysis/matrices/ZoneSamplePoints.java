@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import ch.sbb.matsim.analysis.matrices.FloatMatrixIO.IdConverter;
+import ch.sbb.matsim.csv.CSVReader;
+import ch.sbb.matsim.csv.CSVWriter;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKBWriter;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.LinkQuadTree;
+import org.matsim.core.network.NetworkUtils;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The randomly sampled points per zone, shared by the CAR, PT and beeline matrices so all of them are
+ * based on the same points. Optionally, the points can be snapped to one or more networks, storing the
+ * to-node of the nearest link for each point.
+ *
+ * The points (and the snapped nodes) can be written to a file and read again, so subsequent runs can skip the
+ * sampling and snapping. The file is a semicolon-separated CSV file with the columns <code>zone</code>,
+ * <code>point</code>, <code>x</code>, <code>y</code> and one column <code>node_&lt;networkName&gt;</code> per snapped
+ * network. Zones without points (e.g. because they have no geometry) are stored with a single row with
+ * point index -1 and empty coordinates, so the set of zones is preserved.
+ *
+ * To detect outdated files, the file also contains fingerprints of the inputs: the column <code>geometry</code>
+ * contains a hash of each zone's geometry, and one column <code>network_&lt;networkName&gt;</code> per snapped network
+ * contains a hash of the network's links (ids and coordinates), see {@link #isCompatible(Map, int)} and
+ * {@link #snapToNetwork(String, Network)}.
+ *
+ * @author mrieser / SBB
+ */
+public final class ZoneSamplePoints<T> {
+
+    private final static Logger log = Logger.getLogger(ZoneSamplePoints.class);
+
+    private final static String COL_ZONE = "zone";
+    private final static String COL_POINT = "point";
+    private final static String COL_X = "x";
+    private final static String COL_Y = "y";
+    private final static String COL_GEOMETRY = "geometry";
+    private final static String COL_NODE_PREFIX = "node_";
+    private final static String COL_NETWORK_PREFIX = "network_";
+
+    private final static long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private final static long FNV_PRIME = 0x100000001b3L;
+
+    private final int numberOfPointsPerZone;
+    private final Map<T, Coord[]> pointsPerZone; // zones without points have null as value
+    private final Map<T, Long> geometryFingerprints; // null if not known, e.g. when read from an older file
+    private final Map<String, Map<T, Id<Node>[]>> nodesPerNetwork = new LinkedHashMap<>();
+    private final Map<String, Long> networkFingerprints = new HashMap<>();
+
+    private ZoneSamplePoints(int numberOfPointsPerZone, Map<T, Coord[]> pointsPerZone, Map<T, Long> geometryFingerprints) {
+        this.numberOfPointsPerZone = numberOfPointsPerZone;
+        this.pointsPerZone = pointsPerZone;
+        this.geometryFingerprints = geometryFingerprints;
+    }
+
+    /**
+     * Samples the points with {@link ZonePointSampler} using {@link ZonePointSampler#DEFAULT_SEED}.
+     * The iteration order of the zones is preserved.
+     */
+    public static <T> ZoneSamplePoints<T> sample(Map<T, SimpleFeature> zones, int numberOfPointsPerZone, int numberOfThreads) {
+        Map<T, Coord[]> sampledPoints = ZonePointSampler.samplePoints(zones, numberOfPointsPerZone, ZonePointSampler.DEFAULT_SEED, numberOfThreads);
+        Map<T, Coord[]> pointsPerZone = new LinkedHashMap<>((int) (zones.size() * 1.5));
+        for (T zoneId : zones.keySet()) {
+            pointsPerZone.put(zoneId, sampledPoints.get(zoneId));
+        }
+        return new ZoneSamplePoints<>(numberOfPointsPerZone, pointsPerZone, calcGeometryFingerprints(zones));
+    }
+
+    /**
+     * @return all zones, including the ones without points, in a stable iteration order.
+     */
+    public Set<T> getZoneIds() {
+        return Collections.unmodifiableSet(this.pointsPerZone.keySet());
+    }
+
+    public int getNumberOfPointsPerZone() {
+        return this.numberOfPointsPerZone;
+    }
+
+    /**
+     * @return the points of the zone, or <code>null</code> if the zone has no points.
+     */
+    public Coord[] getPoints(T zoneId) {
+        return this.pointsPerZone.get(zoneId);
+    }
+
+    /**
+     * Checks if the points were sampled for exactly the given zones, with the same geometries, and number of
+     * points per zone, e.g. to decide if points read from a file can be re-used. The geometries are compared by
+     * a hash of their WKB representation. Points read from a file without geometry hashes are never compatible.
+     */
+    public boolean isCompatible(Map<T, SimpleFeature> zones, int numberOfPointsPerZone) {
+        return this.numberOfPointsPerZone == numberOfPointsPerZone
+                && this.pointsPerZone.keySet().equals(zones.keySet())
+                && this.geometryFingerprints != null
+                && this.geometryFingerprints.equals(calcGeometryFingerprints(zones));
+    }
+
+    /**
+     * Snaps all points to the given network: for each point, the to-node of the nearest link is stored.
+     * A spatial index of the links ({@link LinkQuadTree}) is used to find the nearest links. Unlike
+     * {@link NetworkUtils#getNearestLink(Network, Coord)}, it always finds the link with the smallest distance
+     * to the point, and does not prefer links having the point on their right side.
+     *
+     * If the points were already snapped to a network with the same name and the same links (ids and coordinates,
+     * compared by a hash), the existing nodes are kept. Otherwise, the points are snapped again, which does not
+     * necessarily change the nodes, e.g. if only links far away from all points were added or removed.
+     *
+     * @return <code>true</code> if the nodes changed (or the points were not snapped to this network before),
+     * <code>false</code> if the nodes are the same as before.
+     */
+    public boolean snapToNetwork(String networkName, Network network) {
+        Map<T, Id<Node>[]> existingNodes = this.nodesPerNetwork.get(networkName);
+        long fingerprint = calcNetworkFingerprint(network);
+        Long existingFingerprint = this.networkFingerprints.get(networkName);
+        if (existingNodes != null && existingFingerprint != null && existingFingerprint == fingerprint) {
+            return false;
+        }
+        if (existingNodes != null) {
+            log.warn("The points were snapped to a different network " + networkName + " before, snap them again.");
+        }
+
+        double[] bbox = NetworkUtils.getBoundingBox(network.getNodes().values());
+        LinkQuadTree linkTree = new LinkQuadTree(bbox[0], bbox[1], bbox[2], bbox[3]);
+        for (Link link : network.getLinks().values()) {
+            linkTree.put(link);
+        }
+
+        Map<T, Id<Node>[]> nodesPerZone = new HashMap<>((int) (this.pointsPerZone.size() * 1.5));
+        for (Map.Entry<T, Coord[]> e : this.pointsPerZone.entrySet()) {
+            Coord[] coords = e.getValue();
+            if (coords != null) {
+                Id<Node>[] nodeIds = createNodeIdArray(coords.length);
+                for (int i = 0; i < coords.length; i++) {
+                    nodeIds[i] = linkTree.getNearest(coords[i].getX(), coords[i].getY()).getToNode().getId();
+                }
+                nodesPerZone.put(e.getKey(), nodeIds);
+            }
+        }
+        this.nodesPerNetwork.put(networkName, nodesPerZone);
+        this.networkFingerprints.put(networkName, fingerprint);
+        return existingNodes == null || !haveSameNodes(existingNodes, nodesPerZone);
+    }
+
+    /**
+     * @return the nodes the points of the zone were snapped to, or <code>null</code> if the zone has no points.
+     * @throws IllegalStateException if the points were not yet snapped to a network with the given name.
+     */
+    public Id<Node>[] getNodeIds(String networkName, T zoneId) {
+        Map<T, Id<Node>[]> nodesPerZone = this.nodesPerNetwork.get(networkName);
+        if (nodesPerZone == null) {
+            throw new IllegalStateException("The points were not yet snapped to network " + networkName);
+        }
+        return nodesPerZone.get(zoneId);
+    }
+
+    private static <T> boolean haveSameNodes(Map<T, Id<Node>[]> nodesPerZone1, Map<T, Id<Node>[]> nodesPerZone2) {
+        if (!nodesPerZone1.keySet().equals(nodesPerZone2.keySet())) {
+            return false;
+        }
+        for (Map.Entry<T, Id<Node>[]> e : nodesPerZone1.entrySet()) {
+            if (!Arrays.equals(e.getValue(), nodesPerZone2.get(e.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static <T> Map<T, Long> calcGeometryFingerprints(Map<T, SimpleFeature> zones) {
+        WKBWriter wkbWriter = new WKBWriter();
+        Map<T, Long> fingerprints = new HashMap<>((int) (zones.size() * 1.5));
+        for (Map.Entry<T, SimpleFeature> e : zones.entrySet()) {
+            Geometry geometry = (Geometry) e.getValue().getDefaultGeometry();
+            long hash = FNV_OFFSET_BASIS;
+            if (geometry != null) {
+                for (byte b : wkbWriter.write(geometry)) {
+                    hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+                }
+            }
+            fingerprints.put(e.getKey(), hash);
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Combines the hashes of all links with a sum, so the fingerprint does not depend on the iteration order of the links.
+     */
+    static long calcNetworkFingerprint(Network network) {
+        long fingerprint = network.getLinks().size();
+        for (Link link : network.getLinks().values()) {
+            Coord from = link.getFromNode().getCoord();
+            Coord to = link.getToNode().getCoord();
+            long hash = FNV_OFFSET_BASIS;
+            hash = (hash ^ link.getId().toString().hashCode()) * FNV_PRIME;
+            hash = (hash ^ Double.doubleToLongBits(from.getX())) * FNV_PRIME;
+            hash = (hash ^ Double.doubleToLongBits(from.getY())) * FNV_PRIME;
+            hash = (hash ^ Double.doubleToLongBits(to.getX())) * FNV_PRIME;
+            hash = (hash ^ Double.doubleToLongBits(to.getY())) * FNV_PRIME;
+            fingerprint += hash;
+        }
+        return fingerprint;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Id<Node>[] createNodeIdArray(int length) {
+        return (Id<Node>[]) new Id[length];
+    }
+
+    public void write(String filename) throws IOException {
+        List<String> networkNames = new ArrayList<>(this.nodesPerNetwork.keySet());
+        String[] columns = new String[5 + 2 * networkNames.size()];
+        columns[0] = COL_ZONE;
+        columns[1] = COL_POINT;
+        columns[2] = COL_X;
+        columns[3] = COL_Y;
+        columns[4] = COL_GEOMETRY;
+        for (int i = 0; i < networkNames.size(); i++) {
+            columns[5 + 2 * i] = COL_NODE_PREFIX + networkNames.get(i);
+            columns[6 + 2 * i] = COL_NETWORK_PREFIX + networkNames.get(i);
+        }
+
+        try (CSVWriter writer = new CSVWriter("", columns, filename)) {
+            for (Map.Entry<T, Coord[]> e : this.pointsPerZone.entrySet()) {
+                String zoneId = e.getKey().toString();
+                Long geometryFingerprint = this.geometryFingerprints == null ? null : this.geometryFingerprints.get(e.getKey());
+                String geometry = geometryFingerprint == null ? "" : Long.toHexString(geometryFingerprint);
+                Coord[] coords = e.getValue();
+                if (coords == null) {
+                    writer.set(COL_ZONE, zoneId);
+                    writer.set(COL_POINT, "-1");
+                    writer.set(COL_GEOMETRY, geometry);
+                    writer.writeRow();
+                    continue;
+                }
+                for (int i = 0; i < coords.length; i++) {
+                    writer.set(COL_ZONE, zoneId);
+                    writer.set(COL_POINT, Integer.toString(i));
+                    writer.set(COL_X, Double.toString(coords[i].getX()));
+                    writer.set(COL_Y, Double.toString(coords[i].getY()));
+                    writer.set(COL_GEOMETRY, geometry);
+                    for (int n = 0; n < networkNames.size(); n++) {
+                        String networkName = networkNames.get(n);
+                        Id<Node>[] nodeIds = this.nodesPerNetwork.get(networkName).get(e.getKey());
+                        writer.set(columns[5 + 2 * n], nodeIds[i].toString());
+                        writer.set(columns[6 + 2 * n], Long.toHexString(this.networkFingerprints.get(networkName)));
+                    }
+                    writer.writeRow();
+                }
+            }
+        }
+    }
+
+    public static <T> ZoneSamplePoints<T> read(String filename, IdConverter<T> idConverter) throws IOException {
+        Map<T, List<Coord>> coordsPerZone = new LinkedHashMap<>();
+        Map<String, Map<T, List<Id<Node>>>> nodesPerNetwork = new LinkedHashMap<>();
+        Map<T, Long> geometryFingerprints = new HashMap<>();
+        Map<String, Long> networkFingerprints = new HashMap<>();
+        try (CSVReader reader = new CSVReader(filename, ";")) {
+            List<String> columns = Arrays.asList(reader.getColumns());
+            boolean hasGeometry = columns.contains(COL_GEOMETRY);
+            if (!hasGeometry) {
+                geometryFingerprints = null;
+            }
+            List<String> networkNames = new ArrayList<>();
+            for (String column : reader.getColumns()) {
+                if (column.startsWith(COL_NODE_PREFIX)) {
+                    String networkName = column.substring(COL_NODE_PREFIX.length());
+                    networkNames.add(networkName);
+                    nodesPerNetwork.put(networkName, new HashMap<>());
+                }
+            }
+
+            Map<String, String> row;
+            while ((row = reader.readLine()) != null) {
+                T zoneId = idConverter.parse(row.get(COL_ZONE));
+                int pointIndex = Integer.parseInt(row.get(COL_POINT));
+                if (hasGeometry) {
+                    String geometry = row.get(COL_GEOMETRY);
+                    geometryFingerprints.put(zoneId, geometry.isEmpty() ? null : Long.parseUnsignedLong(geometry, 16));
+                }
+                if (pointIndex < 0) {
+                    coordsPerZone.put(zoneId, null);
+                    continue;
+                }
+                List<Coord> coords = coordsPerZone.computeIfAbsent(zoneId, k -> new ArrayList<>());
+                if (coords.size() != pointIndex) {
+                    throw new IllegalArgumentException("Unexpected point " + pointIndex + " for zone " + zoneId + " in file " + filename);
+                }
+                coords.add(new Coord(Double.parseDouble(row.get(COL_X)), Double.parseDouble(row.get(COL_Y))));
+                for (String networkName : networkNames) {
+                    Id<Node> nodeId = Id.create(row.get(COL_NODE_PREFIX + networkName), Node.class);
+                    nodesPerNetwork.get(networkName).computeIfAbsent(zoneId, k -> new ArrayList<>()).add(nodeId);
+                    String networkFingerprint = row.get(COL_NETWORK_PREFIX + networkName);
+                    if (networkFingerprint != null && !networkFingerprint.isEmpty()) {
+                        networkFingerprints.put(networkName, Long.parseUnsignedLong(networkFingerprint, 16));
+                    }
+                }
+            }
+        }
+
+        int numberOfPointsPerZone = -1;
+        Map<T, Coord[]> pointsPerZone = new LinkedHashMap<>((int) (coordsPerZone.size() * 1.5));
+        for (Map.Entry<T, List<Coord>> e : coordsPerZone.entrySet()) {
+            List<Coord> coords = e.getValue();
+            if (coords != null) {
+                if (numberOfPointsPerZone < 0) {
+                    numberOfPointsPerZone = coords.size();
+                } else if (numberOfPointsPerZone != coords.size()) {
+                    throw new IllegalArgumentException("Zone " + e.getKey() + " has " + coords.size() + " points instead of " + numberOfPointsPerZone + " in file " + filename);
+                }
+                pointsPerZone.put(e.getKey(), coords.toArray(new Coord[0]));
+            } else {
+                pointsPerZone.put(e.getKey(), null);
+            }
+        }
+
+        ZoneSamplePoints<T> points = new ZoneSamplePoints<>(Math.max(0, numberOfPointsPerZone), pointsPerZone, geometryFingerprints);
+        points.networkFingerprints.putAll(networkFingerprints);
+        for (Map.Entry<String, Map<T, List<Id<Node>>>> e : nodesPerNetwork.entrySet()) {
+            Map<T, Id<Node>[]> nodesPerZone = new HashMap<>((int) (e.getValue().size() * 1.5));
+            for (Map.Entry<T, List<Id<Node>>> z : e.getValue().entrySet()) {
+                nodesPerZone.put(z.getKey(), z.getValue().toArray(createNodeIdArray(z.getValue().size())));
+            }
+            points.nodesPerNetwork.put(e.getKey(), nodesPerZone);
+        }
+        return points;
+    }
+
+}
@@ -35,6 +35,21 @@ public 	 class TravellerChain {
 		return activity;
 	}
 
+	/**
+	 * Removes all journeys and all activities except the last one, e.g. after they were written, so they can
+	 * be garbage collected. The last activity is kept, as the next journey starts there.
+	 */
+	public void removeCompletedElements() {
+		Activity lastAct = acts.peekLast();
+		acts.clear();
+		journeys.clear();
+		planElements.clear();
+		if (lastAct != null) {
+			acts.add(lastAct);
+			planElements.add(lastAct);
+		}
+	}
+
 	public Boolean getStucked() {
 		return stucked;
 	}
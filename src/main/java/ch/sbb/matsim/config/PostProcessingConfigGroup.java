@@ -17,12 +17,17 @@ public class PostProcessingConfigGroup extends ReflectiveConfigGroup {
     static private final String PARAM_ANALYSE_SCREENLINE = "analyseScreenline";
     static private final String PARAM_SHAPEFILE_SCREENLINE = "shapefileScreenline";
     static private final String PARAM_MODE_VISUM_NETWORK = "visumNetworkMode";
+    static private final String PARAM_ASYNC_EVENT_WRITERS = "asyncEventWriters";
+    static private final String PARAM_STREAM_TRAVEL_DIARIES = "streamTravelDiaries";
+    static private final String PARAM_COLUMNAR_TABLES = "columnarTables";
 
 
     private String shapeFile = "./output_merger";
     private String zoneAttribute = "GMDNR";
     private Boolean mapActivitiesToZone = false;
     private Boolean travelDiaries = true;
+    private Boolean streamTravelDiaries = false;
+    private Boolean columnarTables = false;
     private Boolean ptVolumes = false;
     private Boolean linkVolumes = false;
     private Boolean eventsPerPerson = false;
@@ -41,6 +46,8 @@ public class PostProcessingConfigGroup extends ReflectiveConfigGroup {
     private Integer visumNetworkThreshold = 5000;
     private String visumNetworkMode = TransportMode.car;
 
+    private Boolean asyncEventWriters = true;
+
 
     @StringGetter(PARAM_SHAPEFILE_SCREENLINE)
     public String getShapefileScreenline() {
@@ -63,6 +70,16 @@ public class PostProcessingConfigGroup extends ReflectiveConfigGroup {
     }
 
 
+    @StringGetter(PARAM_ASYNC_EVENT_WRITERS)
+    public Boolean getAsyncEventWriters() {
+        return asyncEventWriters;
+    }
+
+    @StringSetter(PARAM_ASYNC_EVENT_WRITERS)
+    public void setAsyncEventWriters(Boolean asyncEventWriters) {
+        this.asyncEventWriters = asyncEventWriters;
+    }
+
     @StringGetter(PARAM_ANALYSE_SCREENLINE)
     public Boolean getAnalyseScreenline() {
         return analyseScreenline;
@@ -148,6 +165,26 @@ public class PostProcessingConfigGroup extends ReflectiveConfigGroup {
         this.travelDiaries = travelDiaries;
     }
 
+    @StringGetter(PARAM_STREAM_TRAVEL_DIARIES)
+    public Boolean getStreamTravelDiaries() {
+        return streamTravelDiaries;
+    }
+
+    @StringSetter(PARAM_STREAM_TRAVEL_DIARIES)
+    public void setStreamTravelDiaries(Boolean streamTravelDiaries) {
+        this.streamTravelDiaries = streamTravelDiaries;
+    }
+
+    @StringGetter(PARAM_COLUMNAR_TABLES)
+    public Boolean getColumnarTables() {
+        return columnarTables;
+    }
+
+    @StringSetter(PARAM_COLUMNAR_TABLES)
+    public void setColumnarTables(Boolean columnarTables) {
+        this.columnarTables = columnarTables;
+    }
+
     @StringGetter("ptVolumes")
     public Boolean getPtVolumes() {
         return ptVolumes;
@@ -236,6 +273,11 @@ public class PostProcessingConfigGroup extends ReflectiveConfigGroup {
         comments.put(PARAM_ANALYSE_SCREENLINE, "Run Screenline Analysis");
         comments.put(PARAM_SHAPEFILE_SCREENLINE, "Shapefile for screenline. Contains polylines");
         comments.put(PARAM_MODE_VISUM_NETWORK, "Mode to consider to export Network with volume to Visum (*.net File");
+        comments.put(PARAM_STREAM_TRAVEL_DIARIES, "Write the journeys of the travel diaries as soon as they are completed instead of keeping them in memory until the end. " +
+                "Journeys written before an agent gets stuck are not marked as stucked.");
+        comments.put(PARAM_COLUMNAR_TABLES, "Write the travel diaries and plan_elements as directories with one binary file per column instead of text files, " +
+                "see ch.sbb.matsim.csv.ColumnarTableWriter for the format.");
+        comments.put(PARAM_ASYNC_EVENT_WRITERS, "Run each event writer on its own thread, so the writers do not slow down the mobsim in output iterations");
         return comments;
     }
 
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.csv;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Passes the written text to another writer on its own thread, so encoding, compressing and writing the
+ * text to disk runs in parallel to the thread producing the text. Multiple files can be written in parallel
+ * by using one AsyncTextWriter per file.
+ *
+ * The text is expected in large chunks, e.g. from a {@link RowFormatter}. At most a fixed number of chunks
+ * is queued, if the writer cannot keep up, the producer blocks. Failures of the underlying writer are
+ * re-thrown by the next call to any method.
+ *
+ * @author mrieser / SBB
+ */
+public final class AsyncTextWriter extends Writer {
+
+    private static final int QUEUE_SIZE = 16;
+
+    private final Writer delegate;
+    private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final String closeMarker = new String("close");
+    private final Thread consumer;
+    private volatile IOException failure = null;
+    private boolean closed = false;
+
+    public AsyncTextWriter(Writer delegate, String name) {
+        this.delegate = delegate;
+        this.consumer = new Thread(this::consume, "AsyncTextWriter-" + name);
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    @Override
+    public void write(String str) throws IOException {
+        checkFailure();
+        if (this.closed) {
+            throw new IOException("writer is closed.");
+        }
+        put(str);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        write(str.substring(off, off + len));
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        write(new String(cbuf, off, len));
+    }
+
+    /**
+     * Only checks for failures, the underlying writer is flushed when this writer is closed.
+     */
+    @Override
+    public void flush() throws IOException {
+        checkFailure();
+    }
+
+    /**
+     * Waits until all text is written and closes the underlying writer.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        put(this.closeMarker);
+        try {
+            this.consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for " + this.consumer.getName() + ".", e);
+        }
+        checkFailure();
+    }
+
+    private void put(String str) throws IOException {
+        try {
+            this.queue.put(str);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while writing to " + this.consumer.getName() + ".", e);
+        }
+    }
+
+    private void consume() {
+        try {
+            while (true) {
+                String str = this.queue.take();
+                if (str == this.closeMarker) {
+                    try {
+                        this.delegate.close();
+                    } catch (IOException e) {
+                        if (this.failure == null) {
+                            this.failure = e;
+                        }
+                    }
+                    return;
+                }
+                // after a failure, the text is only taken from the queue so the producer is never blocked forever
+                if (this.failure == null) {
+                    try {
+                        this.delegate.write(str);
+                    } catch (IOException e) {
+                        this.failure = e;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            this.failure = new IOException(e);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = this.failure;
+        if (e != null) {
+            throw new IOException(this.consumer.getName() + " failed.", e);
+        }
+    }
+}
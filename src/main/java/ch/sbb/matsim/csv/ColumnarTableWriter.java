@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.csv;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a table in columnar form: a directory with one binary file per column, so a column can be loaded
+ * without parsing the other ones, e.g. with <code>numpy.fromfile(filename, dtype='&lt;i4')</code> in Python
+ * or <code>readBin(filename, "integer", n, size = 4, endian = "little")</code> in R.
+ *
+ * The directory contains:
+ * <ul>
+ *     <li>{@link #SCHEMA_FILENAME}: the columns in table order with their types, <code>COLUMN;TYPE</code>.</li>
+ *     <li>per {@link ColumnType#INT32} column: <code>&lt;column&gt;.i32</code>, 32-bit integers, {@link #MISSING_INT} if missing.</li>
+ *     <li>per {@link ColumnType#FLOAT64} column: <code>&lt;column&gt;.f64</code>, 64-bit floats, NaN if missing.</li>
+ *     <li>per {@link ColumnType#BOOLEAN} column: <code>&lt;column&gt;.i8</code>, 1 for true, 0 for false, -1 if missing.</li>
+ *     <li>per {@link ColumnType#DICTIONARY} column: <code>&lt;column&gt;.i32</code> with the index of each value in
+ *     <code>&lt;column&gt;.dict.txt</code>, which contains the distinct values, one per line in UTF-8. Missing values have
+ *     the index -1. Meant for columns with few distinct values like modes, lines or stops, e.g. to be loaded with
+ *     <code>pandas.Categorical.from_codes(codes, categories)</code>.</li>
+ *     <li>per {@link ColumnType#STRING} column: <code>&lt;column&gt;.txt</code>, one value per line in UTF-8, missing values
+ *     as empty lines. Meant for columns with many distinct values like person or facility ids, where a dictionary would be
+ *     as large as the column itself.</li>
+ * </ul>
+ * All numbers are stored in little-endian byte order, every column file contains one value per row.
+ *
+ * Values added to a column of another type are converted if possible: <code>null</code> and empty strings are missing
+ * in numeric and boolean columns, numbers and strings are parsed, and all values are converted to strings in
+ * dictionary and string columns. Columns not added to a row are missing.
+ *
+ * @author mrieser / SBB
+ */
+public final class ColumnarTableWriter implements RowWriter {
+
+    /** the name of the file describing the columns. */
+    public static final String SCHEMA_FILENAME = "schema.csv";
+    /** the value of missing entries in {@link ColumnType#INT32} columns. */
+    public static final int MISSING_INT = Integer.MIN_VALUE;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    public enum ColumnType {
+        INT32("int32", ".i32", 4),
+        FLOAT64("float64", ".f64", 8),
+        BOOLEAN("bool", ".i8", 1),
+        DICTIONARY("dictionary", ".i32", 4),
+        STRING("string", ".txt", 1);
+
+        private final String name;
+        private final String suffix;
+        private final int size;
+
+        ColumnType(String name, String suffix, int size) {
+            this.name = name;
+            this.suffix = suffix;
+            this.size = size;
+        }
+    }
+
+    private final File directory;
+    private final String[] columns;
+    private final ColumnType[] types;
+    private final FileChannel[] channels;
+    private final ByteBuffer[] buffers;
+    private final Writer[] textWriters;
+    private final List<Map<String, Integer>> dictionaries = new ArrayList<>();
+
+    // the values of the current row, numbers are stored as doubles, strings of dictionary and string columns separately
+    private final double[] rowNumbers;
+    private final String[] rowStrings;
+    private int rowColumn = 0;
+    private long rowCount = 0;
+
+    public ColumnarTableWriter(String directory, String[] columns, ColumnType[] types) throws IOException {
+        if (columns.length != types.length) {
+            throw new IllegalArgumentException("Got " + columns.length + " columns, but " + types.length + " types.");
+        }
+        this.directory = new File(directory);
+        if (!this.directory.exists() && !this.directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        this.columns = columns.clone();
+        this.types = types.clone();
+        this.channels = new FileChannel[columns.length];
+        this.buffers = new ByteBuffer[columns.length];
+        this.textWriters = new Writer[columns.length];
+        this.rowNumbers = new double[columns.length];
+        this.rowStrings = new String[columns.length];
+
+        try (Writer schema = createTextWriter(SCHEMA_FILENAME)) {
+            schema.write("COLUMN;TYPE\n");
+            for (int c = 0; c < columns.length; c++) {
+                schema.write(columns[c] + ";" + types[c].name + "\n");
+            }
+        }
+        for (int c = 0; c < columns.length; c++) {
+            this.dictionaries.add(types[c] == ColumnType.DICTIONARY ? new HashMap<>() : null);
+            if (types[c] == ColumnType.STRING) {
+                this.textWriters[c] = createTextWriter(columns[c] + types[c].suffix);
+                continue;
+            }
+            File file = new File(this.directory, columns[c] + types[c].suffix);
+            this.channels[c] = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            this.buffers[c] = ByteBuffer.allocate(BUFFER_SIZE - BUFFER_SIZE % types[c].size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        clearRow();
+    }
+
+    public long getRowCount() {
+        return this.rowCount;
+    }
+
+    @Override
+    public ColumnarTableWriter add(int value) {
+        int c = nextColumn();
+        switch (this.types[c]) {
+            case INT32:
+            case FLOAT64:
+                this.rowNumbers[c] = value;
+                break;
+            case DICTIONARY:
+            case STRING:
+                this.rowStrings[c] = Integer.toString(value);
+                break;
+            default:
+                throw unsupported(c, "an int");
+        }
+        return this;
+    }
+
+    @Override
+    public ColumnarTableWriter add(long value) {
+        int c = nextColumn();
+        switch (this.types[c]) {
+            case INT32:
+                if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Value " + value + " is too large for int32 column " + this.columns[c]);
+                }
+                this.rowNumbers[c] = value;
+                break;
+            case FLOAT64:
+                this.rowNumbers[c] = value;
+                break;
+            case DICTIONARY:
+            case STRING:
+                this.rowStrings[c] = Long.toString(value);
+                break;
+            default:
+                throw unsupported(c, "a long");
+        }
+        return this;
+    }
+
+    @Override
+    public ColumnarTableWriter add(boolean value) {
+        int c = nextColumn();
+        switch (this.types[c]) {
+            case BOOLEAN:
+                this.rowNumbers[c] = value ? 1 : 0;
+                break;
+            case DICTIONARY:
+            case STRING:
+                this.rowStrings[c] = Boolean.toString(value);
+                break;
+            default:
+                throw unsupported(c, "a boolean");
+        }
+        return this;
+    }
+
+    @Override
+    public ColumnarTableWriter add(Object value) {
+        int c = nextColumn();
+        if (this.types[c] == ColumnType.DICTIONARY || this.types[c] == ColumnType.STRING) {
+            this.rowStrings[c] = value == null ? null : value.toString();
+            return this;
+        }
+        if (value == null || "".equals(value)) {
+            // the row already contains the missing value
+            return this;
+        }
+        switch (this.types[c]) {
+            case INT32:
+                this.rowNumbers[c] = value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString());
+                break;
+            case FLOAT64:
+                this.rowNumbers[c] = value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+                break;
+            case BOOLEAN:
+                this.rowNumbers[c] = (value instanceof Boolean ? (Boolean) value : Boolean.parseBoolean(value.toString())) ? 1 : 0;
+                break;
+            default:
+                throw unsupported(c, value.getClass().getSimpleName());
+        }
+        return this;
+    }
+
+    @Override
+    public ColumnarTableWriter add(double value) {
+        int c = nextColumn();
+        if (this.types[c] != ColumnType.FLOAT64) {
+            throw unsupported(c, "a double");
+        }
+        this.rowNumbers[c] = value;
+        return this;
+    }
+
+    @Override
+    public ColumnarTableWriter add(double value, int decimals) {
+        return add(value);
+    }
+
+    @Override
+    public void endRow() throws IOException {
+        for (int c = 0; c < this.columns.length; c++) {
+            if (this.types[c] == ColumnType.STRING) {
+                writeString(c, this.rowStrings[c]);
+                continue;
+            }
+            ByteBuffer buffer = this.buffers[c];
+            if (!buffer.hasRemaining()) {
+                writeBuffer(c);
+            }
+            switch (this.types[c]) {
+                case INT32:
+                    buffer.putInt(Double.isNaN(this.rowNumbers[c]) ? MISSING_INT : (int) this.rowNumbers[c]);
+                    break;
+                case FLOAT64:
+                    buffer.putDouble(this.rowNumbers[c]);
+                    break;
+                case BOOLEAN:
+                    buffer.put(Double.isNaN(this.rowNumbers[c]) ? -1 : (byte) this.rowNumbers[c]);
+                    break;
+                case DICTIONARY:
+                    buffer.putInt(getDictionaryIndex(c, this.rowStrings[c]));
+                    break;
+            }
+        }
+        this.rowCount++;
+        clearRow();
+    }
+
+    @Override
+    public void discardRow() {
+        clearRow();
+    }
+
+    /**
+     * Writes the remaining values and the dictionaries. An incomplete row is discarded.
+     */
+    @Override
+    public void close() throws IOException {
+        for (int c = 0; c < this.columns.length; c++) {
+            if (this.textWriters[c] != null) {
+                this.textWriters[c].close();
+                continue;
+            }
+            writeBuffer(c);
+            this.channels[c].close();
+            Map<String, Integer> dictionary = this.dictionaries.get(c);
+            if (dictionary != null) {
+                String[] values = new String[dictionary.size()];
+                for (Map.Entry<String, Integer> e : dictionary.entrySet()) {
+                    values[e.getValue()] = e.getKey();
+                }
+                try (Writer writer = createTextWriter(this.columns[c] + ".dict.txt")) {
+                    for (String value : values) {
+                        writer.write(value);
+                        writer.write('\n');
+                    }
+                }
+            }
+        }
+    }
+
+    private int nextColumn() {
+        if (this.rowColumn == this.columns.length) {
+            throw new IllegalStateException("The table only has " + this.columns.length + " columns.");
+        }
+        return this.rowColumn++;
+    }
+
+    private void writeString(int column, String value) throws IOException {
+        if (value != null) {
+            checkNoLineBreak(column, value);
+            this.textWriters[column].write(value);
+        }
+        this.textWriters[column].write('\n');
+    }
+
+    private int getDictionaryIndex(int column, String value) {
+        if (value == null) {
+            return -1;
+        }
+        checkNoLineBreak(column, value);
+        Map<String, Integer> dictionary = this.dictionaries.get(column);
+        Integer index = dictionary.get(value);
+        if (index == null) {
+            index = dictionary.size();
+            dictionary.put(value, index);
+        }
+        return index;
+    }
+
+    private void checkNoLineBreak(int column, String value) {
+        if (value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Values of " + this.types[column].name + " column " + this.columns[column] + " must not contain line breaks: " + value);
+        }
+    }
+
+    private void clearRow() {
+        for (int c = 0; c < this.columns.length; c++) {
+            this.rowNumbers[c] = Double.NaN;
+            this.rowStrings[c] = null;
+        }
+        this.rowColumn = 0;
+    }
+
+    private void writeBuffer(int column) throws IOException {
+        ByteBuffer buffer = this.buffers[column];
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            this.channels[column].write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private Writer createTextWriter(String filename) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(new File(this.directory, filename).toPath()), StandardCharsets.UTF_8));
+    }
+
+    private IllegalArgumentException unsupported(int column, String value) {
+        return new IllegalArgumentException("Cannot add " + value + " to " + this.types[column].name + " column " + this.columns[column]);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.csv;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Formats the rows of delimited text files into a reusable buffer, which is passed to a {@link Writer} in
+ * large chunks. The columns are formatted exactly like {@link String#format(String, Object...)} would format
+ * them with the conversions <code>%d</code>, <code>%s</code>, <code>%b</code>, <code>%f</code> and
+ * <code>%.nf</code> in the default locale, but without parsing a pattern and without boxing the values.
+ *
+ * Floating point values are rounded with integer arithmetic. Values too close to a rounding tie, too large,
+ * or not finite, as well as all numbers in locales not using the digits 0-9, are formatted with
+ * {@link String#format(String, Object...)}, so the output is always identical.
+ *
+ * Columns are separated automatically, {@link #endRow()} completes a row.
+ *
+ * @author mrieser / SBB
+ */
+public final class RowFormatter implements RowWriter {
+
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L};
+    /** larger scaled values could have rounding errors in the last digits. */
+    private static final double MAX_FAST_SCALED_VALUE = 1e12;
+    /** scaled values closer to a rounding tie might be rounded differently by the Formatter. */
+    private static final double MIN_TIE_DISTANCE = 1e-3;
+
+    private final Writer writer;
+    private final char separator;
+    private final int chunkSize;
+    private final StringBuilder buffer;
+    private final char decimalSeparator;
+    private final boolean fastNumbers;
+    private int rowStart = 0;
+    private boolean firstColumn = true;
+
+    public RowFormatter(Writer writer, char separator) {
+        this(writer, separator, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize the number of characters collected before they are passed to the writer
+     */
+    public RowFormatter(Writer writer, char separator, int chunkSize) {
+        this.writer = writer;
+        this.separator = separator;
+        this.chunkSize = chunkSize;
+        this.buffer = new StringBuilder(chunkSize + 1024);
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT));
+        this.decimalSeparator = symbols.getDecimalSeparator();
+        this.fastNumbers = symbols.getZeroDigit() == '0';
+    }
+
+    /** Like <code>%d</code>. */
+    @Override
+    public RowFormatter add(int value) {
+        startColumn();
+        if (this.fastNumbers) {
+            this.buffer.append(value);
+        } else {
+            this.buffer.append(String.format("%d", value));
+        }
+        return this;
+    }
+
+    /** Like <code>%d</code>. */
+    @Override
+    public RowFormatter add(long value) {
+        startColumn();
+        if (this.fastNumbers) {
+            this.buffer.append(value);
+        } else {
+            this.buffer.append(String.format("%d", value));
+        }
+        return this;
+    }
+
+    /** Like <code>%b</code>. */
+    @Override
+    public RowFormatter add(boolean value) {
+        startColumn();
+        this.buffer.append(value);
+        return this;
+    }
+
+    /** Like <code>%s</code>, <code>null</code> is written as <code>null</code>. */
+    @Override
+    public RowFormatter add(Object value) {
+        startColumn();
+        this.buffer.append(value);
+        return this;
+    }
+
+    /** Like <code>%f</code>, i.e. with 6 decimals. */
+    @Override
+    public RowFormatter add(double value) {
+        return add(value, 6);
+    }
+
+    /** Like <code>%.nf</code>, with n = <code>decimals</code> between 0 and 9. */
+    @Override
+    public RowFormatter add(double value, int decimals) {
+        startColumn();
+        if (!appendFixed(value, decimals)) {
+            this.buffer.append(String.format("%." + decimals + "f", value));
+        }
+        return this;
+    }
+
+    /**
+     * Completes the current row. If enough rows are collected, they are passed to the writer.
+     */
+    @Override
+    public void endRow() throws IOException {
+        this.buffer.append('\n');
+        this.rowStart = this.buffer.length();
+        this.firstColumn = true;
+        if (this.rowStart >= this.chunkSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Removes the columns added since the last completed row, e.g. if calculating a value failed.
+     */
+    @Override
+    public void discardRow() {
+        this.buffer.setLength(this.rowStart);
+        this.firstColumn = true;
+    }
+
+    /**
+     * Passes all completed rows to the writer. The writer itself is not flushed.
+     */
+    public void flush() throws IOException {
+        if (this.rowStart > 0) {
+            this.writer.write(this.buffer.substring(0, this.rowStart));
+            this.buffer.delete(0, this.rowStart);
+            this.rowStart = 0;
+        }
+    }
+
+    /**
+     * Passes all completed rows to the writer and closes it. An incomplete row is discarded.
+     */
+    @Override
+    public void close() throws IOException {
+        discardRow();
+        flush();
+        this.writer.close();
+    }
+
+    private void startColumn() {
+        if (this.firstColumn) {
+            this.firstColumn = false;
+        } else {
+            this.buffer.append(this.separator);
+        }
+    }
+
+    /**
+     * Appends the value rounded half-up to the given number of decimals, if the result is guaranteed to be
+     * the same as with the Formatter. Returns false without appending anything otherwise.
+     */
+    private boolean appendFixed(double value, int decimals) {
+        if (!this.fastNumbers || decimals < 0 || decimals >= POWERS_OF_TEN.length) {
+            return false;
+        }
+        long factor = POWERS_OF_TEN[decimals];
+        double scaled = Math.abs(value) * factor;
+        if (!(scaled < MAX_FAST_SCALED_VALUE)) {
+            // also true for NaN and infinity
+            return false;
+        }
+        double floor = Math.floor(scaled);
+        double fraction = scaled - floor;
+        if (Math.abs(fraction - 0.5) < MIN_TIE_DISTANCE) {
+            return false;
+        }
+        long units = (long) floor + (fraction > 0.5 ? 1 : 0);
+        // the Formatter keeps the sign of negative values rounded to zero, including -0.0
+        if (Double.compare(value, 0.0) < 0) {
+            this.buffer.append('-');
+        }
+        this.buffer.append(units / factor);
+        if (decimals > 0) {
+            this.buffer.append(this.decimalSeparator);
+            long fractionDigits = units % factor;
+            for (long p = factor / 10; p > 1 && fractionDigits < p; p /= 10) {
+                this.buffer.append('0');
+            }
+            this.buffer.append(fractionDigits);
+        }
+        return true;
+    }
+}
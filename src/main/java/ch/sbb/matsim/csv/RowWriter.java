@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.csv;
+
+import java.io.IOException;
+
+/**
+ * Writes the rows of a table column by column, in the order of the table's columns.
+ * Implemented by {@link RowFormatter} for text files and by {@link ColumnarTableWriter} for columnar files,
+ * so the same code can write a table in either format.
+ *
+ * @author mrieser / SBB
+ */
+public interface RowWriter extends AutoCloseable {
+
+    RowWriter add(int value);
+
+    RowWriter add(long value);
+
+    RowWriter add(boolean value);
+
+    RowWriter add(Object value);
+
+    RowWriter add(double value);
+
+    /**
+     * @param decimals the number of decimals used in text files, columnar files store the exact value
+     */
+    RowWriter add(double value, int decimals);
+
+    /**
+     * Completes the current row.
+     */
+    void endRow() throws IOException;
+
+    /**
+     * Removes the columns added since the last completed row, e.g. if calculating a value failed.
+     */
+    void discardRow();
+
+    @Override
+    void close() throws IOException;
+}
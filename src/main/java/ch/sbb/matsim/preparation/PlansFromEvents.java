@@ -4,6 +4,7 @@
 
 package ch.sbb.matsim.preparation;
 
+import ch.sbb.matsim.analysis.EventsReplay;
 import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
@@ -37,11 +38,9 @@ import org.matsim.api.core.v01.population.Plan;
 import org.matsim.api.core.v01.population.PlanElement;
 import org.matsim.api.core.v01.population.Population;
 import org.matsim.api.core.v01.population.Route;
-import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.events.EventsManagerImpl;
-import org.matsim.core.events.MatsimEventsReader;
 import org.matsim.core.network.io.MatsimNetworkReader;
 import org.matsim.core.population.PopulationUtils;
 import org.matsim.core.population.io.PopulationWriter;
@@ -49,6 +48,7 @@ import org.matsim.core.population.routes.RouteUtils;
 import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.vehicles.Vehicle;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -286,23 +286,27 @@ public class PlansFromEvents implements PersonArrivalEventHandler, PersonDepartu
         }
     }
 
-    public static void main(String[] args) {
+    /**
+     * Writes the plans built from the replayed events, without the routes of the pt legs.
+     */
+    public void writePlans(String planFile) {
+        Cleaner cleaner = new Cleaner(this.population);
+        cleaner.clean(Arrays.asList(TransportMode.pt), Arrays.asList("all"));
+        new PopulationWriter(this.population).write(planFile);
+    }
+
+    public static void main(String[] args) throws IOException {
         String eventsFileName = args[0];
         String networkFile = args[1];
         String planFile = args[2];
 
-        EventsManager events = new EventsManagerImpl();
-
         Config config = ConfigUtils.createConfig();
         Scenario scenario = ScenarioUtils.createScenario(config);
 
         new MatsimNetworkReader(scenario.getNetwork()).readFile(networkFile);
         PlansFromEvents plansHandler = new PlansFromEvents(scenario.getNetwork());
 
-        events.addHandler(plansHandler);
-        new MatsimEventsReader(events).readFile(eventsFileName);
-        Cleaner cleaner = new Cleaner(plansHandler.population);
-        cleaner.clean(Arrays.asList(TransportMode.pt), Arrays.asList("all"));
-        new PopulationWriter(plansHandler.population).write(planFile);
+        new EventsReplay(new EventsManagerImpl(), false).addHandler(plansHandler).run(eventsFileName);
+        plansHandler.writePlans(planFile);
     }
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.routing.graph;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * An indexed min-heap for int-elements (typically node indices) with a double cost as key.
+ *
+ * In contrast to {@link java.util.PriorityQueue}, this heap knows the position of each element
+ * and thus supports an efficient decrease-key operation in O(log n), instead of an O(n)
+ * <code>remove()</code> followed by an <code>add()</code>.
+ *
+ * The heap is d-ary, i.e. each entry has <code>d</code> children. A higher d results in a flatter
+ * heap with cheaper decrease-key operations, at the cost of slightly more expensive polls. For
+ * Dijkstra-style algorithms on road networks, d = 4 has proven to be a good choice.
+ *
+ * The heap allocates all required memory in the constructor, so it can be re-used for many
+ * calculations without generating garbage.
+ *
+ * @author mrieser / SBB
+ */
+public class DAryMinHeap {
+
+    private final int[] heap;
+    private final double[] cost; // cost of the element at a heap position
+    private final int[] pos; // heap position of an element, or -1 if the element is not in the heap
+    private final int d;
+    private int size = 0;
+
+    public DAryMinHeap(int nodeCount, int d) {
+        this.heap = new int[nodeCount];
+        this.cost = new double[nodeCount];
+        this.pos = new int[nodeCount];
+        Arrays.fill(this.pos, -1);
+        this.d = d;
+    }
+
+    public void insert(int node, double cost) {
+        int i = this.size;
+        this.size++;
+        siftUp(i, node, cost);
+    }
+
+    /**
+     * Inserts the element if it is not yet part of the heap, or decreases the cost of the element
+     * if it is already part of the heap.
+     *
+     * @param node the element to insert or to update
+     * @param cost the (new) cost of the element, must not be larger than the current cost of the element if it is already part of the heap.
+     */
+    public void decreaseKey(int node, double cost) {
+        int i = this.pos[node];
+        if (i < 0) {
+            insert(node, cost);
+        } else {
+            siftUp(i, node, cost);
+        }
+    }
+
+    public int poll() {
+        if (this.size == 0) {
+            throw new NoSuchElementException("heap is empty");
+        }
+        int result = this.heap[0];
+        this.pos[result] = -1;
+        this.size--;
+        if (this.size > 0) {
+            siftDown(0, this.heap[this.size], this.cost[this.size]);
+        }
+        return result;
+    }
+
+    public int peek() {
+        if (this.size == 0) {
+            throw new NoSuchElementException("heap is empty");
+        }
+        return this.heap[0];
+    }
+
+    public double peekCost() {
+        if (this.size == 0) {
+            throw new NoSuchElementException("heap is empty");
+        }
+        return this.cost[0];
+    }
+
+    public boolean contains(int node) {
+        return this.pos[node] >= 0;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Removes all remaining elements from the heap. Runs in O(size), not in O(capacity).
+     */
+    public void clear() {
+        for (int i = 0; i < this.size; i++) {
+            this.pos[this.heap[i]] = -1;
+        }
+        this.size = 0;
+    }
+
+    private void siftUp(int index, int node, double nodeCost) {
+        int i = index;
+        while (i > 0) {
+            int parent = (i - 1) / this.d;
+            double parentCost = this.cost[parent];
+            if (parentCost <= nodeCost) {
+                break;
+            }
+            int parentNode = this.heap[parent];
+            this.heap[i] = parentNode;
+            this.cost[i] = parentCost;
+            this.pos[parentNode] = i;
+            i = parent;
+        }
+        this.heap[i] = node;
+        this.cost[i] = nodeCost;
+        this.pos[node] = i;
+    }
+
+    private void siftDown(int index, int node, double nodeCost) {
+        int i = index;
+        while (true) {
+            int firstChild = i * this.d + 1;
+            if (firstChild >= this.size) {
+                break;
+            }
+            int lastChild = Math.min(firstChild + this.d, this.size);
+            int minChild = firstChild;
+            double minCost = this.cost[firstChild];
+            for (int c = firstChild + 1; c < lastChild; c++) {
+                double childCost = this.cost[c];
+                if (childCost < minCost) {
+                    minChild = c;
+                    minCost = childCost;
+                }
+            }
+            if (nodeCost <= minCost) {
+                break;
+            }
+            int childNode = this.heap[minChild];
+            this.heap[i] = childNode;
+            this.cost[i] = minCost;
+            this.pos[childNode] = i;
+            i = minChild;
+        }
+        this.heap[i] = node;
+        this.cost[i] = nodeCost;
+        this.pos[node] = i;
+    }
+}
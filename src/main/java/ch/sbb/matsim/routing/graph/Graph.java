@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.routing.graph;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A read-only, compact representation of a network for bulk routing.
+ *
+ * Nodes and links are identified by dense int indices. The adjacency is stored in
+ * CSR-style (compressed sparse row) arrays: the out-links of node <code>n</code> have the
+ * link indices <code>firstOut[n]</code> (inclusive) to <code>firstOut[n+1]</code> (exclusive),
+ * and <code>toNode[l]</code> contains the index of the to-node of link <code>l</code>.
+ * Link attributes required for routing are stored in primitive arrays as well, so routing
+ * algorithms do not need to follow any object references.
+ *
+ * The graph is immutable after creation and can thus be shared by multiple threads.
+ * Create it once per network, not once per thread or per calculation.
+ *
+ * @author mrieser / SBB
+ */
+public class Graph {
+
+    final int nodeCount;
+    final int linkCount;
+    final int[] firstOut; // size = nodeCount + 1
+    final int[] toNode;
+    final int[] fromNode;
+    final double[] length;
+    final double[] freespeed;
+
+    private final Node[] nodes;
+    private final Link[] links;
+    private final Map<Id<Node>, Integer> nodeIndices;
+    private final Map<Id<Link>, Integer> linkIndices;
+
+    public Graph(Network network) {
+        this.nodeCount = network.getNodes().size();
+        this.linkCount = network.getLinks().size();
+        this.nodes = new Node[this.nodeCount];
+        this.links = new Link[this.linkCount];
+        this.nodeIndices = new HashMap<>((int) (this.nodeCount * 1.5));
+        this.linkIndices = new HashMap<>((int) (this.linkCount * 1.5));
+        this.firstOut = new int[this.nodeCount + 1];
+        this.toNode = new int[this.linkCount];
+        this.fromNode = new int[this.linkCount];
+        this.length = new double[this.linkCount];
+        this.freespeed = new double[this.linkCount];
+
+        int nodeIndex = 0;
+        for (Node node : network.getNodes().values()) {
+            this.nodes[nodeIndex] = node;
+            this.nodeIndices.put(node.getId(), nodeIndex);
+            nodeIndex++;
+        }
+
+        int linkIndex = 0;
+        for (nodeIndex = 0; nodeIndex < this.nodeCount; nodeIndex++) {
+            this.firstOut[nodeIndex] = linkIndex;
+            for (Link link : this.nodes[nodeIndex].getOutLinks().values()) {
+                this.links[linkIndex] = link;
+                this.linkIndices.put(link.getId(), linkIndex);
+                this.fromNode[linkIndex] = nodeIndex;
+                this.toNode[linkIndex] = this.nodeIndices.get(link.getToNode().getId());
+                this.length[linkIndex] = link.getLength();
+                this.freespeed[linkIndex] = link.getFreespeed();
+                linkIndex++;
+            }
+        }
+        this.firstOut[this.nodeCount] = linkIndex;
+    }
+
+    public int getNodeCount() {
+        return this.nodeCount;
+    }
+
+    public int getLinkCount() {
+        return this.linkCount;
+    }
+
+    public int getNodeIndex(Node node) {
+        Integer index = this.nodeIndices.get(node.getId());
+        if (index == null) {
+            throw new IllegalArgumentException("Node " + node.getId() + " is not part of the graph.");
+        }
+        return index;
+    }
+
+    public int getLinkIndex(Link link) {
+        Integer index = this.linkIndices.get(link.getId());
+        if (index == null) {
+            throw new IllegalArgumentException("Link " + link.getId() + " is not part of the graph.");
+        }
+        return index;
+    }
+
+    public Node getNode(int nodeIndex) {
+        return this.nodes[nodeIndex];
+    }
+
+    public Link getLink(int linkIndex) {
+        return this.links[linkIndex];
+    }
+
+    public int getFirstOutLink(int nodeIndex) {
+        return this.firstOut[nodeIndex];
+    }
+
+    /**
+     * @return the index after the last out-link of the node, i.e. the out-links of the node are in the range [getFirstOutLink(node), getEndOutLink(node)).
+     */
+    public int getEndOutLink(int nodeIndex) {
+        return this.firstOut[nodeIndex + 1];
+    }
+
+    public int getFromNode(int linkIndex) {
+        return this.fromNode[linkIndex];
+    }
+
+    public int getToNode(int linkIndex) {
+        return this.toNode[linkIndex];
+    }
+
+    public double getLength(int linkIndex) {
+        return this.length[linkIndex];
+    }
+
+    public double getFreespeed(int linkIndex) {
+        return this.freespeed[linkIndex];
+    }
+}
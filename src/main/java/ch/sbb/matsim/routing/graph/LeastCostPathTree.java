@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.routing.graph;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleUtils;
+
+import java.util.Arrays;
+
+/**
+ * Calculates a least-cost-path tree using Dijkstra's algorithm, given a node as root of the tree.
+ * In addition to the cost, also the travel time and the distance are calculated for each node.
+ *
+ * This is a replacement for the (now removed) HashMap-based tree in <code>ch.sbb.matsim.analysis.matrices</code>,
+ * optimized for calculating many trees in a row, e.g. for travel time matrices:
+ * <ul>
+ *     <li>Nodes are identified by dense int indices of a shared {@link Graph} instead of by their Id.
+ *     Use {@link Graph#getNodeIndex(org.matsim.api.core.v01.network.Node)} to get the index of a node.</li>
+ *     <li>Cost, time and distance are stored interleaved in one double array instead of a <code>NodeData</code> object per node.</li>
+ *     <li>An indexed {@link DAryMinHeap} with real decrease-key is used instead of a {@link java.util.PriorityQueue}
+ *     where every decrease-key results in an O(n) <code>remove()</code>.</li>
+ *     <li>All memory is allocated in the constructor. Resetting the data for the next tree runs in O(1), as each
+ *     node is tagged with the iteration in which its data was last written.</li>
+ * </ul>
+ *
+ * An instance of this class is not thread-safe, but it is cheap enough to create one instance per thread.
+ *
+ * @author mrieser / SBB
+ */
+public class LeastCostPathTree {
+
+    private final static Vehicle VEHICLE = VehicleUtils.getFactory().createVehicle(Id.create("theVehicle", Vehicle.class), VehicleUtils.getDefaultVehicleType());
+    private final static Person PERSON = PopulationUtils.getFactory().createPerson(Id.create("thePerson", Person.class));
+
+    private final Graph graph;
+    private final TravelTime tt;
+    private final TravelDisutility td;
+    private final TravelTimeTable ttTable;
+
+    private final double[] data; // 3 entries per node: cost, time, distance
+    private final int[] comingFromLink; // the link over which a node was reached, -1 for the root
+    private final int[] iterationIds;
+    private int currentIteration = Integer.MIN_VALUE;
+    private final DAryMinHeap pq;
+
+    /**
+     * Creates a tree using arbitrary travel times and travel disutilities. As these are defined
+     * on {@link Link}s, the link objects have to be accessed for every relaxed link.
+     */
+    public LeastCostPathTree(Graph graph, TravelTime tt, TravelDisutility td) {
+        this(graph, tt, td, null);
+    }
+
+    /**
+     * Creates a tree which uses the cached travel times from the table as costs, i.e. the resulting
+     * tree contains the fastest paths. This is equivalent to using an
+     * {@link org.matsim.core.router.costcalculators.OnlyTimeDependentTravelDisutility} with the same travel times,
+     * but does not need to access any link objects.
+     */
+    public LeastCostPathTree(TravelTimeTable ttTable) {
+        this(ttTable.getGraph(), null, null, ttTable);
+    }
+
+    private LeastCostPathTree(Graph graph, TravelTime tt, TravelDisutility td, TravelTimeTable ttTable) {
+        this.graph = graph;
+        this.tt = tt;
+        this.td = td;
+        this.ttTable = ttTable;
+
+        int nodeCount = graph.nodeCount;
+        this.data = new double[nodeCount * 3];
+        this.comingFromLink = new int[nodeCount];
+        this.iterationIds = new int[nodeCount];
+        Arrays.fill(this.iterationIds, this.currentIteration);
+        this.pq = new DAryMinHeap(nodeCount, 4);
+    }
+
+    public Graph getGraph() {
+        return this.graph;
+    }
+
+    public void calculate(int startNode, double startTime) {
+        calculate(startNode, startTime, null);
+    }
+
+    /**
+     * Calculates the tree, but stops as soon as the stop criterion is fulfilled. The criterion is
+     * checked every time a node is settled, i.e. when its final cost is known. When the calculation
+     * is stopped early, only the data of settled nodes is final. Nodes that were reached, but not
+     * yet settled, may still have a too high cost.
+     *
+     * @param stopCriterion the criterion to stop the calculation, may be <code>null</code> to calculate the full tree.
+     */
+    public void calculate(int startNode, double startTime, StopCriterion stopCriterion) {
+        this.currentIteration++;
+        if (this.currentIteration == Integer.MAX_VALUE) {
+            // the iteration ids would overflow, so reset everything
+            Arrays.fill(this.iterationIds, Integer.MIN_VALUE);
+            this.currentIteration = Integer.MIN_VALUE + 1;
+        }
+        this.pq.clear();
+
+        setData(startNode, 0, startTime, 0, -1);
+        this.pq.insert(startNode, 0);
+
+        while (!this.pq.isEmpty()) {
+            int nodeIdx = this.pq.poll();
+            double currTime = getTimeRaw(nodeIdx);
+            double currCost = getCostRaw(nodeIdx);
+            double currDistance = getDistanceRaw(nodeIdx);
+            if (stopCriterion != null && stopCriterion.stop(nodeIdx, currTime, currCost, currDistance, startTime)) {
+                break;
+            }
+
+            for (int linkIdx = this.graph.firstOut[nodeIdx], lastLinkIdx = this.graph.firstOut[nodeIdx + 1]; linkIdx < lastLinkIdx; linkIdx++) {
+                int toNode = this.graph.toNode[linkIdx];
+
+                double newCost;
+                double newTime;
+                if (this.ttTable != null) {
+                    double linkTravelTime = this.ttTable.getLinkTravelTime(linkIdx, currTime);
+                    newCost = currCost + linkTravelTime;
+                    newTime = currTime + linkTravelTime;
+                } else {
+                    Link link = this.graph.getLink(linkIdx);
+                    newCost = currCost + this.td.getLinkTravelDisutility(link, currTime, PERSON, VEHICLE);
+                    newTime = currTime + this.tt.getLinkTravelTime(link, currTime, PERSON, VEHICLE);
+                }
+                double oldCost = getCost(toNode);
+                if (newCost < oldCost) {
+                    double newDistance = currDistance + this.graph.length[linkIdx];
+                    setData(toNode, newCost, newTime, newDistance, linkIdx);
+                    this.pq.decreaseKey(toNode, newCost);
+                }
+            }
+        }
+    }
+
+    public double getCost(int nodeIndex) {
+        if (this.iterationIds[nodeIndex] == this.currentIteration) {
+            return getCostRaw(nodeIndex);
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return the arrival time at the node, or <code>Double.POSITIVE_INFINITY</code> if the node was not reached.
+     */
+    public double getTime(int nodeIndex) {
+        if (this.iterationIds[nodeIndex] == this.currentIteration) {
+            return getTimeRaw(nodeIndex);
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    public double getDistance(int nodeIndex) {
+        if (this.iterationIds[nodeIndex] == this.currentIteration) {
+            return getDistanceRaw(nodeIndex);
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return the index of the node from which the specified node was reached, or -1 if the node is the root of the tree or was not reached.
+     */
+    public int getComingFrom(int nodeIndex) {
+        int linkIndex = getComingFromLink(nodeIndex);
+        return linkIndex < 0 ? -1 : this.graph.fromNode[linkIndex];
+    }
+
+    /**
+     * @return the index of the link over which the specified node was reached, or -1 if the node is the root of the tree or was not reached.
+     */
+    public int getComingFromLink(int nodeIndex) {
+        if (this.iterationIds[nodeIndex] == this.currentIteration) {
+            return this.comingFromLink[nodeIndex];
+        }
+        return -1;
+    }
+
+    public interface StopCriterion {
+
+        /**
+         * Called each time a node is settled. Once this method returns <code>true</code>, the tree
+         * calculation is stopped.
+         */
+        boolean stop(int nodeIndex, double arrivalTime, double travelCost, double distance, double departureTime);
+    }
+
+    private double getCostRaw(int nodeIndex) {
+        return this.data[nodeIndex * 3];
+    }
+
+    private double getTimeRaw(int nodeIndex) {
+        return this.data[nodeIndex * 3 + 1];
+    }
+
+    private double getDistanceRaw(int nodeIndex) {
+        return this.data[nodeIndex * 3 + 2];
+    }
+
+    private void setData(int nodeIndex, double cost, double time, double distance, int comingFromLink) {
+        int index = nodeIndex * 3;
+        this.data[index] = cost;
+        this.data[index + 1] = time;
+        this.data[index + 2] = distance;
+        this.comingFromLink[nodeIndex] = comingFromLink;
+        this.iterationIds[nodeIndex] = this.currentIteration;
+    }
+}
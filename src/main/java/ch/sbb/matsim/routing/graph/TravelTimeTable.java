@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.routing.graph;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleUtils;
+
+/**
+ * Caches the link travel times of a {@link TravelTime} for all links of a {@link Graph} in time bins,
+ * stored in one float array (<code>data[linkIndex * binCount + bin]</code>).
+ *
+ * This is typically used with the travel times of a {@link org.matsim.core.trafficmonitoring.TravelTimeCalculator},
+ * which uses time bins internally anyway: if the table's bins are aligned to the calculator's bins, the cached
+ * values are identical to the values returned by the calculator. Requests for times before the first or after the
+ * last bin return the value of the first or last bin respectively.
+ *
+ * The table is immutable after creation and can be shared by multiple threads.
+ *
+ * @author mrieser / SBB
+ */
+public class TravelTimeTable {
+
+    private final static Vehicle VEHICLE = VehicleUtils.getFactory().createVehicle(Id.create("theVehicle", Vehicle.class), VehicleUtils.getDefaultVehicleType());
+    private final static Person PERSON = PopulationUtils.getFactory().createPerson(Id.create("thePerson", Person.class));
+
+    private final Graph graph;
+    private final double startTime;
+    private final double binSize;
+    private final int binCount;
+    private final float[] data;
+
+    /**
+     * @param graph the graph for whose links the travel times should be cached
+     * @param travelTime the travel times to cache
+     * @param startTime start of the first time bin. Is aligned to a multiple of <code>binSize</code> if necessary.
+     * @param endTime end of the last time bin
+     * @param binSize duration of one time bin, in seconds
+     */
+    public TravelTimeTable(Graph graph, TravelTime travelTime, double startTime, double endTime, double binSize) {
+        this.graph = graph;
+        this.binSize = binSize;
+        this.startTime = Math.floor(startTime / binSize) * binSize;
+        this.binCount = Math.max(1, (int) Math.ceil((endTime - this.startTime) / binSize));
+        this.data = new float[graph.linkCount * this.binCount];
+        for (int linkIndex = 0; linkIndex < graph.linkCount; linkIndex++) {
+            Link link = graph.getLink(linkIndex);
+            int offset = linkIndex * this.binCount;
+            for (int bin = 0; bin < this.binCount; bin++) {
+                double time = this.startTime + bin * binSize;
+                this.data[offset + bin] = (float) travelTime.getLinkTravelTime(link, time, PERSON, VEHICLE);
+            }
+        }
+    }
+
+    /**
+     * Creates a table with only one time bin containing the free speed travel times of all links.
+     */
+    public static TravelTimeTable createFreespeedTable(Graph graph) {
+        return new TravelTimeTable(graph, new FreeSpeedTravelTime(), 0, 1, 1);
+    }
+
+    public Graph getGraph() {
+        return this.graph;
+    }
+
+    public int getBinCount() {
+        return this.binCount;
+    }
+
+    public double getBinSize() {
+        return this.binSize;
+    }
+
+    public double getStartTime() {
+        return this.startTime;
+    }
+
+    public double getLinkTravelTime(int linkIndex, double time) {
+        int bin = (int) ((time - this.startTime) / this.binSize);
+        if (bin < 0) {
+            bin = 0;
+        } else if (bin >= this.binCount) {
+            bin = this.binCount - 1;
+        }
+        return this.data[linkIndex * this.binCount + bin];
+    }
+}
@@ -21,12 +21,11 @@ package ch.sbb.matsim.utils;
 import java.io.File;
 import java.io.IOException;
 
+import ch.sbb.matsim.analysis.EventsReplay;
 import org.matsim.api.core.v01.Scenario;
-import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.events.EventsManagerImpl;
-import org.matsim.core.events.MatsimEventsReader;
 import org.matsim.core.network.io.MatsimNetworkReader;
 import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.pt.transitSchedule.api.TransitScheduleReader;
@@ -44,7 +43,7 @@ public class RunEventsToEventsPerPersonTable {
     /**
      * @param args
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 
         String eventsFileName = null;
         Config config = null;
@@ -82,17 +81,8 @@ public class RunEventsToEventsPerPersonTable {
             handler.setPersonIdString(personIdString);
         }
 
-        EventsManager events = new EventsManagerImpl();
-
-        events.addHandler(handler);
-
-        new MatsimEventsReader(events).readFile(eventsFileName);
-
-        try {
-            handler.writeSimulationResultsToTabSeparated(appendage);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        new EventsReplay(new EventsManagerImpl(), false).addHandler(handler).run(eventsFileName);
+        handler.writeSimulationResultsToTabSeparated(appendage);
 
         System.out.println("Number of stuck vehicles/passengers: "
                 + handler.getStuck());
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.events.algorithms.EventWriter;
+import org.matsim.core.events.handler.BasicEventHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author mrieser / SBB
+ */
+public class AsyncEventWriterTest {
+
+    @Test
+    public void testEventsPassedInOrder() {
+        RecordingWriter recorder = new RecordingWriter(0);
+        AsyncEventWriter writer = new AsyncEventWriter(recorder, 2);
+        int eventCount = 10 * AsyncEventWriter.BATCH_SIZE + 17;
+        writer.reset(3);
+        for (int i = 0; i < eventCount; i++) {
+            writer.handleEvent(new TestEvent(i));
+        }
+        writer.closeFile();
+
+        Assert.assertTrue(recorder.closed);
+        Assert.assertEquals(eventCount + 1, recorder.log.size());
+        Assert.assertEquals("reset 3", recorder.log.get(0));
+        for (int i = 0; i < eventCount; i++) {
+            Assert.assertEquals("event " + i, recorder.log.get(i + 1));
+        }
+        Assert.assertNotSame(Thread.currentThread(), recorder.thread);
+    }
+
+    @Test
+    public void testSlowWriter() {
+        // the producer has to wait for the writer, but no events must get lost
+        RecordingWriter recorder = new RecordingWriter(1);
+        AsyncEventWriter writer = new AsyncEventWriter(recorder, 2);
+        int eventCount = 5 * AsyncEventWriter.BATCH_SIZE;
+        for (int i = 0; i < eventCount; i++) {
+            writer.handleEvent(new TestEvent(i));
+        }
+        writer.closeFile();
+        Assert.assertEquals(eventCount, recorder.log.size());
+        Assert.assertEquals("event " + (eventCount - 1), recorder.log.get(eventCount - 1));
+    }
+
+    @Test
+    public void testFailureIsReported() {
+        RecordingWriter recorder = new RecordingWriter(0);
+        recorder.failAtEvent = 10;
+        AsyncEventWriter writer = new AsyncEventWriter(recorder, 2);
+        try {
+            for (int i = 0; i < 100 * AsyncEventWriter.BATCH_SIZE; i++) {
+                writer.handleEvent(new TestEvent(i));
+            }
+            writer.closeFile();
+            Assert.fail("expected exception from failing writer.");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private static class TestEvent extends Event {
+        final int index;
+
+        TestEvent(int index) {
+            super(index);
+            this.index = index;
+        }
+
+        @Override
+        public String getEventType() {
+            return "test";
+        }
+    }
+
+    private static class RecordingWriter implements EventWriter, BasicEventHandler {
+        final List<String> log = new ArrayList<>();
+        final long sleepMillisPerBatch;
+        int failAtEvent = -1;
+        Thread thread = null;
+        boolean closed = false;
+
+        RecordingWriter(long sleepMillisPerBatch) {
+            this.sleepMillisPerBatch = sleepMillisPerBatch;
+        }
+
+        @Override
+        public void handleEvent(Event event) {
+            this.thread = Thread.currentThread();
+            int index = ((TestEvent) event).index;
+            if (index == this.failAtEvent) {
+                throw new IllegalStateException("test failure");
+            }
+            if (this.sleepMillisPerBatch > 0 && index % AsyncEventWriter.BATCH_SIZE == 0) {
+                try {
+                    Thread.sleep(this.sleepMillisPerBatch);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            this.log.add("event " + index);
+        }
+
+        @Override
+        public void reset(int iteration) {
+            this.log.add("reset " + iteration);
+        }
+
+        @Override
+        public void closeFile() {
+            this.closed = true;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+
+/**
+ * @author mrieser / SBB
+ */
+public class DenseIdIndexTest {
+
+    @Test
+    public void testGetOrAdd() {
+        DenseIdIndex<Person> index = new DenseIdIndex<>();
+        Id<Person> a = Id.create("a", Person.class);
+        Id<Person> b = Id.create("b", Person.class);
+        Id<Person> c = Id.create("c", Person.class);
+        Assert.assertEquals(0, index.size());
+
+        Assert.assertEquals(0, index.getOrAdd(a));
+        Assert.assertEquals(1, index.getOrAdd(b));
+        Assert.assertEquals(0, index.getOrAdd(a));
+        Assert.assertEquals(2, index.getOrAdd(c));
+        Assert.assertEquals(1, index.getOrAdd(b));
+        Assert.assertEquals(3, index.size());
+
+        Assert.assertEquals(a, index.getId(0));
+        Assert.assertEquals(b, index.getId(1));
+        Assert.assertEquals(c, index.getId(2));
+    }
+
+    @Test
+    public void testGet() {
+        DenseIdIndex<Person> index = new DenseIdIndex<>();
+        Id<Person> a = Id.create("a", Person.class);
+        Id<Person> b = Id.create("b", Person.class);
+        index.getOrAdd(a);
+
+        Assert.assertEquals(0, index.get(a));
+        Assert.assertEquals(-1, index.get(b));
+        Assert.assertEquals(-1, index.get(null));
+        // looking up an unknown id does not add it
+        Assert.assertEquals(1, index.size());
+        Assert.assertEquals(1, index.getOrAdd(b));
+    }
+
+    @Test
+    public void testManyIds() {
+        // more ids than the expected size, so the map and list have to grow
+        DenseIdIndex<Person> index = new DenseIdIndex<>(10);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(i, index.getOrAdd(Id.create(i, Person.class)));
+        }
+        Assert.assertEquals(1000, index.size());
+        for (int i = 999; i >= 0; i--) {
+            Id<Person> id = Id.create(i, Person.class);
+            Assert.assertEquals(i, index.get(id));
+            Assert.assertEquals(id, index.getId(i));
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetIdUnknownIndex() {
+        DenseIdIndex<Person> index = new DenseIdIndex<>();
+        index.getOrAdd(Id.create("a", Person.class));
+        index.getId(1);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.events.EventsManagerImpl;
+import org.matsim.core.events.algorithms.EventWriter;
+import org.matsim.core.events.handler.BasicEventHandler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author mrieser / SBB
+ */
+public class EventsReplayTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testAllAnalyzersGetAllEvents() throws IOException {
+        // enough events to fill multiple chunks of the reader
+        int eventCount = 20000;
+        File file = writeEvents("output_events.xml.gz", eventCount);
+
+        CountingWriter handler = new CountingWriter();
+        CountingWriter syncWriter = new CountingWriter();
+        CountingWriter asyncWriter = new CountingWriter();
+        long count = new EventsReplay().addHandler(handler).addWriter(asyncWriter).run(file.getAbsolutePath());
+        new EventsReplay(new EventsManagerImpl(), false).addWriter(syncWriter).run(file.getAbsolutePath());
+
+        Assert.assertEquals(eventCount, count);
+        for (CountingWriter writer : new CountingWriter[] {handler, syncWriter, asyncWriter}) {
+            Assert.assertEquals(eventCount, writer.count);
+            Assert.assertEquals(eventCount - 1, writer.lastTime, 0.0);
+        }
+        Assert.assertFalse(handler.closed);
+        Assert.assertTrue(syncWriter.closed);
+        Assert.assertTrue(asyncWriter.closed);
+        Assert.assertNotSame(Thread.currentThread(), asyncWriter.thread);
+    }
+
+    @Test
+    public void testUncompressedFile() throws IOException {
+        File file = writeEvents("output_events.xml", 10);
+        CountingWriter handler = new CountingWriter();
+        Assert.assertEquals(10, new EventsReplay().addHandler(handler).run(file.getAbsolutePath()));
+        Assert.assertEquals(10, handler.count);
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingFile() throws IOException {
+        new EventsReplay().run(new File(this.tmpFolder.getRoot(), "missing.xml.gz").getAbsolutePath());
+    }
+
+    private File writeEvents(String filename, int eventCount) throws IOException {
+        File file = new File(this.tmpFolder.getRoot(), filename);
+        OutputStream stream = new FileOutputStream(file);
+        if (filename.endsWith(".gz")) {
+            stream = new GZIPOutputStream(stream);
+        }
+        try (Writer writer = new OutputStreamWriter(stream, StandardCharsets.UTF_8)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<events version=\"1.0\">\n");
+            for (int i = 0; i < eventCount; i++) {
+                writer.write("\t<event time=\"" + i + ".0\" type=\"actend\" person=\"" + (i % 100) + "\" link=\"1\" actType=\"home\"  />\n");
+            }
+            writer.write("</events>\n");
+        }
+        return file;
+    }
+
+    private static class CountingWriter implements EventWriter, BasicEventHandler {
+        int count = 0;
+        double lastTime = -1;
+        boolean closed = false;
+        Thread thread = null;
+
+        @Override
+        public void handleEvent(Event event) {
+            this.count++;
+            this.lastTime = event.getTime();
+            this.thread = Thread.currentThread();
+        }
+
+        @Override
+        public void closeFile() {
+            this.closed = true;
+        }
+
+        @Override
+        public void reset(int iteration) {
+        }
+    }
+}
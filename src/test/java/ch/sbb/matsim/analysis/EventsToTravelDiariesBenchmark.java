@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis;
+
+import ch.sbb.matsim.config.PostProcessingConfigGroup;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.events.EventsManagerImpl;
+import org.matsim.core.events.MatsimEventsReader;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.core.scenario.ScenarioUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the time per event and the memory retained by {@link EventsToTravelDiaries} for a given scenario
+ * and events file. The events are read into memory first, so only the handler itself is measured, not the
+ * parsing of the events file. No output files are written.
+ *
+ * Only the public API of {@link EventsToTravelDiaries} is used, so the benchmark can be run against older
+ * versions of the handler to compare the results.
+ *
+ * Usage: <code>EventsToTravelDiariesBenchmark config.xml events.xml.gz [repetitions]</code>
+ *
+ * @author mrieser / SBB
+ */
+public class EventsToTravelDiariesBenchmark {
+
+    private final static Logger log = Logger.getLogger(EventsToTravelDiariesBenchmark.class);
+
+    public static void main(String[] args) {
+        final String configFile = args[0];
+        final String eventsFileName = args[1];
+        final int repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        Config config = ConfigUtils.loadConfig(configFile, new PostProcessingConfigGroup());
+        Scenario scenario = ScenarioUtils.loadScenario(config);
+
+        log.info("reading events into memory...");
+        List<Event> events = new ArrayList<>();
+        EventsManager collector = new EventsManagerImpl();
+        collector.addHandler(new BasicEventHandler() {
+            @Override
+            public void handleEvent(Event event) {
+                events.add(event);
+            }
+
+            @Override
+            public void reset(int iteration) {
+            }
+        });
+        new MatsimEventsReader(collector).readFile(eventsFileName);
+        log.info("read " + events.size() + " events.");
+
+        for (int rep = 0; rep < repetitions; rep++) {
+            long usedBefore = getUsedMemory();
+            EventsToTravelDiaries diaries = new EventsToTravelDiaries(scenario, "");
+            EventsManager eventsManager = new EventsManagerImpl();
+            eventsManager.addHandler(diaries);
+
+            long start = System.nanoTime();
+            for (Event event : events) {
+                eventsManager.processEvent(event);
+            }
+            long nanos = System.nanoTime() - start;
+            long retained = getUsedMemory() - usedBefore;
+
+            log.info(String.format("repetition %d: %.1f ns per event, %.1f events per second, %d MB retained by %d chains",
+                    rep, (double) nanos / events.size(), events.size() * 1e9 / nanos, retained / (1024 * 1024), diaries.getChains().size()));
+        }
+    }
+
+    private static long getUsedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis;
+
+import ch.sbb.matsim.config.PostProcessingConfigGroup;
+import ch.sbb.matsim.csv.ColumnarTableWriter;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.ActivityEndEvent;
+import org.matsim.api.core.v01.events.ActivityStartEvent;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.PersonArrivalEvent;
+import org.matsim.api.core.v01.events.PersonDepartureEvent;
+import org.matsim.api.core.v01.events.PersonEntersVehicleEvent;
+import org.matsim.api.core.v01.events.PersonLeavesVehicleEvent;
+import org.matsim.api.core.v01.events.PersonStuckEvent;
+import org.matsim.api.core.v01.events.TransitDriverStartsEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.api.experimental.events.TeleportationArrivalEvent;
+import org.matsim.core.api.experimental.events.VehicleArrivesAtFacilityEvent;
+import org.matsim.core.api.experimental.events.VehicleDepartsAtFacilityEvent;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitScheduleFactory;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compares the tables written by {@link EventsToTravelDiaries} with the tables written by its implementation before
+ * the person and vehicle state was moved into arrays, stored in {@link #EXPECTED_DIRECTORY}.
+ *
+ * The rows are compared in sorted order, as the previous implementation wrote the persons in hash order. The ids of the
+ * activities, journeys, trips and transfers are numbered globally, so they are compared relative to the smallest id of
+ * each run. The random sample selectors are ignored.
+ *
+ * @author mrieser / SBB
+ */
+public class EventsToTravelDiariesTest {
+
+    private static final String EXPECTED_DIRECTORY = "src/test/resources/EventsToTravelDiaries/";
+    public static final String[] TABLES = {"matsim_activities.txt", "matsim_journeys.txt", "matsim_trips.txt", "matsim_transfers.txt"};
+    private static final Set<String> ID_COLUMNS = new HashSet<>(Arrays.asList(
+            "activity_id", "journey_id", "trip_id", "transfer_id", "from_act", "to_act", "from_trip", "to_trip", "previous_trip_id", "next_trip_id"));
+    private static final String IGNORED_COLUMN = "sample_selector";
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Test
+    public void testTablesMatchPreviousImplementation() throws IOException {
+        Scenario scenario = createScenario();
+        String outputDirectory = this.tmpDir.getRoot().getAbsolutePath() + File.separator;
+        EventsToTravelDiaries diaries = new EventsToTravelDiaries(scenario, outputDirectory);
+        replay(diaries);
+        diaries.closeFile();
+
+        Assert.assertEquals(1, diaries.getStuck());
+        for (String table : TABLES) {
+            Assert.assertEquals(table, readNormalizedRows(EXPECTED_DIRECTORY, table), readNormalizedRows(outputDirectory, table));
+        }
+    }
+
+    @Test
+    public void testColumnarTables() throws IOException {
+        Scenario scenario = createScenario();
+        String textDirectory = this.tmpDir.newFolder("text").getAbsolutePath() + File.separator;
+        EventsToTravelDiaries textDiaries = new EventsToTravelDiaries(scenario, textDirectory);
+        replay(textDiaries);
+        textDiaries.closeFile();
+
+        ConfigUtils.addOrGetModule(scenario.getConfig(), PostProcessingConfigGroup.class).setColumnarTables(true);
+        String columnarDirectory = this.tmpDir.newFolder("columnar").getAbsolutePath() + File.separator;
+        EventsToTravelDiaries columnarDiaries = new EventsToTravelDiaries(scenario, columnarDirectory);
+        replay(columnarDiaries);
+        columnarDiaries.closeFile();
+
+        // both write the rows in the order of the population, so the columns can be compared row by row
+        File activities = new File(columnarDirectory, "matsim_activities");
+        List<String> schema = Files.readAllLines(new File(activities, ColumnarTableWriter.SCHEMA_FILENAME).toPath(), StandardCharsets.UTF_8);
+        Assert.assertEquals("person_id;string", schema.get(2));
+        Assert.assertEquals("facility_id;string", schema.get(3));
+        Assert.assertEquals("type;dictionary", schema.get(4));
+        List<String> personIds = readTextColumn(textDirectory + "matsim_activities.txt", "person_id");
+        Assert.assertEquals(6, personIds.size());
+        Assert.assertEquals(personIds, readLines(activities, "person_id.txt"));
+        List<String> facilityIds = new ArrayList<>();
+        for (String facilityId : readTextColumn(textDirectory + "matsim_activities.txt", "facility_id")) {
+            // a missing facility is written as "null" in the text tables
+            facilityIds.add(facilityId.equals("null") ? "" : facilityId);
+        }
+        Assert.assertEquals(facilityIds, readLines(activities, "facility_id.txt"));
+        List<String> types = readLines(activities, "type.dict.txt");
+        ByteBuffer typeCodes = readBinary(activities, "type.i32");
+        ByteBuffer startTimes = readBinary(activities, "start_time.i32");
+        List<String> textStartTimes = readTextColumn(textDirectory + "matsim_activities.txt", "start_time");
+        for (String type : readTextColumn(textDirectory + "matsim_activities.txt", "type")) {
+            Assert.assertEquals(type, types.get(typeCodes.getInt()));
+        }
+        for (String startTime : textStartTimes) {
+            Assert.assertEquals(Integer.parseInt(startTime), startTimes.getInt());
+        }
+
+        File journeys = new File(columnarDirectory, "matsim_journeys");
+        Assert.assertEquals(readTextColumn(textDirectory + "matsim_journeys.txt", "person_id"), readLines(journeys, "person_id.txt"));
+        ByteBuffer stucked = readBinary(journeys, "stucked.i8");
+        for (String value : readTextColumn(textDirectory + "matsim_journeys.txt", "stucked")) {
+            Assert.assertEquals(Boolean.parseBoolean(value) ? 1 : 0, stucked.get());
+        }
+        Assert.assertFalse(stucked.hasRemaining());
+    }
+
+    private static void replay(EventsToTravelDiaries diaries) {
+        EventsManager events = EventsUtils.createEventsManager();
+        events.addHandler(diaries);
+        for (Event event : createEvents()) {
+            events.processEvent(event);
+        }
+    }
+
+    private static List<String> readTextColumn(String filename, String column) throws IOException {
+        List<String> lines = Files.readAllLines(new File(filename).toPath(), StandardCharsets.UTF_8);
+        int c = Arrays.asList(lines.get(0).split("\t")).indexOf(column);
+        List<String> values = new ArrayList<>();
+        for (String line : lines.subList(1, lines.size())) {
+            values.add(line.split("\t", -1)[c]);
+        }
+        return values;
+    }
+
+    private static List<String> readLines(File directory, String filename) throws IOException {
+        return Files.readAllLines(new File(directory, filename).toPath(), StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer readBinary(File directory, String filename) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(new File(directory, filename).toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns the header and the sorted rows of one of the diary tables in the directory, without the random sample
+     * selectors and with all ids relative to the smallest id in the directory's tables, so tables written by different
+     * runs can be compared.
+     */
+    public static List<String> readNormalizedRows(String directory, String table) throws IOException {
+        return readNormalizedRows(directory + table, getMinId(directory));
+    }
+
+    /**
+     * Returns the smallest id of the activities, journeys, trips and transfers in the diary tables of the directory.
+     */
+    public static long getMinId(String directory) throws IOException {
+        long minId = Long.MAX_VALUE;
+        for (String table : TABLES) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(directory + table))) {
+                // the first column contains the ids of the table's elements
+                reader.readLine();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    minId = Math.min(minId, Long.parseLong(line.substring(0, line.indexOf('\t'))));
+                }
+            }
+        }
+        return minId;
+    }
+
+    private static List<String> readNormalizedRows(String filename, long minId) throws IOException {
+        List<String> rows = new ArrayList<>();
+        String header;
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            String[] columns = reader.readLine().split("\t");
+            header = String.join("\t", columns);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] values = line.split("\t", -1);
+                StringBuilder row = new StringBuilder();
+                for (int c = 0; c < columns.length; c++) {
+                    if (columns[c].equals(IGNORED_COLUMN)) {
+                        continue;
+                    }
+                    String value = values[c];
+                    if (ID_COLUMNS.contains(columns[c]) && !value.equals("null")) {
+                        value = Long.toString(Long.parseLong(value) - minId);
+                    }
+                    row.append(value).append('\t');
+                }
+                rows.add(row.toString());
+            }
+        }
+        Collections.sort(rows);
+        rows.add(0, header);
+        return rows;
+    }
+
+    /**
+     * A line of four links from west to east, with a bus line on links 1 to 3 and a train line on links 3 and 4.
+     */
+    static Scenario createScenario() {
+        Config config = ConfigUtils.createConfig(new PostProcessingConfigGroup());
+        config.transit().setUseTransit(true);
+        // the last activities end at the end of the simulation
+        config.qsim().setEndTime(30 * 3600);
+        Scenario scenario = ScenarioUtils.createScenario(config);
+
+        Network network = scenario.getNetwork();
+        NetworkFactory nf = network.getFactory();
+        Node[] nodes = new Node[5];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = nf.createNode(Id.create(i + 1, Node.class), new Coord(1000 * i, 0));
+            network.addNode(nodes[i]);
+        }
+        double[] lengths = {1000, 1200, 1500, 800};
+        for (int i = 0; i < lengths.length; i++) {
+            Link link = nf.createLink(Id.create(i + 1, Link.class), nodes[i], nodes[i + 1]);
+            link.setLength(lengths[i]);
+            link.setFreespeed(10);
+            link.setCapacity(1000);
+            link.setNumberOfLanes(1);
+            network.addLink(link);
+        }
+
+        Population population = scenario.getPopulation();
+        for (String personId : new String[] {"car", "pt", "stuck"}) {
+            population.addPerson(population.getFactory().createPerson(Id.create(personId, Person.class)));
+        }
+
+        TransitSchedule schedule = scenario.getTransitSchedule();
+        TransitScheduleFactory f = schedule.getFactory();
+        addTransitLine(schedule, f, "bus", "bus", 1, 3);
+        addTransitLine(schedule, f, "train", "rail", 3, 4);
+        return scenario;
+    }
+
+    private static void addTransitLine(TransitSchedule schedule, TransitScheduleFactory f, String id, String mode, int fromLink, int toLink) {
+        TransitLine line = f.createTransitLine(Id.create(id, TransitLine.class));
+        TransitRoute route = f.createTransitRoute(Id.create(id, TransitRoute.class),
+                RouteUtils.createLinkNetworkRouteImpl(Id.create(fromLink, Link.class), Id.create(toLink, Link.class)), new ArrayList<>(), mode);
+        line.addRoute(route);
+        schedule.addTransitLine(line);
+    }
+
+    /**
+     * A car trip followed by a walk trip, a public transport trip with a transfer from the bus to the train,
+     * and a car trip ending with the person being stuck.
+     */
+    static List<Event> createEvents() {
+        Id<Person> car = Id.create("car", Person.class);
+        Id<Person> pt = Id.create("pt", Person.class);
+        Id<Person> stuck = Id.create("stuck", Person.class);
+        Id<Person> busDriver = Id.create("busDriver", Person.class);
+        Id<Person> trainDriver = Id.create("trainDriver", Person.class);
+        Id<Vehicle> carVehicle = Id.create("car", Vehicle.class);
+        Id<Vehicle> stuckVehicle = Id.create("stuck", Vehicle.class);
+        Id<Vehicle> bus = Id.create("bus", Vehicle.class);
+        Id<Vehicle> train = Id.create("train", Vehicle.class);
+        Id<Link> link1 = Id.create(1, Link.class);
+        Id<Link> link2 = Id.create(2, Link.class);
+        Id<Link> link3 = Id.create(3, Link.class);
+        Id<Link> link4 = Id.create(4, Link.class);
+        Id<TransitStopFacility> stopA = Id.create("A", TransitStopFacility.class);
+        Id<TransitStopFacility> stopC = Id.create("C", TransitStopFacility.class);
+        Id<TransitStopFacility> stopD = Id.create("D", TransitStopFacility.class);
+        Id<ActivityFacility> home = Id.create("home", ActivityFacility.class);
+        String interaction = "pt interaction";
+
+        List<Event> events = new ArrayList<>();
+        events.add(new ActivityEndEvent(25000, car, link1, home, "home"));
+        events.add(new PersonDepartureEvent(25000, car, link1, "car"));
+        events.add(new PersonEntersVehicleEvent(25000, car, carVehicle));
+        events.add(new LinkLeaveEvent(25100, carVehicle, link1));
+        events.add(new LinkEnterEvent(25100, carVehicle, link2));
+        events.add(new LinkLeaveEvent(25220, carVehicle, link2));
+        events.add(new LinkEnterEvent(25220, carVehicle, link3));
+        events.add(new PersonLeavesVehicleEvent(25370, car, carVehicle));
+        events.add(new PersonArrivalEvent(25370, car, link3, "car"));
+        events.add(new ActivityStartEvent(25370, car, link3, null, "work"));
+
+        events.add(new ActivityEndEvent(25500, stuck, link2, null, "home"));
+        events.add(new PersonDepartureEvent(25500, stuck, link2, "car"));
+        events.add(new PersonEntersVehicleEvent(25500, stuck, stuckVehicle));
+        events.add(new LinkLeaveEvent(25620, stuckVehicle, link2));
+        events.add(new LinkEnterEvent(25620, stuckVehicle, link3));
+
+        events.add(new TransitDriverStartsEvent(27900, busDriver, bus, Id.create("bus", TransitLine.class), Id.create("bus", TransitRoute.class), null));
+        events.add(new TransitDriverStartsEvent(28000, trainDriver, train, Id.create("train", TransitLine.class), Id.create("train", TransitRoute.class), null));
+        events.add(new ActivityEndEvent(28000, pt, link1, home, "home"));
+        events.add(new PersonDepartureEvent(28000, pt, link1, "transit_walk"));
+        events.add(new TeleportationArrivalEvent(28100, pt, 120));
+        events.add(new PersonArrivalEvent(28100, pt, link1, "transit_walk"));
+        events.add(new ActivityStartEvent(28100, pt, link1, null, interaction));
+        events.add(new ActivityEndEvent(28100, pt, link1, null, interaction));
+        events.add(new PersonDepartureEvent(28100, pt, link1, "pt"));
+        events.add(new VehicleArrivesAtFacilityEvent(28200, bus, stopA, 20));
+        events.add(new PersonEntersVehicleEvent(28210, pt, bus));
+        events.add(new VehicleDepartsAtFacilityEvent(28220, bus, stopA, 30));
+        events.add(new LinkLeaveEvent(28300, bus, link1));
+        events.add(new LinkEnterEvent(28300, bus, link2));
+        events.add(new LinkLeaveEvent(28420, bus, link2));
+        events.add(new LinkEnterEvent(28420, bus, link3));
+        events.add(new VehicleArrivesAtFacilityEvent(28500, bus, stopC, 10));
+        events.add(new PersonLeavesVehicleEvent(28510, pt, bus));
+        events.add(new PersonArrivalEvent(28510, pt, link3, "pt"));
+        events.add(new ActivityStartEvent(28510, pt, link3, null, interaction));
+        events.add(new ActivityEndEvent(28510, pt, link3, null, interaction));
+        events.add(new PersonDepartureEvent(28510, pt, link3, "transit_walk"));
+        events.add(new TeleportationArrivalEvent(28560, pt, 50));
+        events.add(new PersonArrivalEvent(28560, pt, link3, "transit_walk"));
+        events.add(new ActivityStartEvent(28560, pt, link3, null, interaction));
+        events.add(new ActivityEndEvent(28560, pt, link3, null, interaction));
+        events.add(new PersonDepartureEvent(28560, pt, link3, "pt"));
+        events.add(new VehicleArrivesAtFacilityEvent(28600, train, stopC, 0));
+        events.add(new PersonEntersVehicleEvent(28610, pt, train));
+        events.add(new VehicleDepartsAtFacilityEvent(28620, train, stopC, 0));
+        events.add(new LinkLeaveEvent(28700, train, link3));
+        events.add(new LinkEnterEvent(28700, train, link4));
+        events.add(new VehicleArrivesAtFacilityEvent(28780, train, stopD, 5));
+        events.add(new PersonLeavesVehicleEvent(28790, pt, train));
+        events.add(new PersonArrivalEvent(28790, pt, link4, "pt"));
+        events.add(new ActivityStartEvent(28790, pt, link4, null, interaction));
+        events.add(new ActivityEndEvent(28790, pt, link4, null, interaction));
+        events.add(new PersonDepartureEvent(28790, pt, link4, "transit_walk"));
+        events.add(new TeleportationArrivalEvent(28900, pt, 150));
+        events.add(new PersonArrivalEvent(28900, pt, link4, "transit_walk"));
+        events.add(new ActivityStartEvent(28900, pt, link4, null, "work"));
+
+        events.add(new ActivityEndEvent(30000, car, link3, null, "work"));
+        events.add(new PersonDepartureEvent(30000, car, link3, "walk"));
+        events.add(new TeleportationArrivalEvent(30900, car, 900));
+        events.add(new PersonArrivalEvent(30900, car, link4, "walk"));
+        events.add(new ActivityStartEvent(30900, car, link4, null, "shop"));
+
+        events.add(new PersonStuckEvent(108000, stuck, link3, "car"));
+        return events;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * @author mrieser / SBB
+ */
+public class IntDoubleHashMapTest {
+
+    @Test
+    public void testPutGetRemove() {
+        IntDoubleHashMap map = new IntDoubleHashMap();
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertTrue(Double.isNaN(map.put(5, 1.5)));
+        Assert.assertTrue(Double.isNaN(map.put(13, 2.5)));
+        Assert.assertEquals(1.5, map.put(5, 3.5), 0.0);
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals(3.5, map.get(5, -1), 0.0);
+        Assert.assertEquals(-1.0, map.get(7, -1), 0.0);
+        Assert.assertTrue(map.containsKey(13));
+
+        Assert.assertEquals(2.5, map.remove(13), 0.0);
+        Assert.assertFalse(map.containsKey(13));
+        Assert.assertTrue(Double.isNaN(map.remove(13)));
+        Assert.assertEquals(1, map.size());
+
+        map.clear();
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertFalse(map.containsKey(5));
+    }
+
+    @Test
+    public void testAgainstHashMap() {
+        // random operations with many collisions, including growing and removing from probe sequences
+        Random random = new Random(20181105L);
+        IntDoubleHashMap map = new IntDoubleHashMap(2);
+        Map<Integer, Double> expected = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            int key = random.nextInt(500) * 64;
+            if (random.nextDouble() < 0.55) {
+                double value = random.nextDouble();
+                Double oldValue = expected.put(key, value);
+                double actualOldValue = map.put(key, value);
+                Assert.assertEquals(oldValue == null ? Double.NaN : oldValue, actualOldValue, 0.0);
+            } else {
+                Double oldValue = expected.remove(key);
+                double actualOldValue = map.remove(key);
+                Assert.assertEquals(oldValue == null ? Double.NaN : oldValue, actualOldValue, 0.0);
+            }
+            Assert.assertEquals(expected.size(), map.size());
+        }
+        for (int key = 0; key < 500 * 64; key++) {
+            Double value = expected.get(key);
+            Assert.assertEquals(value == null ? Double.NaN : value, map.get(key, Double.NaN), 0.0);
+        }
+        Set<Integer> keys = new HashSet<>();
+        map.forEachKey(keys::add);
+        Assert.assertEquals(expected.keySet(), keys);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeKey() {
+        new IntDoubleHashMap().put(-1, 1.0);
+    }
+}
@@ -1,18 +1,35 @@
 package ch.sbb.matsim.analysis.VisumPuTSurvey;
 
 import ch.sbb.matsim.analysis.EventsToTravelDiaries;
+import ch.sbb.matsim.analysis.EventsToTravelDiariesTest;
 import ch.sbb.matsim.analysis.travelcomponents.TravellerChain;
+import ch.sbb.matsim.config.PostProcessingConfigGroup;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.events.EventsUtils;
 import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.testcases.utils.EventsCollector;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
 
 public class VisumPuTSurveyIntegrationTest {
 
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
     @Test
     public void test() throws IOException {
 
@@ -51,4 +68,70 @@ public class VisumPuTSurveyIntegrationTest {
         System.out.println(everything);
         Assert.assertEquals(expected, everything);
     }
+
+    @Test
+    public void testStreaming() throws IOException {
+        TestFixture fixture = new TestFixture();
+        fixture.addSingleTransitDemand();
+        EventsCollector collector = new EventsCollector();
+        fixture.eventsManager.addHandler(collector);
+        fixture.addEvents();
+        List<Event> events = collector.getEvents();
+
+        PostProcessingConfigGroup ppConfig = ConfigUtils.addOrGetModule(fixture.config, PostProcessingConfigGroup.class);
+        ppConfig.setWriteVisumPuTSurvey(true);
+        String bulkDirectory = this.tmpDir.newFolder("bulk").getAbsolutePath() + File.separator;
+        EventsToTravelDiaries bulkDiaries = new EventsToTravelDiaries(fixture.scenario, bulkDirectory);
+        replay(events, bulkDiaries);
+        bulkDiaries.closeFile();
+
+        ppConfig.setStreamTravelDiaries(true);
+        String streamingDirectory = this.tmpDir.newFolder("streaming").getAbsolutePath() + File.separator;
+        EventsToTravelDiaries streamingDiaries = new EventsToTravelDiaries(fixture.scenario, streamingDirectory);
+        replay(events, streamingDiaries);
+
+        // the completed journey was already written, only the activity at the destination is kept
+        TravellerChain chain = streamingDiaries.getChains().get(Id.createPersonId("1"));
+        Assert.assertNotNull("TravellerChain for person 1 not found.", chain);
+        Assert.assertEquals(0, chain.getJourneys().size());
+        Assert.assertEquals(1, chain.getActs().size());
+        Assert.assertEquals("work", chain.getActs().getFirst().getType());
+        streamingDiaries.closeFile();
+
+        List<String> survey = readNormalizedSurvey(streamingDirectory);
+        Assert.assertEquals(readNormalizedSurvey(bulkDirectory), survey);
+        // the diaries scale the survey with the flow capacity factor, which is 1.0 in the fixture
+        Assert.assertTrue(survey.get(survey.size() - 1).endsWith(";1;B;D;code;code;code;code;code;E;B;1;08:22:00;1;regular"));
+        for (String table : EventsToTravelDiariesTest.TABLES) {
+            List<String> bulkRows = EventsToTravelDiariesTest.readNormalizedRows(bulkDirectory, table);
+            Assert.assertEquals(table, bulkRows, EventsToTravelDiariesTest.readNormalizedRows(streamingDirectory, table));
+        }
+        Assert.assertEquals(3, EventsToTravelDiariesTest.readNormalizedRows(streamingDirectory, "matsim_activities.txt").size());
+    }
+
+    /**
+     * Returns the lines of the survey, with the journey ids relative to the smallest id of the diaries in the same directory.
+     */
+    private static List<String> readNormalizedSurvey(String directory) throws IOException {
+        long minId = EventsToTravelDiariesTest.getMinId(directory);
+        List<String> lines = Files.readAllLines(Paths.get(directory + "matsim_put_survey.att"), StandardCharsets.UTF_8);
+        boolean isData = false;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (isData) {
+                int separator = line.indexOf(';');
+                lines.set(i, (Long.parseLong(line.substring(0, separator)) - minId) + line.substring(separator));
+            }
+            isData |= line.startsWith("$OEVTEILWEG:");
+        }
+        return lines;
+    }
+
+    private static void replay(List<Event> events, EventsToTravelDiaries diaries) {
+        EventsManager eventsManager = EventsUtils.createEventsManager();
+        eventsManager.addHandler(diaries);
+        for (Event event : events) {
+            eventsManager.processEvent(event);
+        }
+    }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.core.utils.gis.PolygonFeatureFactory;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author mrieser / SBB
+ */
+public class BeelineDistanceMatrixTest {
+
+    @Test
+    public void testCutoff_sparse() {
+        // only the diagonal is below the cutoff
+        ZoneSamplePoints<String> points = createZonesInRow(10, 10000);
+        FloatMatrix<String> matrix = BeelineDistanceMatrix.calculateBeelineDistanceMatrix(points, 1000, 2);
+        Assert.assertTrue(matrix instanceof SparseFloatMatrix);
+        assertCutoff(BeelineDistanceMatrix.calculateBeelineDistanceMatrix(points, 2), matrix, 1000);
+    }
+
+    @Test
+    public void testCutoff_dense() {
+        // all zone pairs are below the cutoff
+        ZoneSamplePoints<String> points = createZonesInRow(10, 200);
+        FloatMatrix<String> matrix = BeelineDistanceMatrix.calculateBeelineDistanceMatrix(points, 5000, 2);
+        Assert.assertFalse(matrix instanceof SparseFloatMatrix);
+        assertCutoff(BeelineDistanceMatrix.calculateBeelineDistanceMatrix(points, 2), matrix, 5000);
+    }
+
+    @Test
+    public void testNoCutoff() {
+        ZoneSamplePoints<String> points = createZonesInRow(10, 10000);
+        FloatMatrix<String> matrix = BeelineDistanceMatrix.calculateBeelineDistanceMatrix(points, Double.POSITIVE_INFINITY, 2);
+        Assert.assertFalse(matrix instanceof SparseFloatMatrix);
+        assertCutoff(BeelineDistanceMatrix.calculateBeelineDistanceMatrix(points, 2), matrix, Double.POSITIVE_INFINITY);
+    }
+
+    private static void assertCutoff(FloatMatrix<String> expected, FloatMatrix<String> actual, double maxDistance) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int from = 0; from < expected.size(); from++) {
+            String fromId = expected.getId(from);
+            for (int to = 0; to < expected.size(); to++) {
+                String toId = expected.getId(to);
+                float distance = expected.get(fromId, toId);
+                float expectedValue = distance <= maxDistance ? distance : Float.POSITIVE_INFINITY;
+                Assert.assertEquals(fromId + " -> " + toId, expectedValue, actual.get(fromId, toId), 1e-3f);
+            }
+        }
+    }
+
+    /**
+     * Creates square zones of 100m x 100m, with the given spacing between the zones' lower left corners along the x-axis.
+     */
+    static ZoneSamplePoints<String> createZonesInRow(int count, double spacing) {
+        PolygonFeatureFactory featureFactory = new PolygonFeatureFactory.Builder().setName("zones").addAttribute("ID", String.class).create();
+        Map<String, SimpleFeature> zones = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String id = Integer.toString(i);
+            double x = i * spacing;
+            Coordinate[] ring = new Coordinate[] {
+                    new Coordinate(x, 0),
+                    new Coordinate(x + 100, 0),
+                    new Coordinate(x + 100, 100),
+                    new Coordinate(x, 100),
+                    new Coordinate(x, 0)
+            };
+            zones.put(id, featureFactory.createPolygon(ring, new Object[] {id}, id));
+        }
+        return ZoneSamplePoints.sample(zones, 3, 1);
+    }
+}
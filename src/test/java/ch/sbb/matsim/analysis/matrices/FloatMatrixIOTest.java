@@ -5,12 +5,16 @@
 package ch.sbb.matsim.analysis.matrices;
 
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 /**
@@ -18,6 +22,9 @@ import java.util.Set;
  */
 public class FloatMatrixIOTest {
 
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
     @Test
     public void testIO() throws IOException {
         Set<String> zoneIds = new HashSet<>();
@@ -56,4 +63,75 @@ public class FloatMatrixIOTest {
         Assert.assertEquals(27.0f, matrix2.get("tres", "dos"), epsilon);
         Assert.assertEquals(64.0f, matrix2.get("tres", "tres"), epsilon);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBinaryIO() throws IOException {
+        Set<String> zoneIds = new HashSet<>();
+        zoneIds.add("un");
+        zoneIds.add("dos");
+        zoneIds.add("tres");
+        FloatMatrix<String> matrix = new FloatMatrix<>(zoneIds, 0.0f);
+
+        matrix.set("un", "un", 2.0f);
+        matrix.set("un", "dos", 3.0f);
+        matrix.set("un", "tres", 4.0f);
+        matrix.set("dos", "un", 4.0f);
+        matrix.set("dos", "dos", 9.0f);
+        matrix.set("dos", "tres", 16.0f);
+        matrix.set("tres", "un", 8.0f);
+        matrix.set("tres", "dos", 27.0f);
+        matrix.set("tres", "tres", Float.POSITIVE_INFINITY);
+
+        String filename = new File(this.tmpFolder.getRoot(), "matrix.fmx").getAbsolutePath();
+        FloatMatrixIO.writeAsBinary(matrix, filename);
+
+        FloatMatrix<String> mapped = FloatMatrixIO.mapBinary(filename, id -> id);
+        Assert.assertEquals(3, mapped.size());
+        for (int i = 0; i < matrix.size(); i++) {
+            Assert.assertEquals(matrix.getId(i), mapped.getId(i));
+        }
+        Assert.assertEquals(2.0f, mapped.get("un", "un"), 0.0f);
+        Assert.assertEquals(16.0f, mapped.get("dos", "tres"), 0.0f);
+        Assert.assertEquals(27.0f, mapped.get("tres", "dos"), 0.0f);
+        Assert.assertEquals(Float.POSITIVE_INFINITY, mapped.get("tres", "tres"), 0.0f);
+
+        // read into a matrix with a different zone order
+        Set<String> reorderedZoneIds = new LinkedHashSet<>();
+        reorderedZoneIds.add("tres");
+        reorderedZoneIds.add("un");
+        reorderedZoneIds.add("dos");
+        FloatMatrix<String> matrix2 = new FloatMatrix<>(reorderedZoneIds, Float.NaN);
+        FloatMatrixIO.readAsBinary(matrix2, filename, id -> id);
+        for (String fromZoneId : zoneIds) {
+            for (String toZoneId : zoneIds) {
+                Assert.assertEquals(matrix.get(fromZoneId, toZoneId), matrix2.get(fromZoneId, toZoneId), 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void testCreateMappedBinary() throws IOException {
+        Set<String> zoneIds = new LinkedHashSet<>();
+        zoneIds.add("un");
+        zoneIds.add("dos");
+        zoneIds.add("tres");
+        String filename = new File(this.tmpFolder.getRoot(), "mapped.fmx").getAbsolutePath();
+
+        MappedFloatMatrix<String> matrix = FloatMatrixIO.createMappedBinary(zoneIds, filename, 1.5f);
+        Assert.assertEquals(filename, matrix.getFilename());
+        Assert.assertEquals(1.5f, matrix.get("dos", "tres"), 0.0f);
+        matrix.set("un", "tres", 4.0f);
+        matrix.setRow(1, new float[] {5.0f, 6.0f, 7.0f});
+        matrix.multiply(2.0f);
+        matrix.flush();
+
+        // the file is a regular binary matrix file, without a separate write step
+        FloatMatrix<String> matrix2 = new FloatMatrix<>(zoneIds, Float.NaN);
+        FloatMatrixIO.readAsBinary(matrix2, filename, id -> id);
+        Assert.assertEquals(3.0f, matrix2.get("un", "un"), 0.0f);
+        Assert.assertEquals(8.0f, matrix2.get("un", "tres"), 0.0f);
+        Assert.assertEquals(10.0f, matrix2.get("dos", "un"), 0.0f);
+        Assert.assertEquals(14.0f, matrix2.get("dos", "tres"), 0.0f);
+        Assert.assertEquals(3.0f, matrix2.get("tres", "dos"), 0.0f);
+    }
+}
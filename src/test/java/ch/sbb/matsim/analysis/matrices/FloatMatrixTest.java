@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * @author mrieser / SBB
+ */
+public class FloatMatrixTest {
+
+    @Test
+    public void testIndexAccess() {
+        Set<String> zoneIds = new HashSet<>();
+        zoneIds.add("un");
+        zoneIds.add("dos");
+        zoneIds.add("tres");
+        FloatMatrix<String> matrix = new FloatMatrix<>(zoneIds, 0.0f);
+
+        Assert.assertEquals(3, matrix.size());
+        Assert.assertEquals(-1, matrix.indexOf("quatro"));
+        int un = matrix.indexOf("un");
+        int dos = matrix.indexOf("dos");
+        int tres = matrix.indexOf("tres");
+        Assert.assertEquals("un", matrix.getId(un));
+        Assert.assertEquals("tres", matrix.getId(tres));
+
+        matrix.set(un, dos, 3.0f);
+        Assert.assertEquals(3.0f, matrix.get("un", "dos"), 0.0f);
+        matrix.add("un", "dos", 2.0f);
+        Assert.assertEquals(5.0f, matrix.get(un, dos), 0.0f);
+
+        float[] row = new float[3];
+        row[un] = 1.0f;
+        row[dos] = 2.0f;
+        row[tres] = 4.0f;
+        matrix.addRow(tres, row);
+        matrix.addRow(tres, row);
+        Assert.assertEquals(2.0f, matrix.get("tres", "un"), 0.0f);
+        Assert.assertEquals(4.0f, matrix.get("tres", "dos"), 0.0f);
+        Assert.assertEquals(8.0f, matrix.get("tres", "tres"), 0.0f);
+
+        FloatMatrix<String>.Row rowView = matrix.getRow(un);
+        Assert.assertEquals(5.0f, rowView.get(dos), 0.0f);
+        rowView.add(tres, 7.0f);
+        Assert.assertEquals(7.0f, matrix.get("un", "tres"), 0.0f);
+
+        float[] copy = new float[3];
+        matrix.getRow(tres, copy);
+        Assert.assertArrayEquals(new float[] {2.0f * row[0], 2.0f * row[1], 2.0f * row[2]}, copy, 0.0f);
+    }
+
+    @Test
+    public void testBulkOperations() {
+        Set<String> zoneIds = new LinkedHashSet<>();
+        zoneIds.add("un");
+        zoneIds.add("dos");
+        Set<String> reversedZoneIds = new LinkedHashSet<>();
+        reversedZoneIds.add("dos");
+        reversedZoneIds.add("un");
+
+        FloatMatrix<String> matrix = new FloatMatrix<>(zoneIds, 1.0f);
+        FloatMatrix<String> sameIndex = new FloatMatrix<>(zoneIds, 0.0f);
+        FloatMatrix<String> otherIndex = new FloatMatrix<>(reversedZoneIds, 0.0f);
+
+        sameIndex.set("un", "dos", 2.0f);
+        otherIndex.set("un", "dos", 3.0f);
+        otherIndex.set("dos", "un", 4.0f);
+
+        matrix.add(sameIndex);
+        matrix.add(otherIndex);
+        Assert.assertEquals(1.0f, matrix.get("un", "un"), 0.0f);
+        Assert.assertEquals(6.0f, matrix.get("un", "dos"), 0.0f);
+        Assert.assertEquals(5.0f, matrix.get("dos", "un"), 0.0f);
+
+        FloatMatrix<String> divisor = new FloatMatrix<>(reversedZoneIds, 2.0f);
+        matrix.divide(divisor);
+        Assert.assertEquals(0.5f, matrix.get("un", "un"), 0.0f);
+        Assert.assertEquals(3.0f, matrix.get("un", "dos"), 0.0f);
+        Assert.assertEquals(2.5f, matrix.get("dos", "un"), 0.0f);
+
+        matrix.multiply(2.0f);
+        Assert.assertEquals(6.0f, matrix.get("un", "dos"), 0.0f);
+    }
+}
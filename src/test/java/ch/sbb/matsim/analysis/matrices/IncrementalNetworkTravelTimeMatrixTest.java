@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import ch.sbb.matsim.analysis.matrices.IncrementalNetworkTravelTimeMatrix.IncrementalNetworkIndicators;
+import ch.sbb.matsim.analysis.matrices.NetworkTravelTimeMatrix.NetworkIndicators;
+import ch.sbb.matsim.routing.graph.Graph;
+import ch.sbb.matsim.routing.graph.TravelTimeTable;
+import com.vividsolutions.jts.geom.Coordinate;
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.utils.gis.PolygonFeatureFactory;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author mrieser / SBB
+ */
+public class IncrementalNetworkTravelTimeMatrixTest {
+
+    private static final String NETWORK_NAME = "car";
+    private static final double[] DEPARTURE_TIMES = {8 * 3600};
+
+    @Test
+    public void testChangedLinkSpeed() {
+        Fixture f = new Fixture();
+        IncrementalNetworkIndicators<String> previous = f.calculateIncremental(null);
+        Assert.assertEquals(2, previous.recalculatedZoneCount);
+
+        // only the trees of zone N use the link, and a slower link cannot result in faster paths for zone S
+        f.network.getLinks().get(Id.create("NN'", Link.class)).setFreespeed(2.0);
+        IncrementalNetworkIndicators<String> incremental = f.calculateIncremental(previous);
+        Assert.assertEquals(1, incremental.recalculatedZoneCount);
+
+        NetworkIndicators<String> full = f.calculateFull();
+        assertEqualMatrices(full.travelTimeMatrix, incremental.travelTimeMatrix);
+        assertEqualMatrices(full.distanceMatrix, incremental.distanceMatrix);
+        Assert.assertTrue("the travel time from N to S should have increased",
+                incremental.travelTimeMatrix.get("N", "S") > previous.travelTimeMatrix.get("N", "S"));
+    }
+
+    @Test
+    public void testRemovedLink() {
+        Fixture f = new Fixture();
+        IncrementalNetworkIndicators<String> previous = f.calculateIncremental(null);
+
+        // the link is not used by any tree, so all rows can be re-used
+        f.network.removeLink(Id.create("HN'", Link.class));
+        IncrementalNetworkIndicators<String> incremental = f.calculateIncremental(previous);
+        Assert.assertEquals(0, incremental.recalculatedZoneCount);
+
+        NetworkIndicators<String> full = f.calculateFull();
+        assertEqualMatrices(full.travelTimeMatrix, incremental.travelTimeMatrix);
+        assertEqualMatrices(full.distanceMatrix, incremental.distanceMatrix);
+    }
+
+    @Test
+    public void testRemovedUsedLink() {
+        Fixture f = new Fixture();
+        IncrementalNetworkIndicators<String> previous = f.calculateIncremental(null);
+
+        // zone S can no longer reach zone N
+        f.network.removeLink(Id.create("S'H", Link.class));
+        IncrementalNetworkIndicators<String> incremental = f.calculateIncremental(previous);
+        Assert.assertEquals(1, incremental.recalculatedZoneCount);
+
+        NetworkIndicators<String> full = f.calculateFull();
+        assertEqualMatrices(full.travelTimeMatrix, incremental.travelTimeMatrix);
+        assertEqualMatrices(full.distanceMatrix, incremental.distanceMatrix);
+    }
+
+    private static void assertEqualMatrices(FloatMatrix<String> expected, FloatMatrix<String> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int from = 0; from < expected.size(); from++) {
+            String fromId = expected.getId(from);
+            for (int to = 0; to < expected.size(); to++) {
+                String toId = expected.getId(to);
+                Assert.assertEquals(fromId + " -> " + toId, expected.get(fromId, toId), actual.get(fromId, toId), 0.0f);
+            }
+        }
+    }
+
+    /**
+     * A hub H with two leaves N and S. Each leaf is reached with a direct link from the hub, and left with a link
+     * to an intermediate node (N', S') and from there back to the hub. The intermediate node N' can also be reached
+     * directly from the hub, but is not part of any shortest path to the leaves. The zones lie to the left of the
+     * direct links, so their points are always snapped to the direct links and thus to the leaves.
+     *
+     * <pre>
+     *        (N)
+     *  +-+    | \
+     *  |N|    |  (N')
+     *  +-+    | /
+     *        (H)
+     *  +-+    | \
+     *  |S|    |  (S')
+     *  +-+    | /
+     *        (S)
+     * </pre>
+     */
+    private static class Fixture {
+        final Network network;
+        final ZoneSamplePoints<String> points;
+
+        Fixture() {
+            this.network = NetworkUtils.createNetwork();
+            Node h = NetworkUtils.createAndAddNode(this.network, Id.create("H", Node.class), new Coord(0, 0));
+            Node n = NetworkUtils.createAndAddNode(this.network, Id.create("N", Node.class), new Coord(0, 1000));
+            Node n2 = NetworkUtils.createAndAddNode(this.network, Id.create("N'", Node.class), new Coord(500, 500));
+            Node s = NetworkUtils.createAndAddNode(this.network, Id.create("S", Node.class), new Coord(0, -1000));
+            Node s2 = NetworkUtils.createAndAddNode(this.network, Id.create("S'", Node.class), new Coord(500, -500));
+            NetworkUtils.createAndAddLink(this.network, Id.create("HN", Link.class), h, n, 1000, 10, 2000, 1);
+            NetworkUtils.createAndAddLink(this.network, Id.create("NN'", Link.class), n, n2, 707, 10, 2000, 1);
+            NetworkUtils.createAndAddLink(this.network, Id.create("N'H", Link.class), n2, h, 707, 10, 2000, 1);
+            NetworkUtils.createAndAddLink(this.network, Id.create("HN'", Link.class), h, n2, 707, 10, 2000, 1);
+            NetworkUtils.createAndAddLink(this.network, Id.create("HS", Link.class), h, s, 1000, 10, 2000, 1);
+            NetworkUtils.createAndAddLink(this.network, Id.create("SS'", Link.class), s, s2, 707, 10, 2000, 1);
+            NetworkUtils.createAndAddLink(this.network, Id.create("S'H", Link.class), s2, h, 707, 10, 2000, 1);
+
+            PolygonFeatureFactory featureFactory = new PolygonFeatureFactory.Builder().setName("zones").addAttribute("ID", String.class).create();
+            Map<String, SimpleFeature> zones = new LinkedHashMap<>();
+            zones.put("N", createZone(featureFactory, "N", -400, 300, -100, 700));
+            zones.put("S", createZone(featureFactory, "S", -400, -700, -100, -300));
+            this.points = ZoneSamplePoints.sample(zones, 3, 1);
+        }
+
+        IncrementalNetworkIndicators<String> calculateIncremental(IncrementalNetworkIndicators<String> previous) {
+            TravelTimeTable tt = TravelTimeTable.createFreespeedTable(new Graph(this.network));
+            if (previous == null) {
+                return IncrementalNetworkTravelTimeMatrix.calculateTravelTimeMatrix(this.network, tt, this.points, NETWORK_NAME, DEPARTURE_TIMES, null, null, null, 2);
+            }
+            return IncrementalNetworkTravelTimeMatrix.calculateTravelTimeMatrix(this.network, tt, this.points, NETWORK_NAME, DEPARTURE_TIMES,
+                    previous.treeSummaries, previous.travelTimeMatrix, previous.distanceMatrix, 2);
+        }
+
+        NetworkIndicators<String> calculateFull() {
+            TravelTimeTable tt = TravelTimeTable.createFreespeedTable(new Graph(this.network));
+            return NetworkTravelTimeMatrix.calculateTravelTimeMatrix(this.network, tt, this.points, NETWORK_NAME, DEPARTURE_TIMES, 2);
+        }
+
+        private static SimpleFeature createZone(PolygonFeatureFactory featureFactory, String id, double minX, double minY, double maxX, double maxY) {
+            Coordinate[] ring = new Coordinate[] {
+                    new Coordinate(minX, minY),
+                    new Coordinate(maxX, minY),
+                    new Coordinate(maxX, maxY),
+                    new Coordinate(minX, maxY),
+                    new Coordinate(minX, minY)
+            };
+            return featureFactory.createPolygon(ring, new Object[] {id}, id);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author mrieser / SBB
+ */
+public class MatrixJobSchedulerTest {
+
+    @Test
+    public void testAllRowsCalculated() {
+        Set<String> zoneIds = createZoneIds(40);
+        FloatMatrix<String> matrix = calculate(zoneIds, zoneIds, 4);
+
+        for (int from = 0; from < matrix.size(); from++) {
+            int pointCount = getPointCount(from);
+            for (int to = 0; to < matrix.size(); to++) {
+                float expected = 0;
+                for (int p = 0; p < pointCount; p++) {
+                    expected += getValue(from, p, to);
+                }
+                Assert.assertEquals("wrong value for " + from + " -> " + to, expected, matrix.get(from, to), 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void testResultsIndependentOfThreads() {
+        Set<String> zoneIds = createZoneIds(40);
+        FloatMatrix<String> matrix1 = calculate(zoneIds, zoneIds, 1);
+        FloatMatrix<String> matrix4 = calculate(zoneIds, zoneIds, 4);
+        FloatMatrix<String> matrix7 = calculate(zoneIds, zoneIds, 7);
+
+        for (int from = 0; from < matrix1.size(); from++) {
+            for (int to = 0; to < matrix1.size(); to++) {
+                Assert.assertEquals(matrix1.get(from, to), matrix4.get(from, to), 0.0f);
+                Assert.assertEquals(matrix1.get(from, to), matrix7.get(from, to), 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void testOnlyOriginZones() {
+        Set<String> zoneIds = createZoneIds(20);
+        List<String> originZoneIds = new ArrayList<>();
+        originZoneIds.add("3");
+        originZoneIds.add("17");
+        FloatMatrix<String> matrix = calculate(zoneIds, originZoneIds, 4);
+
+        for (int from = 0; from < matrix.size(); from++) {
+            boolean isOrigin = originZoneIds.contains(matrix.getId(from));
+            for (int to = 0; to < matrix.size(); to++) {
+                if (isOrigin) {
+                    Assert.assertTrue(matrix.get(from, to) > 0);
+                } else {
+                    Assert.assertEquals(0.0f, matrix.get(from, to), 0.0f);
+                }
+            }
+        }
+    }
+
+    private static FloatMatrix<String> calculate(Set<String> zoneIds, Collection<String> originZoneIds, int numberOfThreads) {
+        FloatMatrix<String> matrix = new FloatMatrix<>(zoneIds, 0.0f);
+        RowPartitionedMatrixWriter<String> writer = new RowPartitionedMatrixWriter<>(matrix);
+        MatrixJobScheduler.calculateRows("test", writer, originZoneIds, new TestCalculator(), numberOfThreads);
+        return matrix;
+    }
+
+    private static Set<String> createZoneIds(int count) {
+        Set<String> zoneIds = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            zoneIds.add(Integer.toString(i));
+        }
+        return zoneIds;
+    }
+
+    /** a few zones have many points, so they are split into one task per point */
+    private static int getPointCount(int zoneIndex) {
+        return zoneIndex % 10 == 0 ? 50 : 1 + zoneIndex % 3;
+    }
+
+    private static float getValue(int fromZoneIndex, int pointIndex, int toZoneIndex) {
+        return 1.0f / (1 + fromZoneIndex) + 0.1f * pointIndex + 0.01f * toZoneIndex;
+    }
+
+    private static class TestCalculator implements MatrixJobScheduler.RowCalculator<String, float[]> {
+
+        @Override
+        public float[] createState() {
+            return new float[1];
+        }
+
+        @Override
+        public int getBufferRowCount() {
+            return 1;
+        }
+
+        @Override
+        public int getPointCount(int fromZoneIndex) {
+            return MatrixJobSchedulerTest.getPointCount(fromZoneIndex);
+        }
+
+        @Override
+        public double estimateCost(int fromZoneIndex) {
+            return getPointCount(fromZoneIndex);
+        }
+
+        @Override
+        public void calculatePoint(float[] state, int fromZoneIndex, int pointIndex, float[][] buffer) {
+            for (int to = 0; to < buffer[0].length; to++) {
+                buffer[0][to] += getValue(fromZoneIndex, pointIndex, to);
+            }
+        }
+
+        @Override
+        public void finishRow(float[] state, int fromZoneIndex, float[][] buffer, RowPartitionedMatrixWriter<String>.RowBuffer rowBuffer) {
+            System.arraycopy(buffer[0], 0, rowBuffer.getRow(0), 0, buffer[0].length);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author mrieser / SBB
+ */
+public class MatrixShardTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testOriginZonesArePartitioned() {
+        Set<String> zoneIds = createZoneIds(50);
+        int shardCount = 3;
+        Set<String> assigned = new LinkedHashSet<>();
+        for (int k = 1; k <= shardCount; k++) {
+            List<String> originZones = new MatrixShard(k, shardCount).getOriginZones(zoneIds);
+            for (String zoneId : originZones) {
+                Assert.assertTrue("zone " + zoneId + " is assigned to multiple shards.", assigned.add(zoneId));
+            }
+        }
+        Assert.assertEquals(zoneIds, assigned);
+    }
+
+    @Test
+    public void testParse() {
+        MatrixShard shard = MatrixShard.parse("2/4");
+        Assert.assertEquals(2, shard.getShardNumber());
+        Assert.assertEquals(4, shard.getShardCount());
+        Assert.assertEquals("2/4", shard.toString());
+
+        try {
+            MatrixShard.parse("5/4");
+            Assert.fail("expected exception for invalid shard number.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testWriteAndMerge() throws IOException {
+        Set<String> zoneIds = createZoneIds(20);
+        FloatMatrix<String> matrix = new FloatMatrix<>(zoneIds, 0.0f);
+        int i = 0;
+        for (String fromZoneId : zoneIds) {
+            for (String toZoneId : zoneIds) {
+                matrix.set(fromZoneId, toZoneId, i++);
+            }
+        }
+
+        String directory = this.tmpFolder.getRoot().getAbsolutePath();
+        int shardCount = 3;
+        Assert.assertFalse(MatrixShard.hasPartialMatrices(directory, "test", shardCount));
+        for (int k = 1; k <= shardCount; k++) {
+            new MatrixShard(k, shardCount).writePartialMatrix(matrix, directory, "test");
+        }
+        Assert.assertTrue(MatrixShard.hasPartialMatrices(directory, "test", shardCount));
+
+        Set<String> mergedZoneIds = MatrixShard.readZoneIds(directory, "test", shardCount, id -> id);
+        Assert.assertEquals(zoneIds, mergedZoneIds);
+        FloatMatrix<String> merged = MatrixShard.mergePartialMatrices(mergedZoneIds, directory, "test", shardCount, id -> id);
+        for (String fromZoneId : zoneIds) {
+            for (String toZoneId : zoneIds) {
+                Assert.assertEquals(matrix.get(fromZoneId, toZoneId), merged.get(fromZoneId, toZoneId), 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void testMergeWithMissingShard() throws IOException {
+        Set<String> zoneIds = createZoneIds(10);
+        FloatMatrix<String> matrix = new FloatMatrix<>(zoneIds, 1.0f);
+        String directory = this.tmpFolder.getRoot().getAbsolutePath();
+        new MatrixShard(1, 2).writePartialMatrix(matrix, directory, "test");
+
+        try {
+            MatrixShard.mergePartialMatrices(zoneIds, directory, "test", 2, id -> id);
+            Assert.fail("expected exception for missing partial file.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static Set<String> createZoneIds(int count) {
+        Set<String> zoneIds = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            zoneIds.add(Integer.toString(100 + i));
+        }
+        return zoneIds;
+    }
+}
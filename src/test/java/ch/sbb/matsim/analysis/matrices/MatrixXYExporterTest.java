@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * @author mrieser / SBB
+ */
+public class MatrixXYExporterTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testWriteCSV() throws IOException {
+        MatrixXYExporter<String> exporter = createExporter();
+        String filename = new File(this.tmpFolder.getRoot(), "xy.csv").getAbsolutePath();
+        exporter.writeCSV(filename, 3);
+        try (InputStream in = new FileInputStream(filename)) {
+            Assert.assertEquals(getExpectedLines(), readLines(in));
+        }
+    }
+
+    @Test
+    public void testWriteGzippedCSV() throws IOException {
+        MatrixXYExporter<String> exporter = createExporter();
+        String filename = new File(this.tmpFolder.getRoot(), "xy.csv.gz").getAbsolutePath();
+        exporter.writeCSV(filename, 3);
+        // the file consists of multiple gzip members, which must be read as one stream
+        try (InputStream in = new GZIPInputStream(new FileInputStream(filename))) {
+            Assert.assertEquals(getExpectedLines(), readLines(in));
+        }
+    }
+
+    @Test
+    public void testWriteMultipleBlocks() throws IOException {
+        int zoneCount = 300;
+        Map<String, Coord> coords = new LinkedHashMap<>();
+        for (int i = 0; i < zoneCount; i++) {
+            coords.put("z" + i, new Coord(i, 2 * i));
+        }
+        FloatMatrix<String> matrix = new FloatMatrix<>(coords.keySet(), 0);
+        for (int from = 0; from < zoneCount; from++) {
+            for (int to = 0; to < zoneCount; to++) {
+                matrix.set(from, to, from * 1000 + to);
+            }
+        }
+        MatrixXYExporter<String> exporter = new MatrixXYExporter<>(coords);
+        exporter.addMatrix("A", matrix);
+        String filename = new File(this.tmpFolder.getRoot(), "xy.csv.gz").getAbsolutePath();
+        exporter.writeCSV(filename, 4);
+
+        try (InputStream in = new GZIPInputStream(new FileInputStream(filename))) {
+            List<String> lines = readLines(in);
+            Assert.assertEquals(1 + zoneCount * zoneCount, lines.size());
+            int lineIndex = 1;
+            for (int from = 0; from < zoneCount; from++) {
+                for (int to = 0; to < zoneCount; to++) {
+                    String expected = "z" + from + ";" + (double) from + ";" + (double) (2 * from) + ";z" + to + ";" + (double) to + ";" + (double) (2 * to) + ";" + (float) (from * 1000 + to);
+                    Assert.assertEquals(expected, lines.get(lineIndex));
+                    lineIndex++;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWriteColumnar() throws IOException {
+        MatrixXYExporter<String> exporter = createExporter();
+        File directory = new File(this.tmpFolder.getRoot(), "xy");
+        exporter.writeColumnar(directory.getAbsolutePath(), 2);
+
+        try (InputStream in = new FileInputStream(new File(directory, MatrixXYExporter.ZONES_FILENAME))) {
+            List<String> zones = readLines(in);
+            Assert.assertEquals("INDEX;ZONE;X;Y", zones.get(0));
+            Assert.assertEquals("0;a;100.0;200.0", zones.get(1));
+            Assert.assertEquals(4, zones.size());
+        }
+        ByteBuffer values = ByteBuffer.wrap(Files.readAllBytes(new File(directory, "B" + MatrixXYExporter.COLUMN_SUFFIX).toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        Assert.assertEquals(9 * 4, values.remaining());
+        for (int from = 0; from < 3; from++) {
+            for (int to = 0; to < 3; to++) {
+                Assert.assertEquals(getValue("B", from, to), values.getFloat(), 0.0f);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingZone() {
+        Map<String, Coord> coords = new LinkedHashMap<>();
+        coords.put("a", new Coord(0, 0));
+        coords.put("x", new Coord(1, 1));
+        Set<String> zoneIds = new LinkedHashSet<>();
+        zoneIds.add("a");
+        new MatrixXYExporter<>(coords).addMatrix("A", new FloatMatrix<>(zoneIds, 0));
+    }
+
+    private static MatrixXYExporter<String> createExporter() {
+        Map<String, Coord> coords = new LinkedHashMap<>();
+        coords.put("a", new Coord(100, 200));
+        coords.put("b", new Coord(150, 250.5));
+        coords.put("c", new Coord(-10, 0));
+
+        // the second matrix has a different zone order and an additional zone
+        Set<String> zoneIds = new LinkedHashSet<>(coords.keySet());
+        Set<String> otherZoneIds = new LinkedHashSet<>();
+        otherZoneIds.add("d");
+        otherZoneIds.add("c");
+        otherZoneIds.add("a");
+        otherZoneIds.add("b");
+        FloatMatrix<String> matrixA = new FloatMatrix<>(zoneIds, 0);
+        FloatMatrix<String> matrixB = new FloatMatrix<>(otherZoneIds, 0);
+        List<String> ids = new ArrayList<>(zoneIds);
+        for (int from = 0; from < 3; from++) {
+            for (int to = 0; to < 3; to++) {
+                matrixA.set(ids.get(from), ids.get(to), getValue("A", from, to));
+                matrixB.set(ids.get(from), ids.get(to), getValue("B", from, to));
+            }
+        }
+
+        MatrixXYExporter<String> exporter = new MatrixXYExporter<>(coords);
+        exporter.addMatrix("A", matrixA);
+        exporter.addMatrix("B", matrixB);
+        return exporter;
+    }
+
+    private static float getValue(String column, int from, int to) {
+        return column.equals("A") ? from * 10 + to + 0.5f : (to == from ? Float.POSITIVE_INFINITY : -from * 100 + to / 4.0f);
+    }
+
+    private static List<String> getExpectedLines() {
+        String[] zones = {"a;100.0;200.0", "b;150.0;250.5", "c;-10.0;0.0"};
+        List<String> lines = new ArrayList<>();
+        lines.add("FROM;FROM_X;FROM_Y;TO;TO_X;TO_Y;A;B");
+        for (int from = 0; from < 3; from++) {
+            for (int to = 0; to < 3; to++) {
+                lines.add(zones[from] + ";" + zones[to] + ";" + getValue("A", from, to) + ";" + getValue("B", from, to));
+            }
+        }
+        return lines;
+    }
+
+    private static List<String> readLines(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        return lines;
+    }
+}
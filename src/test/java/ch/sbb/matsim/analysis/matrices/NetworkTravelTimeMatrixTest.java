@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import ch.sbb.matsim.analysis.matrices.NetworkTravelTimeMatrix.NetworkIndicators;
+import ch.sbb.matsim.routing.graph.Graph;
+import ch.sbb.matsim.routing.graph.TravelTimeTable;
+import com.vividsolutions.jts.geom.Coordinate;
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.utils.gis.PolygonFeatureFactory;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author mrieser / SBB
+ */
+public class NetworkTravelTimeMatrixTest {
+
+    private static final String NETWORK_NAME = "car";
+    private static final double[] DEPARTURE_TIMES = {8 * 3600};
+
+    @Test
+    public void testCutoff_sparse() {
+        Fixture f = new Fixture();
+        // only the diagonal is below the cutoff
+        NetworkIndicators<String> indicators = f.calculate(500);
+        Assert.assertTrue(indicators.travelTimeMatrix instanceof SparseFloatMatrix);
+        Assert.assertTrue(indicators.distanceMatrix instanceof SparseFloatMatrix);
+        assertCutoff(f.calculate(Double.POSITIVE_INFINITY), indicators, 500);
+    }
+
+    @Test
+    public void testCutoff_dense() {
+        Fixture f = new Fixture();
+        // all reachable zone pairs, i.e. more than half of them, are below the cutoff
+        NetworkIndicators<String> indicators = f.calculate(100_000);
+        Assert.assertFalse(indicators.travelTimeMatrix instanceof SparseFloatMatrix);
+        Assert.assertFalse(indicators.distanceMatrix instanceof SparseFloatMatrix);
+        assertCutoff(f.calculate(Double.POSITIVE_INFINITY), indicators, 100_000);
+    }
+
+    @Test
+    public void testNoCutoff() {
+        Fixture f = new Fixture();
+        NetworkIndicators<String> indicators = f.calculate(Double.POSITIVE_INFINITY);
+        Assert.assertFalse(indicators.travelTimeMatrix instanceof SparseFloatMatrix);
+        Assert.assertEquals(0, indicators.travelTimeMatrix.get("3", "3"), 1e-3f);
+        Assert.assertEquals(2000, indicators.travelTimeMatrix.get("3", "5"), 1e-3f);
+        Assert.assertEquals(20000, indicators.distanceMatrix.get("3", "5"), 1e-3f);
+        Assert.assertEquals(Float.POSITIVE_INFINITY, indicators.travelTimeMatrix.get("5", "3"), 0.0f);
+    }
+
+    private static void assertCutoff(NetworkIndicators<String> expected, NetworkIndicators<String> actual, double maxTravelTime) {
+        FloatMatrix<String> expectedTT = expected.travelTimeMatrix;
+        Assert.assertEquals(expectedTT.size(), actual.travelTimeMatrix.size());
+        for (int from = 0; from < expectedTT.size(); from++) {
+            String fromId = expectedTT.getId(from);
+            for (int to = 0; to < expectedTT.size(); to++) {
+                String toId = expectedTT.getId(to);
+                boolean belowCutoff = expectedTT.get(fromId, toId) <= maxTravelTime;
+                float tt = belowCutoff ? expectedTT.get(fromId, toId) : Float.POSITIVE_INFINITY;
+                float dist = belowCutoff ? expected.distanceMatrix.get(fromId, toId) : Float.POSITIVE_INFINITY;
+                Assert.assertEquals(fromId + " -> " + toId, tt, actual.travelTimeMatrix.get(fromId, toId), 1e-3f);
+                Assert.assertEquals(fromId + " -> " + toId, dist, actual.distanceMatrix.get(fromId, toId), 1e-3f);
+            }
+        }
+    }
+
+    /**
+     * A one-way line of nodes 0 to 10, 10 km apart, with a travel time of 1000 seconds per link. Zone i lies left of
+     * node i above the link from node i-1, so all its points are snapped to that link and thus to node i. Zones can
+     * only reach zones with a higher id.
+     *
+     * <pre>
+     *  +-+      +-+             +--+
+     *  |1|      |2|             |10|
+     *  +-+      +-+             +--+
+     * (0)--->(1)--->(2)--> ... --->(10)
+     * </pre>
+     */
+    private static class Fixture {
+        final Network network;
+        final ZoneSamplePoints<String> points;
+
+        Fixture() {
+            this.network = NetworkUtils.createNetwork();
+            PolygonFeatureFactory featureFactory = new PolygonFeatureFactory.Builder().setName("zones").addAttribute("ID", String.class).create();
+            Map<String, SimpleFeature> zones = new LinkedHashMap<>();
+            Node previous = NetworkUtils.createAndAddNode(this.network, Id.create("0", Node.class), new Coord(0, 0));
+            for (int i = 1; i <= 10; i++) {
+                String id = Integer.toString(i);
+                double x = i * 10000;
+                Node node = NetworkUtils.createAndAddNode(this.network, Id.create(id, Node.class), new Coord(x, 0));
+                NetworkUtils.createAndAddLink(this.network, Id.create(previous.getId() + "_" + id, Link.class), previous, node, 10000, 10, 2000, 1);
+                previous = node;
+                zones.put(id, createZone(featureFactory, id, x - 100, 50, x - 50, 100));
+            }
+            this.points = ZoneSamplePoints.sample(zones, 3, 1);
+        }
+
+        NetworkIndicators<String> calculate(double maxTravelTime) {
+            TravelTimeTable tt = TravelTimeTable.createFreespeedTable(new Graph(this.network));
+            return NetworkTravelTimeMatrix.calculateTravelTimeMatrix(this.network, tt, this.points, NETWORK_NAME, DEPARTURE_TIMES, this.points.getZoneIds(), null, false, maxTravelTime, 2);
+        }
+
+        private static SimpleFeature createZone(PolygonFeatureFactory featureFactory, String id, double minX, double minY, double maxX, double maxY) {
+            Coordinate[] ring = new Coordinate[] {
+                    new Coordinate(minX, minY),
+                    new Coordinate(maxX, minY),
+                    new Coordinate(maxX, maxY),
+                    new Coordinate(minX, maxY),
+                    new Coordinate(minX, minY)
+            };
+            return featureFactory.createPolygon(ring, new Object[] {id}, id);
+        }
+    }
+}
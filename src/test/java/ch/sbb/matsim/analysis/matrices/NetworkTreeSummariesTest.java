@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import ch.sbb.matsim.routing.graph.Graph;
+import ch.sbb.matsim.routing.graph.TravelTimeTable;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * @author mrieser / SBB
+ */
+public class NetworkTreeSummariesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteRead() throws IOException {
+        Network network = createNetwork();
+        Graph graph = new Graph(network);
+        TravelTimeTable tt = TravelTimeTable.createFreespeedTable(graph);
+        double[] times = {8 * 3600, 9 * 3600};
+        NetworkTreeSummaries<String> summaries = NetworkTreeSummaries.create(tt, times);
+        summaries.setUsedLinks("A", new int[] {0, 1, 2});
+        summaries.setUsedLinks("B", new int[] {});
+        summaries.setUsedLinks("C", new int[] {2});
+
+        String filename = new File(this.folder.getRoot(), "summaries.bin").getAbsolutePath();
+        summaries.write(filename);
+        NetworkTreeSummaries<String> summaries2 = NetworkTreeSummaries.read(filename, id -> id);
+
+        Assert.assertTrue(summaries.isCompatible(summaries2));
+        Assert.assertEquals(summaries.getLinkCount(), summaries2.getLinkCount());
+        for (int i = 0; i < summaries.getLinkCount(); i++) {
+            Assert.assertEquals(summaries.getLinkId(i), summaries2.getLinkId(i));
+            Assert.assertEquals(summaries.getLinkFingerprint(i), summaries2.getLinkFingerprint(i));
+        }
+        Assert.assertArrayEquals(new int[] {0, 1, 2}, summaries2.getUsedLinks("A"));
+        Assert.assertArrayEquals(new int[] {}, summaries2.getUsedLinks("B"));
+        Assert.assertArrayEquals(new int[] {2}, summaries2.getUsedLinks("C"));
+        Assert.assertNull(summaries2.getUsedLinks("D"));
+
+        Assert.assertFalse(summaries.isCompatible(NetworkTreeSummaries.create(tt, new double[] {8 * 3600})));
+    }
+
+    @Test
+    public void testFingerprint() {
+        Network network = createNetwork();
+        Graph graph = new Graph(network);
+        TravelTimeTable tt = TravelTimeTable.createFreespeedTable(graph);
+        NetworkTreeSummaries<String> summaries = NetworkTreeSummaries.create(tt, new double[] {8 * 3600});
+
+        Link link = network.getLinks().get(Id.create("23", Link.class));
+        link.setFreespeed(5.0);
+        Graph graph2 = new Graph(network);
+        NetworkTreeSummaries<String> summaries2 = NetworkTreeSummaries.create(TravelTimeTable.createFreespeedTable(graph2), new double[] {8 * 3600});
+
+        for (int i = 0; i < summaries.getLinkCount(); i++) {
+            String linkId = summaries.getLinkId(i);
+            Assert.assertEquals(linkId, summaries2.getLinkId(i));
+            if (linkId.equals("23")) {
+                Assert.assertNotEquals(summaries.getLinkFingerprint(i), summaries2.getLinkFingerprint(i));
+            } else {
+                Assert.assertEquals(summaries.getLinkFingerprint(i), summaries2.getLinkFingerprint(i));
+            }
+        }
+    }
+
+    private static Network createNetwork() {
+        Network network = NetworkUtils.createNetwork();
+        Node node1 = NetworkUtils.createAndAddNode(network, Id.create(1, Node.class), new Coord(0, 0));
+        Node node2 = NetworkUtils.createAndAddNode(network, Id.create(2, Node.class), new Coord(1000, 0));
+        Node node3 = NetworkUtils.createAndAddNode(network, Id.create(3, Node.class), new Coord(0, 500));
+        NetworkUtils.createAndAddLink(network, Id.create(12, Link.class), node1, node2, 1000, 10, 2000, 1);
+        NetworkUtils.createAndAddLink(network, Id.create(23, Link.class), node2, node3, 100, 10, 2000, 1);
+        NetworkUtils.createAndAddLink(network, Id.create(31, Link.class), node3, node1, 500, 5, 2000, 1);
+        return network;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * @author mrieser / SBB
+ */
+public class RowPartitionedMatrixWriterTest {
+
+    @Test
+    public void testClaimAndPublish() {
+        Set<String> zoneIds = new LinkedHashSet<>();
+        zoneIds.add("un");
+        zoneIds.add("dos");
+        FloatMatrix<String> matrix1 = new FloatMatrix<>(zoneIds, 0.0f);
+        FloatMatrix<String> matrix2 = new FloatMatrix<>(zoneIds, 0.0f);
+
+        RowPartitionedMatrixWriter<String> writer = new RowPartitionedMatrixWriter<>(matrix1, matrix2);
+        RowPartitionedMatrixWriter<String>.RowBuffer buffer1 = writer.createRowBuffer();
+        RowPartitionedMatrixWriter<String>.RowBuffer buffer2 = writer.createRowBuffer();
+
+        buffer1.claim(writer.indexOf("dos"));
+        Assert.assertTrue(writer.isClaimed(1));
+        Assert.assertFalse(writer.isClaimed(0));
+        try {
+            buffer2.claim(writer.indexOf("dos"));
+            Assert.fail("expected IllegalStateException, row was already claimed.");
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            buffer1.claim(writer.indexOf("un"));
+            Assert.fail("expected IllegalStateException, previous row was not published.");
+        } catch (IllegalStateException expected) {
+        }
+
+        buffer1.getRow(0)[0] = 3.0f;
+        buffer1.getRow(0)[0] += 1.0f;
+        buffer1.getRow(1)[1] = 5.0f;
+        Assert.assertEquals(0.0f, matrix1.get("dos", "un"), 0.0f);
+        buffer1.publish();
+
+        Assert.assertEquals(4.0f, matrix1.get("dos", "un"), 0.0f);
+        Assert.assertEquals(0.0f, matrix1.get("dos", "dos"), 0.0f);
+        Assert.assertEquals(5.0f, matrix2.get("dos", "dos"), 0.0f);
+        Assert.assertEquals(0.0f, matrix2.get("un", "dos"), 0.0f);
+
+        buffer1.claim(writer.indexOf("un"));
+        Assert.assertEquals("buffer must be reset after claiming a row", 0.0f, buffer1.getRow(0)[0], 0.0f);
+    }
+
+    @Test
+    public void testConcurrentAccumulator() throws InterruptedException {
+        Set<String> zoneIds = new LinkedHashSet<>();
+        zoneIds.add("un");
+        zoneIds.add("dos");
+        FloatMatrix<String> matrix = new FloatMatrix<>(zoneIds, 1.0f);
+        ConcurrentFloatMatrixAccumulator<String> accumulator = new ConcurrentFloatMatrixAccumulator<>(matrix);
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    accumulator.add(0, 1, 1.0f);
+                    accumulator.add(i % 2, 0, 0.5f);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(40000.0f, accumulator.get(0, 1), 0.0f);
+        accumulator.addTo(matrix);
+        Assert.assertEquals(40001.0f, matrix.get("un", "dos"), 0.0f);
+        Assert.assertEquals(10001.0f, matrix.get("un", "un"), 0.0f);
+        Assert.assertEquals(10001.0f, matrix.get("dos", "un"), 0.0f);
+        Assert.assertEquals(1.0f, matrix.get("dos", "dos"), 0.0f);
+    }
+}
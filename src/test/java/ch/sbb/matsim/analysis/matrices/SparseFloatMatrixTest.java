@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * @author mrieser / SBB
+ */
+public class SparseFloatMatrixTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testSetAndGet() {
+        Set<String> zoneIds = createZoneIds(100);
+        SparseFloatMatrix<String> matrix = new SparseFloatMatrix<>(zoneIds, Float.POSITIVE_INFINITY);
+        Assert.assertEquals(Float.POSITIVE_INFINITY, matrix.get("7", "3"), 0.0f);
+
+        Assert.assertEquals(Float.POSITIVE_INFINITY, matrix.set("7", "3", 12.5f), 0.0f);
+        matrix.set("7", "90", 2.0f);
+        matrix.set("7", "1", 1.0f);
+        Assert.assertEquals(12.5f, matrix.get("7", "3"), 0.0f);
+        Assert.assertEquals(2.0f, matrix.get("7", "90"), 0.0f);
+        Assert.assertEquals(1.0f, matrix.get("7", "1"), 0.0f);
+        Assert.assertEquals(Float.POSITIVE_INFINITY, matrix.get("7", "2"), 0.0f);
+        Assert.assertEquals(Float.POSITIVE_INFINITY, matrix.get("8", "3"), 0.0f);
+
+        Assert.assertEquals(13.0f, matrix.add("7", "3", 0.5f), 0.0f);
+        Assert.assertEquals(13.0f, matrix.set("7", "3", Float.POSITIVE_INFINITY), 0.0f);
+        Assert.assertEquals(Float.POSITIVE_INFINITY, matrix.get("7", "3"), 0.0f);
+        Assert.assertEquals(2.0f / 10000, matrix.getFillRate(), 1e-9);
+    }
+
+    @Test
+    public void testRowsBecomeDense() {
+        Set<String> zoneIds = createZoneIds(40);
+        SparseFloatMatrix<String> matrix = new SparseFloatMatrix<>(zoneIds, 0.0f);
+        FloatMatrix<String> expected = new FloatMatrix<>(zoneIds, 0.0f);
+        // fill the cells in descending order, so values are inserted in front of existing ones
+        for (int to = 39; to >= 0; to -= 2) {
+            matrix.set(3, to, to + 0.5f);
+            expected.set(3, to, to + 0.5f);
+        }
+        assertEqualMatrices(expected, matrix);
+        Assert.assertEquals(40.0 / 1600, matrix.getFillRate(), 1e-9);
+
+        float[] row = new float[40];
+        Arrays.fill(row, 1.0f);
+        matrix.addRow(3, row);
+        expected.addRow(3, row);
+        matrix.addRow(5, row);
+        expected.addRow(5, row);
+        assertEqualMatrices(expected, matrix);
+    }
+
+    @Test
+    public void testSetRowAndMultiply() {
+        Set<String> zoneIds = createZoneIds(20);
+        SparseFloatMatrix<String> matrix = new SparseFloatMatrix<>(zoneIds, Float.POSITIVE_INFINITY);
+        FloatMatrix<String> expected = new FloatMatrix<>(zoneIds, Float.POSITIVE_INFINITY);
+        float[] sparseRow = new float[20];
+        Arrays.fill(sparseRow, Float.POSITIVE_INFINITY);
+        sparseRow[4] = 4.0f;
+        sparseRow[11] = 11.0f;
+        float[] denseRow = new float[20];
+        for (int i = 0; i < denseRow.length; i++) {
+            denseRow[i] = i;
+        }
+        matrix.setRow(1, sparseRow);
+        expected.setRow(1, sparseRow);
+        matrix.setRow(2, denseRow);
+        expected.setRow(2, denseRow);
+        assertEqualMatrices(expected, matrix);
+
+        matrix.multiply(0.5f);
+        expected.multiply(0.5f);
+        assertEqualMatrices(expected, matrix);
+
+        float[] emptyRow = new float[20];
+        Arrays.fill(emptyRow, Float.POSITIVE_INFINITY);
+        matrix.setRow(2, emptyRow);
+        Assert.assertEquals(2.0 / 400, matrix.getFillRate(), 1e-9);
+    }
+
+    @Test
+    public void testReadBinarySelectsMatrixType() throws IOException {
+        Set<String> zoneIds = createZoneIds(30);
+        FloatMatrix<String> sparse = new FloatMatrix<>(zoneIds, Float.POSITIVE_INFINITY);
+        FloatMatrix<String> dense = new FloatMatrix<>(zoneIds, 0.0f);
+        for (int from = 0; from < 30; from++) {
+            sparse.set(from, from, 0.0f);
+            for (int to = 0; to < 30; to++) {
+                dense.set(from, to, from * 100 + to);
+            }
+        }
+        String sparseFilename = new File(this.tmpFolder.getRoot(), "sparse.fmx").getAbsolutePath();
+        String denseFilename = new File(this.tmpFolder.getRoot(), "dense.fmx").getAbsolutePath();
+        FloatMatrixIO.writeAsBinary(sparse, sparseFilename);
+        FloatMatrixIO.writeAsBinary(dense, denseFilename);
+
+        FloatMatrix<String> sparse2 = FloatMatrixIO.readBinary(sparseFilename, id -> id, Float.POSITIVE_INFINITY);
+        Assert.assertTrue(sparse2 instanceof SparseFloatMatrix);
+        assertEqualMatrices(sparse, sparse2);
+
+        FloatMatrix<String> dense2 = FloatMatrixIO.readBinary(denseFilename, id -> id, Float.POSITIVE_INFINITY);
+        Assert.assertFalse(dense2 instanceof SparseFloatMatrix);
+        assertEqualMatrices(dense, dense2);
+    }
+
+    @Test
+    public void testSelectRepresentation() {
+        Set<String> zoneIds = createZoneIds(20);
+        SparseFloatMatrix<String> matrix = new SparseFloatMatrix<>(zoneIds, Float.POSITIVE_INFINITY);
+        for (int from = 0; from < 20; from++) {
+            matrix.set(from, from, from);
+            matrix.set(from, (from + 1) % 20, 1.0f);
+        }
+        // 10% of the cells are set
+        Assert.assertSame(matrix, SparseFloatMatrix.selectRepresentation(matrix));
+
+        // each row has 5 cells set (25%) and stays sparse, but the whole matrix has a fill rate of 30%
+        for (int from = 0; from < 20; from++) {
+            matrix.set(from, (from + 2) % 20, 2.0f);
+            matrix.set(from, (from + 3) % 20, 3.0f);
+            matrix.set(from, (from + 4) % 20, 4.0f);
+        }
+        for (int from = 0; from < 10; from++) {
+            matrix.set(from, (from + 5) % 20, 5.0f);
+        }
+        FloatMatrix<String> dense = SparseFloatMatrix.selectRepresentation(matrix);
+        Assert.assertFalse(dense instanceof SparseFloatMatrix);
+        assertEqualMatrices(matrix, dense);
+
+        FloatMatrix<String> other = new FloatMatrix<>(zoneIds, 0.0f);
+        Assert.assertSame(other, SparseFloatMatrix.selectRepresentation(other));
+    }
+
+    private static void assertEqualMatrices(FloatMatrix<String> expected, FloatMatrix<String> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        float[] row = new float[actual.size()];
+        for (int from = 0; from < expected.size(); from++) {
+            actual.getRow(from, row);
+            for (int to = 0; to < expected.size(); to++) {
+                Assert.assertEquals("wrong value for " + from + " -> " + to, expected.get(from, to), actual.get(from, to), 0.0f);
+                Assert.assertEquals("wrong row value for " + from + " -> " + to, expected.get(from, to), row[to], 0.0f);
+            }
+        }
+    }
+
+    private static Set<String> createZoneIds(int count) {
+        Set<String> zoneIds = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            zoneIds.add(Integer.toString(i));
+        }
+        return zoneIds;
+    }
+}
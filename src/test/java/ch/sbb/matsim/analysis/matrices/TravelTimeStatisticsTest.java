@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author mrieser / SBB
+ */
+public class TravelTimeStatisticsTest {
+
+    @Test
+    public void testMeanAndQuantiles() {
+        Random random = new Random(20180404L);
+        double[] values = new double[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1200 + 300 * random.nextGaussian();
+        }
+
+        TravelTimeStatistics stats = new TravelTimeStatistics(1);
+        float[][] buffer = new float[1 + TravelTimeStatistics.ROW_COUNT][3];
+        for (double value : values) {
+            stats.add(buffer, 2, value, 1.0);
+        }
+
+        float[][] rows = new float[4][3];
+        stats.writeResults(buffer, 2, rows[0], rows[1], rows[2], rows[3]);
+        Assert.assertEquals(calcStdDev(values), rows[0][2], 0.5);
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        Assert.assertEquals(sorted[1000], rows[1][2], 0.02 * sorted[1000]);
+        Assert.assertEquals(sorted[5000], rows[2][2], 0.02 * sorted[5000]);
+        Assert.assertEquals(sorted[9000], rows[3][2], 0.02 * sorted[9000]);
+
+        // no values for the other zones
+        stats.writeResults(buffer, 0, rows[0], rows[1], rows[2], rows[3]);
+        Assert.assertEquals(Float.POSITIVE_INFINITY, rows[0][0], 0.0f);
+        Assert.assertEquals(Float.POSITIVE_INFINITY, rows[2][0], 0.0f);
+    }
+
+    @Test
+    public void testMergeEqualsSinglePass() {
+        double[] values = {300, 420, 455, 900, 1200, 1210, 1800, 3600};
+        TravelTimeStatistics stats = new TravelTimeStatistics(0);
+
+        float[][] single = new float[TravelTimeStatistics.ROW_COUNT][1];
+        for (double value : values) {
+            stats.add(single, 0, value, 2.0);
+        }
+
+        float[][] merged = new float[TravelTimeStatistics.ROW_COUNT][1];
+        float[][] part = new float[TravelTimeStatistics.ROW_COUNT][1];
+        for (int i = 0; i < values.length; i++) {
+            stats.add(part, 0, values[i], 2.0);
+            if (i % 3 == 2 || i == values.length - 1) {
+                stats.merge(merged, part);
+                for (float[] row : part) {
+                    Arrays.fill(row, 0.0f);
+                }
+            }
+        }
+
+        float[][] singleRows = new float[4][1];
+        float[][] mergedRows = new float[4][1];
+        stats.writeResults(single, 0, singleRows[0], singleRows[1], singleRows[2], singleRows[3]);
+        stats.writeResults(merged, 0, mergedRows[0], mergedRows[1], mergedRows[2], mergedRows[3]);
+        Assert.assertEquals(calcStdDev(values), singleRows[0][0], 0.01);
+        for (int r = 0; r < 4; r++) {
+            Assert.assertEquals(singleRows[r][0], mergedRows[r][0], 0.01);
+        }
+    }
+
+    @Test
+    public void testInfiniteValuesIgnored() {
+        TravelTimeStatistics stats = new TravelTimeStatistics(0);
+        float[][] buffer = new float[TravelTimeStatistics.ROW_COUNT][1];
+        stats.add(buffer, 0, 600, 1.0);
+        stats.add(buffer, 0, Double.POSITIVE_INFINITY, 1.0);
+        stats.add(buffer, 0, 600, 1.0);
+
+        float[][] rows = new float[4][1];
+        stats.writeResults(buffer, 0, rows[0], rows[1], rows[2], rows[3]);
+        Assert.assertEquals(0.0f, rows[0][0], 0.0f);
+        Assert.assertEquals(600.0f, rows[1][0], 0.0f);
+        Assert.assertEquals(600.0f, rows[2][0], 0.0f);
+        Assert.assertEquals(600.0f, rows[3][0], 0.0f);
+    }
+
+    @Test
+    public void testManyValues() {
+        // the updates of the mean in the second half are too small for the precision of a float
+        TravelTimeStatistics stats = new TravelTimeStatistics(0);
+        float[][] buffer = new float[TravelTimeStatistics.ROW_COUNT][1];
+        for (int i = 0; i < 10_000_000; i++) {
+            stats.add(buffer, 0, i < 5_000_000 ? 3600 : 3700, 1.0);
+        }
+
+        float[][] rows = new float[4][1];
+        stats.writeResults(buffer, 0, rows[0], rows[1], rows[2], rows[3]);
+        Assert.assertEquals(50.0f, rows[0][0], 0.01f);
+    }
+
+    private static double calcStdDev(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        double mean = sum / values.length;
+        double sumSquares = 0;
+        for (double value : values) {
+            sumSquares += (value - mean) * (value - mean);
+        }
+        return Math.sqrt(sumSquares / values.length);
+    }
+}
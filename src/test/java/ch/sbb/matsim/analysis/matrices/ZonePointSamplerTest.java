@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+
+import java.util.Random;
+
+/**
+ * @author mrieser / SBB
+ */
+public class ZonePointSamplerTest {
+
+    private final static GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+    @Test
+    public void testPointsInsideZone() throws ParseException {
+        // an L-shaped zone, the upper right quarter of the envelope is not part of the zone
+        Geometry geom = new WKTReader().read("POLYGON ((0 0, 1000 0, 1000 500, 500 500, 500 1000, 0 1000, 0 0))");
+        ZonePointSampler.PreparedZone zone = new ZonePointSampler.PreparedZone(geom);
+
+        Random r = new Random(20180404L);
+        Coord[] points = zone.sample(1000, r);
+        int lowerLeftCount = 0;
+        for (Coord c : points) {
+            Assert.assertTrue(c.toString(), geom.intersects(GEOMETRY_FACTORY.createPoint(new Coordinate(c.getX(), c.getY()))));
+            if (c.getX() < 500 && c.getY() < 500) {
+                lowerLeftCount++;
+            }
+        }
+        // the lower left quarter makes up a third of the zone's area
+        Assert.assertTrue("unexpected distribution: " + lowerLeftCount, lowerLeftCount > 280 && lowerLeftCount < 390);
+    }
+
+    @Test
+    public void testThinDiagonalZone() throws ParseException {
+        // a thin zone along the diagonal of its envelope, where envelope-based rejection sampling would be very slow
+        Geometry geom = new WKTReader().read("POLYGON ((0 0, 10 0, 10000 9990, 10000 10000, 9990 10000, 0 10, 0 0))");
+        ZonePointSampler.PreparedZone zone = new ZonePointSampler.PreparedZone(geom);
+
+        Coord[] points = zone.sample(200, new Random(20180404L));
+        for (Coord c : points) {
+            Assert.assertTrue(c.toString(), geom.intersects(GEOMETRY_FACTORY.createPoint(new Coordinate(c.getX(), c.getY()))));
+        }
+    }
+
+    @Test
+    public void testReproducible() throws ParseException {
+        Geometry geom = new WKTReader().read("POLYGON ((0 0, 1000 0, 1000 500, 500 500, 500 1000, 0 1000, 0 0))");
+
+        Coord[] points1 = new ZonePointSampler.PreparedZone(geom).sample(10, new Random(42));
+        Coord[] points2 = new ZonePointSampler.PreparedZone(geom).sample(10, new Random(42));
+        for (int i = 0; i < points1.length; i++) {
+            Assert.assertEquals(points1[i].getX(), points2[i].getX(), 0.0);
+            Assert.assertEquals(points1[i].getY(), points2[i].getY(), 0.0);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.analysis.matrices;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.utils.gis.PolygonFeatureFactory;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author mrieser / SBB
+ */
+public class ZoneSamplePointsTest {
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Test
+    public void testWriteRead() throws IOException {
+        Fixture f = new Fixture();
+        ZoneSamplePoints<String> points = ZoneSamplePoints.sample(f.zones, 5, 2);
+        Assert.assertTrue(points.snapToNetwork("car", f.network));
+
+        String filename = new File(this.tmpDir.getRoot(), "zonePoints.csv").getAbsolutePath();
+        points.write(filename);
+        ZoneSamplePoints<String> points2 = ZoneSamplePoints.read(filename, id -> id);
+
+        Assert.assertEquals(5, points2.getNumberOfPointsPerZone());
+        Assert.assertArrayEquals(points.getZoneIds().toArray(), points2.getZoneIds().toArray());
+        for (String zoneId : points.getZoneIds()) {
+            Coord[] coords = points.getPoints(zoneId);
+            Coord[] coords2 = points2.getPoints(zoneId);
+            Assert.assertEquals(coords.length, coords2.length);
+            for (int i = 0; i < coords.length; i++) {
+                Assert.assertEquals(coords[i].getX(), coords2[i].getX(), 0.0);
+                Assert.assertEquals(coords[i].getY(), coords2[i].getY(), 0.0);
+            }
+            Assert.assertArrayEquals(points.getNodeIds("car", zoneId), points2.getNodeIds("car", zoneId));
+        }
+        Assert.assertTrue(points2.isCompatible(f.zones, 5));
+        Assert.assertFalse("the network fingerprint should be read from the file", points2.snapToNetwork("car", f.network));
+    }
+
+    @Test
+    public void testIsCompatible() throws IOException {
+        Fixture f = new Fixture();
+        ZoneSamplePoints<String> points = ZoneSamplePoints.sample(f.zones, 5, 2);
+        String filename = new File(this.tmpDir.getRoot(), "zonePoints.csv").getAbsolutePath();
+        points.write(filename);
+        ZoneSamplePoints<String> points2 = ZoneSamplePoints.read(filename, id -> id);
+
+        Assert.assertTrue(points.isCompatible(f.zones, 5));
+        Assert.assertTrue(points2.isCompatible(f.zones, 5));
+
+        Assert.assertFalse(points.isCompatible(f.zones, 4));
+        Assert.assertFalse(points2.isCompatible(f.zones, 4));
+
+        Map<String, SimpleFeature> lessZones = new LinkedHashMap<>(f.zones);
+        lessZones.remove("B");
+        Assert.assertFalse(points.isCompatible(lessZones, 5));
+        Assert.assertFalse(points2.isCompatible(lessZones, 5));
+
+        Map<String, SimpleFeature> otherZones = new LinkedHashMap<>(f.zones);
+        otherZones.put("C", f.createZone("C", 0, 0, 500, 500));
+        Assert.assertFalse(points.isCompatible(otherZones, 5));
+        Assert.assertFalse(points2.isCompatible(otherZones, 5));
+
+        // same zone ids, but zone B is smaller
+        Map<String, SimpleFeature> changedZones = new LinkedHashMap<>(f.zones);
+        changedZones.put("B", f.createZone("B", 500, 0, 900, 1000));
+        Assert.assertFalse(points.isCompatible(changedZones, 5));
+        Assert.assertFalse(points2.isCompatible(changedZones, 5));
+    }
+
+    @Test
+    public void testSnapToNetwork_reuse() {
+        Fixture f = new Fixture();
+        ZoneSamplePoints<String> points = ZoneSamplePoints.sample(f.zones, 5, 2);
+        Assert.assertTrue(points.snapToNetwork("car", f.network));
+        Assert.assertFalse(points.snapToNetwork("car", f.network));
+
+        // attributes not relevant for the snapping do not matter
+        f.network.getLinks().get(Id.create("21", Link.class)).setFreespeed(5.0);
+        Assert.assertFalse(points.snapToNetwork("car", f.network));
+
+        // another network name is snapped separately
+        Assert.assertTrue(points.snapToNetwork("ride", f.network));
+    }
+
+    @Test
+    public void testSnapToNetwork_changedNetwork() {
+        Fixture f = new Fixture();
+        ZoneSamplePoints<String> points = ZoneSamplePoints.sample(f.zones, 20, 2);
+        Assert.assertTrue(points.snapToNetwork("car", f.network));
+        Id<Node> node3 = Id.create("3", Node.class);
+        Assert.assertTrue(containsNode(points, node3));
+
+        // all nodes still exist, but the points near the removed link must be snapped to other links
+        Link link43 = f.network.removeLink(Id.create("43", Link.class));
+        Assert.assertTrue(points.snapToNetwork("car", f.network));
+        Assert.assertFalse(containsNode(points, node3));
+        Assert.assertFalse(points.snapToNetwork("car", f.network));
+
+        f.network.addLink(link43);
+        Assert.assertTrue(points.snapToNetwork("car", f.network));
+        Assert.assertTrue(containsNode(points, node3));
+
+        // a link far away from all points changes the network, but not the nodes
+        Node node5 = NetworkUtils.createAndAddNode(f.network, Id.create("5", Node.class), new Coord(5000, 5000));
+        NetworkUtils.createAndAddLink(f.network, Id.create("35", Link.class), f.network.getNodes().get(node3), node5, 5000, 10, 2000, 1);
+        Assert.assertFalse(points.snapToNetwork("car", f.network));
+    }
+
+    private static boolean containsNode(ZoneSamplePoints<String> points, Id<Node> nodeId) {
+        for (String zoneId : points.getZoneIds()) {
+            for (Id<Node> id : points.getNodeIds("car", zoneId)) {
+                if (id.equals(nodeId)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The points are snapped with a LinkQuadTree instead of {@link NetworkUtils#getNearestLink(Network, Coord)}.
+     * Both return the same link as long as the nearest link is connected to the nearest node and the point is on the
+     * same side of all links connected to that node, as in this network.
+     */
+    @Test
+    public void testSnapToNetwork_sameAsNearestLink() {
+        Fixture f = new Fixture();
+        ZoneSamplePoints<String> points = ZoneSamplePoints.sample(f.zones, 50, 2);
+        points.snapToNetwork("car", f.network);
+        for (String zoneId : points.getZoneIds()) {
+            Coord[] coords = points.getPoints(zoneId);
+            Id<Node>[] nodeIds = points.getNodeIds("car", zoneId);
+            for (int i = 0; i < coords.length; i++) {
+                Id<Node> expected = NetworkUtils.getNearestLink(f.network, coords[i]).getToNode().getId();
+                Assert.assertEquals(coords[i].toString(), expected, nodeIds[i]);
+            }
+        }
+    }
+
+    /**
+     * A square with one-way links running clockwise around it, and two zones covering the left and right half of the square.
+     *
+     * <pre>
+     * (4)---43--->(3)
+     *  ^    |      |
+     *  |    |      |
+     * 14  A | B   32
+     *  |    |      |
+     *  |    |      v
+     * (1)<--21----(2)
+     * </pre>
+     */
+    private static class Fixture {
+        final Network network;
+        final Map<String, SimpleFeature> zones = new LinkedHashMap<>();
+        private final PolygonFeatureFactory featureFactory = new PolygonFeatureFactory.Builder().setName("zones").addAttribute("ID", String.class).create();
+
+        Fixture() {
+            this.network = NetworkUtils.createNetwork();
+            Node node1 = NetworkUtils.createAndAddNode(this.network, Id.create("1", Node.class), new Coord(0, 0));
+            Node node2 = NetworkUtils.createAndAddNode(this.network, Id.create("2", Node.class), new Coord(1000, 0));
+            Node node3 = NetworkUtils.createAndAddNode(this.network, Id.create("3", Node.class), new Coord(1000, 1000));
+            Node node4 = NetworkUtils.createAndAddNode(this.network, Id.create("4", Node.class), new Coord(0, 1000));
+            NetworkUtils.createAndAddLink(this.network, Id.create("14", Link.class), node1, node4, 1000, 10, 2000, 1);
+            NetworkUtils.createAndAddLink(this.network, Id.create("43", Link.class), node4, node3, 1000, 10, 2000, 1);
+            NetworkUtils.createAndAddLink(this.network, Id.create("32", Link.class), node3, node2, 1000, 10, 2000, 1);
+            NetworkUtils.createAndAddLink(this.network, Id.create("21", Link.class), node2, node1, 1000, 10, 2000, 1);
+
+            this.zones.put("A", createZone("A", 0, 0, 500, 1000));
+            this.zones.put("B", createZone("B", 500, 0, 1000, 1000));
+        }
+
+        SimpleFeature createZone(String id, double minX, double minY, double maxX, double maxY) {
+            Coordinate[] ring = new Coordinate[] {
+                    new Coordinate(minX, minY),
+                    new Coordinate(maxX, minY),
+                    new Coordinate(maxX, maxY),
+                    new Coordinate(minX, maxY),
+                    new Coordinate(minX, minY)
+            };
+            return this.featureFactory.createPolygon(ring, new Object[] {id}, id);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.csv;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+/**
+ * @author mrieser / SBB
+ */
+public class AsyncTextWriterTest {
+
+    @Test
+    public void testTextWrittenInOrder() throws IOException {
+        StringWriter target = new StringWriter();
+        StringBuilder expected = new StringBuilder();
+        AsyncTextWriter writer = new AsyncTextWriter(target, "test");
+        for (int i = 0; i < 1000; i++) {
+            String chunk = "chunk " + i + "\n";
+            writer.write(chunk);
+            expected.append(chunk);
+        }
+        writer.write("abcdef".toCharArray(), 1, 3);
+        expected.append("bcd");
+        writer.close();
+        Assert.assertEquals(expected.toString(), target.toString());
+    }
+
+    @Test
+    public void testFailureIsReported() {
+        Writer failing = new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        AsyncTextWriter writer = new AsyncTextWriter(failing, "test");
+        try {
+            for (int i = 0; i < 100; i++) {
+                writer.write("text");
+            }
+            writer.close();
+            Assert.fail("expected an exception");
+        } catch (IOException e) {
+            Assert.assertEquals("disk full", e.getCause().getMessage());
+        }
+    }
+}
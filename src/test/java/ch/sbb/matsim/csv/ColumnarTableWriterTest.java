@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.csv;
+
+import ch.sbb.matsim.csv.ColumnarTableWriter.ColumnType;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author mrieser / SBB
+ */
+public class ColumnarTableWriterTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testWriteColumns() throws IOException {
+        File directory = new File(this.tmpFolder.getRoot(), "trips");
+        String[] columns = {"trip_id", "mode", "distance", "departure_time", "stucked"};
+        ColumnType[] types = {ColumnType.INT32, ColumnType.DICTIONARY, ColumnType.FLOAT64, ColumnType.INT32, ColumnType.BOOLEAN};
+        try (ColumnarTableWriter writer = new ColumnarTableWriter(directory.getAbsolutePath(), columns, types)) {
+            writer.add(1).add("pt").add(1234.5678, 3).add("3600").add(false);
+            writer.endRow();
+            writer.add(2).add("car").add(500.0).add("").add(Boolean.TRUE);
+            writer.endRow();
+            writer.add(3).add("walk");
+            writer.discardRow();
+            // missing columns at the end
+            writer.add(4).add("pt");
+            writer.endRow();
+            writer.add(5).add(null).add(-0.5).add(7L).add(true);
+            writer.endRow();
+            Assert.assertEquals(4, writer.getRowCount());
+        }
+
+        List<String> schema = Files.readAllLines(new File(directory, ColumnarTableWriter.SCHEMA_FILENAME).toPath(), StandardCharsets.UTF_8);
+        Assert.assertEquals(Arrays.asList("COLUMN;TYPE", "trip_id;int32", "mode;dictionary", "distance;float64", "departure_time;int32", "stucked;bool"), schema);
+
+        ByteBuffer ids = read(directory, "trip_id.i32");
+        Assert.assertEquals(16, ids.remaining());
+        Assert.assertEquals(1, ids.getInt());
+        Assert.assertEquals(2, ids.getInt());
+        Assert.assertEquals(4, ids.getInt());
+        Assert.assertEquals(5, ids.getInt());
+
+        List<String> modes = Files.readAllLines(new File(directory, "mode.dict.txt").toPath(), StandardCharsets.UTF_8);
+        Assert.assertEquals(Arrays.asList("pt", "car"), modes);
+        ByteBuffer modeCodes = read(directory, "mode.i32");
+        Assert.assertEquals(0, modeCodes.getInt());
+        Assert.assertEquals(1, modeCodes.getInt());
+        Assert.assertEquals(0, modeCodes.getInt());
+        Assert.assertEquals(-1, modeCodes.getInt());
+
+        ByteBuffer distances = read(directory, "distance.f64");
+        Assert.assertEquals(32, distances.remaining());
+        Assert.assertEquals(1234.5678, distances.getDouble(), 0.0);
+        Assert.assertEquals(500.0, distances.getDouble(), 0.0);
+        Assert.assertTrue(Double.isNaN(distances.getDouble()));
+        Assert.assertEquals(-0.5, distances.getDouble(), 0.0);
+
+        ByteBuffer departures = read(directory, "departure_time.i32");
+        Assert.assertEquals(3600, departures.getInt());
+        Assert.assertEquals(ColumnarTableWriter.MISSING_INT, departures.getInt());
+        Assert.assertEquals(ColumnarTableWriter.MISSING_INT, departures.getInt());
+        Assert.assertEquals(7, departures.getInt());
+
+        ByteBuffer stucked = read(directory, "stucked.i8");
+        Assert.assertEquals(4, stucked.remaining());
+        Assert.assertEquals(0, stucked.get());
+        Assert.assertEquals(1, stucked.get());
+        Assert.assertEquals(-1, stucked.get());
+        Assert.assertEquals(1, stucked.get());
+    }
+
+    @Test
+    public void testManyRows() throws IOException {
+        File directory = new File(this.tmpFolder.getRoot(), "many");
+        int rows = 100000;
+        try (ColumnarTableWriter writer = new ColumnarTableWriter(directory.getAbsolutePath(), new String[] {"id", "x"}, new ColumnType[] {ColumnType.INT32, ColumnType.FLOAT64})) {
+            for (int i = 0; i < rows; i++) {
+                writer.add(i).add(i * 0.5);
+                writer.endRow();
+            }
+        }
+        ByteBuffer ids = read(directory, "id.i32");
+        ByteBuffer xs = read(directory, "x.f64");
+        Assert.assertEquals(rows * 4, ids.remaining());
+        Assert.assertEquals(rows * 8, xs.remaining());
+        for (int i = 0; i < rows; i++) {
+            Assert.assertEquals(i, ids.getInt());
+            Assert.assertEquals(i * 0.5, xs.getDouble(), 0.0);
+        }
+    }
+
+    @Test
+    public void testStringColumn() throws IOException {
+        File directory = new File(this.tmpFolder.getRoot(), "persons");
+        try (ColumnarTableWriter writer = new ColumnarTableWriter(directory.getAbsolutePath(), new String[] {"person_id", "age"}, new ColumnType[] {ColumnType.STRING, ColumnType.INT32})) {
+            writer.add("p1").add(42);
+            writer.endRow();
+            writer.add(null).add(7);
+            writer.endRow();
+            writer.add(12345L).add(3);
+            writer.endRow();
+            writer.add("Zürich_1");
+            writer.endRow();
+            writer.add("discarded");
+            writer.discardRow();
+        }
+
+        List<String> schema = Files.readAllLines(new File(directory, ColumnarTableWriter.SCHEMA_FILENAME).toPath(), StandardCharsets.UTF_8);
+        Assert.assertEquals(Arrays.asList("COLUMN;TYPE", "person_id;string", "age;int32"), schema);
+        List<String> ids = Files.readAllLines(new File(directory, "person_id.txt").toPath(), StandardCharsets.UTF_8);
+        Assert.assertEquals(Arrays.asList("p1", "", "12345", "Zürich_1"), ids);
+        Assert.assertFalse(new File(directory, "person_id.dict.txt").exists());
+        ByteBuffer ages = read(directory, "age.i32");
+        Assert.assertEquals(16, ages.remaining());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStringWithLineBreak() throws IOException {
+        File directory = new File(this.tmpFolder.getRoot(), "invalid");
+        try (ColumnarTableWriter writer = new ColumnarTableWriter(directory.getAbsolutePath(), new String[] {"id"}, new ColumnType[] {ColumnType.STRING})) {
+            writer.add("a\nb");
+            writer.endRow();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIncompatibleValue() throws IOException {
+        File directory = new File(this.tmpFolder.getRoot(), "invalid");
+        try (ColumnarTableWriter writer = new ColumnarTableWriter(directory.getAbsolutePath(), new String[] {"id"}, new ColumnType[] {ColumnType.INT32})) {
+            writer.add(1.5);
+        }
+    }
+
+    private static ByteBuffer read(File directory, String filename) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(new File(directory, filename).toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.csv;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * @author mrieser / SBB
+ */
+public class RowFormatterTest {
+
+    @Test
+    public void testRowsLikeStringFormat() throws IOException {
+        StringWriter writer = new StringWriter();
+        RowFormatter rows = new RowFormatter(writer, '\t', 16);
+        rows.add(42).add("abc").add((Object) null).add(-7L).add(true).add(Boolean.FALSE).add(1.5, 3).add(-0.25);
+        rows.endRow();
+        rows.add("");
+        rows.endRow();
+        rows.close();
+
+        String expected = String.format("%d\t%s\t%s\t%d\t%b\t%b\t%.3f\t%f\n%s\n", 42, "abc", null, -7L, true, Boolean.FALSE, 1.5, -0.25, "");
+        Assert.assertEquals(expected, writer.toString());
+    }
+
+    @Test
+    public void testDiscardRow() throws IOException {
+        StringWriter writer = new StringWriter();
+        RowFormatter rows = new RowFormatter(writer, ';');
+        rows.add(1).add(2);
+        rows.endRow();
+        rows.add(3);
+        rows.discardRow();
+        rows.add(4).add(5);
+        rows.endRow();
+        rows.add(6);
+        rows.close();
+        Assert.assertEquals("1;2\n4;5\n", writer.toString());
+    }
+
+    @Test
+    public void testDoublesLikeStringFormat() throws IOException {
+        Random random = new Random(20181018L);
+        double[] specialValues = {0.0, -0.0, 0.0005, -0.0005, 0.0004999, 0.0015, 2.5e-7, -4e-7, 1.0005, 123456.7895,
+                2600000.5, 1199999.9999995, 0.125, 1e11, 1e12, 1e15, -1e20, Double.MAX_VALUE, Double.MIN_VALUE,
+                Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (double value : specialValues) {
+            assertFormatted(value);
+        }
+        for (int i = 0; i < 100000; i++) {
+            assertFormatted((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(16) - 6));
+            // values with few digits are often close to rounding ties
+            assertFormatted(random.nextInt(10000000) / 2000.0 - 2000);
+            assertFormatted(random.nextInt(10000000) / 2e6);
+        }
+    }
+
+    @Test
+    public void testOtherLocale() throws IOException {
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        try {
+            Locale.setDefault(Locale.Category.FORMAT, Locale.GERMANY);
+            assertFormatted(1234.5678);
+            assertFormatted(-0.0001);
+            Locale.setDefault(Locale.Category.FORMAT, Locale.forLanguageTag("ar-EG-u-nu-arab"));
+            assertFormatted(1234.5678);
+            StringWriter writer = new StringWriter();
+            RowFormatter rows = new RowFormatter(writer, '\t');
+            rows.add(1234).add(-5L);
+            rows.endRow();
+            rows.close();
+            Assert.assertEquals(String.format("%d\t%d\n", 1234, -5L), writer.toString());
+        } finally {
+            Locale.setDefault(Locale.Category.FORMAT, locale);
+        }
+    }
+
+    private static void assertFormatted(double value) throws IOException {
+        StringWriter writer = new StringWriter();
+        RowFormatter rows = new RowFormatter(writer, '\t');
+        rows.add(value).add(value, 3).add(value, 1).add(value, 0);
+        rows.endRow();
+        rows.close();
+        Assert.assertEquals(String.format("%f\t%.3f\t%.1f\t%.0f\n", value, value, value, value), writer.toString());
+    }
+}
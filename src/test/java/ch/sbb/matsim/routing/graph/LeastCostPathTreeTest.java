@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.routing.graph;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.costcalculators.OnlyTimeDependentTravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
+
+/**
+ * @author mrieser / SBB
+ */
+public class LeastCostPathTreeTest {
+
+    @Test
+    public void testCalculate() {
+        Fixture f = new Fixture();
+        Graph graph = new Graph(f.network);
+        TravelTime tt = new FreeSpeedTravelTime();
+        assertTree(f, graph, new LeastCostPathTree(graph, tt, new OnlyTimeDependentTravelDisutility(tt)));
+    }
+
+    @Test
+    public void testCalculate_travelTimeTable() {
+        Fixture f = new Fixture();
+        Graph graph = new Graph(f.network);
+        TravelTimeTable ttTable = TravelTimeTable.createFreespeedTable(graph);
+        assertTree(f, graph, new LeastCostPathTree(ttTable));
+    }
+
+    @Test
+    public void testCalculate_stopCriterion() {
+        Fixture f = new Fixture();
+        Graph graph = new Graph(f.network);
+        LeastCostPathTree tree = new LeastCostPathTree(TravelTimeTable.createFreespeedTable(graph));
+
+        int node1 = graph.getNodeIndex(f.node1);
+        int node3 = graph.getNodeIndex(f.node3);
+        int node4 = graph.getNodeIndex(f.node4);
+        int[] settledCount = {0};
+        tree.calculate(node1, 0, (nodeIndex, arrivalTime, travelCost, distance, departureTime) -> {
+            settledCount[0]++;
+            return nodeIndex == node3;
+        });
+
+        Assert.assertEquals(100, tree.getTime(node3), 1e-7);
+        Assert.assertEquals(500, tree.getDistance(node3), 1e-7);
+        Assert.assertTrue("node 4 should not be settled.", settledCount[0] < 4);
+
+        tree.calculate(node1, 0, null);
+        Assert.assertEquals(125, tree.getTime(node4), 1e-7);
+    }
+
+    private void assertTree(Fixture f, Graph graph, LeastCostPathTree tree) {
+        int node1 = graph.getNodeIndex(f.node1);
+        int node2 = graph.getNodeIndex(f.node2);
+        int node3 = graph.getNodeIndex(f.node3);
+        int node4 = graph.getNodeIndex(f.node4);
+        int node5 = graph.getNodeIndex(f.node5);
+
+        double startTime = 8 * 3600;
+        tree.calculate(node1, startTime);
+
+        Assert.assertEquals(0.0, tree.getCost(node1), 1e-7);
+        Assert.assertEquals(startTime, tree.getTime(node1), 1e-7);
+        Assert.assertEquals(0.0, tree.getDistance(node1), 1e-7);
+        Assert.assertEquals(-1, tree.getComingFrom(node1));
+
+        Assert.assertEquals(startTime + 100, tree.getTime(node2), 1e-7);
+        Assert.assertEquals(1000, tree.getDistance(node2), 1e-7);
+        Assert.assertEquals(node1, tree.getComingFrom(node2));
+
+        Assert.assertEquals(startTime + 100, tree.getTime(node3), 1e-7);
+        Assert.assertEquals(500, tree.getDistance(node3), 1e-7);
+        Assert.assertEquals(node1, tree.getComingFrom(node3));
+
+        // the longer, but faster route via node 3 must be taken
+        Assert.assertEquals(125, tree.getCost(node4), 1e-7);
+        Assert.assertEquals(startTime + 125, tree.getTime(node4), 1e-7);
+        Assert.assertEquals(1000, tree.getDistance(node4), 1e-7);
+        Assert.assertEquals(node3, tree.getComingFrom(node4));
+        int link34 = tree.getComingFromLink(node4);
+        Assert.assertEquals(node3, graph.getFromNode(link34));
+        Assert.assertEquals(node4, graph.getToNode(link34));
+        Assert.assertEquals(-1, tree.getComingFromLink(node1));
+
+        Assert.assertEquals(Double.POSITIVE_INFINITY, tree.getCost(node5), 0.0);
+        Assert.assertEquals(Double.POSITIVE_INFINITY, tree.getTime(node5), 0.0);
+        Assert.assertEquals(-1, tree.getComingFrom(node5));
+
+        // re-use the tree, data from the previous calculation must not be visible anymore
+        tree.calculate(node5, startTime);
+        Assert.assertEquals(0.0, tree.getCost(node5), 1e-7);
+        Assert.assertEquals(startTime + 10, tree.getTime(node1), 1e-7);
+        Assert.assertEquals(startTime + 135, tree.getTime(node4), 1e-7);
+        Assert.assertEquals(1100, tree.getDistance(node4), 1e-7);
+        Assert.assertEquals(node5, tree.getComingFrom(node1));
+    }
+
+    private static class Fixture {
+        final Network network;
+        final Node node1;
+        final Node node2;
+        final Node node3;
+        final Node node4;
+        final Node node5;
+
+        Fixture() {
+            this.network = NetworkUtils.createNetwork();
+            this.node1 = NetworkUtils.createAndAddNode(this.network, Id.create(1, Node.class), new Coord(0, 0));
+            this.node2 = NetworkUtils.createAndAddNode(this.network, Id.create(2, Node.class), new Coord(1000, 0));
+            this.node3 = NetworkUtils.createAndAddNode(this.network, Id.create(3, Node.class), new Coord(0, 500));
+            this.node4 = NetworkUtils.createAndAddNode(this.network, Id.create(4, Node.class), new Coord(1000, 500));
+            this.node5 = NetworkUtils.createAndAddNode(this.network, Id.create(5, Node.class), new Coord(-100, 0));
+
+            NetworkUtils.createAndAddLink(this.network, Id.create(12, Link.class), this.node1, this.node2, 1000, 10, 2000, 1);
+            NetworkUtils.createAndAddLink(this.network, Id.create(13, Link.class), this.node1, this.node3, 500, 5, 2000, 1);
+            NetworkUtils.createAndAddLink(this.network, Id.create(23, Link.class), this.node2, this.node3, 100, 10, 2000, 1);
+            NetworkUtils.createAndAddLink(this.network, Id.create(24, Link.class), this.node2, this.node4, 1000, 10, 2000, 1);
+            NetworkUtils.createAndAddLink(this.network, Id.create(34, Link.class), this.node3, this.node4, 500, 20, 2000, 1);
+            NetworkUtils.createAndAddLink(this.network, Id.create(51, Link.class), this.node5, this.node1, 100, 10, 2000, 1);
+        }
+    }
+}